@@ -0,0 +1,90 @@
+package au.edu.rmit.bdm;
+
+import au.edu.rmit.bdm.Torch.base.model.TrajEntry;
+import au.edu.rmit.bdm.Torch.queryEngine.Engine;
+import au.edu.rmit.bdm.Torch.queryEngine.query.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Multithreaded throughput check for one shared Engine.
+ * All threads run the mixed top-k / path / strict path / range workload over the queries in
+ * data/res/raw/query.txt for the given number of rounds, and every round must return the same
+ * trajectory ids as the single-threaded run; otherwise the check fails with an exception.
+ *
+ * Usage: ConcurrentQueryBenchmark [baseDir=Torch_Porto_test] [threads=available processors] [rounds=20]
+ */
+public class ConcurrentQueryBenchmark {
+
+    private static Logger logger = LoggerFactory.getLogger(ConcurrentQueryBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        String baseDir = args.length > 0 ? args[0] : "Torch_Porto_test";
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Engine engine = Engine.getBuilder().baseDir(baseDir).build();
+        List<List<TrajEntry>> queries = Test.read();
+
+        // single-threaded run as reference
+        List<List<String>> expected = new ArrayList<>(Collections.nCopies(queries.size() * 4, null));
+        long t0 = System.currentTimeMillis();
+        for (int i = 0; i < queries.size(); i++)
+            runMixedQueries(engine, queries.get(i), expected, i * 4);
+        long singleMs = Math.max(1, System.currentTimeMillis() - t0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        AtomicInteger mismatch = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        t0 = System.currentTimeMillis();
+        try {
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(pool.submit(() -> {
+                    List<List<String>> actual = new ArrayList<>(Collections.nCopies(expected.size(), null));
+                    for (int r = 0; r < rounds; r++) {
+                        for (int i = 0; i < queries.size(); i++)
+                            runMixedQueries(engine, queries.get(i), actual, i * 4);
+                        if (!expected.equals(actual))
+                            mismatch.incrementAndGet();
+                    }
+                }));
+            }
+            // a query that throws fails the check as well
+            for (Future<?> f : futures)
+                f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        long concurrentMs = Math.max(1, System.currentTimeMillis() - t0);
+
+        long totalQueries = (long) threadCount * rounds * queries.size() * 4;
+        logger.info("single thread: {} queries/s", queries.size() * 4 * 1000L / singleMs);
+        logger.info("{} threads: {} queries/s, mismatched rounds: {}", threadCount, totalQueries * 1000L / concurrentMs, mismatch.get());
+
+        if (mismatch.get() > 0)
+            throw new IllegalStateException(mismatch.get() + " concurrent rounds returned different trajectories than the single-threaded run");
+    }
+
+    private static void runMixedQueries(Engine engine, List<TrajEntry> query, List<List<String>> ids, int offset) {
+        ids.set(offset, resultIds(engine.findTopK(query, 3)));
+        ids.set(offset + 1, resultIds(engine.findOnPath(query)));
+        ids.set(offset + 2, resultIds(engine.findOnStrictPath(query)));
+        TrajEntry first = query.get(0);
+        ids.set(offset + 3, resultIds(engine.findInRange(first.getLat(), first.getLng(), 50)));
+    }
+
+    private static List<String> resultIds(QueryResult result) {
+        if (result.resolvedRet == null)
+            return null;
+        return result.resolvedRet.stream().map(t -> t.id).collect(Collectors.toList());
+    }
+}
@@ -7,6 +7,13 @@ import java.util.List;
 
 public interface PathQueryIndex extends Index{
 
-    List<String> findByPath(List<LightEdge> path);
-    List<String> findByStrictPath(List<LightEdge> path);
+    /**
+     * @return ids of trajectories passing any edge of the path, in ascending order
+     */
+    int[] findByPath(List<LightEdge> path);
+
+    /**
+     * @return ids of trajectories passing every edge of the path, in ascending order
+     */
+    int[] findByStrictPath(List<LightEdge> path);
 }
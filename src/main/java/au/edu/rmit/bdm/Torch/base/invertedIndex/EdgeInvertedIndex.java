@@ -49,43 +49,67 @@ public class EdgeInvertedIndex extends InvertedIndex implements PathQueryIndex,
     }
 
     @Override
-    public List<String> findByPath(List<LightEdge> path) {
+    public int[] findByPath(List<LightEdge> path) {
 
-        Set<String> ret = new HashSet<>();
-        for (LightEdge edge : path) {
-            List<String> l = getKeys(edge.id);
-            if (l != null) {
-                ret.addAll(l);
-            }
+        int total = 0;
+        int[][] lists = new int[path.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = getTrajIds(path.get(i).id);
+            total += lists[i].length;
+        }
+
+        // union of the sorted inverted lists
+        int[] all = new int[total];
+        int n = 0;
+        for (int[] l : lists) {
+            System.arraycopy(l, 0, all, n, l.length);
+            n += l.length;
         }
-        return new ArrayList<>(ret);
+        Arrays.sort(all);
+        return distinct(all);
     }
 
     @Override
-    public List<String> findByStrictPath(List<LightEdge> edges) {
+    public int[] findByStrictPath(List<LightEdge> edges) {
 
         logger.info("start find trajectories on the strict path");
 
-        //key is trajectory id, value is number of different query.txt edges
-        Map<String, Integer> map = new HashMap<>();
+        if (edges.isEmpty()) return new int[0];
 
+        // intersect the inverted lists, starting from the shortest one
+        LightEdge shortest = edges.get(0);
+        for (LightEdge edge : edges)
+            if (size(edge.id) < size(shortest.id)) shortest = edge;
+
+        int[] ret = getTrajIds(shortest.id);
         for (LightEdge edge : edges) {
-            List<String> l = getKeys(edge.id);
-            if (l != null) {
-                for (String trajId : l) {
-                    map.merge(trajId, 1, (a, b) -> a + b);
-                }
-            }
+            if (ret.length == 0) break;
+            if (edge.id == shortest.id) continue;
+            ret = intersect(ret, getTrajIds(edge.id));
         }
+        return ret;
+    }
+
+    private static int[] distinct(int[] sorted) {
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[n++] = sorted[i];
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
 
-        List<String> ret = new ArrayList<>();
-        for (Map.Entry<String, Integer> entry : map.entrySet()) {
-            if (entry.getValue() >= edges.size()) {
-                ret.add(entry.getKey());
+    private static int[] intersect(int[] a, int[] b) {
+        int[] ret = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                ret[n++] = a[i];
+                i++;
+                j++;
             }
         }
-
-        return new ArrayList<>(ret);
+        return Arrays.copyOf(ret, n);
     }
 
     /**
@@ -103,27 +127,39 @@ public class EdgeInvertedIndex extends InvertedIndex implements PathQueryIndex,
 
         // 1. compute upper bound for each candidate trajectory
 
-        // key for trajectory id, value for its upper bound
-        Map<String, Double> candidateUpperBound = new HashMap<>();
-        // key for trajectory id, value for the list of edges overlapped with the query.txt edge.
-        Map<String, List<LightEdge>> candidates = new HashMap<>();
-
-        for (LightEdge queryEdge : edgeQuery) {
-
-            List<Pair> trajPosMap = getPairs(queryEdge.id);
-            if (trajPosMap == null) continue;
-
-            //key for trajectory hash, value for position
-            for (Pair pair : trajPosMap) {
-
-                String trajId = String.valueOf(pair.trajid);
-                //calculate upper bound for each trajectory
-                candidateUpperBound.merge(trajId, queryEdge.length, (a, b) -> b + a);
-                //re-construct every trajectory, need to reorder in the next steps
-                List<LightEdge> candidateEdges = candidates.computeIfAbsent(trajId, key -> new ArrayList<>());
-                candidateEdges.add(new LightEdge(queryEdge.id, queryEdge.length, pair.pos));
+        // every (trajectory id, query edge, position) pair found in the inverted lists of the query edges
+        Postings[] lists = new Postings[edgeQuery.size()];
+        int total = 0;
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = getPostings(edgeQuery.get(i).id);
+            if (lists[i] != null) total += lists[i].trajIds.length;
+        }
+        int[] queryEdgeIdx = new int[total];
+        int[] posis = new int[total];
+        // trajectory id in the high 32 bits, pair number in the low 32 bits, so sorting groups the pairs by trajectory
+        long[] order = new long[total];
+        int n = 0;
+        for (int i = 0; i < lists.length; i++) {
+            if (lists[i] == null) continue;
+            for (int j = 0; j < lists[i].trajIds.length; j++, n++) {
+                queryEdgeIdx[n] = i;
+                posis[n] = lists[i].posis[j];
+                order[n] = ((long) lists[i].trajIds[j] << 32) | n;
             }
         }
+        Arrays.sort(order);
+
+        // one candidate per trajectory: its pairs are order[candidateStart[c], candidateStart[c + 1])
+        int[] candidateStart = new int[total + 1];
+        double[] candidateUpperBound = new double[total];
+        int candidateCount = 0;
+        for (int i = 0; i < total; i++) {
+            if (i == 0 || (order[i] >>> 32) != (order[i - 1] >>> 32))
+                candidateStart[candidateCount++] = i;
+            //calculate upper bound for each trajectory
+            candidateUpperBound[candidateCount - 1] += edgeQuery.get(queryEdgeIdx[(int) order[i]]).length;
+        }
+        candidateStart[candidateCount] = total;
 
         // 2. prune candidates.
         // compute exact score from highest upper bound trajectory to lowest,
@@ -132,9 +168,9 @@ public class EdgeInvertedIndex extends InvertedIndex implements PathQueryIndex,
 
         List<String> retList = new ArrayList<>();
 
-        // key for trajectory id, value for its upper bound
-        PriorityQueue<Map.Entry<String, Double>> upperBoundRank = new PriorityQueue<>((e1, e2) -> e2.getValue().compareTo(e1.getValue()));
-        upperBoundRank.addAll(candidateUpperBound.entrySet());
+        Integer[] upperBoundRank = new Integer[candidateCount];
+        for (int c = 0; c < candidateCount; c++) upperBoundRank[c] = c;
+        Arrays.sort(upperBoundRank, (c1, c2) -> Double.compare(candidateUpperBound[c2], candidateUpperBound[c1]));
 
         // key for trajectory id, value for its exact score
         PriorityQueue<Map.Entry<String, Double>> topKHeap = new PriorityQueue<>(Map.Entry.comparingByValue());
@@ -150,20 +186,25 @@ public class EdgeInvertedIndex extends InvertedIndex implements PathQueryIndex,
             restDistance[i] = restDistance[i + 1] + edgeQuery.get(i + 1).length;
         }
 
-        while (!upperBoundRank.isEmpty()) {
-            Map.Entry<String, Double> entry = upperBoundRank.poll();           //key-trajId, value-upper bound
-            if (!resolver.meetTimeConstrain(entry.getKey())) continue;
+        for (int c : upperBoundRank) {
+            String trajId = String.valueOf(order[candidateStart[c]] >>> 32);
+            if (!resolver.meetTimeConstrain(trajId)) continue;
 
             if (topKHeap.size() >= k &&
-                    bestKth > entry.getValue()) break; //early termination
-
-            List<LightEdge> candidate = candidates.get(entry.getKey());
+                    bestKth > candidateUpperBound[c]) break; //early termination
+
+            //re-construct the trajectory from the overlapped edges, ordered by position
+            List<LightEdge> candidate = new ArrayList<>(candidateStart[c + 1] - candidateStart[c]);
+            for (int i = candidateStart[c]; i < candidateStart[c + 1]; i++) {
+                int pair = (int) order[i];
+                LightEdge queryEdge = edgeQuery.get(queryEdgeIdx[pair]);
+                candidate.add(new LightEdge(queryEdge.id, queryEdge.length, posis[pair]));
+            }
             candidate.sort(Comparator.comparingInt(e -> e.position));
 
             double exactValue = lors(edgeQuery, candidate, Integer.MAX_VALUE, restDistance, bestKth);
 
-            entry.setValue(exactValue);
-            topKHeap.add(entry);
+            topKHeap.add(new AbstractMap.SimpleEntry<>(trajId, exactValue));
             if (topKHeap.size() > k) topKHeap.poll();
 
             bestKth = topKHeap.peek().getValue();
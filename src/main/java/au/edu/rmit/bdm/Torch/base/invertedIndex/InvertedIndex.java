@@ -10,6 +10,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 import static au.edu.rmit.bdm.Torch.base.Torch.SEPARATOR_1;
@@ -22,9 +27,37 @@ public abstract class InvertedIndex implements Index {
 
     HashMap<Integer, Map<String, Integer>> index = new HashMap<>();
 
-    HashMap<Integer, CompressedPairs> compressedIndex = new HashMap<>();
-    IntegratedIntCompressor sortedIntCodec = new IntegratedIntCompressor();
-    IntCompressor unsortedIntCodec = new IntCompressor();
+    /**
+     * The postings are stored in a binary file that is memory mapped on build( no line parsing).
+     *
+     * file layout( all ints are big endian):
+     *   header:    MAGIC, VERSION, number of keys
+     *   directory: for each key in ascending order, (key, number of pairs, compressed trajectory id length, compressed position length)
+     *   postings:  for each key in directory order, the compressed trajectory ids followed by the compressed positions
+     *
+     * trajectory ids of a key are sorted and compressed by IntegratedIntCompressor( delta + PFOR),
+     * positions are compressed by IntCompressor( PFOR).
+     * The postings area is addressed by int offset, so a single file can hold up to 2GB.
+     */
+    static final String BINARY_SUFFIX = "_postings.bin";
+    static final int MAGIC = 0x544F5249;
+    static final int VERSION = 1;
+    private static final int HEADER_INTS = 3;
+    private static final int DIRECTORY_INTS = 4;
+    private static final int[] EMPTY = new int[0];
+
+    // directory, sorted by key. The compressed positions of key i start at postingStart[i] + trajIdLen[i]
+    private int[] keys = EMPTY;
+    private int[] pairCount = EMPTY;
+    private int[] postingStart = EMPTY;
+    private int[] trajIdLen = EMPTY;
+    private int[] posLen = EMPTY;
+    // mapped postings area( or a heap buffer when built from the legacy text files), only read through duplicates
+    private IntBuffer postings = IntBuffer.wrap(EMPTY);
+
+    // the codecs are not documented as thread-safe, each query thread decodes with its own instances
+    ThreadLocal<IntegratedIntCompressor> sortedIntCodec = ThreadLocal.withInitial(IntegratedIntCompressor::new);
+    ThreadLocal<IntCompressor> unsortedIntCodec = ThreadLocal.withInitial(IntCompressor::new);
 
     protected InvertedIndex(FileSetting setting){
         this.setting = setting;
@@ -86,87 +119,120 @@ public abstract class InvertedIndex implements Index {
         }
     }
 
+    /**
+     * write inverted indexes to disk in the binary format described at {@link #BINARY_SUFFIX}
+     * @param path URI to save the indexes
+     */
     public final void saveCompressed(String path){
         ensureExistence(path);
 
-        try (BufferedWriter idBufWriter = new BufferedWriter((new FileWriter(path + "_id.compressed")));
-             BufferedWriter trajBufWriter = new BufferedWriter((new FileWriter(path + "_trajId.compressed")));
-             BufferedWriter posBufWriter = new BufferedWriter((new FileWriter(path+ "_pos.compressed")))) {
-
-            for (Map.Entry<Integer, Map<String, Integer>> entry : index.entrySet()) {
-
-                // write id
-                idBufWriter.write(String.valueOf(entry.getKey()));
-
-                // sort inverted list
-                List<Pair> pairs = new ArrayList<>(entry.getValue().size());
-                for(Map.Entry<String, Integer> entry1 : entry.getValue().entrySet())
-                    pairs.add(new Pair(entry1));
-                pairs.sort(Comparator.comparingInt(p -> p.trajid));
-
-                // compress
-                int pairSize = pairs.size();
-                int[] trajId = new int[pairSize];
-                int[] pos = new int[pairSize];
-                for (int i = 0; i < pairSize; i++){
-                    trajId[i] = pairs.get(i).trajid;
-                    pos[i] = pairs.get(i).pos;
-                }
-
-                int[] compressedTrajID = sortedIntCodec.compress(trajId);
-                int[] compressedPos = unsortedIntCodec.compress(pos);
+        List<Integer> sortedKeys = new ArrayList<>(index.keySet());
+        Collections.sort(sortedKeys);
+        int keyCount = sortedKeys.size();
+        int[] counts = new int[keyCount];
+        int[][] compressedTrajIds = new int[keyCount][];
+        int[][] compressedPosis = new int[keyCount][];
+
+        for (int i = 0; i < keyCount; i++) {
+
+            // sort inverted list
+            Map<String, Integer> list = index.get(sortedKeys.get(i));
+            List<Pair> pairs = new ArrayList<>(list.size());
+            for(Map.Entry<String, Integer> entry : list.entrySet())
+                pairs.add(new Pair(entry));
+            pairs.sort(Comparator.comparingInt(p -> p.trajid));
+
+            // compress
+            int pairSize = pairs.size();
+            int[] trajId = new int[pairSize];
+            int[] pos = new int[pairSize];
+            for (int j = 0; j < pairSize; j++){
+                trajId[j] = pairs.get(j).trajid;
+                pos[j] = pairs.get(j).pos;
+            }
+            counts[i] = pairSize;
+            compressedTrajIds[i] = sortedIntCodec.get().compress(trajId);
+            compressedPosis[i] = unsortedIntCodec.get().compress(pos);
+        }
 
-                //write inverted list
-                for (int aCompressedTrajID : compressedTrajID) trajBufWriter.write(aCompressedTrajID + SEPARATOR_1);
-                for (int aCompressedPos : compressedPos) posBufWriter.write(aCompressedPos + SEPARATOR_1);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + BINARY_SUFFIX), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keyCount);
 
-                idBufWriter.newLine();
-                trajBufWriter.newLine();
-                posBufWriter.newLine();
+            for (int i = 0; i < keyCount; i++) {
+                out.writeInt(sortedKeys.get(i));
+                out.writeInt(counts[i]);
+                out.writeInt(compressedTrajIds[i].length);
+                out.writeInt(compressedPosis[i].length);
             }
 
-            idBufWriter.flush();
-            trajBufWriter.flush();
-            posBufWriter.flush();
+            for (int i = 0; i < keyCount; i++) {
+                for (int v : compressedTrajIds[i]) out.writeInt(v);
+                for (int v : compressedPosis[i]) out.writeInt(v);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
-
-
     }
 
-     public List<Pair> getPairs(int vertexId){
+    /**
+     * @return trajectory ids containing the key in ascending order, or an empty array if the key is not indexed
+     */
+    public int[] getTrajIds(int key){
+        int i = Arrays.binarySearch(keys, key);
+        if (i < 0) return EMPTY;
+        return sortedIntCodec.get().uncompress(read(postingStart[i], trajIdLen[i]));
+    }
 
-        CompressedPairs compressedPairs = compressedIndex.get(vertexId);
-        if(compressedPairs!=null) {
-            int[] trajIds = sortedIntCodec.uncompress(compressedPairs.trajIds);
-            int[] posis = unsortedIntCodec.uncompress(compressedPairs.posis);
-            List<Pair> pairs = new LinkedList<>();
-            for (int i = 0; i < trajIds.length; i++) {
-                pairs.add(new Pair(trajIds[i], posis[i]));
-            }
-            return pairs;
-        }
-        return null;
+    /**
+     * @return the pairs( trajectory id, position of the key in that trajectory) sorted by trajectory id,
+     *         or null if the key is not indexed
+     */
+    public Postings getPostings(int key){
+        int i = Arrays.binarySearch(keys, key);
+        if (i < 0) return null;
+        Postings p = new Postings();
+        p.trajIds = sortedIntCodec.get().uncompress(read(postingStart[i], trajIdLen[i]));
+        p.posis = unsortedIntCodec.get().uncompress(read(postingStart[i] + trajIdLen[i], posLen[i]));
+        return p;
     }
 
-    public List<String> getKeys(int vertexId){
-        CompressedPairs compressedPairs = compressedIndex.get(vertexId);
-        if (compressedPairs == null)
-            return new ArrayList<>();
+    /**
+     * @return number of trajectories containing the key, read from the directory without decompression
+     */
+    public int size(int key){
+        int i = Arrays.binarySearch(keys, key);
+        return i < 0 ? 0 : pairCount[i];
+    }
 
-        int[] trajIds = sortedIntCodec.uncompress(compressedPairs.trajIds);
-        List<String> l = new LinkedList<>();
+    /**
+     * trajectory ids as strings, for callers that key their bookkeeping by string id.
+     */
+    public List<String> getKeys(int key){
+        int[] trajIds = getTrajIds(key);
+        List<String> l = new ArrayList<>(trajIds.length);
         for (int trajId: trajIds)
             l.add(String.valueOf(trajId));
-
         return l;
     }
 
+    private int[] read(int start, int len){
+        int[] compressed = new int[len];
+        // absolute reads on a private duplicate, so concurrent queries never share a buffer position
+        IntBuffer buf = postings.duplicate();
+        buf.position(start);
+        buf.get(compressed);
+        return compressed;
+    }
+
     /**
      * build edge dataStructure files from disk
      * the in-memory edge-dataStructure is an field of this instance
      *
+     * The binary postings file is memory mapped. Indexes saved by older versions as text files
+     * ( _id.compressed, _trajId.compressed, _pos.compressed) are still readable, but are parsed into heap memory.
+     *
      * @return true if the dataStructure file can be build and construct successfully
      *         false if indexes cannot be construct( cannot find dataStructure file or some other reasons)
      */
@@ -177,10 +243,65 @@ public abstract class InvertedIndex implements Index {
                 !path.equals(setting.VERTEX_INVERTED_INDEX))
             throw new IllegalStateException("base path got to be "+setting.EDGE_INVERTED_INDEX+" or "+setting.VERTEX_INVERTED_INDEX);
 
+        boolean built = new File(path + BINARY_SUFFIX).exists() ? buildBinary(path + BINARY_SUFFIX) : buildLegacy(path);
+        if (built) {
+            loaded = true;
+            logger.info("inverted index build complete");
+            return true;
+        }
+
+        logger.info("edge dataStructure file doesn't exist");
+        return false;
+    }
+
+    private boolean buildBinary(String file) {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("inverted index file larger than 2GB: " + file);
+
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            IntBuffer ints = mapped.asIntBuffer();
+            if (ints.get(0) != MAGIC || ints.get(1) != VERSION)
+                throw new IOException("not an inverted index file of version " + VERSION + ": " + file);
+
+            int keyCount = ints.get(2);
+            int[] directory = new int[keyCount * DIRECTORY_INTS];
+            ints.position(HEADER_INTS);
+            ints.get(directory);
+
+            int[] keys = new int[keyCount], pairCount = new int[keyCount], postingStart = new int[keyCount],
+                    trajIdLen = new int[keyCount], posLen = new int[keyCount];
+            int offset = 0;
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = directory[i * DIRECTORY_INTS];
+                pairCount[i] = directory[i * DIRECTORY_INTS + 1];
+                trajIdLen[i] = directory[i * DIRECTORY_INTS + 2];
+                posLen[i] = directory[i * DIRECTORY_INTS + 3];
+                postingStart[i] = offset;
+                offset += trajIdLen[i] + posLen[i];
+            }
+
+            ints.position(HEADER_INTS + directory.length);
+            setDirectory(keys, pairCount, postingStart, trajIdLen, posLen, ints.slice());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private boolean buildLegacy(String path) {
+
         try (BufferedReader idBufReader = new BufferedReader(new FileReader(path + "_id.compressed"));
              BufferedReader trajBufReader = new BufferedReader(new FileReader(path + "_trajId.compressed"));
              BufferedReader posBufReader = new BufferedReader(new FileReader(path + "_pos.compressed"))) {
 
+            // key -> {compressed trajectory ids, compressed positions}
+            TreeMap<Integer, int[][]> lists = new TreeMap<>();
+            int total = 0;
+
             //idString either be edge id or tower point id.
             String trajIdLine, posLine, idString;
             while ((idString = idBufReader.readLine()) != null) {
@@ -193,25 +314,49 @@ public abstract class InvertedIndex implements Index {
                 for (int i = 0; i < trajIDs.length; i++) trajIDs[i] = Integer.parseInt(trajArray[i]);
                 for (int i = 0; i < posArray.length; i++) posis[i] = Integer.parseInt(posArray[i]);
 
+                lists.put(Integer.valueOf(idString), new int[][]{trajIDs, posis});
+                total += trajIDs.length + posis.length;
+            }
 
-                CompressedPairs p = new CompressedPairs();
-                p.trajIds = trajIDs;
-                p.posis = posis;
-                compressedIndex.put(Integer.valueOf(idString), p);
+            int keyCount = lists.size();
+            int[] keys = new int[keyCount], pairCount = new int[keyCount], postingStart = new int[keyCount],
+                    trajIdLen = new int[keyCount], posLen = new int[keyCount];
+            int[] data = new int[total];
+            int i = 0, offset = 0;
+            for (Map.Entry<Integer, int[][]> entry : lists.entrySet()) {
+                int[] trajIDs = entry.getValue()[0], posis = entry.getValue()[1];
+                keys[i] = entry.getKey();
+                pairCount[i] = sortedIntCodec.get().uncompress(trajIDs).length;
+                postingStart[i] = offset;
+                trajIdLen[i] = trajIDs.length;
+                posLen[i] = posis.length;
+                System.arraycopy(trajIDs, 0, data, offset, trajIDs.length);
+                System.arraycopy(posis, 0, data, offset + trajIDs.length, posis.length);
+                offset += trajIDs.length + posis.length;
+                i++;
             }
 
-            loaded = true;
-            logger.info("inverted index build complete");
+            setDirectory(keys, pairCount, postingStart, trajIdLen, posLen, IntBuffer.wrap(data));
             return true;
         } catch (IOException e) {
             e.printStackTrace();
         }
-
-        logger.info("edge dataStructure file doesn't exist");
         return false;
     }
 
-    public static class CompressedPairs {
+    private void setDirectory(int[] keys, int[] pairCount, int[] postingStart, int[] trajIdLen, int[] posLen, IntBuffer postings) {
+        this.keys = keys;
+        this.pairCount = pairCount;
+        this.postingStart = postingStart;
+        this.trajIdLen = trajIdLen;
+        this.posLen = posLen;
+        this.postings = postings;
+    }
+
+    /**
+     * decompressed inverted list of a key. trajIds[i] contains the key at position posis[i].
+     */
+    public static class Postings {
         public int[] trajIds;
         public int[] posis;
     }
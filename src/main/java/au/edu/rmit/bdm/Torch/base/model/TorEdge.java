@@ -82,6 +82,23 @@ public class TorEdge{
         length = len;
     }
 
+    /**
+     * copy an edge of the graph for a trajectory, with the edge position in that trajectory.
+     * The pillar vertexes are shared with the original edge.
+     */
+    public TorEdge(TorEdge edge, int position){
+        this.id = edge.id;
+        this.baseVertex = edge.baseVertex;
+        this.adjVertex = edge.adjVertex;
+        this.length = edge.length;
+        this.pillarVertexes = edge.pillarVertexes;
+        this.isForward = edge.isForward;
+        this.isBackward = edge.isBackward;
+        this.latitudes = edge.latitudes;
+        this.longtitudes = edge.longtitudes;
+        this.position = position;
+    }
+
     /**
      * convert information in fields of this instance, to string.
      * Several fields( e.g. latitudes, longitudes) will be filled in this process.
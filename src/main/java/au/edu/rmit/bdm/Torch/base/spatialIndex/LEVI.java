@@ -8,10 +8,10 @@ import au.edu.rmit.bdm.Torch.base.helper.GeoUtil;
 import au.edu.rmit.bdm.Torch.base.invertedIndex.VertexInvertedIndex;
 import au.edu.rmit.bdm.Torch.base.model.Coordinate;
 import au.edu.rmit.bdm.Torch.base.model.TrajEntry;
-import au.edu.rmit.bdm.Torch.base.model.Trajectory;
 import au.edu.rmit.bdm.Torch.mapMatching.model.TowerVertex;
 import au.edu.rmit.bdm.Torch.queryEngine.model.*;
 import au.edu.rmit.bdm.Torch.queryEngine.query.TrajectoryResolver;
+import au.edu.rmit.bdm.Torch.queryEngine.similarity.DistanceFunction;
 import au.edu.rmit.bdm.Torch.queryEngine.similarity.SimilarityFunction;
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
 import net.sf.jsqlparser.JSQLParserException;
@@ -30,7 +30,6 @@ import static au.edu.rmit.bdm.Torch.queryEngine.similarity.SimilarityFunction.*;
  */
 public class LEVI implements WindowQueryIndex, TopKQueryIndex {
 
-    public int epsilon = 50; // within which range the point are considered match in parameter based similarity function
     private static final int THETA = 10; // within which querySpan the point in one sequence are considered to match the point in the other sequence.
     private static final int INITIAL_ROUND_FOR_DTW = 4;
     private static final int INITIAL_ROUND_FOR_H_OR_F = 5;
@@ -40,8 +39,7 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
     private VertexInvertedIndex vertexInvertedIndex;
     private VertexGridIndex gridIndex;
 
-    private MeasureType measureType;
-    private SimilarityFunction<TrajEntry> similarityFunction = SimilarityFunction.DEFAULT;
+    private volatile Params params;
     private TrajVertexRepresentationPool pool;
     private Map<Integer, TowerVertex> idVertexLookup;
     
@@ -51,7 +49,7 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
         this.setting = setting;
         this.vertexInvertedIndex = vertexInvertedIndex;
         this.gridIndex = gridIndex;
-        this.measureType = measureType;
+        this.params = new Params(measureType, 50, SimilarityFunction.DEFAULT);
         this.pool = pool;
         this.idVertexLookup = idVertexLookup;
     }
@@ -97,31 +95,36 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
     @Override
     public <T extends TrajEntry> List<String> findTopK(int k, List<T> pointQuery, List<LightEdge> edgeQuery, TrajectoryResolver resolver)  {
 
+        // read the parameters once, so that a concurrent update does not change them half way through the query
+        Params param = this.params;
+        MeasureType measureType = param.measureType;
+
         if (measureType == MeasureType.DTW)
-            return topKwithDTW(k, pointQuery, resolver);
+            return topKwithDTW(k, pointQuery, resolver, param);
 
         if (measureType == MeasureType.Frechet||
                 measureType == MeasureType.Hausdorff)
-            return topKwithFrechetOrHausdorff(k, pointQuery, resolver);
+            return topKwithFrechetOrHausdorff(k, pointQuery, resolver, param);
 
         if (measureType == MeasureType.LCSS)
-            return topKwithLCSS(k, pointQuery, resolver);
+            return topKwithLCSS(k, pointQuery, resolver, param);
 
         if (measureType == MeasureType.EDR)
-            return topKwithEDR(k, pointQuery, resolver);
+            return topKwithEDR(k, pointQuery, resolver, param);
 
         logger.error("unsupported similarity measure: {}", measureType.toString());
         throw new IllegalStateException("unsupported similarity measure");
     }
 
-    private <T extends TrajEntry> List<String> topKwithEDR(int k, List<T> pointQuery, TrajectoryResolver resolver)  {
+    private <T extends TrajEntry> List<String> topKwithEDR(int k, List<T> pointQuery, TrajectoryResolver resolver, Params param)  {
         Map<String, Integer> trajUpperBound = new HashMap<>();
         Set<Integer> visited = new HashSet<>();
         Map<String, int[]> cache = new HashMap<>();
         int querySize = pointQuery.size();
+        Points query = Points.of(pointQuery);
 
         for (int i = 0; i < pointQuery.size(); i++) {
-            Collection<Integer> idSet = gridIndex.pointsInRange(new Circle(new Coordinate(pointQuery.get(i).getLat(), pointQuery.get(i).getLng()), epsilon));
+            Collection<Integer> idSet = gridIndex.pointsInRange(new Circle(new Coordinate(pointQuery.get(i).getLat(), pointQuery.get(i).getLng()), param.epsilon));
             for (Integer vertexId : idSet) {
                 if (visited.contains(vertexId)) continue;
                 List<String> trajs = vertexInvertedIndex.getKeys(vertexId);
@@ -155,12 +158,9 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
             int[] trajectory = cache.get(curTrajId);
             if (trajectory == null) continue;
 
-            Trajectory<TrajEntry> t = new Trajectory<>();
-            for (int entry : trajectory) {
-                t.add(idVertexLookup.get(entry));
-            }
-
-            double realMatch = similarityFunction.EditDistanceonRealSequence(t, (List<TrajEntry>) pointQuery);
+            // once the heap is full, a candidate needs fewer edits than the k-th one to get in
+            double bestKthSoFar = topKHeap.size() < k ? Double.POSITIVE_INFINITY : topKHeap.peek().score;
+            double realMatch = EditDistanceonRealSequence(toPoints(trajectory), query, param.epsilon, -1, bestKthSoFar);
             pair = new Pair(curTrajId, realMatch);
 
             if (topKHeap.size() < k) {
@@ -185,13 +185,14 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
         return resIDList;
     }
 
-    private <T extends TrajEntry> List<String> topKwithLCSS(int k, List<T> pointQuery, TrajectoryResolver resolver)  {
+    private <T extends TrajEntry> List<String> topKwithLCSS(int k, List<T> pointQuery, TrajectoryResolver resolver, Params param)  {
 
         Map<String, Integer> trajUpperBound = new HashMap<>();
         Set<Integer> visited = new HashSet<>();
+        Points query = Points.of(pointQuery);
 
         for (int i = 0; i < pointQuery.size(); i++) {
-            Collection<Integer> idSet = gridIndex.pointsInRange(new Circle(new Coordinate(pointQuery.get(i).getLat(), pointQuery.get(i).getLng()), epsilon));
+            Collection<Integer> idSet = gridIndex.pointsInRange(new Circle(new Coordinate(pointQuery.get(i).getLat(), pointQuery.get(i).getLng()), param.epsilon));
             for (Integer vertexId : idSet) {
                 if (visited.contains(vertexId)) continue;
                 List<String> trajs = vertexInvertedIndex.getKeys(vertexId);
@@ -221,12 +222,9 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
             if (trajectory == null)
                 continue;
 
-            Trajectory<TrajEntry> t = new Trajectory<>();
-            for (int entry : trajectory) {
-                t.add(idVertexLookup.get(entry));
-            }
-
-            double realMatch = similarityFunction.LongestCommonSubsequence(t, (List<TrajEntry>) pointQuery, THETA);
+            // once the heap is full, a candidate needs more matches than the k-th one to get in
+            double bestKthSoFar = topKHeap.size() < k ? Double.NEGATIVE_INFINITY : topKHeap.peek().score;
+            double realMatch = LongestCommonSubsequence(toPoints(trajectory), query, param.epsilon, THETA, bestKthSoFar);
             pair = new Pair(curTrajId, realMatch);
 
             if (topKHeap.size() < k) {
@@ -251,13 +249,14 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
         return resIDList;
     }
 
-    private <T extends TrajEntry> List<String> topKwithDTW(int k, List<T> pointQuery, TrajectoryResolver resolver)  {
+    private <T extends TrajEntry> List<String> topKwithDTW(int k, List<T> pointQuery, TrajectoryResolver resolver, Params param)  {
 
         PriorityQueue<Pair> topKHeap = new PriorityQueue<>(Comparator.comparingDouble(p -> p.score));
         double bestKthSoFar, overallUnseenUpperBound;
         double[] unseenUpperBounds = new double[pointQuery.size()];
         int round = INITIAL_ROUND_FOR_DTW;
         Set<String> visitTrajectorySet = new HashSet<>();
+        Points query = Points.of(pointQuery);
 
 
         int check = 0;
@@ -342,14 +341,15 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
                 int[] trajectory = pool.get(curTrajId);
                 if (trajectory == null) continue;
 
-                Trajectory<TrajEntry> t = new Trajectory<>();
-                for (int entry : trajectory) {
-                    t.add(idVertexLookup.get(entry));
-                }
-
-                double realDist = 0;
-
-                realDist = similarityFunction.DynamicTimeWarping(t, (List<TrajEntry>) pointQuery);
+                // once the heap is full, a candidate has to be closer than the k-th one to get in.
+                // Try the cheap lower bounds first, then DTW abandoned as soon as it reaches the k-th distance.
+                Points t = toPoints(trajectory);
+                double kthDist = topKHeap.size() < k ? Double.POSITIVE_INFINITY : -topKHeap.peek().score;
+                double realDist = LowerBoundKim(t, query);
+                if (realDist < kthDist)
+                    realDist = Math.max(realDist, LowerBoundKeogh(query, t, -1));
+                if (realDist < kthDist)
+                    realDist = DynamicTimeWarping(t, query, -1, kthDist);
 
                 double score = -realDist;
 
@@ -394,7 +394,7 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
         return resIDList;
     }
 
-    private <T extends TrajEntry> List<String> topKwithFrechetOrHausdorff(int k, List<T> pointQuery, TrajectoryResolver resolver)  {
+    private <T extends TrajEntry> List<String> topKwithFrechetOrHausdorff(int k, List<T> pointQuery, TrajectoryResolver resolver, Params param)  {
         logger.debug("k: {}", k);
 
         PriorityQueue<Pair> topKHeap = new PriorityQueue<>(Comparator.comparingDouble(p -> p.score));
@@ -403,6 +403,7 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
 
         int round = INITIAL_ROUND_FOR_H_OR_F;
         Set<String> visitTrajectorySet = new HashSet<>();
+        Points query = Points.of(pointQuery);
 
 
         int check = 0;
@@ -488,18 +489,17 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
                 int[] trajectory = pool.get(curTrajId);
                 if (trajectory == null)
                     continue;
-                Trajectory<TrajEntry> t = new Trajectory<>();
-                for (int entry : trajectory) {
-                    t.add(idVertexLookup.get(entry));
-                }
+                Points t = toPoints(trajectory);
 
+                // once the heap is full, a candidate has to be closer than the k-th one to get in
+                double kthDist = topKHeap.size() < k ? Double.POSITIVE_INFINITY : -topKHeap.peek().score;
                 double realDist = 0;
-                switch (measureType) {
+                switch (param.measureType) {
                     case Hausdorff:
-                        realDist = similarityFunction.Hausdorff(t, (List<TrajEntry>)pointQuery);
+                        realDist = Hausdorff(t, query, kthDist);
                         break;
                     case Frechet:
-                        realDist = similarityFunction.Frechet(t, (List<TrajEntry>)pointQuery);
+                        realDist = Frechet(t, query, -1, kthDist);
                         break;
                 }
 
@@ -548,17 +548,52 @@ public class LEVI implements WindowQueryIndex, TopKQueryIndex {
         return resIDList;
     }
 
-    public void updateMeasureType(MeasureType measureType) {
-        this.measureType = measureType;
+    private Points toPoints(int[] trajectory) {
+        double[] lats = new double[trajectory.length], lngs = new double[trajectory.length];
+        for (int i = 0; i < trajectory.length; i++) {
+            TowerVertex vertex = idVertexLookup.get(trajectory[i]);
+            lats[i] = vertex.getLat();
+            lngs[i] = vertex.getLng();
+        }
+        return new Points(lats, lngs);
     }
 
-    public void updateEpsilon(int epsilon) {
-        this.epsilon = epsilon;
-        similarityFunction.comparator = (p1, p2) -> {
+    public synchronized void updateMeasureType(MeasureType measureType) {
+        Params p = this.params;
+        this.params = new Params(measureType, p.epsilon, p.similarityFunction);
+    }
+
+    /**
+     * Replace epsilon together with the similarity function whose point comparator depends on it.
+     * A new similarity function is built instead of modifying the shared {@code SimilarityFunction.DEFAULT}.
+     */
+    public synchronized void updateEpsilon(int epsilon) {
+        Comparator<TrajEntry> comparator = (p1, p2) -> {
             double dist = GeoUtil.distance(p1, p2);
             if (dist <= epsilon) return 0;
             return 1;
         };
+        DistanceFunction<TrajEntry, TrajEntry> distFunc = GeoUtil::distance;
+        this.params = new Params(this.params.measureType, epsilon, new SimilarityFunction<>(distFunc, comparator));
+    }
+
+    public int getEpsilon() {
+        return params.epsilon;
+    }
+
+    /**
+     * Query parameters, replaced as a whole on update.
+     */
+    private static class Params {
+        final MeasureType measureType;
+        final int epsilon; // within which range the point are considered match in parameter based similarity function
+        final SimilarityFunction<TrajEntry> similarityFunction;
+
+        Params(MeasureType measureType, int epsilon, SimilarityFunction<TrajEntry> similarityFunction) {
+            this.measureType = measureType;
+            this.epsilon = epsilon;
+            this.similarityFunction = similarityFunction;
+        }
     }
 
 
@@ -34,11 +34,16 @@ import java.util.Map;
 public class HiddenMarkovModel implements Mapper {
 
     private static Logger logger = LoggerFactory.getLogger(HiddenMarkovModel.class);
-    private MapMatching hmm;
+
+    /**
+     * Graph-hopper MapMatching keeps per-call state, so every thread matching
+     * queries on the same engine gets its own instance over the shared graph.
+     */
+    private final ThreadLocal<MapMatching> hmm;
     private TorGraph torGraph;
 
     HiddenMarkovModel(TorGraph torGraph, AlgorithmOptions options){
-        hmm = new MapMatching(torGraph.getGH(), options);
+        hmm = ThreadLocal.withInitial(() -> new MapMatching(torGraph.getGH(), options));
         this.torGraph = torGraph;
     }
 
@@ -58,7 +63,7 @@ public class HiddenMarkovModel implements Mapper {
         List<GPXEntry> queryTrajectory = new ArrayList<>(in.size());
         for (TrajEntry entry: in)
             queryTrajectory.add(new GPXEntry(entry.getLat(), entry.getLng(), 0));
-        MatchResult ret = hmm.doWork(queryTrajectory);
+        MatchResult ret = hmm.get().doWork(queryTrajectory);
         List<EdgeMatch> matches = ret.getEdgeMatches();
 
         NodeAccess accessor = hopperGraph.getNodeAccess();
@@ -102,8 +107,8 @@ public class HiddenMarkovModel implements Mapper {
                 System.err.println(mappedTrajectory.get(i).id);
                 System.exit(1);
             }
-            edge.setPosition(i);
-            mappedTrajectory.edges.add(edge);
+            // the edge instance belongs to the shared graph, record the position on a copy of it
+            mappedTrajectory.edges.add(new TorEdge(edge, i));
         }
 
 //        logger.info("have done map-matching for query.txt points");
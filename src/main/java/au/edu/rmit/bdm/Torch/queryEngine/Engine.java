@@ -17,7 +17,11 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Engine class contains high level APIs to query on trajectory data-set
+ * Engine class contains high level APIs to query on trajectory data-set<p>
+ *
+ * An engine is safe to share between threads: the query APIs may be called concurrently,
+ * each call works on its own query forked from {@code QueryPool}, and {@link #update(String, Map)}
+ * publishes the new index binding atomically to the queries started after it.
  */
 public class Engine {
 
@@ -47,7 +51,7 @@ public class Engine {
      */
     public QueryResult findTopK(List<? extends TrajEntry> raw, int k){
 
-        Query topK = pool.get(Torch.QueryType.TopK);
+        Query topK = pool.newQuery(Torch.QueryType.TopK);
         if (!topK.prepare(raw))
             return QueryResult.genFailedRet(Torch.QueryType.TopK, raw, "Cannot map raw trajectory properly");
         return topK.execute(k);
@@ -67,7 +71,7 @@ public class Engine {
      * @return qualified trajectories modeled by QueryResult
      */
     public QueryResult findOnPath(List<? extends TrajEntry> raw){
-        Query pathQ = pool.get(Torch.QueryType.PathQ);
+        Query pathQ = pool.newQuery(Torch.QueryType.PathQ);
         if(!pathQ.prepare(raw))
             return QueryResult.genFailedRet(Torch.QueryType.PathQ, raw, "");
         return pathQ.execute(false);
@@ -84,7 +88,7 @@ public class Engine {
      * @return qualified trajectories modeled by QueryResult
      */
     public QueryResult findOnPath(String streetName){
-        Query pathQ = pool.get(Torch.QueryType.PathQ);
+        Query pathQ = pool.newQuery(Torch.QueryType.PathQ);
         if(!pathQ.prepare(streetName))
             return QueryResult.genFailedRet(Torch.QueryType.PathQ, null,"Cannot find the street of name "+streetName);
         return pathQ.execute(false);
@@ -104,7 +108,7 @@ public class Engine {
      * @return qualified trajectories modeled by QueryResult
      */
     public QueryResult findOnStrictPath(List<? extends TrajEntry> raw){
-        Query strictPathQ = pool.get(Torch.QueryType.PathQ);
+        Query strictPathQ = pool.newQuery(Torch.QueryType.PathQ);
         if (!strictPathQ.prepare(raw))
             return QueryResult.genFailedRet(Torch.QueryType.PathQ, raw,"Cannot map raw trajectory properly");
         return strictPathQ.execute(true);
@@ -121,7 +125,7 @@ public class Engine {
      * @return Qualified trajectories modeled by QueryResult
      */
     public QueryResult findOnStrictPath(String streetName){
-        Query strictPathQ = pool.get(Torch.QueryType.PathQ);
+        Query strictPathQ = pool.newQuery(Torch.QueryType.PathQ);
         if (!strictPathQ.prepare(streetName))
             return QueryResult.genFailedRet(Torch.QueryType.PathQ, null,"Cannot find the street of name "+streetName);
         return strictPathQ.execute(true);
@@ -145,13 +149,13 @@ public class Engine {
      */
     public QueryResult findInRange(SearchWindow window){
 
-        Query rangeQ = pool.get(Torch.QueryType.RangeQ);
+        Query rangeQ = pool.newQuery(Torch.QueryType.RangeQ);
         return rangeQ.execute(window);
     }
 
     public QueryResult findInRange(double lat, double lng, double squareRadius ){
 
-        Query rangeQ = pool.get(Torch.QueryType.RangeQ);
+        Query rangeQ = pool.newQuery(Torch.QueryType.RangeQ);
         return rangeQ.execute(new SearchWindow(new Coordinate(lat, lng), squareRadius));
     }
 
@@ -19,14 +19,18 @@ import java.util.List;
 class PathQuery extends QueryImpl {
 
     private static final Logger logger = LoggerFactory.getLogger(PathQuery.class);
-    private PathQueryIndex index;
-    private NameEdgeIdLookup lookup;
+    private volatile PathQueryIndex index;
+    private final NameEdgeIdLookup lookup;
     private boolean isByStName;
 
     PathQuery(PathQueryIndex index, Mapper mapper, TrajectoryResolver resolver){
+        this(index, mapper, resolver, new NameEdgeIdLookup(resolver.setting));
+    }
+
+    private PathQuery(PathQueryIndex index, Mapper mapper, TrajectoryResolver resolver, NameEdgeIdLookup lookup){
         super(mapper, resolver);
         this.index = index;
-        lookup = new NameEdgeIdLookup(resolver.setting);
+        this.lookup = lookup;
     }
 
     @Override
@@ -39,13 +43,18 @@ class PathQuery extends QueryImpl {
 
         List<LightEdge> queryEdges = LightEdge.copy(mapped.edges);
 
-        List<String> trajIds = isStrictPath ? index.findByStrictPath(queryEdges) : index.findByPath(queryEdges);
-        logger.info("trajectory ids found: {}", trajIds);
+        int[] trajIds = isStrictPath ? index.findByStrictPath(queryEdges) : index.findByPath(queryEdges);
+        logger.info("number of trajectory ids found: {}", trajIds.length);
         return isByStName ?
                 resolver.resolve(isStrictPath ? "SPQ" : Torch.QueryType.PathQ, trajIds, null, mapped)
         : resolver.resolve(isStrictPath ? "SPQ" : Torch.QueryType.PathQ, trajIds, raw, mapped);
     }
 
+    @Override
+    public Query fork() {
+        return new PathQuery(index, mapper, resolver, lookup);
+    }
+
     @Override
     public void updateIdx(Index idx) {
         if (!(idx instanceof PathQueryIndex))
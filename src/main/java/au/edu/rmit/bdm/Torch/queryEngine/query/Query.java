@@ -42,4 +42,15 @@ public interface Query {
      * @param idx
      */
     void updateIdx(Index idx);
+
+    /**
+     * Create a query of the same type that shares the index, mapper and resolver of this one
+     * but has its own prepared state.<p>
+     *
+     * The queries kept in {@code QueryPool} are only templates. Engine forks one for every call,
+     * so that concurrent callers never see each other's prepared trajectory.
+     *
+     * @return a new query which has not been prepared yet.
+     */
+    Query fork();
 }
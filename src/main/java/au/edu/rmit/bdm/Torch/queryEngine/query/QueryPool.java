@@ -25,18 +25,26 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class QueryPool extends HashMap<String, Query> {
+/**
+ * Query templates for each query type, together with the indexes they are bound to.<p>
+ *
+ * The templates are never prepared or executed directly: callers use {@link #newQuery(String)},
+ * which forks a template. {@link #update(String, Map)} replaces a template with a re-bound copy
+ * instead of modifying it, so an update is published atomically to subsequent queries and
+ * queries already running keep the index they started with.
+ */
+public class QueryPool extends ConcurrentHashMap<String, Query> {
 
     private static final Logger logger = LoggerFactory.getLogger(QueryPool.class);
     private final QueryProperties props;
     private Mapper mapper;
     private EdgeInvertedIndex edgeInvertedIndex;
-    private LEVI LEVI;
+    private volatile LEVI LEVI;
     private static AtomicInteger gNameGen = new AtomicInteger();
     private String graphId;
 
@@ -164,18 +172,33 @@ public class QueryPool extends HashMap<String, Query> {
         this.LEVI = new LEVI(vertexInvertedIndex, vertexGridIndex, measureType, trajVertexRepresentationPool, idVertexLookup, setting);
     }
 
-    public void update(String queryType, Map<String,String> props) {
+    /**
+     * Get a fresh query of the given type, ready to be prepared and executed by one caller.
+     *
+     * @param queryType see {@code Torch.QueryType}
+     * @return a forked query, or null if the query type is not initialized.
+     */
+    public Query newQuery(String queryType) {
+        Query template = get(queryType);
+        return template == null ? null : template.fork();
+    }
+
+    public synchronized void update(String queryType, Map<String,String> props) {
         Query q = get(queryType);
+        if (q == null)
+            throw new IllegalStateException("query type " + queryType + " is not initialized");
 
         if (props.containsKey("simFunc") && LEVI != null) {
 
             String simFunc = props.get("simFunc");
+            Query updated = q.fork();
             if (simFunc.equals("LORS")){
-                q.updateIdx(convertIndex(Torch.Index.EDGE_INVERTED_INDEX));
+                updated.updateIdx(convertIndex(Torch.Index.EDGE_INVERTED_INDEX));
             }else{
-                q.updateIdx(convertIndex(Torch.Index.LEVI));
                 LEVI.updateMeasureType(convertMeasureType(props.get("simFunc")));
+                updated.updateIdx(convertIndex(Torch.Index.LEVI));
             }
+            put(queryType, updated);
         }
 
         if (props.containsKey("epsilon")&& LEVI != null)
@@ -13,7 +13,7 @@ import java.util.List;
 class TopKQuery extends QueryImpl{
 
     private static final Logger logger = LoggerFactory.getLogger(TopKQuery.class);
-    private TopKQueryIndex index;
+    private volatile TopKQueryIndex index;
 
     TopKQuery(TopKQueryIndex index, Mapper mapper, TrajectoryResolver resolver){
         super(mapper, resolver);
@@ -33,6 +33,11 @@ class TopKQuery extends QueryImpl{
             return topkusingVertex((int)K);
     }
 
+    @Override
+    public Query fork() {
+        return new TopKQuery(index, mapper, resolver);
+    }
+
     @Override
 
     public void updateIdx(Index idx) {
@@ -101,6 +101,12 @@ public class TrajectoryResolver {
 //        }
     }
 
+    QueryResult resolve (String queryType, int[] ids, List<TrajEntry> rawQuery, Trajectory<TrajEntry> _mappedQuery)  {
+        List<String> trajIds = new ArrayList<>(ids.length);
+        for (int i : ids) trajIds.add(String.valueOf(i));
+        return resolve(queryType, trajIds, rawQuery, _mappedQuery);
+    }
+
     QueryResult resolve (String queryType, List<String> trajIds, List<TrajEntry> rawQuery, Trajectory<TrajEntry> _mappedQuery)  {
 
         List<TrajEntry> mappedQuery = _mappedQuery;
@@ -10,7 +10,7 @@ import java.util.List;
 
 class WindowQuery extends QueryImpl {
 
-    private WindowQueryIndex index;
+    private volatile WindowQueryIndex index;
 
     WindowQuery(WindowQueryIndex index, TrajectoryResolver resolver){
         super(null, resolver);
@@ -34,6 +34,11 @@ class WindowQuery extends QueryImpl {
         return true;
     }
 
+    @Override
+    public Query fork() {
+        return new WindowQuery(index, resolver);
+    }
+
     @Override
     public void updateIdx(Index idx) {
         if (!(idx instanceof WindowQueryIndex))
@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -304,6 +305,302 @@ public class SimilarityFunction<T extends TrajEntry> {
 
     }
 
+    /*
+     * Linear-memory kernels over primitive coordinate arrays.
+     *
+     * Points are compared by GeoUtil.distance, and for LCSS and EDR two points match if they are within epsilon meters
+     * ( the same as the comparator LEVI builds for the List based kernels).
+     * window is the Sakoe-Chiba band, a negative window means no band. It is widened to the length difference
+     * of the two trajectories so that the last cell is always reachable.
+     * bestSoFar is the current k-th best score. Once a distance is known to be no less than bestSoFar
+     * ( or a similarity no greater than it), a bound is returned instead of the exact value.
+     * Pass Double.POSITIVE_INFINITY ( Double.NEGATIVE_INFINITY for LCSS) to compute exactly.
+     */
+
+    private static final double EARTH_RADIUS = 6371 * 1000;
+    private static final int EDIT_INFINITY = Integer.MAX_VALUE / 2;
+
+    /**
+     * Coordinates of a trajectory in two primitive arrays.
+     */
+    public static final class Points {
+        public final double[] lats;
+        public final double[] lngs;
+
+        public Points(double[] lats, double[] lngs) {
+            if (lats.length != lngs.length)
+                throw new IllegalArgumentException("lats should be of the same length as lngs");
+            this.lats = lats;
+            this.lngs = lngs;
+        }
+
+        public static Points of(List<? extends TrajEntry> entries) {
+            double[] lats = new double[entries.size()], lngs = new double[entries.size()];
+            for (int i = 0; i < lats.length; i++) {
+                lats[i] = entries.get(i).getLat();
+                lngs[i] = entries.get(i).getLng();
+            }
+            return new Points(lats, lngs);
+        }
+
+        public int size() {
+            return lats.length;
+        }
+    }
+
+    private static double distance(Points t1, int i, Points t2, int j) {
+        return GeoUtil.distance(t1.lats[i], t2.lats[j], t1.lngs[i], t2.lngs[j]);
+    }
+
+    private static int band(int window, int n, int m) {
+        return window < 0 ? Math.max(n, m) : Math.max(window, Math.abs(n - m));
+    }
+
+    /**
+     * Two-row DTW. Abandons once the minimum of a row reaches bestSoFar, as every warping path crosses every row.
+     */
+    public static double DynamicTimeWarping(Points T1, Points T2, int window, double bestSoFar) {
+        int n = T1.size(), m = T2.size();
+        if (n == 0 && m == 0) return 0;
+        if (n == 0 || m == 0) return Integer.MAX_VALUE;
+
+        int w = band(window, n, m);
+        double[] prev = new double[m + 1], cur = new double[m + 1];
+        Arrays.fill(prev, Double.POSITIVE_INFINITY);
+        prev[0] = 0;
+
+        for (int i = 1; i <= n; ++i) {
+            int lo = Math.max(1, i - w), hi = Math.min(m, i + w);
+            // the cells next to the band are read by this row and the next one
+            cur[lo - 1] = Double.POSITIVE_INFINITY;
+            if (hi < m) cur[hi + 1] = Double.POSITIVE_INFINITY;
+
+            double rowMin = Double.POSITIVE_INFINITY;
+            for (int j = lo; j <= hi; ++j) {
+                cur[j] = distance(T1, i - 1, T2, j - 1) + Math.min(prev[j - 1], Math.min(prev[j], cur[j - 1]));
+                if (cur[j] < rowMin) rowMin = cur[j];
+            }
+            if (rowMin >= bestSoFar) return rowMin;
+
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[m];
+    }
+
+    /**
+     * Two-row discrete Frechet distance, abandoned the same way as DTW since a coupling never decreases along a path.
+     */
+    public static double Frechet(Points T1, Points T2, int window, double bestSoFar) {
+        int n = T1.size(), m = T2.size();
+        if (n == 0 || m == 0) return n == m ? 0 : Double.POSITIVE_INFINITY;
+
+        int w = band(window, n, m);
+        double[] prev = new double[m], cur = new double[m];
+
+        cur[0] = distance(T1, 0, T2, 0);
+        for (int j = 1; j <= Math.min(m - 1, w); ++j)
+            cur[j] = Math.max(cur[j - 1], distance(T1, 0, T2, j));
+        if (w + 1 < m) cur[w + 1] = Double.POSITIVE_INFINITY;
+
+        for (int i = 1; i < n; ++i) {
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+
+            int lo = Math.max(0, i - w), hi = Math.min(m - 1, i + w);
+            if (lo > 0) cur[lo - 1] = Double.POSITIVE_INFINITY;
+            if (hi + 1 < m) cur[hi + 1] = Double.POSITIVE_INFINITY;
+
+            double rowMin = Double.POSITIVE_INFINITY;
+            for (int j = lo; j <= hi; ++j) {
+                double reach = j == 0 ? prev[0] : Math.min(prev[j], Math.min(prev[j - 1], cur[j - 1]));
+                cur[j] = Math.max(reach, distance(T1, i, T2, j));
+                if (cur[j] < rowMin) rowMin = cur[j];
+            }
+            if (rowMin >= bestSoFar) return rowMin;
+        }
+        return cur[m - 1];
+    }
+
+    /**
+     * Hausdorff distance without a distance matrix. The inner loop stops as soon as a point cannot raise the
+     * directed distance, and the computation is abandoned once the directed distance reaches bestSoFar.
+     */
+    public static double Hausdorff(Points T1, Points T2, double bestSoFar) {
+        if (T1.size() == 0 || T2.size() == 0) return T1.size() == T2.size() ? 0 : Double.POSITIVE_INFINITY;
+
+        double max = directedHausdorff(T1, T2, 0, bestSoFar);
+        if (max >= bestSoFar) return max;
+        return directedHausdorff(T2, T1, max, bestSoFar);
+    }
+
+    private static double directedHausdorff(Points from, Points to, double max, double bestSoFar) {
+        for (int i = 0; i < from.size(); i++) {
+            double min = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < to.size(); j++) {
+                double d = distance(from, i, to, j);
+                if (d < min) {
+                    min = d;
+                    if (min <= max) break;
+                }
+            }
+            if (min > max) {
+                max = min;
+                if (max >= bestSoFar) return max;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Two-row LCSS with the same semantics as {@link #LongestCommonSubsequence(List, List, int)}: theta is the band,
+     * cells outside it count as 0 ( a negative theta means no band here). A row can add at most one match to the best
+     * cell of the row above, so the computation is abandoned once the best cell plus the remaining rows cannot
+     * exceed bestSoFar.
+     */
+    public static double LongestCommonSubsequence(Points T1, Points T2, double epsilon, int theta, double bestSoFar) {
+        int n = T1.size(), m = T2.size();
+        if (n == 0 || m == 0) return 0;
+
+        int w = theta < 0 ? Math.max(n, m) : Math.min(theta, Math.max(n, m));
+        // the last cell lies outside the band
+        if (n > 1 && m > 1 && Math.abs(n - m) > w) return 0;
+
+        int[] prev = new int[m], cur = new int[m];
+        int rowMax = 0;
+        for (int j = 0; j < m; ++j) {
+            cur[j] = distance(T1, 0, T2, j) <= epsilon ? 1 : (j == 0 ? 0 : cur[j - 1]);
+            rowMax = Math.max(rowMax, cur[j]);
+        }
+        if (rowMax + n - 1 <= bestSoFar) return rowMax + n - 1;
+
+        for (int i = 1; i < n; ++i) {
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+
+            int lo = Math.max(1, i - w), hi = Math.min(m - 1, i + w);
+            cur[0] = distance(T1, i, T2, 0) <= epsilon ? 1 : prev[0];
+            if (lo > 1 && lo - 1 < m) cur[lo - 1] = 0;
+            if (hi + 1 < m) cur[hi + 1] = 0;
+
+            rowMax = cur[0];
+            for (int j = lo; j <= hi; ++j) {
+                if (distance(T1, i, T2, j) <= epsilon)
+                    cur[j] = 1 + prev[j - 1];
+                else
+                    cur[j] = Math.max(prev[j], cur[j - 1]);
+                if (cur[j] > rowMax) rowMax = cur[j];
+            }
+            if (rowMax + n - 1 - i <= bestSoFar) return rowMax + n - 1 - i;
+        }
+        return cur[m - 1];
+    }
+
+    /**
+     * Two-row EDR. Abandons once the minimum of a row reaches bestSoFar.
+     */
+    public static double EditDistanceonRealSequence(Points T1, Points T2, double epsilon, int window, double bestSoFar) {
+        int n = T1.size(), m = T2.size();
+        if (n == 0) return m;
+        if (m == 0) return n;
+
+        int w = band(window, n, m);
+        int[] prev = new int[m + 1], cur = new int[m + 1];
+        for (int j = 0; j <= m; ++j) prev[j] = j <= w ? j : EDIT_INFINITY;
+
+        for (int i = 1; i <= n; ++i) {
+            int lo = Math.max(1, i - w), hi = Math.min(m, i + w);
+            // ( i, 0) is the cost of deleting the first i points, it is inside the band while i <= w
+            cur[lo - 1] = lo == 1 && i <= w ? i : EDIT_INFINITY;
+            if (hi < m) cur[hi + 1] = EDIT_INFINITY;
+
+            int rowMin = cur[lo - 1];
+            for (int j = lo; j <= hi; ++j) {
+                int subCost = distance(T1, i - 1, T2, j - 1) <= epsilon ? 0 : 1;
+                cur[j] = Math.min(prev[j - 1] + subCost, Math.min(prev[j] + 1, cur[j - 1] + 1));
+                if (cur[j] < rowMin) rowMin = cur[j];
+            }
+            if (rowMin >= bestSoFar) return rowMin;
+
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[m];
+    }
+
+    /**
+     * LB_Kim for DTW: every warping path contains the first and the last pair of points.
+     */
+    public static double LowerBoundKim(Points T1, Points T2) {
+        int n = T1.size(), m = T2.size();
+        if (n == 0 || m == 0) return 0;
+        double lb = distance(T1, 0, T2, 0);
+        if (n > 1 || m > 1) lb += distance(T1, n - 1, T2, m - 1);
+        return lb;
+    }
+
+    /**
+     * LB_Keogh for DTW over geo points. Every query point is matched to at least one candidate point within the band,
+     * so its distance to the bounding box of those candidate points is a lower bound of its cost.
+     * The envelope is built with monotonic deques, so the bound costs O(n + m).
+     */
+    public static double LowerBoundKeogh(Points query, Points candidate, int window) {
+        int n = query.size(), m = candidate.size();
+        if (n == 0 || m == 0) return 0;
+
+        int w = band(window, n, m);
+        double[] latLo = new double[n], latHi = new double[n], lngLo = new double[n], lngHi = new double[n];
+        envelope(candidate.lats, n, w, latLo, latHi);
+        envelope(candidate.lngs, n, w, lngLo, lngHi);
+
+        double lb = 0;
+        for (int i = 0; i < n; i++)
+            lb += boxDistance(query.lats[i], query.lngs[i], latLo[i], latHi[i], lngLo[i], lngHi[i]);
+        return lb;
+    }
+
+    /**
+     * lower[i] and upper[i] are the min and max of values[i - w, i + w], for i in [0, n).
+     */
+    private static void envelope(double[] values, int n, int w, double[] lower, double[] upper) {
+        int m = values.length;
+        int[] minQ = new int[m], maxQ = new int[m];
+        int minHead = 0, minTail = 0, maxHead = 0, maxTail = 0;
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            int lo = Math.max(0, i - w), hi = (int) Math.min(m - 1, (long) i + w);
+            for (; next <= hi; next++) {
+                while (minTail > minHead && values[minQ[minTail - 1]] >= values[next]) minTail--;
+                minQ[minTail++] = next;
+                while (maxTail > maxHead && values[maxQ[maxTail - 1]] <= values[next]) maxTail--;
+                maxQ[maxTail++] = next;
+            }
+            while (minQ[minHead] < lo) minHead++;
+            while (maxQ[maxHead] < lo) maxHead++;
+            lower[i] = values[minQ[minHead]];
+            upper[i] = values[maxQ[maxHead]];
+        }
+    }
+
+    /**
+     * A lower bound of the haversine distance from a point to any point in a lat/lng box:
+     * each term of the haversine formula is bounded separately, using the smallest cosine of the box latitudes.
+     */
+    private static double boxDistance(double lat, double lng, double latLo, double latHi, double lngLo, double lngHi) {
+        double dLat = lat < latLo ? latLo - lat : (lat > latHi ? lat - latHi : 0);
+        double dLng = lng < lngLo ? lngLo - lng : (lng > lngHi ? lng - lngHi : 0);
+        if (dLat == 0 && dLng == 0) return 0;
+
+        double cosBox = Math.min(Math.cos(Math.toRadians(latLo)), Math.cos(Math.toRadians(latHi)));
+        double sinLat = Math.sin(Math.toRadians(dLat) / 2), sinLng = Math.sin(Math.toRadians(dLng) / 2);
+        double h = sinLat * sinLat + Math.cos(Math.toRadians(lat)) * cosBox * sinLng * sinLng;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
     /**
      * Return the minimal value of a, b, c
      *
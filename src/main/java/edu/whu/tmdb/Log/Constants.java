@@ -12,6 +12,21 @@ public class Constants {
     // 日志文件目录
     public static final String LOG_BASE_DIR = "data/log/";
 
+    // 日志默认的持久化方式
+    public static final Durability LOG_DURABILITY = Durability.INTERVAL;
+
+    // INTERVAL方式下两次force之间的最长间隔（毫秒）
+    public static final long LOG_SYNC_INTERVAL_MS = 100;
+
+    // 日志缓冲区的字节数上限，缓冲区满时写日志的线程等待flusher写盘
+    public static final int LOG_BUFFER_SIZE = 1024 * 1024;
+
+    // 单个日志段的字节数，写满后切换到新段
+    public static final long LOG_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    // redo时并行写入memTable的线程数
+    public static final int LOG_RECOVERY_THREADS = Runtime.getRuntime().availableProcessors();
+
     // 从文件的offset偏移处读取长度为length的字节流
     public static byte[] readBytesFromFile( long offset, int length, String fileName) {
         byte[] ret = new byte[length];
@@ -0,0 +1,14 @@
+package edu.whu.tmdb.Log;
+
+// 日志的持久化方式
+public enum Durability {
+
+    // 只写入操作系统页缓存，不force，进程崩溃不丢日志，机器掉电可能丢失
+    NONE,
+
+    // 每批日志写入后force，WriteLog在所在批次落盘后才返回
+    BATCH,
+
+    // 后台每隔Constants.LOG_SYNC_INTERVAL_MS force一次，掉电最多丢失一个间隔内的日志
+    INTERVAL
+}
@@ -0,0 +1,254 @@
+package edu.whu.tmdb.Log;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 日志的组提交写入器
+// 1. 写日志的线程只把已编码好的日志记录追加到共享缓冲区，不做I/O
+// 2. 一个后台flusher线程（tmdb-wal）交换双缓冲，把一批日志一次写入文件，并按Durability决定是否force
+// 3. 偏移均为日志文件中的字节偏移，appended >= written >= synced
+public class GroupCommitWriter {
+
+    private final FileChannel channel;
+
+    private final Durability durability;
+
+    private final long syncIntervalMs;
+
+    private final int bufferLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // flusher等待新的日志或force请求
+    private final Condition workAvailable = lock.newCondition();
+
+    // 写日志的线程等待缓冲区空间或落盘进度
+    private final Condition progress = lock.newCondition();
+
+    // 正在接收日志的缓冲区，以及flusher写盘时使用的另一块缓冲区
+    private byte[] buffer;
+    private int bufferSize = 0;
+    private byte[] spare;
+
+    // 已追加、已写入文件、已force的日志末尾偏移
+    private long appendedOffset;
+    private long writtenOffset;
+    private long syncedOffset;
+
+    // 上次force的时间
+    private long lastSyncTime = System.currentTimeMillis();
+
+    // 有线程在等待force
+    private boolean syncRequested = false;
+
+    private boolean closed = false;
+
+    // flusher写盘失败的原因，此后的写入与等待都会抛出该异常
+    private IOException failure;
+
+    private final Thread flusher;
+
+    // 从文件的offset处开始追加
+    public GroupCommitWriter(FileChannel channel, long offset, Durability durability, long syncIntervalMs, int bufferLimit) {
+        this.channel = channel;
+        this.durability = durability;
+        this.syncIntervalMs = syncIntervalMs;
+        this.bufferLimit = bufferLimit;
+        this.buffer = new byte[Math.min(bufferLimit, 64 * 1024)];
+        this.spare = new byte[buffer.length];
+        this.appendedOffset = offset;
+        this.writtenOffset = offset;
+        this.syncedOffset = offset;
+
+        this.flusher = new Thread(this::flushLoop, "tmdb-wal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+
+    // 追加一条日志记录，返回该记录在文件中的起始偏移
+    // 缓冲区已满时等待flusher腾出空间；不等待落盘，需要时调用awaitDurable
+    public long append(byte[] record) {
+        lock.lock();
+        try {
+            while (bufferSize > 0 && bufferSize + record.length > bufferLimit && failure == null && !closed) {
+                progress.awaitUninterruptibly();
+            }
+            checkState();
+            ensureCapacity(bufferSize + record.length);
+            System.arraycopy(record, 0, buffer, bufferSize, record.length);
+            bufferSize += record.length;
+            long start = appendedOffset;
+            appendedOffset += record.length;
+            workAvailable.signal();
+            return start;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 按持久化方式等待end之前的日志：BATCH等待其force，NONE与INTERVAL直接返回
+    public void awaitDurable(long end) {
+        if (durability == Durability.BATCH) {
+            awaitSynced(end);
+        }
+    }
+
+    // 将已追加的日志全部写入文件并force，用于设置检查点与读取日志之前
+    public void flush() {
+        long target;
+        lock.lock();
+        try {
+            target = appendedOffset;
+            if (syncedOffset < target) {
+                syncRequested = true;
+                workAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitSynced(target);
+    }
+
+    // 已追加的日志末尾偏移
+    public long getAppendedOffset() {
+        lock.lock();
+        try {
+            return appendedOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 写完缓冲区中的日志后停止flusher，不关闭文件
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void awaitSynced(long end) {
+        lock.lock();
+        try {
+            while (syncedOffset < end) {
+                if (failure != null) {
+                    throw new UncheckedIOException(failure);
+                }
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            int batchSize;
+            long position;
+            boolean force;
+            lock.lock();
+            try {
+                while (bufferSize == 0 && !closed && !syncRequested && !intervalSyncDue()) {
+                    if (durability == Durability.INTERVAL && writtenOffset > syncedOffset) {
+                        long waitMs = Math.max(1, lastSyncTime + syncIntervalMs - System.currentTimeMillis());
+                        workAvailable.await(waitMs, TimeUnit.MILLISECONDS);
+                    } else {
+                        workAvailable.await();
+                    }
+                }
+                if (closed && bufferSize == 0 && writtenOffset == syncedOffset) {
+                    return;
+                }
+                // 交换缓冲区，flusher写盘期间写日志的线程继续向另一块缓冲区追加
+                batch = buffer;
+                batchSize = bufferSize;
+                position = writtenOffset;
+                buffer = spare;
+                bufferSize = 0;
+                force = durability == Durability.BATCH || syncRequested || closed || intervalSyncDue();
+                syncRequested = false;
+                progress.signalAll();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                ByteBuffer src = ByteBuffer.wrap(batch, 0, batchSize);
+                while (src.hasRemaining()) {
+                    position += channel.write(src, position);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                spare = batch;
+                if (error != null) {
+                    failure = error;
+                    progress.signalAll();
+                    return;
+                }
+                writtenOffset += batchSize;
+                if (force) {
+                    syncedOffset = writtenOffset;
+                    lastSyncTime = System.currentTimeMillis();
+                }
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // INTERVAL方式下，有未force的日志且距上次force已超过间隔
+    private boolean intervalSyncDue() {
+        return durability == Durability.INTERVAL
+                && (writtenOffset > syncedOffset || bufferSize > 0)
+                && System.currentTimeMillis() - lastSyncTime >= syncIntervalMs;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(size, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, bufferSize);
+            buffer = newBuffer;
+        }
+    }
+
+    private void checkState() {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("log writer is closed");
+        }
+    }
+}
@@ -1,106 +1,230 @@
 package edu.whu.tmdb.Log;
 
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
-import com.alibaba.fastjson2.JSON;
 import edu.whu.tmdb.storage.memory.MemManager;
-import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.utils.K;
+import edu.whu.tmdb.storage.utils.V;
 import edu.whu.tmdb.util.FileOperation;
 
+// 预写日志（WAL）
+// 日志记录格式：
+// int      payload长度
+// int      payload的CRC32
+// payload  int logid + byte op + int key长度 + key的UTF-8字节 + int value长度 + value字节
+// 写日志的线程把编码好的记录交给GroupCommitWriter组提交，读日志时遇到不完整或校验失败的记录即停止
+// 日志按追加顺序分段存储，文件名为 tmdblog_<段起始偏移>，偏移在所有段之间连续编号
+// 只向最新的段追加，超过Constants.LOG_SEGMENT_SIZE后切换新段；设置检查点时删除整段都在检查点之前的旧段
 public class LogManager {
-    public File logFile;//日志文件
 
-    public File fileTree;//存B树文件
-    BufferedOutputStream bTreeWriteAccess;
+    // 段文件名前缀
+    static final String SEGMENT_PREFIX = "tmdblog_";
+
+    // 当前追加的段文件
+    public File logFile;
 
     public static RandomAccessFile logIOAccess;
     public static int checkpoint;//日志检查点
     public static long check_off;//检查点在日志中偏移位置
-    static long limitedSize = 10 * 10 * 1024;//日志文件限制大小
-    static long writeB_size = 5 * 10 * 1024;//写b树时日志文件大小
-    static long currentOffset;
-    static int currentId;
+    long currentOffset;//下一条日志记录的偏移
+    int currentId;//下一条日志记录的id
 
+    // 记录头：payload长度 + CRC32
+    static final int RECORD_HEADER_SIZE = 8;
+    // payload的最小、最大长度，超出范围的长度视为损坏
+    static final int MIN_PAYLOAD_SIZE = 4 + 1 + 4 + 4;
+    static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
 
-    public MemManager memManager;
+    // 日志的持久化方式
+    public final Durability durability;
+
+    // 组提交写入器，写入当前段，其中的偏移为段内偏移
+    private GroupCommitWriter writer;
+
+    // 所有段：段起始偏移 -> 段文件
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+
+    // 当前段的起始偏移
+    private long segmentBase;
+
+    // logid -> 偏移，logid从firstId开始连续，offsets[logid - firstId]即该记录的偏移
+    private long[] offsets = new long[1024];
+    private int offsetCount = 0;
+    private int firstId = 0;
+
+    // key -> 该key最近一条日志记录的偏移
+    private final Map<String, Long> keyOffsets = new HashMap<>();
+
+    // 正在redo，此时不设置检查点
+    private boolean recovering = false;
 
-    //初始化索引b树
-    public BTree_Indexer<String, Long> bTree_indexer;
+    // redo时每批投递给一个分区的记录数，以及每个分区最多积压的批数
+    private static final int REPLAY_BATCH_SIZE = 1024;
+    private static final int REPLAY_QUEUE_CAPACITY = 16;
 
-    //建立hashmap将日志记录按对象分类
-    public static java.util.Map<String, List<Integer>> Map;
-    //遍历hashMap的keySet
-    public Iterator<Map.Entry<String, List<Integer>>> iterator;
+
+    public MemManager memManager;
 
     public LogManager(MemManager memManager){
+        this(memManager, Constants.LOG_DURABILITY);
+    }
+
+    public LogManager(MemManager memManager, Durability durability){
         this.memManager = memManager;
+        this.durability = durability;
 
         File dir = new File(Constants.LOG_BASE_DIR);
         if (!dir.exists()) {
             boolean mkdirs = dir.mkdirs();
 //            System.out.println(mkdirs);
         }
-        logFile = new File(Constants.LOG_BASE_DIR + "tmdblog");
-        fileTree = new File(Constants.LOG_BASE_DIR + "log_btree");
-        FileOperation.createNewFile(logFile);
-        FileOperation.createNewFile(fileTree);
-        try{
-            bTreeWriteAccess = new BufferedOutputStream(new FileOutputStream(fileTree));
-            logIOAccess = new RandomAccessFile(logFile, "rw");
-        }catch (FileNotFoundException e){
-            e.printStackTrace();
+        checkpoint = -1;
+        check_off = -1;
+        // 启动时扫描已有日志，从最后一条完整记录之后继续追加，截掉崩溃时写了一半的记录
+        openSegments();
+    }
+
+    //清空日志，删除所有段
+    public synchronized void init() {
+        closeActiveSegment();
+        deleteDirectory(Constants.LOG_BASE_DIR);
+        File dir = new File(Constants.LOG_BASE_DIR);
+        if (!dir.exists()) {
+            dir.mkdirs();
         }
-        Map = new HashMap<String, List<Integer>>();
         checkpoint = -1;
         check_off = -1;
-        currentOffset = 0;
+        openSegments();
+    }
+
+    // 按起始偏移顺序扫描所有段，恢复currentId、currentOffset与索引
+    // 段内遇到不完整或损坏的记录时截断该段，并丢弃之后的所有段
+    private void openSegments() {
+        // 旧版本的单文件日志作为起始偏移为0的段
+        File legacy = new File(Constants.LOG_BASE_DIR + "tmdblog");
+        if (legacy.exists()) {
+            legacy.renameTo(segmentFile(0));
+        }
+        segments.clear();
+        File[] files = new File(Constants.LOG_BASE_DIR).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length())), file);
+                    } catch (NumberFormatException e) {
+                        // 不是日志段
+                    }
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            FileOperation.createNewFile(segmentFile(0));
+            segments.put(0L, segmentFile(0));
+        }
+
+        offsetCount = 0;
+        keyOffsets.clear();
         currentId = 0;
-        //app启动时将b树从磁盘加载到内存
-        if (fileTree.length() == 0) {
-            bTree_indexer = new BTree_Indexer<>();
-        } else {
-            bTree_indexer = new BTree_Indexer<>("log_btree", 0);
+        currentOffset = segments.firstKey();
+        boolean broken = false;
+        Iterator<Map.Entry<Long, File>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, File> segment = it.next();
+            long base = segment.getKey();
+            File file = segment.getValue();
+            if (broken || base != currentOffset) {
+                if (!broken) {
+                    System.out.println("日志段" + file.getName() + "与之前的段不连续，丢弃该段及之后的段");
+                }
+                broken = true;
+                file.delete();
+                it.remove();
+                continue;
+            }
+            try (DataInputStream in = openSegment(file, 0)) {
+                LogTableItem item;
+                while ((item = readRecord(in, currentOffset)) != null) {
+                    index(item);
+                    currentId = item.logid + 1;
+                    currentOffset += recordSize(item);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (file.length() > currentOffset - base) {
+                System.out.println("日志在偏移" + currentOffset + "处不完整或已损坏，截断之后的内容");
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(currentOffset - base);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                broken = true;
+            }
         }
+
+        segmentBase = segments.lastKey();
+        openActiveSegment();
     }
 
-    //初始化新日志文件与新索引b树文件
-    public void init() throws FileNotFoundException {
-        Map.clear();//删除Map中所有键值对
-        if (deleteDirectory(Constants.LOG_BASE_DIR)) {
-            File dir = new File(Constants.LOG_BASE_DIR);
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
-            logFile = new File(Constants.LOG_BASE_DIR + "tmdblog");
-            fileTree = new File(Constants.LOG_BASE_DIR + "log_btree");
-            FileOperation.createNewFile(logFile);
-            FileOperation.createNewFile(fileTree);
-            bTreeWriteAccess = new BufferedOutputStream(new FileOutputStream(fileTree));
+    // 打开当前段并从其末尾开始追加
+    private void openActiveSegment() {
+        logFile = segments.get(segmentBase);
+        try {
             logIOAccess = new RandomAccessFile(logFile, "rw");
-            checkpoint = -1;
-            check_off = -1;
-            currentOffset = 0;
-            currentId = 0;
-            //app启动时将b树从磁盘加载到内存
-            if (fileTree.length() == 0) {
-                bTree_indexer = new BTree_Indexer<>();
-            } else {
-                bTree_indexer = new BTree_Indexer<>("log_btree", 0);
-            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writer = new GroupCommitWriter(logIOAccess.getChannel(), currentOffset - segmentBase, durability,
+                Constants.LOG_SYNC_INTERVAL_MS, Constants.LOG_BUFFER_SIZE);
+    }
+
+    // 写完并force当前段中的日志后关闭该段
+    private void closeActiveSegment() {
+        writer.close();
+        try {
+            logIOAccess.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
+    // 当前段写满，切换到从currentOffset开始的新段
+    private void rollSegment() {
+        closeActiveSegment();
+        segmentBase = currentOffset;
+        segments.put(segmentBase, segmentFile(segmentBase));
+        openActiveSegment();
+    }
+
+    private static File segmentFile(long base) {
+        return new File(Constants.LOG_BASE_DIR + SEGMENT_PREFIX + base);
+    }
+
     //删除dir目录及下面的两个文件
     public static boolean deleteDirectory(String dir) {
         // 如果dir不以文件分隔符结尾，自动添加文件分隔符
@@ -154,224 +278,376 @@ public class LogManager {
     }
 
 
-    //给定参数LogTableItem对象将日志持久化到磁盘
-    public void writeLogItemToSSTable(LogTableItem log) {
-        try {
-            logIOAccess.seek(currentOffset);
-
-            logIOAccess.writeInt(log.logid);
-            logIOAccess.writeByte(log.op);
-            logIOAccess.writeUTF(log.key);
-            logIOAccess.writeUTF(log.value);
-            logIOAccess.writeLong(log.offset);
-            /**
-             byte[] lid=int2Bytes(log.logid, 4);
-             raf.write(lid);
-             raf.writeByte(log.op);
-             raf.writeUTF(log.key);
-             raf.writeUTF(log.value);
-             byte[] lof=long2Bytes(log.offset);
-             raf.write(lof);
-             **/
-            currentOffset = logIOAccess.getFilePointer();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    //给定参数LogTableItem对象将日志交给组提交写入器，返回该记录在当前段中的末尾偏移
+    public long writeLogItemToSSTable(LogTableItem log) {
+        byte[] record = encodeRecord(log);
+        log.offset = segmentBase + writer.append(record);
+        currentOffset = log.offset + record.length;
+        return currentOffset - segmentBase;
     }
 
     //给定参数key、op、value，将日志持久化到磁盘
-    public void WriteLog(String k, Byte op, String v) {
-        int flag = 0;
-        LogTableItem LogItem = new LogTableItem(currentId, op, k, v);     //把语句传入logItem，这个时候都是未完成
-        LogItem.offset = currentOffset;
-        currentId++;
-        writeLogItemToSSTable(LogItem);
-        //System.out.println("该条日志已写入，详细信息为：" + LogItem);
-
-        iterator = Map.entrySet().iterator();
-        //将该日志记录的logid按对象分类
-
-        while (iterator.hasNext()) {
-            Map.Entry<String, List<Integer>> entry = iterator.next();
-            if (LogItem.value == entry.getKey()) {
-                entry.getValue().add(LogItem.logid);
-                flag = 1;
-                break;
+    public void WriteLog(String k, Byte op, byte[] v) {
+        GroupCommitWriter segmentWriter;
+        long end;
+        synchronized (this) {
+            // logid与偏移的分配必须和追加顺序一致
+            LogTableItem LogItem = new LogTableItem(currentId, op, k, v);     //把语句传入logItem，这个时候都是未完成
+            currentId++;
+            segmentWriter = writer;
+            end = writeLogItemToSSTable(LogItem);
+            index(LogItem);
+
+            if (currentOffset - segmentBase >= Constants.LOG_SEGMENT_SIZE) {
+                rollSegment();
             }
         }
-        if (flag == 0) {
-            List<Integer> list = new ArrayList<Integer>();//hashmap里没找到该对象则新建一个列表
-            list.add(LogItem.logid);
-            Map.put(LogItem.value, list);
-        }
-        /**
-         List<Integer> list = new ArrayList<Integer>();
-         list.add(1);
-         list.add(2);
-         Map.put("v3",list);
-         List<Integer> list1 = new ArrayList<Integer>();
-         list1.add(3);
-         list1.add(4);
-         Map.put("v4",list1);
-         **/
+        // 在锁外等待落盘，同一批次的写入者共享一次force
+        segmentWriter.awaitDurable(end);
+    }
 
-        bTree_indexer.insert(Integer.toString(LogItem.logid), LogItem.offset);//将记录offset的节点插入b树中
-        int type = checkFileInSize();
-        if (type == 2) {//将索引B树持久化到磁盘
-            bTree_indexer.write(bTreeWriteAccess, 0);
+    //记录logid与key对应的偏移，均为O(1)
+    private void index(LogTableItem LogItem) {
+        if (offsetCount == 0) {
+            firstId = LogItem.logid;
+        }
+        if (offsetCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
         }
+        offsets[offsetCount++] = LogItem.offset;
+        keyOffsets.put(LogItem.key, LogItem.offset);
     }
 
+    //下一条日志记录的偏移，之前的日志都已追加到写入器中
+    public synchronized long getCurrentOffset() {
+        return currentOffset;
+    }
 
-    //设置检查点
-    public void setCheckpoint() throws FileNotFoundException {
-        int type = checkFileInSize();
-        if (type == 1) {//新建日志文件与索引b树文件重新写
-            init();
-        } else {
-            checkpoint = currentId;
-            check_off = currentOffset;
+    //将已追加的日志全部落盘，与持久化方式无关
+    public void flush() {
+        GroupCommitWriter segmentWriter;
+        synchronized (this) {
+            segmentWriter = writer;
         }
+        segmentWriter.flush();
+    }
+
+
+    //设置检查点：当前所有日志对应的数据都已刷盘
+    public void setCheckpoint() {
+        setCheckpoint(getCurrentOffset());
         System.out.println("内存中数据刷盘，设置检查点！");
     }
 
-    //加载REDO log
-    public LogTableItem[] readRedo() throws IOException {
-        int redo_num = 0;
-        LogTableItem[] redo_log = new LogTableItem[currentId + 2];
-        //数组初始化
-        for (int j = 0; j < currentId + 2; j++) {
-            redo_log[j] = new LogTableItem(0, (byte) 0, null, null);
-        }
-        int i = 0;
-        if (checkpoint == -1) {//还没有检查点，从头开始redo
-            long readpos = 0;
-            redo_num = currentId + 1;
-            while (redo_num != 0) {
-                logIOAccess.seek(readpos);
-
-                redo_log[i].logid = logIOAccess.readInt();
-                redo_log[i].op = logIOAccess.readByte();
-                redo_log[i].key = logIOAccess.readUTF();
-                redo_log[i].value = logIOAccess.readUTF();
-                redo_log[i].offset = logIOAccess.readLong();
-                redo_num--;
-                i++;
-                readpos = logIOAccess.getFilePointer();
+    //设置检查点：偏移offset之前的日志对应的数据都已刷盘
+    //删除整段都在检查点之前的旧段，当前段只随之后的切换被删除
+    public synchronized void setCheckpoint(long offset) {
+        if (recovering || offset <= check_off) {
+            return;
+        }
+        check_off = offset;
+        checkpoint = firstId + lowerBound(offset);
+
+        // 所有日志都已在检查点之前时切换到新段，使当前段也能被删除，正常关闭后重启不必redo
+        if (offset >= currentOffset && currentOffset > segmentBase) {
+            rollSegment();
+        }
+
+        while (segments.size() > 1) {
+            Map.Entry<Long, File> oldest = segments.firstEntry();
+            if (segments.higherKey(oldest.getKey()) > offset) {
+                break;
             }
-        } else {
-            redo_num = currentId - checkpoint;
-            long readpos = check_off;
-            while (redo_num != 0) {
-                logIOAccess.seek(readpos);
-
-                redo_log[i].logid = logIOAccess.readInt();
-                redo_log[i].op = logIOAccess.readByte();
-                redo_log[i].key = logIOAccess.readUTF();
-                redo_log[i].value = logIOAccess.readUTF();
-                redo_log[i].offset = logIOAccess.readLong();
-                redo_num--;
-                i++;
-                readpos = logIOAccess.getFilePointer();
+            if (!oldest.getValue().delete()) {
+                System.out.println("删除日志段" + oldest.getValue().getName() + "失败！");
+            }
+            segments.remove(oldest.getKey());
+        }
+
+        // 丢弃已删除段中日志的记录
+        long firstOffset = segments.firstKey();
+        int dropped = lowerBound(firstOffset);
+        if (dropped > 0) {
+            System.arraycopy(offsets, dropped, offsets, 0, offsetCount - dropped);
+            offsetCount -= dropped;
+            firstId += dropped;
+            keyOffsets.values().removeIf(o -> o < firstOffset);
+        }
+    }
+
+    //offsets中第一个不小于offset的位置
+    private int lowerBound(long offset) {
+        int lo = 0, hi = offsetCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offsets[mid] < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
-        return redo_log;
+        return lo;
+    }
+
+    //加载REDO log：从检查点开始顺序读取，遇到不完整或校验失败的记录即停止
+    public synchronized LogTableItem[] readRedo() throws IOException {
+        writer.flush();
+        long readpos = Math.max(check_off, segments.firstKey());//还没有检查点，从头开始redo
+        List<LogTableItem> redo_log = new ArrayList<>();
+        readLog(segments, readpos, currentOffset, redo_log::add);
+        return redo_log.toArray(new LogTableItem[0]);
     }
 
     //REDO
     public void redo() throws IOException {
-        int redo_num = currentId - checkpoint;
-        LogTableItem[] redo_log = new LogTableItem[redo_num + 1];
-        //数组初始化
-        for (int j = 0; j < redo_num; j++) {
-            redo_log[j] = new LogTableItem(0, (byte) 0, null, null);
+        redo(Constants.LOG_RECOVERY_THREADS);
+    }
+
+    //REDO：从检查点开始顺序读取一遍日志，按key分区交给threads个线程直接写入memTable（不再重新编码、不再写日志）
+    //同一key的记录总在同一个分区中按日志顺序写入，结果与逐条串行redo相同
+    //全部写入后flush所有memTable并设置检查点，返回redo的记录数
+    public long redo(int threads) throws IOException {
+        TreeMap<Long, File> snapshot;
+        long readpos;
+        long end;
+        synchronized (this) {
+            writer.flush();
+            snapshot = new TreeMap<>(segments);
+            readpos = Math.max(check_off, segments.firstKey());//还没有检查点，从头开始redo
+            end = currentOffset;
+            // redo期间memTable切换时记录的日志偏移不代表之前的日志都已写入memTable，暂停设置检查点
+            recovering = true;
+        }
+
+        long count;
+        try {
+            count = threads <= 1 ? replaySerial(snapshot, readpos, end) : replayPartitioned(snapshot, readpos, end, threads);
+            memManager.saveMemTableToFile();
+        } finally {
+            synchronized (this) {
+                recovering = false;
+            }
         }
-        redo_log = readRedo();
-        for (int i = 0; i < redo_num; i++) {
-            Tuple t = JSON.parseObject(redo_log[i].value, Tuple.class);
-            System.out.println("崩溃后redo，数据重新恢复到数据库中！");
-            memManager.add(t);
+        setCheckpoint(end);
+        if (count > 0) {
+            System.out.println("崩溃后redo，" + count + "条数据重新恢复到数据库中！");
         }
+        return count;
     }
 
+    private long replaySerial(TreeMap<Long, File> snapshot, long readpos, long end) throws IOException {
+        long[] count = new long[1];
+        readLog(snapshot, readpos, end, item -> {
+            memManager.replay(new K(item.key), new V(item.value));
+            count[0]++;
+        });
+        return count[0];
+    }
 
-    //检查日志文件大小是否超过限制
-    private int checkFileInSize() {
-        if (logFile.length() > limitedSize) {
-            return 1;
+    private long replayPartitioned(TreeMap<Long, File> snapshot, long readpos, long end, int threads) throws IOException {
+        // 每个分区一个有界队列，读取线程按批投递，空批次表示结束
+        List<BlockingQueue<LogTableItem[]>> queues = new ArrayList<>();
+        LogTableItem[][] batches = new LogTableItem[threads][];
+        int[] batchSizes = new int[threads];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<LogTableItem[]> queue = new ArrayBlockingQueue<>(REPLAY_QUEUE_CAPACITY);
+            queues.add(queue);
+            batches[i] = new LogTableItem[REPLAY_BATCH_SIZE];
+            workers[i] = new Thread(() -> {
+                try {
+                    LogTableItem[] batch;
+                    while ((batch = queue.take()).length > 0) {
+                        // 出错后继续取出批次，避免读取线程阻塞在满队列上
+                        if (failure.get() != null) {
+                            continue;
+                        }
+                        try {
+                            for (LogTableItem item : batch) {
+                                memManager.replay(new K(item.key), new V(item.value));
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "tmdb-redo-" + i);
+            workers[i].start();
         }
-        if (logFile.length() > writeB_size) {
-            return 2;
-        } else {
-            return 0;
-        }
-    }
-
-    //删除不必要日志记录（检查点之前的）
-
-//    public void DeleteLog() {
-//        try {
-//            logIOAccess.seek(0);
-//            // 写文件的位置标记,从文件开头开始,后续读取文件内容从该标记开始
-//            long writePosition = logIOAccess.getFilePointer();
-//            for (int i = 0; i < check_off; i++) {
-//                Byte b = logIOAccess.readByte();
-//                if (b==null) {
-//                    break;
-//                }
-//            }
-//            // Shift the next lines upwards.
-//            // 读文件的位置标记,写完之后回到该标记继续读该行
-//            long readPosition = logIOAccess.getFilePointer();
-//
-//            // 利用两个标记,
-//            byte[] buff = new byte[10];
-//            int n;
-//            currentOffset=0;
-//            while (-1 != (n = logIOAccess.read(buff))) {
-//                currentOffset=writePosition;
-//                long off=currentOffset;
-//                logIOAccess.seek(writePosition);
-//                logIOAccess.write(buff, 0, n);
-//                readPosition += n;
-//                writePosition += n;
-//                logIOAccess.seek(readPosition);
-//            }
-//            logIOAccess.setLength(writePosition);
-//            logIOAccess.seek(logFile.length());//指针还原到更新日志文件末尾
-//            currentOffset= logIOAccess.getFilePointer();//设置现在的currentOffset
-//            //清除检查点
-//            check_off=-1;
-//            checkpoint=-1;
-//            //起始日志id为checkpoint
-//            start=checkpoint;
-//        } catch (IOException e) {
-//            throw e;
-//        }
-//    }
-
-    public void loadLog() throws IOException {
-        logIOAccess.seek(0);
-        for (int i = 0; i < currentId; i++) {
-            System.out.println("id为" + logIOAccess.readInt() + " op为" + logIOAccess.readByte() + " key为"
-                    + logIOAccess.readUTF() + " value为" + logIOAccess.readUTF() + " offset为" + logIOAccess.readLong());
+
+        long[] count = new long[1];
+        try {
+            readLog(snapshot, readpos, end, item -> {
+                int partition = (item.key.hashCode() & 0x7fffffff) % threads;
+                batches[partition][batchSizes[partition]++] = item;
+                if (batchSizes[partition] == REPLAY_BATCH_SIZE) {
+                    putQuietly(queues.get(partition), batches[partition]);
+                    batches[partition] = new LogTableItem[REPLAY_BATCH_SIZE];
+                    batchSizes[partition] = 0;
+                }
+                count[0]++;
+            });
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                if (batchSizes[i] > 0) {
+                    putQuietly(queues.get(i), Arrays.copyOf(batches[i], batchSizes[i]));
+                }
+                putQuietly(queues.get(i), new LogTableItem[0]);
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (failure.get() != null) {
+            throw new IOException("redo failed", failure.get());
+        }
+        return count[0];
+    }
+
+    private static void putQuietly(BlockingQueue<LogTableItem[]> queue, LogTableItem[] batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted during redo", e);
         }
     }
 
+
+    //将日志记录编码为 长度 + CRC32 + payload
+    static byte[] encodeRecord(LogTableItem log) {
+        byte[] key = log.key.getBytes(StandardCharsets.UTF_8);
+        byte[] value = log.value == null ? new byte[0] : log.value;
+        int payloadSize = MIN_PAYLOAD_SIZE + key.length + value.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadSize);
+        buffer.putInt(payloadSize);
+        buffer.putInt(0);
+        buffer.putInt(log.logid);
+        buffer.put(log.op);
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.putInt(value.length);
+        buffer.put(value);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER_SIZE, payloadSize);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    //读取offset处的一条日志记录，到达末尾、记录不完整或校验失败时返回null
+    static LogTableItem readRecord(DataInput in, long offset) throws IOException {
+        byte[] payload;
+        int crc;
+        try {
+            int payloadSize = in.readInt();
+            if (payloadSize < MIN_PAYLOAD_SIZE || payloadSize > MAX_PAYLOAD_SIZE) {
+                return null;
+            }
+            crc = in.readInt();
+            payload = new byte[payloadSize];
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 actual = new CRC32();
+        actual.update(payload, 0, payload.length);
+        if ((int) actual.getValue() != crc) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        LogTableItem item = new LogTableItem();
+        item.logid = buffer.getInt();
+        item.op = buffer.get();
+        int keyLength = buffer.getInt();
+        if (keyLength < 0 || keyLength > buffer.remaining() - 4) {
+            return null;
+        }
+        item.key = new String(payload, buffer.position(), keyLength, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + keyLength);
+        int valueLength = buffer.getInt();
+        if (valueLength != buffer.remaining()) {
+            return null;
+        }
+        item.value = new byte[valueLength];
+        buffer.get(item.value);
+        item.offset = offset;
+        return item;
+    }
+
+    //日志记录在文件中占用的字节数
+    static int recordSize(LogTableItem item) {
+        return RECORD_HEADER_SIZE + MIN_PAYLOAD_SIZE
+                + item.key.getBytes(StandardCharsets.UTF_8).length + item.value.length;
+    }
+
+    //从段文件的position处顺序读取
+    private static DataInputStream openSegment(File file, long position) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        input.getChannel().position(position);
+        return new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+    }
+
+    //从offset处跨段顺序读取end之前的完整日志记录，遇到不完整或校验失败的记录时停止，返回读到的位置
+    private static long readLog(TreeMap<Long, File> segments, long offset, long end, Consumer<LogTableItem> consumer) throws IOException {
+        Long first = segments.floorKey(offset);
+        if (first == null) {
+            return offset;
+        }
+        for (Map.Entry<Long, File> segment : segments.tailMap(first, true).entrySet()) {
+            long base = segment.getKey();
+            File file = segment.getValue();
+            if (base > offset || offset >= end) {
+                break;
+            }
+            try (DataInputStream in = openSegment(file, offset - base)) {
+                LogTableItem item;
+                while (offset < end && (item = readRecord(in, offset)) != null) {
+                    consumer.accept(item);
+                    offset += recordSize(item);
+                }
+            }
+            if (offset < end && offset - base < file.length()) {
+                break;
+            }
+        }
+        return offset;
+    }
+
+    public synchronized void loadLog() throws IOException {
+        writer.flush();
+        readLog(segments, segments.firstKey(), currentOffset, System.out::println);
+    }
+
     //寻找指定logid的日志在文件中的位置并返回该日志对象
-    public LogTableItem searchLog(int logID) throws IOException {
-        long off = bTree_indexer.search(Integer.toString(logID));
-        logIOAccess.seek(off);
-        LogTableItem logItem = new LogTableItem();
-        logItem.logid = logIOAccess.readInt();
-        logItem.op = logIOAccess.readByte();
-        logItem.key = logIOAccess.readUTF();
-        logItem.value = logIOAccess.readUTF();
-        logItem.offset = logIOAccess.readLong();
-        return logItem;
+    public synchronized LogTableItem searchLog(int logID) throws IOException {
+        int index = logID - firstId;
+        if (index < 0 || index >= offsetCount) {
+            return null;
+        }
+        return readLogAt(offsets[index]);
+    }
+
+    //寻找指定key最近一条日志
+    public synchronized LogTableItem searchLog(String key) throws IOException {
+        Long offset = keyOffsets.get(key);
+        return offset == null ? null : readLogAt(offset);
+    }
+
+    private LogTableItem readLogAt(long offset) throws IOException {
+        writer.flush();
+        Map.Entry<Long, File> segment = segments.floorEntry(offset);
+        try (RandomAccessFile raf = new RandomAccessFile(segment.getValue(), "r")) {
+            raf.seek(offset - segment.getKey());
+            return readRecord(raf, offset);
+        }
     }
 
 
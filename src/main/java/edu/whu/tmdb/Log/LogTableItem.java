@@ -5,10 +5,10 @@ public class LogTableItem {
     public int logid;//日志记录id
     public Byte op;//0表示插入，1表示删除操作
     public String key;//键
-    public String value;//值
+    public byte[] value;//值，tuple的二进制行格式（TupleCodec）
     protected long offset;//日志记录在文件中的偏移量
 
-    public LogTableItem(int logid,Byte op,String key,String value){
+    public LogTableItem(int logid,Byte op,String key,byte[] value){
         this.logid=logid;
         this.op=op;
         this.key=key;
@@ -19,6 +19,6 @@ public class LogTableItem {
     @Override
     public String toString(){
         return "id为"+ this.logid+" op为"+ this.op+" key为"
-                + this.key + " value为"+ this.value +" offset为"+ this.offset;
+                + this.key + " value长度为"+ (this.value == null ? 0 : this.value.length) +" offset为"+ this.offset;
     }
 }
@@ -9,6 +9,7 @@ import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Base64;
 import java.util.Locale;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -85,7 +86,7 @@ public class LogWriter {
             buffer.put(Integer.toString(log.logid));
             buffer.put(Byte.toString(log.op));
             buffer.put(log.key);
-            buffer.put(log.value);
+            buffer.put(Base64.getEncoder().encodeToString(log.value));
             buffer.put(Long.toString(log.offset));
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -110,7 +111,7 @@ public class LogWriter {
 
     //给定参数key、op、value，将日志持久化到磁盘
     public void Write(String k,Byte op,String v) {
-        LogTableItem LogItem = new LogTableItem(currentId,op,k,v);     //把语句传入logItem，这个时候都是未完成
+        LogTableItem LogItem = new LogTableItem(currentId,op,k,v.getBytes(StandardCharsets.UTF_8));     //把语句传入logItem，这个时候都是未完成
         LogItem.offset=currentOffset;
         currentId++;
         writeBuffer(LogItem);
@@ -0,0 +1,57 @@
+package edu.whu.tmdb.Log;
+
+
+import edu.whu.tmdb.storage.memory.MemManager;
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleCodec;
+import edu.whu.tmdb.storage.utils.V;
+
+// redo耗时测试：只写日志、不写memTable，模拟崩溃前未flush的数据，再计时redo
+// 用法：RecoveryBenchmark [日志大小MB=2048] [redo线程数=Constants.LOG_RECOVERY_THREADS] [key数量=1000000] [是否校验=false]
+// 需在空目录下运行，数据写在当前目录的data/下；线程数为1即逐条串行redo，可用于对比
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long logBytes = (args.length > 0 ? Long.parseLong(args[0]) : 2048) * 1024 * 1024;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Constants.LOG_RECOVERY_THREADS;
+        int keyCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        boolean verify = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+        MemManager memManager = MemManager.getInstance();
+        LogManager logManager = memManager.logManager;
+
+        // 生成日志：第i条记录为类0中tupleId为(i % keyCount)的tuple，tuple的第一个字段为i
+        String payload = new String(new char[200]).replace('\0', 'x');
+        long start = logManager.getCurrentOffset();
+        long t1 = System.currentTimeMillis();
+        long n = 0;
+        while (logManager.getCurrentOffset() - start < logBytes) {
+            Tuple t = new Tuple();
+            t.tupleId = (int) (n % keyCount);
+            t.tuple = new Object[]{n, payload};
+            logManager.WriteLog(MemManager.tupleKey(t.classId, t.tupleId).key, (byte) 0, TupleCodec.encode(t));
+            n++;
+        }
+        long t2 = System.currentTimeMillis();
+        System.out.println("生成日志：" + n + "条记录，" + (logManager.getCurrentOffset() - start) / 1024 / 1024 + "MB，耗时" + (t2 - t1) + "ms");
+
+        // redo
+        long count = logManager.redo(threads);
+        long t3 = System.currentTimeMillis();
+        System.out.println("redo：" + threads + "个线程，" + count + "条记录，耗时" + (t3 - t2) + "ms");
+
+        if (verify) {
+            // 每个key应为其最后一条记录的值
+            long bad = 0;
+            for (int key = 0; key < Math.min(n, keyCount); key++) {
+                long expected = key + (n - 1 - key) / keyCount * keyCount;
+                V v = memManager.search(MemManager.tupleKey(0, key));
+                Tuple t = v == null ? null : TupleCodec.decode(v.valueBytes);
+                if (t == null || !String.valueOf(expected).equals(String.valueOf(t.tuple[0]))) {
+                    bad++;
+                }
+            }
+            System.out.println("校验：" + bad + "个key与串行redo的结果不一致");
+        }
+    }
+}
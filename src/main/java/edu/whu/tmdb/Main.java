@@ -6,7 +6,6 @@ import edu.whu.tmdb.query.operations.utils.SelectResult;
 import edu.whu.tmdb.storage.memory.Tuple;
 import edu.whu.tmdb.util.DbOperation;
 import net.sf.jsqlparser.JSQLParserException;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
 
 import java.io.*;
@@ -75,12 +74,11 @@ public class Main {
         Transaction transaction = Transaction.getInstance();    // 创建一个事务实例
         SelectResult selectResult = null;
         try {
-            // 使用JSqlparser进行sql语句解析，会根据sql类型生成对应的语法树
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(s.getBytes());
-            Statement stmt = CCJSqlParserUtil.parse(byteArrayInputStream);
+            // 使用JSqlparser进行sql语句解析，会根据sql类型生成对应的语法树，相同的sql复用缓存的语法树
+            Statement stmt = transaction.parse(s);
             selectResult = transaction.query("", -1, stmt);
             if(!stmt.getClass().getSimpleName().toLowerCase().equals("select")){
-                transaction.SaveAll();
+                transaction.commit();
             }
         }catch (JSQLParserException e) {
             // e.printStackTrace();    // 打印语法错误的堆栈信息
@@ -0,0 +1,32 @@
+package edu.whu.tmdb.query;
+
+import edu.whu.tmdb.query.operations.utils.SelectResult;
+import net.sf.jsqlparser.statement.Statement;
+
+/**
+ * 预编译的sql语句，由Transaction.prepare创建
+ * sql中的"?"为位置参数，每次执行时按出现顺序绑定，语法树只解析一次、可以反复执行
+ */
+public class PreparedStatement {
+
+    public final String sql;
+
+    public final Statement statement;
+
+    private final Transaction transaction;
+
+    PreparedStatement(Transaction transaction, String sql, Statement statement) {
+        this.transaction = transaction;
+        this.sql = sql;
+        this.statement = statement;
+    }
+
+    /**
+     * 绑定参数并执行
+     * @param params 第i个参数对应sql中第i + 1个"?"，支持null、整数、浮点数与字符串
+     * @return 查询语句的结果，其它语句返回null
+     */
+    public SelectResult execute(Object... params) {
+        return transaction.query(this, params);
+    }
+}
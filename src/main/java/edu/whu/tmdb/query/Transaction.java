@@ -7,22 +7,26 @@ import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import edu.whu.tmdb.Log.LogManager;
 import edu.whu.tmdb.query.operations.Create;
 import edu.whu.tmdb.query.operations.CreateDeputyClass;
+import edu.whu.tmdb.query.operations.CreateIndex;
 import edu.whu.tmdb.query.operations.Delete;
 import edu.whu.tmdb.query.operations.Drop;
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
 import edu.whu.tmdb.query.operations.Insert;
 import edu.whu.tmdb.query.operations.Select;
 import edu.whu.tmdb.query.operations.Update;
+import edu.whu.tmdb.query.operations.utils.Constants;
 import edu.whu.tmdb.query.operations.utils.MemConnect;
 import edu.whu.tmdb.query.operations.utils.SelectResult;
+import edu.whu.tmdb.query.operations.utils.StatementParameters;
 import edu.whu.tmdb.storage.level.LevelManager;
 import edu.whu.tmdb.storage.memory.MemManager;
 import edu.whu.tmdb.storage.memory.Tuple;
@@ -38,6 +42,14 @@ public class Transaction {
     public LogManager log;
     private MemConnect memConnect;
 
+    // sql文本 -> 解析后的语法树，按访问顺序淘汰最久未使用的
+    private final Map<String, Statement> statementCache = new LinkedHashMap<String, Statement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Statement> eldest) {
+            return size() > Constants.STATEMENT_CACHE_SIZE;
+        }
+    };
+
     // 1. 私有静态变量，用于保存MemConnect的单一实例
     private static volatile Transaction instance = null;        // volatile关键字使线程对 instance 的修改对其他线程立刻可见
 
@@ -84,7 +96,12 @@ public class Transaction {
 
     public void SaveAll( ) { memConnect.SaveAll(); }
 
-    public void reload() { memConnect.reload(); }
+    public void commit() { memConnect.commit(); }
+
+    public void reload() {
+        memConnect.reload();
+        invalidateStatements();
+    }
 
     public void Test(){
         TupleList tpl = new TupleList();
@@ -113,12 +130,54 @@ public class Transaction {
 
     }
 
-    public SelectResult query(String s) throws JSQLParserException {
+    /**
+     * 解析sql语句，相同sql文本的语法树从缓存中取得
+     * 语法树在执行时只读，可以在多次执行（包括不同线程）之间共享
+     */
+    public Statement parse(String sql) throws JSQLParserException {
+        synchronized (statementCache) {
+            Statement stmt = statementCache.get(sql);
+            if (stmt != null) {
+                return stmt;
+            }
+        }
         // 使用JSqlparser进行sql语句解析，会根据sql类型生成对应的语法树
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(s.getBytes());
-        Statement stmt= CCJSqlParserUtil.parse(byteArrayInputStream);
+        Statement stmt = CCJSqlParserUtil.parse(sql);
+        synchronized (statementCache) {
+            statementCache.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    // 清空语句缓存，类、索引等系统表变化后调用
+    public void invalidateStatements() {
+        synchronized (statementCache) {
+            statementCache.clear();
+        }
+    }
 
-        return this.query("", -1, stmt);
+    // 预编译sql语句，sql中的"?"为执行时绑定的位置参数
+    public PreparedStatement prepare(String sql) throws JSQLParserException {
+        return new PreparedStatement(this, sql, parse(sql));
+    }
+
+    public SelectResult query(String s) throws JSQLParserException {
+        return this.query("", -1, parse(s));
+    }
+
+    // 绑定参数后执行预编译的语句，参数只对当前线程的本次执行有效
+    public SelectResult query(PreparedStatement prepared, Object... params) {
+        try {
+            StatementParameters.bind(params);
+        } catch (TMDBException e) {
+            e.printError();
+            return null;
+        }
+        try {
+            return this.query("", -1, prepared.statement);
+        } finally {
+            StatementParameters.clear();
+        }
     }
 
     public SelectResult query(Statement s) {
@@ -136,21 +195,30 @@ public class Transaction {
 //                    log.WrteLog(s);
                     Create create = new CreateImpl();
                     create.create(stmt);
+                    invalidateStatements();
                     break;
                 case "CreateDeputyClass":
 //                    log.WriteLog(id,k,op,s);
                     CreateDeputyClass createDeputyClass = new CreateDeputyClassImpl();
                     createDeputyClass.createDeputyClass(stmt);
+                    invalidateStatements();
                     break;
                 case "CreateTJoinDeputyClass":
                     // log.WriteLog(id,k,op,s);
                     CreateTJoinDeputyClassImpl createTJoinDeputyClass = new CreateTJoinDeputyClassImpl();
                     createTJoinDeputyClass.createTJoinDeputyClass(stmt);
+                    invalidateStatements();
+                    break;
+                case "CreateIndex":
+                    CreateIndex createIndex = new CreateIndexImpl();
+                    createIndex.createIndex(stmt);
+                    invalidateStatements();
                     break;
                 case "Drop":
 //                    log.WriteLog(id,k,op,s);
                     Drop drop = new DropImpl();
                     drop.drop(stmt);
+                    invalidateStatements();
                     break;
                 case "Insert":
 //                    log.WriteLog(id,k,op,s);
@@ -0,0 +1,11 @@
+package edu.whu.tmdb.query.operations;
+
+import net.sf.jsqlparser.statement.Statement;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+
+import java.io.IOException;
+
+public interface CreateIndex {
+    boolean createIndex(Statement stmt) throws TMDBException, IOException;
+}
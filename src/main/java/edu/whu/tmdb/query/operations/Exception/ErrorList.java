@@ -9,7 +9,10 @@ package edu.whu.tmdb.query.operations.Exception;
  *      4       | column with id *** does not exist
  *      5       | SELECT SYNTAX ERROR: missing FROM-clause entry
  *      6       | type *** is not supported
- *      6       | type does not match
+ *      7       | type does not match
+ *      8       | index *** already exists
+ *      9       | index named *** does not exist
+ *     10       | parameter *** is not bound
  */
 public class ErrorList {
     public static final int TABLE_ALREADY_EXISTS        = 0;
@@ -20,4 +23,7 @@ public class ErrorList {
     public static final int MISSING_FROM_CLAUSE         = 5;
     public static final int TYPE_IS_NOT_SUPPORTED       = 6;
     public static final int TYPE_DOES_NOT_MATCH         = 7;
+    public static final int INDEX_ALREADY_EXISTS        = 8;
+    public static final int INDEX_DOES_NOT_EXIST        = 9;
+    public static final int PARAMETER_IS_NOT_BOUND      = 10;
 }
@@ -53,6 +53,12 @@ public class TMDBException extends Exception{
                 System.out.println("type: " + type + " is not supported"); break;
             case ErrorList.TYPE_DOES_NOT_MATCH:
                 System.out.println("type does not match"); break;
+            case ErrorList.INDEX_ALREADY_EXISTS:
+                System.out.println("index " + name + " already exists"); break;
+            case ErrorList.INDEX_DOES_NOT_EXIST:
+                System.out.println("index named " + name + " does not exist"); break;
+            case ErrorList.PARAMETER_IS_NOT_BOUND:
+                System.out.println("parameter ?" + id + " is not bound"); break;
             default:
                 System.out.println("ERROR"); break;
         }
@@ -72,7 +72,7 @@ public class CreateDeputyClassImpl implements CreateDeputyClass {
         int classid = MemConnect.getClassTable().maxid;//代理类的id
         int count=selectResult.getAttrid().length;//代理类的长度
         for (int i = 0; i < selectResult.getAttrid().length; i++) {
-            MemConnect.getClassTableList().add(
+            MemConnect.getClassTable().add(
                     new ClassTableItem(deputyClassName,
                             classid,
                             count,
@@ -84,7 +84,7 @@ public class CreateDeputyClassImpl implements CreateDeputyClass {
             String className=selectResult.getClassName()[i];
             int oriId=memConnect.getClassId(className);
             int oriAttrId=memConnect.getAttrid(oriId,selectResult.getAlias()[i]);
-            MemConnect.getSwitchingTableList().add(
+            MemConnect.getSwitchingTable().add(
                     new SwitchingTableItem(oriId,oriAttrId,selectResult.getAlias()[i],classid,i,selectResult.getAttrname()[i],deputyRule+"")
             );
         }
@@ -102,7 +102,7 @@ public class CreateDeputyClassImpl implements CreateDeputyClass {
         for (String s :
                 collect) {
             int oriId=memConnect.getClassId(s);
-            MemConnect.getDeputyTableList().add(
+            MemConnect.getDeputyTable().add(
                     new DeputyTableItem(oriId,deputyId,new String[]{deputyType+""})
             );
         }
@@ -124,7 +124,7 @@ public class CreateDeputyClassImpl implements CreateDeputyClass {
                     origin) {
                 int classId=memConnect.getClassId(selectResult.getClassName()[o]);
                 int oriTupleId=tuple.tupleIds[o];
-                MemConnect.getBiPointerTableList().add(
+                MemConnect.getBiPointerTable().add(
                         new BiPointerTableItem(classId,oriTupleId,deputyId,deputyTupleId)
                 );
             }
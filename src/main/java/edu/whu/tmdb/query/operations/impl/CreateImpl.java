@@ -40,7 +40,7 @@ public class CreateImpl implements Create {
         MemConnect.getClassTable().maxid++;
         int classid = MemConnect.getClassTable().maxid;
         for (int i = 0; i < count; i++) {
-            MemConnect.getClassTableList().add(new ClassTableItem(classname, classid, count, i,
+            MemConnect.getClassTable().add(new ClassTableItem(classname, classid, count, i,
                     columnDefinitionArrayList.get(i).getColumnName(), columnDefinitionArrayList.get(i).toStringDataTypeAndSpec()
                     ,"ori",""));
         }
@@ -0,0 +1,72 @@
+package edu.whu.tmdb.query.operations.impl;
+
+import edu.whu.tmdb.query.operations.Exception.ErrorList;
+import edu.whu.tmdb.storage.index.IndexManager;
+import edu.whu.tmdb.storage.memory.MemManager;
+import net.sf.jsqlparser.statement.Statement;
+
+import java.io.IOException;
+import java.util.List;
+
+import edu.whu.tmdb.storage.memory.SystemTable.ClassTableItem;
+import edu.whu.tmdb.storage.memory.SystemTable.IndexTableItem;
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.query.operations.CreateIndex;
+import edu.whu.tmdb.query.operations.utils.MemConnect;
+
+// create index 索引名 on 类名(属性名)
+// 在一个类属性上建立有序索引，where中该属性与常量的等值、范围和in比较可以使用索引
+public class CreateIndexImpl implements CreateIndex {
+
+    private final MemConnect memConnect;
+
+    public CreateIndexImpl() { this.memConnect = MemConnect.getInstance(MemManager.getInstance()); }
+
+    @Override
+    public boolean createIndex(Statement stmt) throws TMDBException, IOException {
+        return execute((net.sf.jsqlparser.statement.create.index.CreateIndex) stmt);
+    }
+
+    public boolean execute(net.sf.jsqlparser.statement.create.index.CreateIndex stmt) throws TMDBException, IOException {
+        // 1.获取索引名、类名和属性名，只支持单属性的非唯一索引
+        String indexName = stmt.getIndex().getName();
+        String className = stmt.getTable().getName();
+        List<String> columns = stmt.getIndex().getColumnsNames();
+        if (stmt.getIndex().getType() != null) {
+            throw new TMDBException(ErrorList.TYPE_IS_NOT_SUPPORTED, stmt.getIndex().getType() + " index");
+        }
+        if (columns.size() != 1) {
+            throw new TMDBException(ErrorList.TYPE_IS_NOT_SUPPORTED, "multi-column index");
+        }
+        String attrName = columns.get(0);
+
+        // 2.判断索引名的唯一性
+        if (MemConnect.getIndexTable().getIndex(indexName) != null) {
+            throw new TMDBException(ErrorList.INDEX_ALREADY_EXISTS, indexName);
+        }
+
+        // 3.找到属性在类中的位置与类型
+        int classId = memConnect.getClassId(className);
+        int attrId = -1;
+        ClassTableItem attr = null;
+        List<ClassTableItem> classItems = MemConnect.getClassTable().getClassItems(classId);
+        for (int i = 0; i < classItems.size(); i++) {
+            if (classItems.get(i).attrname.equals(attrName)) {
+                attrId = i;
+                attr = classItems.get(i);
+                break;
+            }
+        }
+        if (attr == null) {
+            throw new TMDBException(ErrorList.COLUMN_NAME_DOES_NOT_EXIST, attrName);
+        }
+        if (!IndexManager.supports(attr.attrtype)) {
+            throw new TMDBException(ErrorList.TYPE_IS_NOT_SUPPORTED, attr.attrtype);
+        }
+
+        // 4.扫描已有元组建立索引
+        int indexId = MemConnect.getIndexTable().nextIndexId();
+        memConnect.createIndex(new IndexTableItem(indexId, indexName, classId, attrId, attrName, attr.attrtype));
+        return true;
+    }
+}
@@ -7,18 +7,17 @@ import edu.whu.tmdb.storage.memory.Tuple;
 import edu.whu.tmdb.storage.memory.TupleList;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Expression;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.Statement;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
 import edu.whu.tmdb.query.operations.Delete;
-import edu.whu.tmdb.query.operations.Select;
 import edu.whu.tmdb.query.operations.utils.MemConnect;
 import edu.whu.tmdb.query.operations.utils.SelectResult;
 
@@ -36,14 +35,7 @@ public class DeleteImpl implements Delete {
         // 1.获取符合where条件的所有元组
         Table table = deleteStmt.getTable();        // 获取需要删除的表名
         Expression where = deleteStmt.getWhere();   // 获取delete中的where表达式
-        String sql = "select * from " + table;;
-        if (where != null) {
-            sql += " where " + String.valueOf(where) + ";";
-        }
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(sql.getBytes());
-        net.sf.jsqlparser.statement.select.Select parse = (net.sf.jsqlparser.statement.select.Select) CCJSqlParserUtil.parse(byteArrayInputStream);
-        Select select = new SelectImpl();
-        SelectResult selectResult = select.select(parse);
+        SelectResult selectResult = new SelectImpl().selectAll(table, where);
 
         // 2.执行delete
         delete(selectResult.getTpl());
@@ -54,15 +46,14 @@ public class DeleteImpl implements Delete {
         // 1.删除源类tuple和object table
 
             // 使用MemConnect.getObjectTableList().remove();   // 删除对象表
-        // classID + tupleId 唯一确认元组
+        // classID + tupleId 唯一确认元组，先收集要删除的元组，再遍历一次对象表删除
+        Set<Long> deleted = new HashSet<>();
         for (int i = 0; i < tupleList.tuplenum; i++) {
-            for (int j = 0; j < MemConnect.getObjectTableList().size(); j++) {
-                if (MemConnect.getObjectTableList().get(j).classid == tupleList.tuplelist.get(i).classId
-                        && MemConnect.getObjectTableList().get(j).tupleid == tupleList.tuplelist.get(i).tupleId) {
-                    MemConnect.getObjectTableList().remove(MemConnect.getObjectTableList().get(j));   // 删除对象表
-                }
-            }
+            Tuple tuple = tupleList.tuplelist.get(i);
+            memConnect.deleteIndexEntries(tuple);  // 从索引中移除
+            deleted.add(objectKey(tuple.classId, tuple.tupleId));
         }
+        MemConnect.getObjectTable().removeIf(item -> deleted.contains(objectKey(item.classid, item.tupleid)));   // 删除对象表
 
 
         // 2.删除源类biPointerTable
@@ -79,7 +70,7 @@ public class DeleteImpl implements Delete {
                 BiPointerTableItem tb = MemConnect.getBiPointerTableList().get(j);
                 if (tb.classid == tupleList.tuplelist.get(i).classId
                         && tb.objectid == tupleList.tuplelist.get(i).tupleId) {
-                    MemConnect.getBiPointerTableList().remove(tb);   // 删除对象表
+                    MemConnect.getBiPointerTable().remove(tb);   // 删除对象表
                     deputyTupleIdList.add(tb.deputyobjectid);
                 }
             }
@@ -95,4 +86,9 @@ public class DeleteImpl implements Delete {
          delete(deputyTupleList);
     }
 
+
+    // classId与tupleId组合成的key
+    private static long objectKey(int classId, int tupleId) {
+        return ((long) classId << 32) | (tupleId & 0xffffffffL);
+    }
 }
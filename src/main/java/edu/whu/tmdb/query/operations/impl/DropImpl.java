@@ -7,13 +7,10 @@ import static edu.whu.tmdb.util.DbOperation.showSwitchingTable;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 
-import edu.whu.tmdb.storage.memory.SystemTable.BiPointerTableItem;
 import edu.whu.tmdb.storage.memory.SystemTable.ClassTableItem;
 import edu.whu.tmdb.storage.memory.SystemTable.DeputyTableItem;
-import edu.whu.tmdb.storage.memory.SystemTable.ObjectTableItem;
-import edu.whu.tmdb.storage.memory.SystemTable.SwitchingTableItem;
+import edu.whu.tmdb.query.operations.Exception.ErrorList;
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
 import edu.whu.tmdb.query.operations.Drop;
 import edu.whu.tmdb.query.operations.utils.MemConnect;
@@ -32,6 +29,15 @@ public class DropImpl implements Drop {
     }
 
     public boolean execute(net.sf.jsqlparser.statement.drop.Drop drop) throws TMDBException {
+        // drop index 索引名
+        if ("INDEX".equalsIgnoreCase(drop.getType())) {
+            String indexName = drop.getName().getName();
+            if (MemConnect.getIndexTable().getIndex(indexName) == null) {
+                throw new TMDBException(ErrorList.INDEX_DOES_NOT_EXIST, indexName);
+            }
+            memConnect.dropIndex(item -> item.indexname.equals(indexName));
+            return true;
+        }
         String tableName = drop.getName().getName();
         int classId = memConnect.getClassId(tableName);
         drop(classId);
@@ -53,6 +59,7 @@ public class DropImpl implements Drop {
         dropBiPointerTable(classId);                        // 3.删除 源类/对象<->代理类/对象 的双向关系表
         dropSwitchingTable(classId);                        // 4.删除switchingTable
         dropObjectTable(classId);                           // 5.删除已创建的源类对象
+        memConnect.dropIndex(item -> item.classid == classId);   // 删除类上的索引
         for(Integer i:deputyClassIdList)
         {
             drop(i);
@@ -67,15 +74,7 @@ public class DropImpl implements Drop {
      */
     private void dropClassTable(int classId) {
         // TODO-task4
-        Iterator<ClassTableItem> iter=MemConnect.getClassTableList().iterator();
-        while (iter.hasNext())
-        {
-            ClassTableItem item = iter.next();
-            if (item.classid==classId)
-            {
-                iter.remove();
-            }
-        }
+        MemConnect.getClassTable().removeIf(item -> item.classid==classId);
     }
 
     /**
@@ -85,15 +84,7 @@ public class DropImpl implements Drop {
      */
     private void dropDeputyClassTable(int classId, ArrayList<Integer> deputyClassIdList) {
         // TODO-task4
-        Iterator<DeputyTableItem> iter=MemConnect.getDeputyTableList().iterator();
-        while (iter.hasNext())
-        {
-            DeputyTableItem item = iter.next();
-            if (item.originid==classId)
-            {
-                iter.remove();
-            }
-        }
+        MemConnect.getDeputyTable().removeIf(item -> item.originid==classId);
     }
 
     /**
@@ -102,15 +93,7 @@ public class DropImpl implements Drop {
      */
     private void dropBiPointerTable(int classId) {
         // TODO-task4
-        Iterator<BiPointerTableItem> iter=MemConnect.getBiPointerTableList().iterator();
-        while (iter.hasNext())
-        {
-            BiPointerTableItem item = iter.next();
-            if (item.classid==classId)
-            {
-                iter.remove();
-            }
-        }
+        MemConnect.getBiPointerTable().removeIf(item -> item.classid==classId);
     }
 
     /**
@@ -119,15 +102,7 @@ public class DropImpl implements Drop {
      */
     private void dropSwitchingTable(int classId) {
         // TODO-task4
-        Iterator<SwitchingTableItem> iter=MemConnect.getSwitchingTableList().iterator();
-        while (iter.hasNext())
-        {
-            SwitchingTableItem item = iter.next();
-            if (item.oriId==classId)
-            {
-                iter.remove();
-            }
-        }
+        MemConnect.getSwitchingTable().removeIf(item -> item.oriId==classId);
     }
 
     /**
@@ -136,16 +111,14 @@ public class DropImpl implements Drop {
      */
     private void dropObjectTable(int classId) {
         // TODO-task4
-        // 使用MemConnect.getObjectTableList().remove();
-        Iterator<ObjectTableItem> iter=MemConnect.getObjectTableList().iterator();
-        while (iter.hasNext())
-        {
-            ObjectTableItem item = iter.next();
+        // 使用MemConnect.getObjectTable().removeIf();
+        MemConnect.getObjectTable().removeIf(item -> {
             if (item.classid==classId)
             {
                 memConnect.GetTuple(item.tupleid).delete=true;
-                iter.remove();
+                return true;
             }
-        }
+            return false;
+        });
     }
 }
@@ -128,9 +128,10 @@ public class InsertImpl implements Insert {
         }
         tuple.setTuple(tuple.tuple.length, tupleid, classId, temp);
 
-        // 1.3 元组插入操作
+        // 1.3 元组插入操作，索引项先于对象表表项记录
         memConnect.InsertTuple(tuple);
-        MemConnect.getObjectTableList().add(new ObjectTableItem(classId, tupleid));
+        memConnect.insertIndexEntries(tuple);
+        MemConnect.getObjectTable().add(new ObjectTableItem(classId, tupleid));
 
         // 2.找到所有的代理类，进行递归插入
         // 2.1 找到源类所有的代理类
@@ -145,7 +146,7 @@ public class InsertImpl implements Insert {
 
                 // 2.3 递归插入
                 int tupleId = execute(deputyCalssId, deputyColumns, deputyTuple);
-                MemConnect.getBiPointerTableList().add(new BiPointerTableItem(classId, tupleid, deputyCalssId, tupleId));
+                MemConnect.getBiPointerTable().add(new BiPointerTableItem(classId, tupleid, deputyCalssId, tupleId));
             }
         }
         return tupleid;
@@ -4,6 +4,7 @@ import edu.whu.tmdb.query.operations.Exception.ErrorList;
 import edu.whu.tmdb.storage.memory.MemManager;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.*;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
 import net.sf.jsqlparser.parser.SimpleNode;
@@ -15,17 +16,23 @@ import net.sf.jsqlparser.statement.values.ValuesStatement;
 import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import edu.whu.tmdb.storage.memory.SystemTable.ObjectTableItem;
 import edu.whu.tmdb.storage.memory.Tuple;
 import edu.whu.tmdb.storage.memory.TupleList;
 import edu.whu.tmdb.storage.memory.SystemTable.ClassTableItem;
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.query.operations.iterator.FilterIterator;
+import edu.whu.tmdb.query.operations.iterator.CrossJoinIterator;
+import edu.whu.tmdb.query.operations.iterator.HashJoinIterator;
+import edu.whu.tmdb.query.operations.iterator.LimitIterator;
+import edu.whu.tmdb.query.operations.iterator.ProjectIterator;
+import edu.whu.tmdb.query.operations.iterator.TupleIterator;
+import edu.whu.tmdb.query.operations.iterator.TupleListIterator;
 import edu.whu.tmdb.query.operations.utils.Formula;
 import edu.whu.tmdb.query.operations.utils.MemConnect;
 import edu.whu.tmdb.query.operations.utils.SelectResult;
+import edu.whu.tmdb.query.operations.utils.StatementParameters;
 import org.apache.commons.lang3.SerializationUtils;
 
 //1、from子句组装来自不同数据源的数据；
@@ -76,42 +83,67 @@ public class SelectImpl implements edu.whu.tmdb.query.operations.Select {
         }
 
         // 以下是常规plainselect逻辑：from->where->select
-        // 1.调用from方法获取相关的所有元数据
-        SelectResult selectResult = from(plainSelect);
-        // 2.调用where对元数据进行进行筛选
-        if (plainSelect.getWhere() != null){
-            Where where = new Where();
-            selectResult = where.where(plainSelect, selectResult);
+        // 各子句组装成拉取式的算子树，元组在上层算子请求时才被扫描、筛选，limit满足后扫描即停止
+        // 只有group by和外连接这类必须读完输入的算子才物化元组
+        // 1.调用from获取扫描与连接算子，header为其输出的表头
+        SelectResult header = fromHeader(plainSelect);
+        TupleIterator iterator = indexIterator(plainSelect);
+        if (iterator == null) {
+            iterator = fromIterator(plainSelect);
+        }
+        try {
+            // 2.调用where对元数据进行进行筛选
+            if (plainSelect.getWhere() != null) {
+                iterator = whereIterator(plainSelect, header, iterator);
+            }
+            if (plainSelect.getLimit() != null) {
+                iterator = new LimitIterator(iterator, Integer.parseInt(StatementParameters.resolve(plainSelect.getLimit().getRowCount()).toString()));
+            }
+            if (plainSelect.getGroupBy() != null) {
+                SelectResult selectResult = TupleIterator.drain(iterator, header);
+                GroupBy groupBy = new GroupBy();
+                HashMap<Object, ArrayList<Tuple>> hashMap = groupBy.groupBy(plainSelect, selectResult);
+                return groupByElicit(plainSelect, hashMap, selectResult);
+            }
+            // 然后通过selectItem提取想要的列
+            ProjectIterator projectIterator = new ProjectIterator(iterator, header, batch -> projection(plainSelect, batch));
+            iterator = projectIterator;
+            //最终返回selectResult
+            return TupleIterator.drain(iterator, projectIterator.getHeader());
+        } finally {
+            iterator.close();
         }
-        if (plainSelect.getLimit() != null){
-            selectResult = limit(Integer.parseInt(plainSelect.getLimit().getRowCount().toString()), selectResult);
-        }
-        if(plainSelect.getGroupBy() != null){
-            GroupBy groupBy = new GroupBy();
-            HashMap<Object, ArrayList<Tuple>> hashMap = groupBy.groupBy(plainSelect, selectResult);
-            selectResult = groupByElicit(plainSelect, hashMap, selectResult);
-        }
-        else {//然后通过selectItem提取想要的列
-            selectResult = projection(plainSelect, selectResult);
+    }
+
+    /**
+     * 单表查询的where条件可以逐批求值时，尝试用属性索引代替顺序扫描
+     * 索引扫描只输出候选元组，完整的where条件仍由whereIterator执行
+     * @param plainSelect 平凡查询语句
+     * @return 索引扫描算子，没有合适的索引时返回null
+     */
+    private TupleIterator indexIterator(PlainSelect plainSelect) throws TMDBException, IOException {
+        if (plainSelect.getFromItem() == null || plainSelect.getJoins() != null || plainSelect.getWhere() == null
+                || !FilterIterator.supports(plainSelect.getWhere())) {
+            return null;
         }
-        //最终返回selectResult
-        return selectResult;
+        return new Where().indexScan(plainSelect.getFromItem(), plainSelect.getWhere());
     }
+
     /**
-     * 限制结果集中的元组数量。
-     *
-     * @param limit 要返回的最大元组数量。
-     * @param selectResult 原始的 SelectResult 对象。
-     * @return 一个新的 SelectResult 对象，包含最多 'limit' 数量的元组。
+     * 对where条件构建筛选算子
+     * 条件可以逐批求值时流式筛选，否则读完全部元组后一次筛选
+     * @param plainSelect 平凡查询语句
+     * @param header 输入的表头
+     * @param iterator 输入算子
+     * @return 筛选算子
      */
-    private SelectResult limit(int limit,SelectResult selectResult) {
-        // task9
-        int len = selectResult.getTpl().tuplelist.size();
-        if (limit <= len) {
-            int deleteElememts = len - limit;
-            selectResult.getTpl().tuplelist.subList(len - deleteElememts, len).clear();
+    private TupleIterator whereIterator(PlainSelect plainSelect, SelectResult header, TupleIterator iterator) throws TMDBException, IOException {
+        if (FilterIterator.supports(plainSelect.getWhere())) {
+            return new FilterIterator(iterator, header, plainSelect.getWhere());
         }
-        return selectResult;
+        Where where = new Where();
+        SelectResult selectResult = where.where(plainSelect, TupleIterator.drain(iterator, header));
+        return new TupleListIterator(selectResult.getTpl());
     }
 
     private SelectResult groupByElicit(PlainSelect plainSelect, HashMap resultMap, SelectResult selectResult) throws TMDBException {
@@ -499,30 +531,173 @@ public class SelectImpl implements edu.whu.tmdb.query.operations.Select {
      * @param plainSelect 平凡查询语句
      * @return 查询语句中涉及的所有元数据
      */
-    public SelectResult from(PlainSelect plainSelect) throws TMDBException {
-        FromItem fromItem = plainSelect.getFromItem();              // 获取plainSelect的表（多表查询时取第一个table）
+    public SelectResult from(PlainSelect plainSelect) throws TMDBException, IOException {
+        return TupleIterator.drain(fromIterator(plainSelect), fromHeader(plainSelect));
+    }
+
+    /**
+     * 获取from语句（含join）输出的表头
+     * @param plainSelect 平凡查询语句
+     * @return 表头，tpl为空
+     */
+    public SelectResult fromHeader(PlainSelect plainSelect) throws TMDBException {
+        FromItem fromItem = plainSelect.getFromItem();
         if (fromItem == null) { throw new TMDBException(ErrorList.MISSING_FROM_CLAUSE ); }
-        TupleList tupleList = memConnect.getTupleList(fromItem);    // 获取from后面table的所有元组
         ArrayList<ClassTableItem> classTableItemList = memConnect.copyClassTableList(fromItem);     // 获取class item信息，对应于select输出列表的表头
-        SelectResult selectResult = getSelectResult(classTableItemList, tupleList);
+        if (plainSelect.getJoins() != null) {
+            for (Join join : plainSelect.getJoins()) {
+                classTableItemList.addAll(memConnect.copyClassTableList(join.getRightItem()));
+            }
+        }
+        return getSelectResult(classTableItemList, null);
+    }
+
+    /**
+     * 构建from语句的扫描与连接算子
+     * @param plainSelect 平凡查询语句
+     * @return 输出from语句全部元组的算子
+     */
+    public TupleIterator fromIterator(PlainSelect plainSelect) throws TMDBException, IOException {
+        FromItem fromItem = plainSelect.getFromItem();              // 获取plainSelect的表（多表查询时取第一个table）
+        if (fromItem == null) { throw new TMDBException(ErrorList.MISSING_FROM_CLAUSE ); }
+        ArrayList<ClassTableItem> classTableItemList = memConnect.copyClassTableList(fromItem);
+        SelectResult selectResult = getSelectResult(classTableItemList, null);
+        TupleIterator iterator = memConnect.scan(fromItem);        // 扫描from后面table的元组
 
         // 进行join操作
         if(!(plainSelect.getJoins() == null)){
-            for (Join join:plainSelect.getJoins()) {
-                // 获取当前join表的的一些元祖
-                ArrayList<ClassTableItem> tempClassTableItem = memConnect.copyClassTableList(join.getRightItem());
-                TupleList tempTupleList = memConnect.getTupleList(join.getRightItem());
-                SelectResult tempSelectResult = getSelectResult(tempClassTableItem, tempTupleList);
-
-                // 将本来的TupleList和当前操作的join的tuplelist根据join的形式进行组合
-                tupleList = join(selectResult,tempSelectResult,join);
-                // 把classTableItem进行合并
-                classTableItemList.addAll(tempClassTableItem);
-                // 根据join后的tuple和合并后的classtableItemlist生成selectResult
-                selectResult=getSelectResult(classTableItemList, tupleList);
+            try {
+                for (Join join:plainSelect.getJoins()) {
+                    ArrayList<ClassTableItem> tempClassTableItem = memConnect.copyClassTableList(join.getRightItem());
+                    SelectResult tempSelectResult = getSelectResult(tempClassTableItem, null);
+                    iterator = joinIterator(iterator, selectResult, memConnect.scan(join.getRightItem()), tempSelectResult, join);
+                    // 把classTableItem进行合并，作为下一次join左侧的表头
+                    classTableItemList.addAll(tempClassTableItem);
+                    selectResult = getSelectResult(classTableItemList, null);
+                }
+            } catch (TMDBException | RuntimeException e) {
+                iterator.close();
+                throw e;
             }
         }
-        return selectResult;
+        return iterator;
+    }
+
+    /**
+     * 根据join的形式将左侧算子与join表组合
+     * 有等值连接条件时使用哈希连接，否则为笛卡尔积
+     * @param left 左侧算子
+     * @param leftHeader 左侧表头
+     * @param right join表的算子
+     * @param rightHeader join表的表头
+     * @param join join子句
+     * @return 连接算子
+     */
+    private TupleIterator joinIterator(TupleIterator left, SelectResult leftHeader, TupleIterator right, SelectResult rightHeader, Join join) throws TMDBException {
+        int[][] keys;
+        try {
+            keys = getJoinKeys(leftHeader, rightHeader, join);
+        } catch (TMDBException | RuntimeException e) {
+            right.close();
+            throw e;
+        }
+        if (keys == null) {
+            return new CrossJoinIterator(left, right);
+        }
+        return new HashJoinIterator(left, right, keys[0], keys[1],
+                leftHeader.getAttrname().length, rightHeader.getAttrname().length, getJoinType(join));
+    }
+
+    /**
+     * 解析join的连接条件，得到两侧连接属性的下标
+     * 支持on中用and连接的多个等值条件、using以及不带条件的natural join（以两侧同名的属性连接）
+     * @param left 左侧表头
+     * @param right join表的表头
+     * @param join join子句
+     * @return {左侧连接属性下标, 右侧连接属性下标}，没有连接条件时返回null
+     */
+    private int[][] getJoinKeys(SelectResult left, SelectResult right, Join join) throws TMDBException {
+        List<Integer> leftKeys = new ArrayList<>();
+        List<Integer> rightKeys = new ArrayList<>();
+        if (join.getOnExpressions() != null && !join.getOnExpressions().isEmpty()) {
+            List<EqualsTo> equalsList = new ArrayList<>();
+            for (Expression expression : join.getOnExpressions()) {
+                collectEquals(expression, equalsList);
+            }
+            for (EqualsTo equals : equalsList) {
+                if (!(equals.getLeftExpression() instanceof Column) || !(equals.getRightExpression() instanceof Column)) {
+                    throw new TMDBException(ErrorList.TYPE_IS_NOT_SUPPORTED, equals.toString());
+                }
+                Column a = (Column) equals.getLeftExpression();
+                Column b = (Column) equals.getRightExpression();
+                int leftIndex = getJoinIndex(left, a);
+                int rightIndex = getJoinIndex(right, b);
+                // 条件两侧的顺序可以与表的顺序相反，如 b.y = a.x
+                if (leftIndex == -1 || rightIndex == -1) {
+                    leftIndex = getJoinIndex(left, b);
+                    rightIndex = getJoinIndex(right, a);
+                }
+                if (leftIndex == -1 || rightIndex == -1) {
+                    Column missing = getJoinIndex(left, a) == -1 && getJoinIndex(right, a) == -1 ? a : b;
+                    throw new TMDBException(ErrorList.COLUMN_NAME_DOES_NOT_EXIST, missing.getColumnName());
+                }
+                leftKeys.add(leftIndex);
+                rightKeys.add(rightIndex);
+            }
+        } else if (join.getUsingColumns() != null && !join.getUsingColumns().isEmpty()) {
+            for (Column column : join.getUsingColumns()) {
+                int leftIndex = getJoinIndex(left, column);
+                int rightIndex = getJoinIndex(right, column);
+                if (leftIndex == -1 || rightIndex == -1) {
+                    throw new TMDBException(ErrorList.COLUMN_NAME_DOES_NOT_EXIST, column.getColumnName());
+                }
+                leftKeys.add(leftIndex);
+                rightKeys.add(rightIndex);
+            }
+        } else if (join.isNatural()) {
+            for (int j = 0; j < right.getAttrname().length; j++) {
+                for (int i = 0; i < left.getAttrname().length; i++) {
+                    if (left.getAttrname()[i].equals(right.getAttrname()[j])) {
+                        leftKeys.add(i);
+                        rightKeys.add(j);
+                        break;
+                    }
+                }
+            }
+        }
+        if (leftKeys.isEmpty()) {
+            return null;
+        }
+        return new int[][]{
+                leftKeys.stream().mapToInt(Integer::intValue).toArray(),
+                rightKeys.stream().mapToInt(Integer::intValue).toArray()};
+    }
+
+    // 将on表达式按and拆分为等值条件
+    private void collectEquals(Expression expression, List<EqualsTo> equalsList) throws TMDBException {
+        if (expression instanceof AndExpression) {
+            collectEquals(((AndExpression) expression).getLeftExpression(), equalsList);
+            collectEquals(((AndExpression) expression).getRightExpression(), equalsList);
+        } else if (expression instanceof Parenthesis) {
+            collectEquals(((Parenthesis) expression).getExpression(), equalsList);
+        } else if (expression instanceof EqualsTo) {
+            equalsList.add((EqualsTo) expression);
+        } else {
+            throw new TMDBException(ErrorList.TYPE_IS_NOT_SUPPORTED, expression.toString());
+        }
+    }
+
+    private HashJoinIterator.JoinType getJoinType(Join join) {
+        if (join.isLeft()) {
+            return HashJoinIterator.JoinType.LEFT;
+        }
+        if (join.isRight()) {
+            return HashJoinIterator.JoinType.RIGHT;
+        }
+        if (join.isFull() || join.isOuter()) {
+            return HashJoinIterator.JoinType.FULL;
+        }
+        return HashJoinIterator.JoinType.INNER;
     }
 
     //跨类查询。。。。
@@ -638,8 +813,20 @@ public class SelectImpl implements edu.whu.tmdb.query.operations.Select {
         return selectResult1;
     }
 
+    /**
+     * 表中满足where条件的全部元组（select * from table where ...），where为null时返回全部元组
+     * delete/update直接构造语法树调用，不再拼接sql重新解析
+     */
+    public SelectResult selectAll(Table table, Expression where) throws TMDBException, IOException {
+        PlainSelect plainSelect = new PlainSelect();
+        plainSelect.addSelectItems(new AllColumns());
+        plainSelect.setFromItem(table);
+        plainSelect.setWhere(where);
+        return plainSelect(plainSelect);
+    }
+
     //针对values的处理
-    public SelectResult values(ValuesStatement valuesStatement){
+    public SelectResult values(ValuesStatement valuesStatement) throws TMDBException {
         ExpressionList expressionList= (ExpressionList) valuesStatement.getExpressions();
         List<Expression> expressions=expressionList.getExpressions();
         TupleList tupleList=new TupleList();
@@ -651,13 +838,13 @@ public class SelectImpl implements edu.whu.tmdb.query.operations.Select {
                 Object[] tuple = new Object[expressionList1.getExpressions().size()];
                 //将每行的值传到新建的tuple中
                 for (int j = 0; j < expressionList1.getExpressions().size(); j++) {
-                    tuple[j] = expressionList1.getExpressions().get(j).toString();
+                    tuple[j] = StatementParameters.resolve(expressionList1.getExpressions().get(j)).toString();
                 }
                 tupleList.addTuple(new Tuple(tuple));
             } else if (value.getClass().getSimpleName().equals("Parenthesis")) {
                 Parenthesis parenthesis = (Parenthesis) value;
                 Expression expression = parenthesis.getExpression();
-                Object[] tuple = new Object[]{expression.toString()};
+                Object[] tuple = new Object[]{StatementParameters.resolve(expression).toString()};
                 tupleList.addTuple(new Tuple(tuple));
             }
         }
@@ -670,340 +857,29 @@ public class SelectImpl implements edu.whu.tmdb.query.operations.Select {
         return getSelectResult(classTableItemArrayList,tupleList);
     }
 
-    //join的核心方法
-    public TupleList join(SelectResult left,SelectResult right,Join join) throws TMDBException {
-        //左边的tuplelist
-        TupleList leftTupleList=left.getTpl();
-        //右边的tuplelist
-        TupleList rightTupleList=right.getTpl();
-        //获取onExpression的表达式list（可以有多个on，但是这里只实现了一个的）
-        LinkedList<Expression> expressionLinkedList=(LinkedList<Expression>)join.getOnExpressions();
-        if(!expressionLinkedList.isEmpty()){
-            //默认只有一个onExpression 且为等于
-            EqualsTo equals=(EqualsTo) expressionLinkedList.get(0);
-            //获取等于表达式的左边
-            Column leftExpression=(Column) equals.getLeftExpression();
-            //获取等于表达式的右边
-            Column rightExpression=(Column) equals.getRightExpression();
-            //获取等于表达式的左表达式和右表达式在分别selectresult中的index。例如test.a=company.b 获取a和b在各自表的index
-            int leftIndex=-1;
-            int rightIndex=-1;
-            for(int i=0;i<left.getAttrname().length;i++){
-                if(leftExpression.getColumnName().equals(left.getAttrname()[i])){
-                    leftIndex=i;
-                    break;
-                }
-            }
-            if(leftIndex==-1) throw new TMDBException(ErrorList.COLUMN_NAME_DOES_NOT_EXIST, leftExpression.getColumnName());
-            for(int i=0;i<right.getAttrname().length;i++){
-                if(rightExpression.getColumnName().equals(right.getAttrname()[i])){
-                    rightIndex=i;
-                    break;
-                }
-            }
-            if(rightIndex==-1) throw new TMDBException(ErrorList.COLUMN_NAME_DOES_NOT_EXIST, rightExpression.getColumnName());
-            //innerJoin
-            if(join.isNatural() || join.isInner()){
-                leftTupleList=naturalJoin(leftTupleList,rightTupleList,leftIndex,rightIndex);
-            }
-            //leftJoin
-            else if(join.isLeft()){
-                leftTupleList=leftJoin(leftTupleList,rightTupleList,leftIndex,rightIndex);
-            }
-            //rightJoin
-            else if(join.isRight()){
-                leftTupleList=rightJoin(leftTupleList,rightTupleList,leftIndex,rightIndex);
-            }
-            //outerJoin
-            else if(join.isOuter()){
-                leftTupleList=outerJoin(leftTupleList,rightTupleList,leftIndex,rightIndex);
-            }
-            //naturalJoin
-            else if(join.isNatural()){
-                leftTupleList=naturalJoin(leftTupleList,rightTupleList,leftIndex,rightIndex);
-            }
-        }
-        else{
-            //如果没有join的话，直接进行拼接
-            TupleList tupleList = new TupleList();
-            for(Tuple tuple:rightTupleList.tuplelist){
-                for (Tuple t : leftTupleList.tuplelist) {
-                    Tuple newTuple=new Tuple(Stream.concat(Arrays.stream(t.tuple),Arrays.stream(tuple.tuple)).toArray());
-                    newTuple.tupleIds= IntStream.concat(Arrays.stream(t.tupleIds),Arrays.stream(tuple.tupleIds)).toArray();
-                    newTuple.setTupleId(t.getTupleId());
-                    tupleList.addTuple(newTuple);
-                }
-            }
-            return tupleList;
-        }
-        return leftTupleList;
-    }
-
-    public TupleList naturalJoin(TupleList left,TupleList right,int leftIndex, int rightIndex){
-        TupleList tupleList=new TupleList();
-        //进行naturalJoin，判断在相连元素是否相等，等于才加入结果集中
-        for(Tuple leftTuple:left.tuplelist){
-            for(Tuple rightTuple:right.tuplelist){
-                if(leftTuple.tuple[leftIndex].equals(rightTuple.tuple[rightIndex])){
-                    Tuple tempTuple=new Tuple();
-                    int newLength = leftTuple.tuple.length + rightTuple.tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids=new int[newLength];
-                    for (int i = 0; i < leftTuple.tuple.length; i++) {
-                        tuple[i] = leftTuple.tuple[i];
-                        ids[i]=leftTuple.tupleIds[i];
-                    }
-                    for (int i = leftTuple.tuple.length; i < newLength; i++) {
-                        tuple[i] = rightTuple.tuple[i-leftTuple.tuple.length];
-                        ids[i]=rightTuple.tupleIds[i-leftTuple.tuple.length];
-                    }
-                    tempTuple.setTupleId(leftTuple.getTupleId());
-                    tempTuple.tuple=tuple;
-                    tempTuple.tupleIds=ids;
-                    tupleList.addTuple(tempTuple);
-                }
-            }
-        }
-        return tupleList;
-    }
-
-    public TupleList leftJoin(TupleList left,TupleList right,int leftIndex, int rightIndex){
-        //leftjoin，如果右边对上了，就加上右边元祖，如果没对上，就加入空元祖。
-        TupleList tupleList=new TupleList();
-        if(left.tuplelist.isEmpty()) return tupleList;
-        HashMap<Object,ArrayList<Integer>> map=new HashMap<>();
-        HashMap<Object, Boolean> check=new HashMap<>();
-        //使用map存储左边的元素在连接处的元素值
-        //使用check存储当前元素在右边是否有被使用
-        for(int i=0;i<left.tuplelist.size();i++){
-            Tuple leftT=left.tuplelist.get(i);
-            if(map.containsKey(leftT.tuple[leftIndex])){
-                map.get(leftT.tuple[leftIndex]).add(i);
-            }
-            else {
-                ArrayList<Integer> list=new ArrayList<>();
-                list.add(i);
-                map.put(leftT.tuple[leftIndex], list);
-                check.put(leftT.tuple[leftIndex],false);
-            }
-        }
-        //先遍历右边的tuplelist，然后对
-        for(Tuple rightTuple:right.tuplelist){
-            if(map.containsKey(rightTuple.tuple[rightIndex])){
-                //如果右边有这个元素，修改check为true
-                check.replace(rightTuple.tuple[rightIndex],true);
-                //在res中加入每个左边的tuple拼接上当前匹配上的右边的tuple。
-                // 例如左边有2个join处匹配上了当前右边的tuple，那么这两个都要拼接上右边的tuple，然后加入结果集合
-                for(int index:map.get(rightTuple.tuple[rightIndex])) {
-                    Tuple leftTuple=left.tuplelist.get(index);
-                    Tuple tempTuple = new Tuple();
-                    tempTuple.setTupleId(leftTuple.getTupleId());
-                    int newLength = leftTuple.tuple.length + rightTuple.tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids = new int[newLength];
-
-                    for (int i = 0; i < leftTuple.tuple.length; i++) {
-                        tuple[i] = leftTuple.tuple[i];
-                        ids[i] = leftTuple.tupleIds[i];
-                    }
-                    for (int i = leftTuple.tuple.length; i < newLength; i++) {
-                        tuple[i] = rightTuple.tuple[i-leftTuple.tuple.length];
-                        ids[i] = rightTuple.tupleIds[i-leftTuple.tuple.length];
-                    }
-                    tempTuple.tuple = tuple;
-                    tempTuple.tupleIds=ids;
-                    tupleList.addTuple(tempTuple);
-                }
-            }
-        }
-        //针对没有被匹配上的左边的tuple，拼接空元祖加入结果集合
-        for(Object obj:check.keySet()){
-            if(check.get(obj)==false){
-                for(int index:map.get(obj)){
-                    int newLength = left.tuplelist.get(0).tuple.length + right.tuplelist.get(0).tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids = new int[newLength];
-                    Arrays.fill(ids,-1);
-                    Tuple tempLeft=left.tuplelist.get(index);
-                    for(int i=0;i<left.tuplelist.get(0).tuple.length;i++){
-                        tuple[i]=tempLeft.tuple[i];
-                        ids[i]=tempLeft.tupleIds[i];
-                    }
-                    Tuple tempTuple = new Tuple();
-                    tempTuple.tuple=tuple;
-                    tempTuple.tupleIds=ids;
-                    tempTuple.setTupleId(tempLeft.getTupleId());
-                    tupleList.addTuple(tempTuple);
-                }
-            }
-        }
-
-        return tupleList;
-    }
-
-    //逻辑和leftjoin类似
-    public TupleList rightJoin(TupleList left,TupleList right,int leftIndex, int rightIndex){
-        TupleList tupleList=new TupleList();
-        if(right.tuplelist.isEmpty()) return tupleList;
-        HashMap<Object,ArrayList<Integer>> map=new HashMap<>();
-        HashMap<Object, Boolean> check=new HashMap<>();
-        for(int i=0;i<right.tuplelist.size();i++){
-            Tuple rightT=right.tuplelist.get(i);
-            if(map.containsKey(rightT.tuple[rightIndex])){
-                map.get(rightT.tuple[rightIndex]).add(i);
-            }
-            else {
-                ArrayList<Integer> list=new ArrayList<>();
-                list.add(i);
-                map.put(rightT.tuple[rightIndex], list);
-                check.put(rightT.tuple[rightIndex],false);
-            }
-        }
-        for(Tuple leftTuple:left.tuplelist){
-            if(map.containsKey(leftTuple.tuple[leftIndex])){
-                check.replace(leftTuple.tuple[leftIndex],true);
-                for(int index:map.get(leftTuple.tuple[leftIndex])) {
-                    Tuple rightTuple=right.tuplelist.get(index);
-                    Tuple tempTuple = new Tuple();
-                    tempTuple.setTupleId(rightTuple.getTupleId());
-                    int newLength = leftTuple.tuple.length + rightTuple.tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids = new int[newLength];
-                    for (int i = 0; i < leftTuple.tuple.length; i++) {
-                        tuple[i] = leftTuple.tuple[i];
-                        ids[i] = leftTuple.tupleIds[i];
-                    }
-                    for (int i = leftTuple.tuple.length; i < newLength; i++) {
-                        tuple[i] = rightTuple.tuple[i-leftTuple.tuple.length];
-                        ids[i] = rightTuple.tupleIds[i-leftTuple.tuple.length];
-                    }
-                    tempTuple.tuple = tuple;
-                    tempTuple.tupleIds=ids;
-                    tupleList.addTuple(tempTuple);
-                }
+    //join的核心方法，用于两侧都已物化的情况
+    public TupleList join(SelectResult left,SelectResult right,Join join) throws TMDBException, IOException {
+        TupleList tupleList = new TupleList();
+        try (TupleIterator iterator = joinIterator(new TupleListIterator(left.getTpl()), left, new TupleListIterator(right.getTpl()), right, join)) {
+            while (iterator.hasNext()) {
+                tupleList.addTuple(iterator.next());
             }
         }
-        for(Object obj:check.keySet()){
-            if(check.get(obj)==false){
-                for(int index:map.get(obj)){
-                    int newLength = left.tuplelist.get(0).tuple.length + right.tuplelist.get(0).tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids = new int[newLength];
-                    Arrays.fill(ids,-1);
-                    Tuple tempRight=right.tuplelist.get(index);
-                    for(int i=left.tuplelist.get(0).tuple.length;i<newLength;i++){
-                        tuple[i]=tempRight.tuple[i-left.tuplelist.get(0).tuple.length];
-                        ids[i]=tempRight.tupleIds[i-left.tuplelist.get(0).tuple.length];
-                    }
-                    Tuple tempTuple = new Tuple();
-                    tempTuple.setTupleId(tempRight.getTupleId());
-                    tempTuple.tuple=tuple;
-                    tempTuple.tupleIds=ids;
-                    tupleList.addTuple(tempTuple);
-                }
-            }
-        }
-
         return tupleList;
     }
 
-    //就是一个leftjoin和rightjoin的综合版
-    public TupleList outerJoin(TupleList left,TupleList right,int leftIndex, int rightIndex){
-        TupleList tupleList=new TupleList();
-        if(left.tuplelist.isEmpty()) return tupleList;
-        HashMap<Object,ArrayList<Integer>> mapLeft=new HashMap<>();
-        HashMap<Object,ArrayList<Integer>> mapRight=new HashMap<>();
-        HashMap<Object, Boolean> checkLeft=new HashMap<>();
-        HashMap<Object, Boolean> checkRight=new HashMap<>();
-        //分别用mapLeft存储左数组的join处的值对应的tupleindex和mapRight存右边的
-        //然后checkLeft存左边数据的访问情况，checkRight存右边的
-        for(int i=0;i<left.tuplelist.size();i++){
-            Tuple leftT=left.tuplelist.get(i);
-            if(mapLeft.containsKey(leftT.tuple[leftIndex])){
-                mapLeft.get(leftT.tuple[leftIndex]).add(i);
+    // 连接属性在selectResult中的下标，带表名时还需匹配类名或别名，不存在时返回-1
+    private int getJoinIndex(SelectResult selectResult, Column column) {
+        String tableName = column.getTable() == null ? null : column.getTable().getName();
+        for(int i=0;i<selectResult.getAttrname().length;i++){
+            if(!column.getColumnName().equals(selectResult.getAttrname()[i])){
+                continue;
             }
-            else {
-                ArrayList<Integer> list=new ArrayList<>();
-                list.add(i);
-                mapLeft.put(leftT.tuple[leftIndex], list);
-                checkLeft.put(leftT.tuple[leftIndex],false);
+            if(tableName == null || tableName.equals(selectResult.getClassName()[i]) || tableName.equals(selectResult.getAlias()[i])){
+                return i;
             }
         }
-        for(int i=0;i<right.tuplelist.size();i++){
-            Tuple rightT=right.tuplelist.get(i);
-            if(mapRight.containsKey(rightT.tuple[rightIndex])){
-                mapRight.get(rightT.tuple[rightIndex]).add(i);
-            }
-            else {
-                ArrayList<Integer> list=new ArrayList<>();
-                list.add(i);
-                mapRight.put(rightT.tuple[rightIndex], list);
-                checkRight.put(rightT.tuple[rightIndex],false);
-            }
-        }
-        for(Tuple rightTuple:right.tuplelist){
-            if(mapLeft.containsKey(rightTuple.tuple[rightIndex])){
-                checkLeft.replace(rightTuple.tuple[rightIndex],true);
-                checkRight.replace(rightTuple.tuple[rightIndex],true);
-                for(int index:mapLeft.get(rightTuple.tuple[rightIndex])) {
-                    Tuple leftTuple=left.tuplelist.get(index);
-                    Tuple tempTuple = new Tuple();
-                    int newLength = leftTuple.tuple.length + rightTuple.tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids = new int[newLength];
-                    for (int i = 0; i < leftTuple.tuple.length; i++) {
-                        tuple[i] = leftTuple.tuple[i];
-                        ids[i] = leftTuple.tupleIds[i];
-                    }
-                    for (int i = leftTuple.tuple.length; i < newLength; i++) {
-                        tuple[i] = rightTuple.tuple[i-leftTuple.tuple.length];
-                        ids[i] = rightTuple.tupleIds[i-leftTuple.tuple.length];
-                    }
-                    tempTuple.tuple = tuple;
-                    tempTuple.tupleIds = ids;
-                    tupleList.addTuple(tempTuple);
-                }
-            }
-        }
-        for(Object obj:checkLeft.keySet()){
-            if(checkLeft.get(obj)==false){
-                for(int index:mapLeft.get(obj)){
-                    int newLength = left.tuplelist.get(0).tuple.length + right.tuplelist.get(0).tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids = new int[newLength];
-                    Arrays.fill(ids,-1);
-                    Tuple tempLeft=left.tuplelist.get(index);
-                    for(int i=0;i<left.tuplelist.get(0).tuple.length;i++){
-                        tuple[i]=tempLeft.tuple[i];
-                        ids[i]=tempLeft.tupleIds[i];
-                    }
-                    Tuple tempTuple = new Tuple();
-                    tempTuple.tuple=tuple;
-                    tempTuple.tupleIds=ids;
-                    tupleList.addTuple(tempTuple);
-                }
-            }
-        }
-        for(Object obj:checkRight.keySet()){
-            if(checkRight.get(obj)==false){
-                for(int index:mapRight.get(obj)){
-                    int newLength = left.tuplelist.get(0).tuple.length + right.tuplelist.get(0).tuple.length;
-                    Object[] tuple = new Object[newLength];
-                    int[] ids = new int[newLength];
-                    Arrays.fill(ids,-1);
-                    Tuple tempRight=right.tuplelist.get(index);
-                    for(int i=left.tuplelist.get(0).tuple.length;i<newLength;i++){
-                        tuple[i]=tempRight.tuple[i-left.tuplelist.get(0).tuple.length];
-                        ids[i]=tempRight.tupleIds[i-left.tuplelist.get(0).tuple.length];
-                    }
-                    Tuple tempTuple = new Tuple();
-                    tempTuple.tuple=tuple;
-                    tempTuple.tupleIds=ids;
-                    tupleList.addTuple(tempTuple);
-                }
-            }
-        }
-        return tupleList;
+        return -1;
     }
 
     /**
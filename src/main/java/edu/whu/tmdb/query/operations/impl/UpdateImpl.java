@@ -2,12 +2,11 @@ package edu.whu.tmdb.query.operations.impl;
 
 import edu.whu.tmdb.query.operations.Exception.ErrorList;
 import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.StringValue;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.update.UpdateSet;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,10 +20,10 @@ import edu.whu.tmdb.storage.memory.SystemTable.SwitchingTableItem;
 import edu.whu.tmdb.storage.memory.Tuple;
 import edu.whu.tmdb.storage.memory.TupleList;
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
-import edu.whu.tmdb.query.operations.Select;
 import edu.whu.tmdb.query.operations.Update;
 import edu.whu.tmdb.query.operations.utils.MemConnect;
 import edu.whu.tmdb.query.operations.utils.SelectResult;
+import edu.whu.tmdb.query.operations.utils.StatementParameters;
 
 public class UpdateImpl implements Update {
 
@@ -52,11 +51,7 @@ public class UpdateImpl implements Update {
         }
 
         // 2.获取符合where条件的所有元组
-        String sql = "select * from " + updateTableName + " where " + updateStmt.getWhere().toString() + ";";
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(sql.getBytes());
-        net.sf.jsqlparser.statement.select.Select parse = (net.sf.jsqlparser.statement.select.Select) CCJSqlParserUtil.parse(byteArrayInputStream);
-        Select select = new SelectImpl();
-        SelectResult selectResult = select.select(parse);   // 注：selectResult均为临时副本，不是源数据
+        SelectResult selectResult = new SelectImpl().selectAll(updateStmt.getTable(), updateStmt.getWhere());   // 注：selectResult均为临时副本，不是源数据
 
         // 3.执行update操作
         int[] indexs = new int[updateSetStmts.size()];      // update中set语句修改的属性->类表中属性的映射关系
@@ -77,10 +72,13 @@ public class UpdateImpl implements Update {
         // 1.更新源类tuple
         ArrayList<Integer> updateIdList = new ArrayList<>();
         for (Tuple tuple : tupleList.tuplelist) {
+            // 修改前的属性值从索引中移除，写入后再加入新值
+            memConnect.deleteIndexEntries(tuple);
             for (int i = 0; i < indexs.length; i++) {
                 tuple.tuple[indexs[i]] = updateValue[i];
             }
             memConnect.UpateTuple(tuple, tuple.getTupleId());
+            memConnect.insertIndexEntries(tuple);
             updateIdList.add(tuple.getTupleId());
         }
 
@@ -134,17 +132,18 @@ public class UpdateImpl implements Update {
      * @param indexs 赋值：set字段属性->元组属性的位置对应关系
      * @param updateValue 赋值：set字段赋值列表
      */
-    private void setMapping(String[] attrNames, ArrayList<UpdateSet> updateSetStmts, int[] indexs, Object[] updateValue) {
+    private void setMapping(String[] attrNames, ArrayList<UpdateSet> updateSetStmts, int[] indexs, Object[] updateValue) throws TMDBException {
         for (int i = 0; i < updateSetStmts.size(); i++) {
             UpdateSet updateSet = updateSetStmts.get(i);
             for (int j = 0; j < attrNames.length; j++) {
                 if (!updateSet.getColumns().get(0).getColumnName().equals(attrNames[j])) { continue; }
 
                 // 如果set的属性在元组属性列表中，进行赋值
-                if (updateSet.getExpressions().get(0) instanceof StringValue) {
-                    updateValue[i] = ((StringValue) updateSet.getExpressions().get(0)).getValue();
+                Expression expression = StatementParameters.resolve(updateSet.getExpressions().get(0));
+                if (expression instanceof StringValue) {
+                    updateValue[i] = ((StringValue) expression).getValue();
                 } else {
-                    updateValue[i] = updateSet.getExpressions().get(0).toString();
+                    updateValue[i] = expression.toString();
                 }
                 indexs[i] = j;      // set语句中的第i个对应于源类中第j个属性
                 break;
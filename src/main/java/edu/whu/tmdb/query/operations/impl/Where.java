@@ -10,10 +10,18 @@ import edu.whu.tmdb.storage.memory.MemManager;
 import edu.whu.tmdb.query.operations.torch.TorchConnect;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.DoubleValue;
 import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
 import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
 import net.sf.jsqlparser.expression.operators.relational.*;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.select.FromItem;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 
 import java.io.IOException;
@@ -23,10 +31,15 @@ import java.util.List;
 
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
 import edu.whu.tmdb.query.operations.Select;
+import edu.whu.tmdb.query.operations.iterator.IndexScanIterator;
+import edu.whu.tmdb.query.operations.utils.Constants;
 import edu.whu.tmdb.query.operations.utils.Formula;
 import edu.whu.tmdb.query.operations.utils.MemConnect;
 import edu.whu.tmdb.query.operations.utils.SelectResult;
+import edu.whu.tmdb.query.operations.utils.StatementParameters;
 import edu.whu.tmdb.query.operations.utils.traj.TrajTrans;
+import edu.whu.tmdb.storage.index.BPlusTree;
+import edu.whu.tmdb.storage.memory.SystemTable.IndexTableItem;
 import edu.whu.tmdb.storage.memory.Tuple;
 import edu.whu.tmdb.storage.memory.TupleList;
 import org.apache.kafka.common.protocol.types.Field;
@@ -323,6 +336,205 @@ public class Where {
         //return selectResult;
     }
 
+    /**
+     * 为单表查询选择索引扫描
+     * where条件（或其and连接的某个子条件）是索引属性与常量的等值、范围或in列表比较，
+     * 且满足该子条件的索引项不超过索引项总数的Constants.INDEX_SCAN_MAX_SELECTIVITY时，按索引读取候选元组，
+     * 有多个可用的子条件时选择候选元组最少的一个
+     * @param fromItem from后面的表
+     * @param expression where关键字后面的表达式
+     * @return 索引扫描算子，候选元组仍需经过完整where条件的筛选；没有合适的索引时返回null
+     */
+    public IndexScanIterator indexScan(FromItem fromItem, Expression expression) throws TMDBException {
+        if (!(fromItem instanceof Table)) {
+            return null;
+        }
+        Table table = (Table) fromItem;
+        int classId = memConnect.getClassId(table.getName());
+        List<IndexTableItem> indexes = MemConnect.getIndexTable().getIndexes(classId);
+        if (indexes.isEmpty()) {
+            return null;
+        }
+
+        List<Expression> conjuncts = new ArrayList<>();
+        collectConjuncts(expression, conjuncts);
+        int[] best = null;
+        for (Expression conjunct : conjuncts) {
+            for (IndexTableItem index : indexes) {
+                int[] candidates = indexCandidates(conjunct, index, table);
+                if (candidates != null && (best == null || candidates.length < best.length)) {
+                    best = candidates;
+                }
+            }
+        }
+        return best == null ? null : new IndexScanIterator(best, classId, memConnect);
+    }
+
+    // 索引上的一个键范围，边界为null表示无界
+    private static class KeyRange {
+        final Comparable<?> from;
+        final boolean fromInclusive;
+        final Comparable<?> to;
+        final boolean toInclusive;
+
+        KeyRange(Comparable<?> from, boolean fromInclusive, Comparable<?> to, boolean toInclusive) {
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+        }
+    }
+
+    private void collectConjuncts(Expression expression, List<Expression> conjuncts) {
+        if (expression instanceof AndExpression) {
+            collectConjuncts(((AndExpression) expression).getLeftExpression(), conjuncts);
+            collectConjuncts(((AndExpression) expression).getRightExpression(), conjuncts);
+        } else if (expression instanceof Parenthesis) {
+            collectConjuncts(((Parenthesis) expression).getExpression(), conjuncts);
+        } else {
+            conjuncts.add(expression);
+        }
+    }
+
+    /**
+     * 用索引求满足子条件的候选tupleId
+     * @return 升序且不重复的tupleId；子条件不能使用该索引或选择性不够时返回null
+     */
+    private int[] indexCandidates(Expression expression, IndexTableItem index, Table table) {
+        BPlusTree tree = MemManager.indexManager.getTree(index.indexid);
+        if (tree == null) {
+            return null;
+        }
+        List<KeyRange> ranges = keyRanges(expression, index, table);
+        if (ranges == null) {
+            return null;
+        }
+        long limit = (long) Math.ceil(tree.size() * Constants.INDEX_SCAN_MAX_SELECTIVITY);
+        List<Integer> tupleIds = new ArrayList<>();
+        for (KeyRange range : ranges) {
+            boolean complete = tree.scan(range.from, range.fromInclusive, range.to, range.toInclusive, tupleId -> {
+                tupleIds.add(tupleId);
+                return tupleIds.size() <= limit;
+            });
+            if (!complete) {
+                return null;
+            }
+        }
+        return tupleIds.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+    }
+
+    // 子条件对应的索引键范围，不是索引属性与常量的比较时返回null
+    private List<KeyRange> keyRanges(Expression expression, IndexTableItem index, Table table) {
+        List<KeyRange> ranges = new ArrayList<>();
+        if (expression instanceof InExpression) {
+            InExpression in = (InExpression) expression;
+            if (in.isNot() || !(in.getRightItemsList() instanceof ExpressionList) || !isIndexColumn(in.getLeftExpression(), index, table)) {
+                return null;
+            }
+            for (Expression item : ((ExpressionList) in.getRightItemsList()).getExpressions()) {
+                Comparable<?> key = constantKey(item, index.attrtype);
+                // in按transType比较，数值形式的字符串会被转换为double后比较，不能按字符串查找
+                if (key == null || key instanceof String && isNumeric((String) key)) {
+                    return null;
+                }
+                ranges.add(new KeyRange(key, true, key, true));
+            }
+            return ranges;
+        }
+        if (!(expression instanceof EqualsTo || expression instanceof MinorThan || expression instanceof MinorThanEquals
+                || expression instanceof GreaterThan || expression instanceof GreaterThanEquals)) {
+            return null;
+        }
+        ComparisonOperator comparison = (ComparisonOperator) expression;
+        Expression constant;
+        boolean reversed;
+        if (isIndexColumn(comparison.getLeftExpression(), index, table)) {
+            constant = comparison.getRightExpression();
+            reversed = false;
+        } else if (isIndexColumn(comparison.getRightExpression(), index, table)) {
+            constant = comparison.getLeftExpression();
+            reversed = true;
+        } else {
+            return null;
+        }
+        Comparable<?> key = constantKey(constant, index.attrtype);
+        if (key == null) {
+            return null;
+        }
+        // 常量在左侧时比较方向相反
+        boolean less = expression instanceof MinorThan || expression instanceof MinorThanEquals;
+        boolean greater = expression instanceof GreaterThan || expression instanceof GreaterThanEquals;
+        boolean inclusive = !(expression instanceof MinorThan || expression instanceof GreaterThan);
+        if (reversed) {
+            boolean temp = less;
+            less = greater;
+            greater = temp;
+        }
+        if (less) {
+            ranges.add(new KeyRange(null, false, key, inclusive));
+        } else if (greater) {
+            ranges.add(new KeyRange(key, inclusive, null, false));
+        } else {
+            ranges.add(new KeyRange(key, true, key, true));
+        }
+        return ranges;
+    }
+
+    // 表达式是否为该索引的属性
+    private boolean isIndexColumn(Expression expression, IndexTableItem index, Table table) {
+        if (!(expression instanceof Column)) {
+            return false;
+        }
+        Column column = (Column) expression;
+        if (!column.getColumnName().equals(index.attrname)) {
+            return false;
+        }
+        return column.getTable() == null || column.getTable().getName() == null
+                || column.getTable().getName().equals(table.getName())
+                || table.getAlias() != null && column.getTable().getName().equals(table.getAlias().getName());
+    }
+
+    // 常量对应的索引键，与Formula对常量的求值一致；类型与属性不匹配时compare会报错，不使用索引
+    private Comparable<?> constantKey(Expression expression, String attrtype) {
+        boolean isString = attrtype.equals("String") || attrtype.equals("char");
+        try {
+            expression = StatementParameters.resolve(expression);
+        } catch (TMDBException e) {
+            // 参数没有绑定时不使用索引，由where条件报错
+            return null;
+        }
+        if (expression instanceof StringValue) {
+            return isString ? ((StringValue) expression).getValue() : null;
+        }
+        if (isString) {
+            return null;
+        }
+        if (expression instanceof LongValue) {
+            return (double) ((LongValue) expression).getValue();
+        }
+        if (expression instanceof DoubleValue) {
+            return ((DoubleValue) expression).getValue();
+        }
+        if (expression instanceof SignedExpression) {
+            SignedExpression signed = (SignedExpression) expression;
+            Comparable<?> key = constantKey(signed.getExpression(), attrtype);
+            if (!(key instanceof Double)) {
+                return null;
+            }
+            return signed.getSign() == '-' ? -(Double) key : signed.getSign() == '+' ? key : null;
+        }
+        return null;
+    }
+
+    private boolean isNumeric(String s) {
+        try {
+            Double.parseDouble(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     public HashSet<Tuple> getTupleSet(SelectResult selectResult){
         return new HashSet<>(selectResult.getTpl().tuplelist);
     }
@@ -0,0 +1,65 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.storage.memory.Tuple;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按批处理元组的算子基类
+ * Where和projection的表达式求值都是按列对整个selectResult计算的，这里把下层算子的输出切成小批交给它们，
+ * 批大小从MIN_BATCH_SIZE开始逐批翻倍到MAX_BATCH_SIZE：limit较小时只多读少量元组，大查询则摊薄每批的开销
+ */
+public abstract class BatchIterator implements TupleIterator {
+
+    public static final int MIN_BATCH_SIZE = 16;
+
+    public static final int MAX_BATCH_SIZE = 1024;
+
+    protected final TupleIterator child;
+
+    private int batchSize = MIN_BATCH_SIZE;
+
+    // 当前批的处理结果及读取位置
+    private List<Tuple> output = new ArrayList<>();
+
+    private int index = 0;
+
+    protected BatchIterator(TupleIterator child) {
+        this.child = child;
+    }
+
+    // 处理一批元组，返回该批的输出
+    protected abstract List<Tuple> process(List<Tuple> batch) throws TMDBException, IOException;
+
+    @Override
+    public boolean hasNext() throws TMDBException, IOException {
+        while (index >= output.size()) {
+            if (!child.hasNext()) {
+                return false;
+            }
+            List<Tuple> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && child.hasNext()) {
+                batch.add(child.next());
+            }
+            batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
+            output = process(batch);
+            index = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws TMDBException, IOException {
+        return hasNext() ? output.get(index++) : null;
+    }
+
+    @Override
+    public void close() {
+        output = new ArrayList<>();
+        index = 0;
+        child.close();
+    }
+}
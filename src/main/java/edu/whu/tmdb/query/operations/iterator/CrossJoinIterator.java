@@ -0,0 +1,83 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.storage.memory.Tuple;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * 笛卡尔积算子：第一次拉取时读完右表，之后逐个拉取左表元组与右表全部元组拼接，左表不物化
+ */
+public class CrossJoinIterator implements TupleIterator {
+
+    private final TupleIterator left;
+
+    private final TupleIterator right;
+
+    private List<Tuple> rightTuples;
+
+    // 当前左表元组的拼接结果
+    private List<Tuple> output = new ArrayList<>();
+
+    private int index = 0;
+
+    public CrossJoinIterator(TupleIterator left, TupleIterator right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public boolean hasNext() throws TMDBException, IOException {
+        if (rightTuples == null) {
+            build();
+        }
+        while (index >= output.size()) {
+            if (rightTuples.isEmpty() || !left.hasNext()) {
+                return false;
+            }
+            output = probe(left.next());
+            index = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws TMDBException, IOException {
+        return hasNext() ? output.get(index++) : null;
+    }
+
+    @Override
+    public void close() {
+        left.close();
+        right.close();
+        rightTuples = null;
+        output = new ArrayList<>();
+    }
+
+    private void build() throws TMDBException, IOException {
+        rightTuples = new ArrayList<>();
+        try {
+            while (right.hasNext()) {
+                rightTuples.add(right.next());
+            }
+        } finally {
+            right.close();
+        }
+    }
+
+    private List<Tuple> probe(Tuple leftTuple) {
+        List<Tuple> res = new ArrayList<>(rightTuples.size());
+        for (Tuple rightTuple : rightTuples) {
+            Tuple newTuple = new Tuple(Stream.concat(Arrays.stream(leftTuple.tuple), Arrays.stream(rightTuple.tuple)).toArray());
+            newTuple.tupleIds = IntStream.concat(Arrays.stream(leftTuple.tupleIds), Arrays.stream(rightTuple.tupleIds)).toArray();
+            newTuple.setTupleId(leftTuple.getTupleId());
+            res.add(newTuple);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.query.operations.impl.Where;
+import edu.whu.tmdb.query.operations.utils.SelectResult;
+import edu.whu.tmdb.storage.memory.Tuple;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * where算子：对每批元组执行Where的筛选，输出按输入顺序排列的满足条件的元组
+ */
+public class FilterIterator extends BatchIterator {
+
+    private final SelectResult header;
+
+    private final Expression expression;
+
+    private final Where where;
+
+    public FilterIterator(TupleIterator child, SelectResult header, Expression expression) throws TMDBException, IOException {
+        super(child);
+        this.header = header;
+        this.expression = expression;
+        this.where = new Where();
+    }
+
+    /**
+     * 判断where条件能否逐批求值
+     * 轨迹函数（st_within等）直接返回Torch的查询结果，与输入元组无关；in子查询每批都会重新执行一遍子查询。
+     * 这两种条件需要读完全部元组后一次筛选
+     * @param expression where关键字后面的表达式
+     * @return 能否使用FilterIterator
+     */
+    public static boolean supports(Expression expression) {
+        if (expression instanceof AndExpression) {
+            AndExpression and = (AndExpression) expression;
+            return supports(and.getLeftExpression()) && supports(and.getRightExpression());
+        }
+        if (expression instanceof OrExpression) {
+            OrExpression or = (OrExpression) expression;
+            return supports(or.getLeftExpression()) && supports(or.getRightExpression());
+        }
+        if (expression instanceof InExpression) {
+            return ((InExpression) expression).getRightItemsList() != null;
+        }
+        return !expression.getClass().getSimpleName().equals("Function");
+    }
+
+    @Override
+    protected List<Tuple> process(List<Tuple> batch) throws TMDBException, IOException {
+        SelectResult result = where.execute(expression, TupleIterator.batchOf(header, batch));
+        if (result.getTpl() == null || result.getTpl().tuplelist.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Where内部用HashSet求交并，结果顺序不定，这里按输入顺序输出
+        Set<Tuple> selected = Collections.newSetFromMap(new IdentityHashMap<>());
+        selected.addAll(result.getTpl().tuplelist);
+        List<Tuple> output = new ArrayList<>(selected.size());
+        for (Tuple tuple : batch) {
+            if (selected.contains(tuple)) {
+                output.add(tuple);
+            }
+        }
+        return output;
+    }
+}
@@ -0,0 +1,405 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.query.operations.utils.Constants;
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 等值连接算子（build/probe哈希连接），支持多属性连接条件与内、左、右、全连接
+ * 1. 交替从左右两侧拉取元组，先读完的一侧即较小的一侧，作为构建侧建哈希表，另一侧逐个拉取探测，不物化
+ * 2. 两侧都超过内存预算时，按连接属性的哈希把两侧分别分区写到磁盘，再逐个分区取较小的一侧建表、另一侧探测
+ *    相同连接属性值的元组落在同一分区，分区之间互不影响；同一个值的元组过多时该分区仍会整体读入内存
+ * 3. 外连接时记录构建侧元组是否被匹配，探测结束后输出未匹配的元组；连接属性为null的元组不与任何元组匹配
+ */
+public class HashJoinIterator implements TupleIterator {
+
+    public enum JoinType { INNER, LEFT, RIGHT, FULL }
+
+    // 每次输出未匹配的构建侧元组的数量
+    private static final int UNMATCHED_BATCH_SIZE = 1024;
+
+    private final TupleIterator left;
+
+    private final TupleIterator right;
+
+    // 连接属性在左右元组中的下标，按位置一一对应
+    private final int[] leftKeys;
+
+    private final int[] rightKeys;
+
+    // 左右表头的属性数量，外连接补null时使用
+    private final int leftWidth;
+
+    private final int rightWidth;
+
+    private final JoinType type;
+
+    private final long memoryBudget;
+
+    private final int partitionCount;
+
+    private final File spillDir;
+
+    // 构建侧是否为左表
+    private boolean buildLeft;
+
+    // 连接属性值->构建侧元组
+    private HashMap<Object, List<BuildRow>> table;
+
+    // 构建侧的全部元组，用于输出未匹配的元组
+    private List<BuildRow> buildRows;
+
+    // 当前的探测输入
+    private TupleIterator probe;
+
+    // 探测结束后正在输出的未匹配构建侧元组
+    private Iterator<BuildRow> unmatched;
+
+    // 两侧都超过内存预算时的分区文件，partition为当前处理的分区
+    private SpillFile[] leftParts;
+
+    private SpillFile[] rightParts;
+
+    private int partition = -1;
+
+    private boolean started = false;
+
+    private List<Tuple> output = new ArrayList<>();
+
+    private int index = 0;
+
+    public HashJoinIterator(TupleIterator left, TupleIterator right, int[] leftKeys, int[] rightKeys,
+                            int leftWidth, int rightWidth, JoinType type) {
+        this(left, right, leftKeys, rightKeys, leftWidth, rightWidth, type,
+                Constants.JOIN_MEMORY_BUDGET, Constants.JOIN_SPILL_PARTITIONS, new File(Constants.JOIN_SPILL_DIR));
+    }
+
+    public HashJoinIterator(TupleIterator left, TupleIterator right, int[] leftKeys, int[] rightKeys,
+                            int leftWidth, int rightWidth, JoinType type,
+                            long memoryBudget, int partitionCount, File spillDir) {
+        this.left = left;
+        this.right = right;
+        this.leftKeys = leftKeys;
+        this.rightKeys = rightKeys;
+        this.leftWidth = leftWidth;
+        this.rightWidth = rightWidth;
+        this.type = type;
+        this.memoryBudget = memoryBudget;
+        this.partitionCount = partitionCount;
+        this.spillDir = spillDir;
+    }
+
+    @Override
+    public boolean hasNext() throws TMDBException, IOException {
+        if (!started) {
+            started = true;
+            start();
+        }
+        while (index >= output.size()) {
+            output.clear();
+            index = 0;
+            if (!step()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws TMDBException, IOException {
+        return hasNext() ? output.get(index++) : null;
+    }
+
+    @Override
+    public void close() {
+        left.close();
+        right.close();
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        closeParts(leftParts);
+        closeParts(rightParts);
+        leftParts = null;
+        rightParts = null;
+        table = null;
+        buildRows = null;
+        unmatched = null;
+        output = new ArrayList<>();
+        index = 0;
+        started = true;
+    }
+
+    // 选择构建侧：交替拉取两侧，先读完且未超过内存预算的一侧建表；否则两侧分区溢出到磁盘
+    private void start() throws TMDBException, IOException {
+        List<Tuple> leftBuffer = new ArrayList<>();
+        List<Tuple> rightBuffer = new ArrayList<>();
+        long size = 0;
+        while (size <= memoryBudget) {
+            if (!left.hasNext()) {
+                left.close();
+                buildLeft = true;
+                build(new TupleListIterator(listOf(leftBuffer)));
+                probe = new ConcatIterator(rightBuffer, right);
+                return;
+            }
+            Tuple tuple = left.next();
+            leftBuffer.add(tuple);
+            size += estimateSize(tuple);
+            if (!right.hasNext()) {
+                right.close();
+                buildLeft = false;
+                build(new TupleListIterator(listOf(rightBuffer)));
+                probe = new ConcatIterator(leftBuffer, left);
+                return;
+            }
+            tuple = right.next();
+            rightBuffer.add(tuple);
+            size += estimateSize(tuple);
+        }
+
+        leftParts = partition(leftBuffer, left, leftKeys);
+        rightParts = partition(rightBuffer, right, rightKeys);
+        nextPartition();
+    }
+
+    // 产生下一部分输出，全部输出完毕时返回false
+    private boolean step() throws TMDBException, IOException {
+        if (probe != null) {
+            // 构建侧为空且不保留探测侧未匹配的元组时，无需继续探测
+            if (table.isEmpty() && !keepProbeUnmatched()) {
+                probe.close();
+            }
+            if (probe.hasNext()) {
+                probeRow(probe.next());
+                return true;
+            }
+            probe.close();
+            probe = null;
+            if (keepBuildUnmatched()) {
+                unmatched = buildRows.iterator();
+            }
+        }
+        if (unmatched != null) {
+            while (unmatched.hasNext() && output.size() < UNMATCHED_BATCH_SIZE) {
+                BuildRow row = unmatched.next();
+                if (!row.matched) {
+                    output.add(buildLeft ? combine(row.tuple, null) : combine(null, row.tuple));
+                }
+            }
+            if (!unmatched.hasNext()) {
+                unmatched = null;
+            }
+            return true;
+        }
+        table = null;
+        buildRows = null;
+        return leftParts != null && nextPartition();
+    }
+
+    private void probeRow(Tuple tuple) {
+        Object key = keyOf(tuple, buildLeft ? rightKeys : leftKeys);
+        List<BuildRow> matches = key == null ? null : table.get(key);
+        if (matches == null) {
+            if (keepProbeUnmatched()) {
+                output.add(buildLeft ? combine(null, tuple) : combine(tuple, null));
+            }
+            return;
+        }
+        for (BuildRow row : matches) {
+            row.matched = true;
+            output.add(buildLeft ? combine(row.tuple, tuple) : combine(tuple, row.tuple));
+        }
+    }
+
+    private void build(TupleIterator input) throws TMDBException, IOException {
+        table = new HashMap<>();
+        buildRows = new ArrayList<>();
+        int[] keys = buildLeft ? leftKeys : rightKeys;
+        try {
+            while (input.hasNext()) {
+                BuildRow row = new BuildRow(input.next());
+                buildRows.add(row);
+                Object key = keyOf(row.tuple, keys);
+                if (key != null) {
+                    table.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+                }
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    // 把已读出的元组与剩余输入按连接属性的哈希写到各分区文件
+    private SpillFile[] partition(List<Tuple> buffer, TupleIterator input, int[] keys) throws TMDBException, IOException {
+        SpillFile[] parts = new SpillFile[partitionCount];
+        try {
+            for (int i = 0; i < partitionCount; i++) {
+                parts[i] = new SpillFile(spillDir);
+            }
+            for (Tuple tuple : buffer) {
+                parts[partitionOf(keyOf(tuple, keys))].write(tuple);
+            }
+            buffer.clear();
+            while (input.hasNext()) {
+                Tuple tuple = input.next();
+                parts[partitionOf(keyOf(tuple, keys))].write(tuple);
+            }
+        } catch (TMDBException | IOException | RuntimeException e) {
+            closeParts(parts);
+            throw e;
+        } finally {
+            input.close();
+        }
+        return parts;
+    }
+
+    // 读入下一个非空分区，取较小的一侧建表
+    private boolean nextPartition() throws TMDBException, IOException {
+        while (++partition < partitionCount) {
+            SpillFile leftPart = leftParts[partition];
+            SpillFile rightPart = rightParts[partition];
+            if (leftPart.getCount() == 0 && rightPart.getCount() == 0) {
+                leftPart.close();
+                rightPart.close();
+                continue;
+            }
+            buildLeft = leftPart.getBytes() <= rightPart.getBytes();
+            build((buildLeft ? leftPart : rightPart).reader());
+            probe = (buildLeft ? rightPart : leftPart).reader();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean keepProbeUnmatched() {
+        return buildLeft ? type == JoinType.RIGHT || type == JoinType.FULL : type == JoinType.LEFT || type == JoinType.FULL;
+    }
+
+    private boolean keepBuildUnmatched() {
+        return buildLeft ? type == JoinType.LEFT || type == JoinType.FULL : type == JoinType.RIGHT || type == JoinType.FULL;
+    }
+
+    // 拼接左右元组，缺少的一侧补null，tupleIds补-1
+    private Tuple combine(Tuple leftTuple, Tuple rightTuple) {
+        Object[] tuple = new Object[leftWidth + rightWidth];
+        int[] ids = new int[leftWidth + rightWidth];
+        Arrays.fill(ids, -1);
+        if (leftTuple != null) {
+            System.arraycopy(leftTuple.tuple, 0, tuple, 0, Math.min(leftTuple.tuple.length, leftWidth));
+            System.arraycopy(leftTuple.tupleIds, 0, ids, 0, Math.min(leftTuple.tupleIds.length, leftWidth));
+        }
+        if (rightTuple != null) {
+            System.arraycopy(rightTuple.tuple, 0, tuple, leftWidth, Math.min(rightTuple.tuple.length, rightWidth));
+            System.arraycopy(rightTuple.tupleIds, 0, ids, leftWidth, Math.min(rightTuple.tupleIds.length, rightWidth));
+        }
+        Tuple newTuple = new Tuple();
+        newTuple.setTupleId(leftTuple != null ? leftTuple.getTupleId() : rightTuple.getTupleId());
+        newTuple.tuple = tuple;
+        newTuple.tupleIds = ids;
+        return newTuple;
+    }
+
+    // 连接属性值，单属性时为属性值本身，多属性时为属性值列表；含null时返回null
+    private static Object keyOf(Tuple tuple, int[] keys) {
+        if (keys.length == 1) {
+            return tuple.tuple[keys[0]];
+        }
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = tuple.tuple[keys[i]];
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    // 分区号取哈希值打散后的高位，与分区内HashMap使用的低位无关
+    private int partitionOf(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h >>> 16) % partitionCount;
+    }
+
+    // 元组在内存中占用的字节数的估计值
+    private static long estimateSize(Tuple tuple) {
+        long size = 64 + 4L * (tuple.tupleIds == null ? 0 : tuple.tupleIds.length);
+        if (tuple.tuple != null) {
+            for (Object o : tuple.tuple) {
+                size += o instanceof String ? 40 + 2L * ((String) o).length() : 16;
+            }
+        }
+        return size;
+    }
+
+    private static TupleList listOf(List<Tuple> tuples) {
+        TupleList tupleList = new TupleList();
+        tupleList.tuplelist = tuples;
+        tupleList.tuplenum = tuples.size();
+        return tupleList;
+    }
+
+    private static void closeParts(SpillFile[] parts) {
+        if (parts == null) {
+            return;
+        }
+        for (SpillFile part : parts) {
+            if (part != null) {
+                part.close();
+            }
+        }
+    }
+
+    private static class BuildRow {
+        final Tuple tuple;
+        boolean matched = false;
+
+        BuildRow(Tuple tuple) {
+            this.tuple = tuple;
+        }
+    }
+
+    // 先输出已读出的元组，再继续拉取输入
+    private static class ConcatIterator implements TupleIterator {
+        private final List<Tuple> buffer;
+        private final TupleIterator input;
+        private int index = 0;
+
+        ConcatIterator(List<Tuple> buffer, TupleIterator input) {
+            this.buffer = buffer;
+            this.input = input;
+        }
+
+        @Override
+        public boolean hasNext() throws TMDBException, IOException {
+            return index < buffer.size() || input.hasNext();
+        }
+
+        @Override
+        public Tuple next() throws TMDBException, IOException {
+            if (index < buffer.size()) {
+                // 释放已输出元组的引用
+                return buffer.set(index++, null);
+            }
+            return input.next();
+        }
+
+        @Override
+        public void close() {
+            index = buffer.size();
+            input.close();
+        }
+    }
+}
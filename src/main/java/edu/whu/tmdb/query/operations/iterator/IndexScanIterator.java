@@ -0,0 +1,60 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.utils.MemConnect;
+import edu.whu.tmdb.storage.memory.Tuple;
+
+/**
+ * 按索引得到的候选tupleId读取元组
+ * tupleId按升序读取，与tuple在key空间中的顺序一致；已删除或不属于该类的候选元组被跳过。
+ * 索引只缩小候选范围，输出的元组仍需经过where条件的筛选
+ */
+public class IndexScanIterator implements TupleIterator {
+
+    private final int[] tupleIds;
+
+    private final int classId;
+
+    private final MemConnect memConnect;
+
+    private int pos = 0;
+
+    private Tuple nextTuple = null;
+
+    public IndexScanIterator(int[] tupleIds, int classId, MemConnect memConnect) {
+        this.tupleIds = tupleIds;
+        this.classId = classId;
+        this.memConnect = memConnect;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextTuple == null && pos < tupleIds.length) {
+            int tupleId = tupleIds[pos++];
+            if (MemConnect.getObjectTable().getClassIdByTupleId(tupleId) != classId) {
+                continue;
+            }
+            Tuple tuple = memConnect.GetTuple(tupleId);
+            if (tuple != null) {
+                tuple.setTupleId(tupleId);
+                nextTuple = tuple;
+            }
+        }
+        return nextTuple != null;
+    }
+
+    @Override
+    public Tuple next() {
+        if (!hasNext()) {
+            return null;
+        }
+        Tuple tuple = nextTuple;
+        nextTuple = null;
+        return tuple;
+    }
+
+    @Override
+    public void close() {
+        pos = tupleIds.length;
+        nextTuple = null;
+    }
+}
@@ -0,0 +1,46 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.storage.memory.Tuple;
+
+import java.io.IOException;
+
+/**
+ * limit算子：输出limit个元组后不再向下拉取，并立即关闭下层算子，扫描随之提前结束
+ */
+public class LimitIterator implements TupleIterator {
+
+    private final TupleIterator child;
+
+    private final int limit;
+
+    private int count = 0;
+
+    public LimitIterator(TupleIterator child, int limit) {
+        this.child = child;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext() throws TMDBException, IOException {
+        if (count >= limit) {
+            child.close();
+            return false;
+        }
+        return child.hasNext();
+    }
+
+    @Override
+    public Tuple next() throws TMDBException, IOException {
+        if (!hasNext()) {
+            return null;
+        }
+        count++;
+        return child.next();
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
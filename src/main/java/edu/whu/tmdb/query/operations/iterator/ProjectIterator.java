@@ -0,0 +1,44 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.query.operations.utils.SelectResult;
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleList;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * projection算子：逐批挑选属性列，只有投影后的元组向上传递
+ */
+public class ProjectIterator extends BatchIterator {
+
+    // 对一批完整元组执行projection，返回投影后的selectResult
+    public interface Projection {
+        SelectResult apply(SelectResult batch) throws TMDBException, IOException;
+    }
+
+    private final SelectResult inputHeader;
+
+    private final Projection projection;
+
+    // 投影后的表头
+    private final SelectResult header;
+
+    public ProjectIterator(TupleIterator child, SelectResult inputHeader, Projection projection) throws TMDBException, IOException {
+        super(child);
+        this.inputHeader = inputHeader;
+        this.projection = projection;
+        // 对空批执行一次projection得到输出表头，查询项有误时在读取数据之前报错
+        this.header = projection.apply(TupleIterator.batchOf(inputHeader, new TupleList()));
+    }
+
+    public SelectResult getHeader() {
+        return header;
+    }
+
+    @Override
+    protected List<Tuple> process(List<Tuple> batch) throws TMDBException, IOException {
+        return projection.apply(TupleIterator.batchOf(inputHeader, batch)).getTpl().tuplelist;
+    }
+}
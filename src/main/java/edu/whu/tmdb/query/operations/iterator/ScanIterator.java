@@ -0,0 +1,89 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.storage.memory.MemManager;
+import edu.whu.tmdb.storage.memory.MergeIterator;
+import edu.whu.tmdb.storage.memory.SystemTable.ObjectTable;
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleCodec;
+import edu.whu.tmdb.storage.utils.K;
+import edu.whu.tmdb.storage.utils.V;
+
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 顺序扫描一个类的全部元组
+ * 同一个类的tuple占据连续的key范围，按范围查询逐个读出并解码，不预先读出整张表
+ * 读锁只在每次前进时持有，不会在上层算子处理元组期间一直占用
+ */
+public class ScanIterator implements TupleIterator {
+
+    private final MergeIterator iterator;
+
+    private final int classId;
+
+    private final ObjectTable objectTable;
+
+    private final Lock lock;
+
+    private Tuple nextTuple = null;
+
+    private boolean closed = false;
+
+    public ScanIterator(MergeIterator iterator, int classId, ObjectTable objectTable, Lock lock) {
+        this.iterator = iterator;
+        this.classId = classId;
+        this.objectTable = objectTable;
+        this.lock = lock;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextTuple == null && !closed) {
+            advance();
+        }
+        return nextTuple != null;
+    }
+
+    @Override
+    public Tuple next() {
+        if (!hasNext()) {
+            return null;
+        }
+        Tuple tuple = nextTuple;
+        nextTuple = null;
+        return tuple;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            iterator.close();
+        }
+    }
+
+    private void advance() {
+        lock.lock();
+        try {
+            while (iterator.hasNext()) {
+                Map.Entry<K, V> entry = iterator.next();
+                int tupleId = MemManager.tupleIdOf(entry.getKey());
+                // delete只从对象表中移除表项，不在对象表中的tuple已被删除
+                if (objectTable.getClassIdByTupleId(tupleId) != classId) {
+                    continue;
+                }
+                Tuple tuple = TupleCodec.decode(entry.getValue().valueBytes);
+                if (tuple != null && !tuple.delete) {
+                    tuple.setTupleId(tupleId);
+                    nextTuple = tuple;
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 扫描结束，尽早释放底层的SSTable迭代器
+        close();
+    }
+}
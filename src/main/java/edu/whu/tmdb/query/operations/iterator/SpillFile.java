@@ -0,0 +1,101 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 算子溢出到磁盘的临时元组文件，先顺序写入，写完后顺序读出一次，关闭时删除
+ * 每个元组存为 int长度 + TupleCodec编码
+ */
+public class SpillFile {
+
+    private final File file;
+
+    private DataOutputStream out;
+
+    private DataInputStream in;
+
+    // 已写入的元组数量与字节数
+    private int count = 0;
+
+    private long bytes = 0;
+
+    public SpillFile(File dir) throws IOException {
+        dir.mkdirs();
+        this.file = File.createTempFile("spill", ".tmp", dir);
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+    }
+
+    public void write(Tuple tuple) throws IOException {
+        byte[] encoded = TupleCodec.encode(tuple);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        count++;
+        bytes += 4 + encoded.length;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    // 结束写入，按写入顺序读出全部元组；关闭返回的算子即删除文件
+    public TupleIterator reader() throws IOException {
+        out.close();
+        out = null;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        return new TupleIterator() {
+            private int read = 0;
+
+            @Override
+            public boolean hasNext() {
+                return in != null && read < count;
+            }
+
+            @Override
+            public Tuple next() throws IOException {
+                if (!hasNext()) {
+                    return null;
+                }
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                read++;
+                return TupleCodec.decode(encoded);
+            }
+
+            @Override
+            public void close() {
+                SpillFile.this.close();
+            }
+        };
+    }
+
+    public void close() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,63 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.query.operations.utils.SelectResult;
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleList;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 查询执行的拉取式算子接口：上层算子调用next()时，下层算子才读取/计算下一个元组
+ * 表头信息不随元组传递，由构建算子树的一方（SelectImpl）维护
+ */
+public interface TupleIterator extends AutoCloseable {
+
+    boolean hasNext() throws TMDBException, IOException;
+
+    Tuple next() throws TMDBException, IOException;
+
+    // 释放底层的扫描等资源，可以提前调用（如limit已满），可重复调用
+    @Override
+    void close();
+
+    /**
+     * 拉取算子的全部元组，组装成selectResult，结束后关闭算子
+     * @param iterator 算子
+     * @param header 表头，其tpl不使用
+     * @return 包含全部元组的selectResult
+     */
+    static SelectResult drain(TupleIterator iterator, SelectResult header) throws TMDBException, IOException {
+        TupleList tupleList = new TupleList();
+        try {
+            while (iterator.hasNext()) {
+                tupleList.addTuple(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        return batchOf(header, tupleList);
+    }
+
+    /**
+     * 用表头的副本和给定元组组装selectResult，供Where、projection等按批处理
+     * 表头数组会被projection修改，因此每批都复制一份
+     */
+    static SelectResult batchOf(SelectResult header, List<Tuple> tuples) {
+        TupleList tupleList = new TupleList();
+        for (Tuple tuple : tuples) {
+            tupleList.addTuple(tuple);
+        }
+        return batchOf(header, tupleList);
+    }
+
+    static SelectResult batchOf(SelectResult header, TupleList tupleList) {
+        return new SelectResult(tupleList,
+                header.getClassName().clone(),
+                header.getAttrname().clone(),
+                header.getAlias().clone(),
+                header.getAttrid().clone(),
+                header.getType().clone());
+    }
+}
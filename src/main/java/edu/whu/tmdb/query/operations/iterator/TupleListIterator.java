@@ -0,0 +1,33 @@
+package edu.whu.tmdb.query.operations.iterator;
+
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleList;
+
+/**
+ * 遍历已物化的元组列表，用于必须先读完输入的算子（如外连接、轨迹函数筛选）的输出
+ */
+public class TupleListIterator implements TupleIterator {
+
+    private TupleList tupleList;
+
+    private int index = 0;
+
+    public TupleListIterator(TupleList tupleList) {
+        this.tupleList = tupleList;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return tupleList != null && index < tupleList.tuplelist.size();
+    }
+
+    @Override
+    public Tuple next() {
+        return hasNext() ? tupleList.tuplelist.get(index++) : null;
+    }
+
+    @Override
+    public void close() {
+        tupleList = null;
+    }
+}
@@ -13,6 +13,10 @@ import net.sf.jsqlparser.statement.Statement;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import au.edu.rmit.bdm.Test;
 import au.edu.rmit.bdm.Torch.base.Torch;
@@ -41,10 +45,14 @@ public class TorchConnect {
 
     private static Logger logger = LoggerFactory.getLogger(TorchConnect.class);
     static TorchConnect torchConnect;
-    static Engine engine;
     String baseDir;
     MemConnect memConnect;
 
+    // 已构建或正在构建的Engine，key为 baseDir|相似度度量|索引类型
+    // 构建Engine需要加载TorGraph、倒排索引和LEVI，耗时很长，因此在查询之间复用，只在轨迹数据变化时失效
+    // 所有TorchConnect实例共享，Transaction中临时创建的实例插入轨迹后也能使查询使用的Engine失效
+    private static final Map<String, FutureTask<Engine>> engines = new ConcurrentHashMap<>();
+
 //    TorchSQLiteHelper helper;
 
 
@@ -108,8 +116,8 @@ public class TorchConnect {
 //        };
 //        System.out.println(queries.size());
         List<List<TrajEntry>> queries = Test.read();
-        QueryResult topK = engine.findTopK(queries.get(0), 3);
-        QueryResult result = engine.findOnPath(queries.get(1));
+        QueryResult topK = getEngine().findTopK(queries.get(0), 3);
+        QueryResult result = getEngine().findOnPath(queries.get(1));
         System.out.println((topK.toJSON(1)));
         System.out.println(result.toJSON(1));
     }
@@ -129,46 +137,92 @@ public class TorchConnect {
         String pbfFilePath=Constants.TORCH_RES_BASE_DIR+"/raw/Porto.osm.pbf";
         Test.init(baseDir,filePath,pbfFilePath);
         Transaction.getInstance().SaveAll();
+        invalidateEngines();
     }
 
     public void initEngine() {
-        engine=Engine.getBuilder().baseDir(baseDir).build();
-//        System.out.println(1);
+        getEngine();
+    }
+
+    // 默认的Engine（DTW + 边倒排索引），用于path、range以及未指定相似度度量的topK查询
+    public Engine getEngine() {
+        return getEngine(Torch.Algorithms.DTW, Torch.Index.EDGE_INVERTED_INDEX);
+    }
+
+    // 获取指定相似度度量与索引类型的Engine，第一次使用时构建，之后复用
+    // 构建在map之外进行：先用putIfAbsent放入FutureTask，由放入成功的线程构建，同一key的其他线程等待结果
+    public Engine getEngine(String similarityFunction, String index) {
+        String key = baseDir + "|" + similarityFunction + "|" + index;
+        FutureTask<Engine> future = engines.get(key);
+        if (future == null) {
+            FutureTask<Engine> task = new FutureTask<>(() -> {
+                // Engine.Builder是全局共享的单例，构建时需要串行
+                synchronized (Engine.Builder.class) {
+                    return Engine.getBuilder()
+                            .preferedSimilarityMeasure(similarityFunction)
+                            .preferedIndex(index)
+                            .baseDir(baseDir)
+                            .build();
+                }
+            });
+            future = engines.putIfAbsent(key, task);
+            if (future == null) {
+                future = task;
+                task.run();
+            }
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // 构建失败时移除，下次查询重新构建
+            engines.remove(key, future);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // 轨迹数据发生变化后调用，丢弃该baseDir下已构建的Engine，下次查询时重新构建
+    // 正在构建的Engine也被移除，构建完成后只交给失效前已在等待的查询，不会再被之后的查询使用
+    public void invalidateEngines() {
+        engines.keySet().removeIf(key -> key.startsWith(baseDir + "|"));
     }
 
     public List<Trajectory<TrajEntry>> rangeQuery(SearchWindow searchWindow){
-        QueryResult inRange = engine.findInRange(searchWindow);
+        QueryResult inRange = getEngine().findInRange(searchWindow);
         return inRange.resolvedRet;
     }
 
     public List<Trajectory<TrajEntry>> pathQuery(Trajectory trajectory){
-        QueryResult onPath = engine.findOnPath(trajectory);
+        QueryResult onPath = getEngine().findOnPath(trajectory);
         return onPath.resolvedRet;
     }
 
     public List<Trajectory<TrajEntry>> pathQuery(String pathName){
-        QueryResult onPath = engine.findOnPath(pathName);
+        QueryResult onPath = getEngine().findOnPath(pathName);
         return onPath.resolvedRet;
     }
 
     public List<Trajectory<TrajEntry>> strictPathQuery(Trajectory trajectory){
-        QueryResult onPath = engine.findOnStrictPath(trajectory);
+        QueryResult onPath = getEngine().findOnStrictPath(trajectory);
         return onPath.resolvedRet;
     }
 
     public List<Trajectory<TrajEntry>> strictPathQuery(String pathName){
-        QueryResult onPath = engine.findOnStrictPath(pathName);
+        QueryResult onPath = getEngine().findOnStrictPath(pathName);
         return onPath.resolvedRet;
     }
 
     public List<Trajectory<TrajEntry>> topkQuery(Trajectory trajectory,int k,String similarityFunction)  {
-        engine=Engine.getBuilder().preferedSimilarityMeasure(similarityFunction).baseDir(baseDir).build();
-        QueryResult onPath = engine.findTopK(trajectory,k);
+        QueryResult onPath = getEngine(similarityFunction, Torch.Index.EDGE_INVERTED_INDEX).findTopK(trajectory,k);
         return onPath.resolvedRet;
     }
 
     public List<Trajectory<TrajEntry>> topkQuery(Trajectory trajectory,int k){
-        QueryResult onPath = engine.findTopK(trajectory,k);
+        QueryResult onPath = getEngine().findTopK(trajectory,k);
         return onPath.resolvedRet;
     }
 
@@ -217,6 +271,8 @@ public class TorchConnect {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            // 轨迹数据已变化，已构建的Engine失效
+            invalidateEngines();
         }
     }
 
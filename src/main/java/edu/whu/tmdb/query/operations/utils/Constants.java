@@ -2,5 +2,15 @@ package edu.whu.tmdb.query.operations.utils;
 
 public class Constants {
     public static final String TORCH_RES_BASE_DIR="data/res";
-}
 
+    // 哈希连接的内存预算（字节），构建侧超过该值时按连接属性分区写到JOIN_SPILL_DIR下
+    public static final long JOIN_MEMORY_BUDGET = 64L * 1024 * 1024;
+    public static final int JOIN_SPILL_PARTITIONS = 64;
+    public static final String JOIN_SPILL_DIR = "data/tmp";
+
+    // where条件满足的索引项不超过索引项总数的该比例时才使用索引扫描，否则顺序扫描
+    public static final double INDEX_SCAN_MAX_SELECTIVITY = 0.2;
+
+    // Transaction中按sql文本缓存的已解析语句的最大数量，超过时淘汰最久未使用的
+    public static final int STATEMENT_CACHE_SIZE = 256;
+}
@@ -52,6 +52,13 @@ public class Formula {
             case "SignedExpression":
                 dataList = signedExpression((SignedExpression) expression, selectResult);
                 break;
+            case "DoubleValue":
+                dataList = doubleValue((DoubleValue) expression, selectResult);
+                break;
+            case "JdbcParameter":
+                // 预编译语句的参数，换成绑定的常量后处理
+                dataList = formulaExecute(StatementParameters.resolve(expression), selectResult);
+                break;
         }
         return dataList;
     }
@@ -175,10 +182,24 @@ public class Formula {
         return res;
     }
 
+    // 小数处理
+    public ArrayList<Object> doubleValue(DoubleValue value, SelectResult selectResult) {
+        double temp = value.getValue();
+        ArrayList<Object> res = new ArrayList<>();
+        // 返回全是该数字元素的列
+        for (int i = 0; i < selectResult.getTpl().tuplelist.size(); i++) {
+            res.add(temp);
+        }
+        return res;
+    }
+
     // 负数处理
-    public ArrayList<Object> signedExpression(SignedExpression value, SelectResult selectResult) {
-        String sign = String.valueOf(value.getSign());
-        double data = Double.parseDouble(sign + value.getExpression().toString());
+    public ArrayList<Object> signedExpression(SignedExpression value, SelectResult selectResult) throws TMDBException {
+        // 内部可能是绑定了负数的参数，先解析再取反
+        double data = Double.parseDouble(StatementParameters.resolve(value.getExpression()).toString());
+        if (value.getSign() == '-') {
+            data = -data;
+        }
         int size = selectResult.getTpl().tuplelist.size();
         ArrayList<Object> res = new ArrayList<>();
         // 返回全是该数字元素的列
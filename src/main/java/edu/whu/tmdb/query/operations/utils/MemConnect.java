@@ -4,17 +4,19 @@ package edu.whu.tmdb.query.operations.utils;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import edu.whu.tmdb.query.operations.Exception.ErrorList;
-import com.alibaba.fastjson2.JSON;
 import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import edu.whu.tmdb.query.operations.iterator.ScanIterator;
 import edu.whu.tmdb.storage.memory.MemManager;
+import edu.whu.tmdb.storage.memory.MergeIterator;
 import edu.whu.tmdb.storage.memory.SystemTable.*;
 import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleCodec;
 import edu.whu.tmdb.storage.memory.TupleList;
-import edu.whu.tmdb.storage.utils.K;
 import edu.whu.tmdb.storage.utils.V;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.select.FromItem;
@@ -59,13 +61,17 @@ public class MemConnect {
         rwLock.readLock().lock(); // 获取读锁
         Tuple t = null;
         try {
-            Object searchResult = this.memManager.search(new K("t" + id));
+            // 由对象表得到tuple所属的类，从而得到tuple的key
+            int classId = getObjectTable().getClassIdByTupleId(id);
+            if (classId < 0)
+                return null;
+            Object searchResult = this.memManager.search(MemManager.tupleKey(classId, id));
             if (searchResult == null)
                 t= null;
             if (searchResult instanceof Tuple)
                 t = (Tuple) searchResult;
             else if (searchResult instanceof V)
-                t= JSON.parseObject(((V) searchResult).valueString, Tuple.class);
+                t= TupleCodec.decode(((V) searchResult).valueBytes);
             if (t.delete)
                 t= null;
         }finally {
@@ -88,9 +94,11 @@ public class MemConnect {
     public void DeleteTuple(int id) {
         rwLock.writeLock().lock();
         try {
-            if (id >= 0) {
+            int classId = getObjectTable().getClassIdByTupleId(id);
+            if (id >= 0 && classId >= 0) {
                 Tuple tuple = new Tuple();
                 tuple.tupleId = id;
+                tuple.classId = classId;
                 tuple.delete = true;
                 memManager.add(tuple);
             }
@@ -104,6 +112,9 @@ public class MemConnect {
         rwLock.writeLock().lock();
         try {
             tuple.tupleId = tupleId;
+            int classId = getObjectTable().getClassIdByTupleId(tupleId);
+            if (classId >= 0)
+                tuple.classId = classId;
             this.memManager.add(tuple);
         }finally {
             rwLock.writeLock().unlock();
@@ -117,20 +128,12 @@ public class MemConnect {
      * @throws TMDBException 不存在给定表名的表，抛出异常
      */
     public int getClassId(String tableName) throws TMDBException {
-        // TODO
         // 不存在时抛出异常
-        int classId = -1;
-        for (ClassTableItem item : getClassTableList()) {
-            if (item.classname.equals(tableName)) {
-                classId = item.classid;
-                return classId;
-                //break;
-            }
+        int classId = getClassTable().getClassId(tableName);
+        if (classId == -1) {
+            throw new TMDBException(ErrorList.CLASS_NAME_DOES_NOT_EXIST, tableName);
         }
-        //if (classId == -1) {
-        throw new TMDBException(ErrorList.CLASS_NAME_DOES_NOT_EXIST, tableName);
-        //}
-        //return classId;
+        return classId;
     }
 
     /**
@@ -143,11 +146,8 @@ public class MemConnect {
         // TODO
         // 不存在时抛出异常
         List<String> columns = new ArrayList<>();
-        //int classId = getClassId(tableName);
-        for (ClassTableItem item : MemConnect.getClassTableList()) {
-            if (item.classname.equals(tableName)) {
-                columns.add(item.attrname); // 使用 attrname 属性获取属性名
-            }
+        for (ClassTableItem item : getClassTable().getClassItems(getClassId(tableName))) {
+            columns.add(item.attrname); // 使用 attrname 属性获取属性名
         }
         if (columns.isEmpty()) {
             throw new TMDBException(ErrorList.CLASS_NAME_DOES_NOT_EXIST, tableName);
@@ -162,14 +162,12 @@ public class MemConnect {
      * @throws TMDBException 不存在给定表名的表，抛出异常
      */
     public int getClassAttrnum(String tableName) throws TMDBException {
-        // TODO
         // 不存在时抛出异常
-        for (ClassTableItem item : getClassTableList()) {
-            if (item.classname.equals(tableName)) {
-                return item.attrnum;
-            }
+        List<ClassTableItem> items = getClassTable().getClassItems(getClassTable().getClassId(tableName));
+        if (items.isEmpty()) {
+            throw new TMDBException(ErrorList.CLASS_NAME_DOES_NOT_EXIST, tableName);
         }
-        throw new TMDBException(ErrorList.CLASS_NAME_DOES_NOT_EXIST, tableName);
+        return items.get(0).attrnum;
     }
 
     /**
@@ -179,14 +177,12 @@ public class MemConnect {
      * @throws TMDBException 不存在给定表名的表，抛出异常
      */
     public int getClassAttrnum(int classId) throws TMDBException {
-        // TODO
         // 不存在时抛出异常
-        for (ClassTableItem item : getClassTableList()) {
-            if (item.classid == classId) {
-                return item.attrnum;
-            }
+        List<ClassTableItem> items = getClassTable().getClassItems(classId);
+        if (items.isEmpty()) {
+            throw new TMDBException(ErrorList.CLASS_ID_DOES_NOT_EXIST, "getClassAttrnum"+classId);
         }
-        throw new TMDBException(ErrorList.CLASS_ID_DOES_NOT_EXIST, "getClassAttrnum"+classId);
+        return items.get(0).attrnum;
     }
 
     /**
@@ -199,18 +195,14 @@ public class MemConnect {
         // TODO
         // 不存在时抛出异常
         List<Integer> attridList = new ArrayList<>();
-        boolean classFound = false;
-
-        for (ClassTableItem item : getClassTableList()) {
-            if (item.classid == classId) {
-                classFound = true;
-                if (columns.contains(item.attrname)) {  // 只添加需要的属性名对应的 attrid
-                    attridList.add(item.attrid);
-                }
+        List<ClassTableItem> items = getClassTable().getClassItems(classId);
+        for (ClassTableItem item : items) {
+            if (columns.contains(item.attrname)) {  // 只添加需要的属性名对应的 attrid
+                attridList.add(item.attrid);
             }
         }
 
-        if (!classFound) {
+        if (items.isEmpty()) {
             throw new TMDBException(ErrorList.CLASS_ID_DOES_NOT_EXIST, "getAttridList"+String.valueOf(classId));
         }
 
@@ -228,18 +220,12 @@ public class MemConnect {
      * @return 属性对应的id
      */
     public int getAttrid(int classId, String attrName) throws TMDBException {
-        // TODO
         // 不存在时抛出异常
-        int classMatch=0;
-        for (ClassTableItem item : getClassTableList()) {
-            if(item.classid == classId){
-                classMatch=1;
-            }
-            if (item.classid == classId && item.attrname.equals(attrName)) {
-                return item.attrid;
-            }
+        int attrid = getClassTable().getAttrId(classId, attrName);
+        if (attrid != -1) {
+            return attrid;
         }
-        if(classMatch==1)
+        if(!getClassTable().getClassItems(classId).isEmpty())
         {
             throw new TMDBException(ErrorList.CLASS_ID_DOES_NOT_EXIST, "getAttrid"+String.valueOf(classId));
         }
@@ -258,21 +244,80 @@ public class MemConnect {
      * @throws TMDBException 不存在给定表名的表，抛出异常
      */
     public TupleList getTupleList(FromItem fromItem) throws TMDBException {
-        int classId = getClassId(((Table) fromItem).getName());
         TupleList tupleList = new TupleList();
-        for (ObjectTableItem item : getObjectTableList()) {
-            if (item.classid != classId) {
-                continue;
-            }
-            Tuple tuple = GetTuple(item.tupleid);
-            if (tuple != null && !tuple.delete) {
-                tuple.setTupleId(item.tupleid);
-                tupleList.addTuple(tuple);
+        try (ScanIterator iterator = scan(fromItem)) {
+            while (iterator.hasNext()) {
+                tupleList.addTuple(iterator.next());
             }
         }
         return tupleList;
     }
 
+    /**
+     * 给定表名，打开该表的顺序扫描，元组在拉取时才从存储中读出
+     * @param fromItem 表名
+     * @return 扫描算子，使用完毕后需要close
+     * @throws TMDBException 不存在给定表名的表，抛出异常
+     */
+    public ScanIterator scan(FromItem fromItem) throws TMDBException {
+        int classId = getClassId(((Table) fromItem).getName());
+        MergeIterator iterator;
+        rwLock.readLock().lock();
+        try {
+            // 同一个类的tuple占据连续的key范围，一次范围查询顺序读出
+            iterator = memManager.rangeIterator(MemManager.classStartKey(classId), MemManager.classStartKey(classId + 1));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return new ScanIterator(iterator, classId, getObjectTable(), rwLock.readLock());
+    }
+
+    /**
+     * 元组插入或修改之后，将其属性值加入所在类的索引
+     * 需要在对象表添加表项之前调用，使catalog日志中索引项先于对象表表项写入
+     * @param tuple 已写入存储的元组（classId与tupleId均已设置）
+     */
+    public void insertIndexEntries(Tuple tuple) {
+        MemManager.indexManager.insert(tuple);
+    }
+
+    /**
+     * 元组删除或修改之前，从所在类的索引中移除其属性值
+     * @param tuple 元组的当前值（classId与tupleId均已设置）
+     */
+    public void deleteIndexEntries(Tuple tuple) {
+        if (tuple != null) {
+            MemManager.indexManager.delete(tuple);
+        }
+    }
+
+    /**
+     * 扫描类的全部元组建立索引，并加入索引表
+     * @param item 索引表项
+     */
+    public void createIndex(IndexTableItem item) throws IOException {
+        rwLock.readLock().lock();
+        try {
+            MemManager.indexManager.create(item, memManager);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        getIndexTable().add(item);
+    }
+
+    /**
+     * 删除满足条件的索引
+     * @param filter 索引表项的筛选条件
+     */
+    public void dropIndex(Predicate<IndexTableItem> filter) {
+        for (IndexTableItem item : new ArrayList<>(getIndexTableList())) {
+            if (filter.test(item)) {
+                MemManager.indexManager.drop(item.indexid);
+            }
+        }
+        getIndexTable().removeIf(filter);
+    }
+
     /**
      * 给定表名，获取表名class table的副本
      * @param fromItem 表名
@@ -281,15 +326,14 @@ public class MemConnect {
      */
     public ArrayList<ClassTableItem> copyClassTableList(FromItem fromItem) throws TMDBException{
         ArrayList<ClassTableItem> classTableList = new ArrayList<>();
-        for (ClassTableItem item : getClassTableList()){
-            if (item.classname.equals(((Table)fromItem).getName())){
-                // 硬拷贝，不然后续操作会影响原始信息
-                ClassTableItem classTableItem = item.getCopy();
-                if (fromItem.getAlias() != null) {
-                    classTableItem.alias = fromItem.getAlias().getName();
-                }
-                classTableList.add(classTableItem);
+        int classId = getClassTable().getClassId(((Table)fromItem).getName());
+        for (ClassTableItem item : getClassTable().getClassItems(classId)){
+            // 硬拷贝，不然后续操作会影响原始信息
+            ClassTableItem classTableItem = item.getCopy();
+            if (fromItem.getAlias() != null) {
+                classTableItem.alias = fromItem.getAlias().getName();
             }
+            classTableList.add(classTableItem);
         }
         if (classTableList.isEmpty()) {
             throw new TMDBException(ErrorList.CLASS_NAME_DOES_NOT_EXIST, ((Table)fromItem).getName());
@@ -303,13 +347,7 @@ public class MemConnect {
      * @return 存在返回true，否则返回false
      */
     public boolean classExist(String tableName) {
-        // TODO
-        for (ClassTableItem item : getClassTableList()) {
-            if (item.classname.equals(tableName)) {
-                return true;
-            }
-        }
-        return false;
+        return getClassTable().getClassId(tableName) != -1;
     }
 
     /**
@@ -319,16 +357,8 @@ public class MemConnect {
      * @return 存在返回true，否则返回false
      */
     public boolean columnExist(String tableName, String columnName) throws TMDBException {
-        // TODO
-        for (ClassTableItem item : getClassTableList()) {
-            if (item.classname.equals(tableName)) {
-                if (item.attrname.equals(columnName)) {
-                    return true;  // 属性名也匹配，说明列存在
-                }
-            }
-        }
-        return false;
-
+        int classId = getClassTable().getClassId(tableName);
+        return classId != -1 && getClassTable().getAttrId(classId, columnName) != -1;
     }
 
     /**
@@ -338,36 +368,8 @@ public class MemConnect {
      * @throws TMDBException 不存在给定表名的表，抛出异常
      */
     public ArrayList<Integer> getDeputyIdList(int classId) throws TMDBException {
-        // TODO
-        // 不存在时抛出异常
-//        ArrayList<Integer> attributeIds = new ArrayList<>();
-//        boolean classFound = false;
-//
-//        for (ClassTableItem item : getClassTableList()) {
-//            if (item.classid == classId) {
-//                classFound = true;
-//                attributeIds.add(item.attrid);
-//            }
-//        }
-//
-//        if (!classFound) {
-//
-//        }
-//
-//        return attributeIds;
-        ArrayList<Integer> deputyIdList = new ArrayList<>();
-        for (BiPointerTableItem item : getBiPointerTableList()) {   //源类id列表
-//            if(item.deputyobjectid == classId){         //代理类id=对应=源类id
-//                deputyIdList.add(item.deputyobjectid);
-//            }
-            if (item.classid == classId && !deputyIdList.contains(item.deputyid)) {
-                deputyIdList.add(item.deputyid);
-            }
-        }
-//        if (deputyIdList.isEmpty()) {
-//            throw new TMDBException(ErrorList.CLASS_ID_DOES_NOT_EXIST, "QQQQQQ" + classId);
-//        }
-        return deputyIdList;
+        // 由双向指针表的索引得到，按代理类第一次出现的顺序
+        return new ArrayList<>(getBiPointerTable().getDeputyIds(classId));
     }
 
     public boolean Condition(String attrtype, Tuple tuple, int attrid, String value1) {
@@ -390,6 +392,9 @@ public class MemConnect {
 
     public void SaveAll() { memManager.saveAll(); }
 
+    // 修改语句执行完成后只持久化系统表的变更，数据由日志保证持久性
+    public void commit() { memManager.commit(); }
+
     public void reload() {
         try {
             memManager.loadClassTable();
@@ -430,6 +435,8 @@ public class MemConnect {
 
     public static SwitchingTable getSwitchingTable() { return MemManager.switchingTable; }
 
+    public static IndexTable getIndexTable() { return MemManager.indexTable; }
+
     // 获取系统表表项
     public static List<ObjectTableItem> getObjectTableList() { return MemManager.objectTable.objectTableList; }
 
@@ -440,4 +447,6 @@ public class MemConnect {
     public static List<BiPointerTableItem> getBiPointerTableList() { return MemManager.biPointerTable.biPointerTableList; }
 
     public static List<SwitchingTableItem> getSwitchingTableList() { return MemManager.switchingTable.switchingTableList; }
+
+    public static List<IndexTableItem> getIndexTableList() { return MemManager.indexTable.indexTableList; }
 }
@@ -0,0 +1,65 @@
+package edu.whu.tmdb.query.operations.utils;
+
+import edu.whu.tmdb.query.operations.Exception.ErrorList;
+import edu.whu.tmdb.query.operations.Exception.TMDBException;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.StringValue;
+
+/**
+ * 预编译语句的位置参数（sql中的"?"）
+ * 1. 缓存的语法树在多次执行之间共享，不能把参数写入语法树，因此参数按线程绑定，执行结束后清除
+ * 2. 各处读取常量的地方（Formula、values、update的set、索引扫描、limit）先调用resolve把JdbcParameter换成对应的常量
+ */
+public class StatementParameters {
+
+    private static final ThreadLocal<Expression[]> bound = new ThreadLocal<>();
+
+    // 绑定当前线程执行的语句的参数，params[i]对应第i + 1个"?"
+    public static void bind(Object[] params) throws TMDBException {
+        Expression[] values = new Expression[params.length];
+        for (int i = 0; i < params.length; i++) {
+            values[i] = toExpression(params[i]);
+        }
+        bound.set(values);
+    }
+
+    public static void clear() {
+        bound.remove();
+    }
+
+    // JdbcParameter换成绑定的常量，其它表达式原样返回
+    public static Expression resolve(Expression expression) throws TMDBException {
+        if (!(expression instanceof JdbcParameter)) {
+            return expression;
+        }
+        JdbcParameter parameter = (JdbcParameter) expression;
+        Expression[] values = bound.get();
+        // jsqlparser按出现顺序给"?"编号，从1开始
+        int index = parameter.getIndex() == null ? -1 : parameter.getIndex();
+        if (values == null || index < 1 || index > values.length) {
+            throw new TMDBException(ErrorList.PARAMETER_IS_NOT_BOUND, index);
+        }
+        return values[index - 1];
+    }
+
+    private static Expression toExpression(Object param) throws TMDBException {
+        if (param == null) {
+            return new NullValue();
+        }
+        if (param instanceof Integer || param instanceof Long || param instanceof Short || param instanceof Byte) {
+            return new LongValue(((Number) param).longValue());
+        }
+        if (param instanceof Float || param instanceof Double) {
+            return new DoubleValue(String.valueOf(((Number) param).doubleValue()));
+        }
+        if (param instanceof String || param instanceof Character) {
+            // 与sql中的字符串常量一致：单引号转义为两个单引号
+            return new StringValue(String.valueOf(param).replace("'", "''"));
+        }
+        throw new TMDBException(ErrorList.TYPE_IS_NOT_SUPPORTED, param.getClass().getSimpleName());
+    }
+}
@@ -1,34 +1,116 @@
 package edu.whu.tmdb.storage.cache;
 
 
-import java.util.LinkedList;
-import java.util.TreeMap;
+import edu.whu.tmdb.storage.utils.Constant;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// 缓存SSTable的data block，所有SSTable共享
+// 1. 块号 = (SSTable后缀, data block在文件中的偏移)，编码为一个long
+// 2. 以字节数为容量上限，按块号哈希分片，每个分片各自加锁、各自按LRU淘汰，查询线程之间不会互相串行
+// 3. bloom filter与index block已随SSTable常驻在MetaCache中，这里只缓存data block
+// SSTable后缀不会复用，compaction删除的SSTable的块不会再被访问，由LRU自然淘汰
 public class BlockCache {
 
-    //  最大缓存的块数量
-        private final int MAX_CACHED_BLOCK_COUNT = 10000;
+    // 分片
+    private final Shard[] shards;
+
+    // 命中与未命中次数
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public BlockCache(){
+        this(Constant.BLOCK_CACHE_CAPACITY, Constant.BLOCK_CACHE_SHARD_COUNT);
+    }
+
+    // capacity为缓存的总字节数，shardCount需为2的幂
+    public BlockCache(long capacity, int shardCount){
+        this.shards = new Shard[shardCount];
+        for(int i = 0; i < shardCount; i++){
+            this.shards[i] = new Shard(capacity / shardCount);
+        }
+    }
+
+    // 返回缓存的data block，没有则返回null
+    public byte[] get(int fileSuffix, long offset){
+        long blockID = blockID(fileSuffix, offset);
+        byte[] block = shardOf(blockID).get(blockID);
+        if(block != null)
+            hitCount.increment();
+        else
+            missCount.increment();
+        return block;
+    }
+
+    public void put(int fileSuffix, long offset, byte[] block){
+        long blockID = blockID(fileSuffix, offset);
+        shardOf(blockID).put(blockID, block);
+    }
+
+    public long getHitCount(){
+        return hitCount.sum();
+    }
+
+    public long getMissCount(){
+        return missCount.sum();
+    }
 
-    // 哈希表 ,  块号(SSTable后缀+块下标) ： 块
-    public TreeMap<String, byte[]> cachedBlock = new TreeMap();
+    // 当前缓存占用的字节数
+    public long getUsage(){
+        long usage = 0;
+        for(Shard shard : shards){
+            usage += shard.getUsage();
+        }
+        return usage;
+    }
 
-    // 链表记录插入的顺序，从而实现LRU
-    private LinkedList<String> lruList = new LinkedList<>();
+    // 高位存SSTable后缀，低40位存偏移（单个SSTable不超过1TB）
+    private static long blockID(int fileSuffix, long offset){
+        return ((long) fileSuffix << 40) | offset;
+    }
 
-    public byte[] get(String blockID){
-        return this.cachedBlock.getOrDefault(blockID, null);
+    private Shard shardOf(long blockID){
+        long h = blockID * 0x9E3779B97F4A7C15L;
+        return shards[(int) (h >>> 32) & (shards.length - 1)];
     }
 
-    public void put(String blockID, byte[] block){
 
-        // 如果容量已满，则需要移除最久未使用的
-        if(this.cachedBlock.size() > this.MAX_CACHED_BLOCK_COUNT){
-            String oldBlockID = this.lruList.pop();
-            this.cachedBlock.remove(oldBlockID);
+    // 一个分片：按访问顺序排列的LinkedHashMap，get/put/淘汰都是O(1)
+    private static class Shard {
+
+        private final long capacity;
+
+        private long usage = 0;
+
+        private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<>(256, 0.75f, true);
+
+        Shard(long capacity){
+            this.capacity = capacity;
+        }
+
+        synchronized byte[] get(long blockID){
+            return blocks.get(blockID);
         }
 
-        // 新数据加入
-        this.cachedBlock.put(blockID, block);
-        this.lruList.add(blockID);
+        synchronized void put(long blockID, byte[] block){
+            byte[] old = blocks.put(blockID, block);
+            if(old != null)
+                usage -= old.length;
+            usage += block.length;
+
+            // 超出容量则从最久未使用的块开始淘汰
+            Iterator<Map.Entry<Long, byte[]>> it = blocks.entrySet().iterator();
+            while(usage > capacity && it.hasNext()){
+                usage -= it.next().getValue().length;
+                it.remove();
+            }
+        }
+
+        synchronized long getUsage(){
+            return usage;
+        }
     }
 }
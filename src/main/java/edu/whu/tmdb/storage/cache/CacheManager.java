@@ -6,10 +6,27 @@ import edu.whu.tmdb.storage.cache.BlockCache;
 // 缓存由两部分组成
 // 一部分记录若干SSTable的meta data部分，用于加速SSTable的读取过程
 // 一部分记录hot key，根据LRU原则进行替换
+// 一部分记录SSTable的data block，供SSTable的search与rangeQuery使用
 public class CacheManager {
 
     public DataCache dataCache = new DataCache();
-    public MetaCache metaCache = new MetaCache();
     public BlockCache blockCache = new BlockCache();
+    public MetaCache metaCache = new MetaCache(blockCache);
+
+    // block cache的命中与未命中次数
+    public long getBlockCacheHitCount(){
+        return blockCache.getHitCount();
+    }
+
+    public long getBlockCacheMissCount(){
+        return blockCache.getMissCount();
+    }
+
+    // block cache的命中率，还没有读取过data block时返回0
+    public double getBlockCacheHitRate(){
+        long hit = blockCache.getHitCount();
+        long total = hit + blockCache.getMissCount();
+        return total == 0 ? 0 : (double) hit / total;
+    }
 
 }
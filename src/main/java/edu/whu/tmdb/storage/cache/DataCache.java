@@ -1,50 +1,109 @@
 package edu.whu.tmdb.storage.cache;
 
 
+import edu.whu.tmdb.storage.utils.Constant;
 import edu.whu.tmdb.storage.utils.K;
 import edu.whu.tmdb.storage.utils.V;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 // 以 k-v pair为粒度的缓存
 // 采用LRU替换策略
+// 按key哈希分片，每个分片是一个按访问顺序排列的LinkedHashMap并各自加锁
+// get/put/淘汰都是O(1)，并发的search只会在落到同一分片时互相等待
 public class DataCache {
 
-    // 最大缓存的k-v数量
-    private final int MAX_CACHED_DATA_SIZE = 100000;
+    // 分片
+    private final Shard[] shards;
 
-    // 哈希表记录k-v
-    public TreeMap<K, V> cachedData = new TreeMap();
+    public DataCache(){
+        this(Constant.DATA_CACHE_MAX_COUNT, Constant.DATA_CACHE_MAX_BYTES, Constant.DATA_CACHE_SHARD_COUNT);
+    }
 
-    // 链表记录插入key的顺序，从而实现LRU
-    private LinkedList<K> lruList = new LinkedList<>();
+    // maxCount为最大缓存的k-v数量，maxBytes为最大缓存的字节数（key + value），不大于0表示不按该项限制
+    // shardCount需为2的幂
+    public DataCache(int maxCount, long maxBytes, int shardCount){
+        this.shards = new Shard[shardCount];
+        for(int i = 0; i < shardCount; i++){
+            this.shards[i] = new Shard(
+                    maxCount > 0 ? Math.max(1, maxCount / shardCount) : 0,
+                    maxBytes > 0 ? Math.max(1, maxBytes / shardCount) : 0);
+        }
+    }
 
 
     public V get(K key){
-        V ret = this.cachedData.getOrDefault(key, null);
+        return shardOf(key).get(key);
+    }
+
+    public void put(K key, V value){
+        shardOf(key).put(key, value);
+    }
 
-        // 如果key在缓存中，则将key置顶
-        if(ret != null){
-            this.lruList.remove(key);
-            this.lruList.add(key);
+    // 当前缓存的k-v数量
+    public int size(){
+        int size = 0;
+        for(Shard shard : shards){
+            size += shard.size();
         }
-        return ret;
+        return size;
     }
 
-    public void put(K key, V value){
+    private Shard shardOf(K key){
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & (shards.length - 1)];
+    }
+
+
+    // 一个分片，超出数量或字节数限制时从最久未使用的k-v开始淘汰
+    private static class Shard {
+
+        private final int maxCount;
+
+        private final long maxBytes;
 
-        // 如果容量已满，则需要移除最久未使用的
-        if(this.cachedData.size() > this.MAX_CACHED_DATA_SIZE){
-            K oldKey = this.lruList.pop();
-            this.cachedData.remove(oldKey);
+        private long usage = 0;
+
+        private final LinkedHashMap<K, V> cachedData = new LinkedHashMap<>(256, 0.75f, true);
+
+        Shard(int maxCount, long maxBytes){
+            this.maxCount = maxCount;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized V get(K key){
+            return cachedData.get(key);
+        }
+
+        synchronized void put(K key, V value){
+            V old = cachedData.put(key, value);
+            if(old != null)
+                usage -= sizeOf(key, old);
+            usage += sizeOf(key, value);
+
+            Iterator<Map.Entry<K, V>> it = cachedData.entrySet().iterator();
+            while(isFull() && it.hasNext()){
+                Map.Entry<K, V> eldest = it.next();
+                usage -= sizeOf(eldest.getKey(), eldest.getValue());
+                it.remove();
+            }
+        }
+
+        synchronized int size(){
+            return cachedData.size();
         }
 
-        // 新数据加入
-        this.cachedData.put(key, value);
-        this.lruList.add(key);
+        private boolean isFull(){
+            return (maxCount > 0 && cachedData.size() > maxCount)
+                    || (maxBytes > 0 && usage > maxBytes);
+        }
+
+        private static long sizeOf(K key, V value){
+            return key.key.length() + value.length();
+        }
     }
 
 }
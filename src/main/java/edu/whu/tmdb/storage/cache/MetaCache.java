@@ -4,44 +4,99 @@ package edu.whu.tmdb.storage.cache;
 import edu.whu.tmdb.storage.level.SSTable;
 import edu.whu.tmdb.storage.utils.Constant;
 
-import java.io.File;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 
-// 缓存SSTable的meta block
+// 缓存SSTable的meta block与读通道（table cache）
+// 1. 最多缓存Constant.TABLE_CACHE_CAPACITY个SSTable，超出时按LRU淘汰，同时打开的文件句柄数有上限
+// 2. 缓存对每个SSTable持有一次引用，get()返回前为调用者再增加一次引用，调用者用完后需调用SSTable.release()
+// 3. 淘汰或移除时只释放缓存的引用，正在读取的查询结束后读通道才会关闭
+// 后台flush/compaction线程与查询线程会同时访问，所有操作都在同一把锁下进行，从磁盘加载meta block时不持有锁
 public class MetaCache {
 
-    public Map<Integer, SSTable> metas = new HashMap<>();
+    // 按访问顺序排列，最久未使用的在前
+    private final LinkedHashMap<Integer, SSTable> metas;
 
+    // 缓存中的SSTable读取data block时使用的block cache
+    private final BlockCache blockCache;
+
+    public MetaCache(BlockCache blockCache){
+        this(blockCache, Constant.TABLE_CACHE_CAPACITY);
+    }
+
+    public MetaCache(BlockCache blockCache, int capacity){
+        this.blockCache = blockCache;
+        this.metas = new LinkedHashMap<Integer, SSTable>(256, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, SSTable> eldest){
+                if(size() <= capacity)
+                    return false;
+                eldest.getValue().release();
+                return true;
+            }
+        };
+    }
+
+    // 加入SSTable，新写入的SSTable的写通道已不再使用，关闭后打开读通道
     public void add(SSTable newSST){
         int fileSuffix = Integer.parseInt(newSST.fileName.split("SSTable")[1]);
-        this.metas.put(fileSuffix, newSST);
-
-        // 加入缓存的SSTable多用于读，因此读通道打开
+        newSST.blockCache = this.blockCache;
         try{
-            if(newSST.raf == null)
-                newSST.raf = new RandomAccessFile(new File(Constant.DATABASE_DIR + newSST.fileName), "r");
-        }catch (Exception e){
+            newSST.openChannel();
+        }catch (IOException e){
             e.printStackTrace();
         }
 
+        SSTable old;
+        synchronized (this){
+            old = this.metas.put(fileSuffix, newSST);
+        }
+        if(old != null && old != newSST)
+            old.release();
     }
 
+    // 移除SSTable并释放缓存的引用，文件句柄不再依赖finalize()回收
     public void remove(int fileSuffix){
-        metas.remove(fileSuffix);
+        SSTable sst;
+        synchronized (this){
+            sst = this.metas.remove(fileSuffix);
+        }
+        if(sst != null)
+            sst.release();
     }
 
-    // 根据fileSuffix返回对应SSTable的meta block
+    // 根据fileSuffix返回对应的SSTable，调用者用完后需调用SSTable.release()
     public SSTable get(int fileSuffix){
-        SSTable sst = metas.getOrDefault(fileSuffix, null);
+        SSTable sst;
+        synchronized (this){
+            sst = this.metas.get(fileSuffix);
+            // 缓存中的SSTable至少持有缓存的引用，retain一定成功
+            if(sst != null && sst.retain())
+                return sst;
+        }
 
         // 如果缓存中没有，则从磁盘上加载
-        if(sst == null){
-            sst = new SSTable("SSTable" + fileSuffix, 3);
-            metas.put(fileSuffix, sst);
+        SSTable newSST = new SSTable("SSTable" + fileSuffix, 3);
+        newSST.blockCache = this.blockCache;
+        synchronized (this){
+            sst = this.metas.get(fileSuffix);
+            if(sst == null){
+                // 加载期间没有其他线程放入同一个SSTable
+                this.metas.put(fileSuffix, newSST);
+                sst = newSST;
+                newSST = null;
+            }
+            sst.retain();
         }
+        if(newSST != null)
+            newSST.close();
         return sst;
     }
+
+    // 当前缓存的SSTable数量
+    public synchronized int size(){
+        return this.metas.size();
+    }
 }
@@ -0,0 +1,245 @@
+package edu.whu.tmdb.storage.index;
+
+
+import java.io.IOException;
+import java.util.function.IntPredicate;
+
+/**
+ * 属性索引使用的B+树，索引项为(属性值, tupleId)，按属性值、再按tupleId升序排列
+ * 1. 同一个属性值可以对应多个tuple，(属性值, tupleId)相同的索引项只保存一份
+ * 2. 叶子节点之间按顺序链接，范围查询从下界所在的叶子开始顺序读取
+ * 3. 删除只从叶子中移除索引项，不合并节点；空叶子在范围查询时被跳过
+ * 同一棵树中的属性值类型相同（Double或String），由IndexManager.keyOf保证
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BPlusTree {
+
+    // 节点中索引项（分隔键）的最大数量，超过时分裂
+    private static final int MAX_ENTRIES = 64;
+
+    private abstract static class Node {
+        final Comparable[] keys = new Comparable[MAX_ENTRIES + 1];
+        final int[] ids = new int[MAX_ENTRIES + 1];
+        int count = 0;
+    }
+
+    private static class Leaf extends Node {
+        Leaf next;
+    }
+
+    // keys[i]是children[i + 1]中最小的索引项，children[i]中的索引项都小于它
+    private static class Inner extends Node {
+        final Node[] children = new Node[MAX_ENTRIES + 2];
+    }
+
+    private Node root = new Leaf();
+
+    private int size = 0;
+
+    // insert分裂时返回给上层的分隔键
+    private Comparable splitKey;
+    private int splitId;
+
+
+    // 索引项的数量
+    public synchronized int size() {
+        return size;
+    }
+
+    // 插入索引项，已存在时返回false
+    public synchronized boolean add(Comparable key, int id) {
+        int before = size;
+        Node right = insert(root, key, id);
+        if (right != null) {
+            Inner newRoot = new Inner();
+            newRoot.keys[0] = splitKey;
+            newRoot.ids[0] = splitId;
+            newRoot.children[0] = root;
+            newRoot.children[1] = right;
+            newRoot.count = 1;
+            root = newRoot;
+        }
+        return size > before;
+    }
+
+    // 删除索引项，不存在时返回false
+    public synchronized boolean remove(Comparable key, int id) {
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[childIndex(node, key, id)];
+        }
+        int pos = lowerBound(node, key, id);
+        if (pos >= node.count || compare(node.keys[pos], node.ids[pos], key, id) != 0) {
+            return false;
+        }
+        System.arraycopy(node.keys, pos + 1, node.keys, pos, node.count - pos - 1);
+        System.arraycopy(node.ids, pos + 1, node.ids, pos, node.count - pos - 1);
+        node.count--;
+        node.keys[node.count] = null;
+        size--;
+        return true;
+    }
+
+    /**
+     * 按属性值的升序访问范围内的索引项
+     * @param from 下界，null表示没有下界
+     * @param fromInclusive 是否包含下界
+     * @param to 上界，null表示没有上界
+     * @param toInclusive 是否包含上界
+     * @param visitor 对每个索引项的tupleId调用，返回false时停止
+     * @return 范围内的索引项全部访问完时返回true，被visitor停止时返回false
+     */
+    public synchronized boolean scan(Comparable from, boolean fromInclusive, Comparable to, boolean toInclusive, IntPredicate visitor) {
+        Node node = root;
+        // 不包含下界时从下界之后开始，tupleId取最小/最大值使查找落在等于下界的索引项之前/之后
+        int probeId = fromInclusive ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[from == null ? 0 : childIndex(node, from, probeId)];
+        }
+        Leaf leaf = (Leaf) node;
+        int pos = from == null ? 0 : lowerBound(leaf, from, probeId);
+        while (leaf != null) {
+            for (; pos < leaf.count; pos++) {
+                Comparable key = leaf.keys[pos];
+                if (from != null && !fromInclusive && key.compareTo(from) == 0) {
+                    continue;
+                }
+                if (to != null) {
+                    int c = key.compareTo(to);
+                    if (c > 0 || (c == 0 && !toInclusive)) {
+                        return true;
+                    }
+                }
+                if (!visitor.test(leaf.ids[pos])) {
+                    return false;
+                }
+            }
+            leaf = leaf.next;
+            pos = 0;
+        }
+        return true;
+    }
+
+    // 按顺序访问全部索引项，用于写快照
+    public synchronized void forEach(EntryVisitor visitor) throws IOException {
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[0];
+        }
+        for (Leaf leaf = (Leaf) node; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.count; i++) {
+                visitor.visit(leaf.keys[i], leaf.ids[i]);
+            }
+        }
+    }
+
+    public interface EntryVisitor {
+        void visit(Comparable key, int id) throws IOException;
+    }
+
+
+    // 插入到node为根的子树中，node分裂时返回新的右侧节点，分隔键放在splitKey与splitId中
+    private Node insert(Node node, Comparable key, int id) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int pos = lowerBound(leaf, key, id);
+            if (pos < leaf.count && compare(leaf.keys[pos], leaf.ids[pos], key, id) == 0) {
+                return null;
+            }
+            insertAt(leaf, pos, key, id);
+            size++;
+            if (leaf.count <= MAX_ENTRIES) {
+                return null;
+            }
+            Leaf right = new Leaf();
+            int half = leaf.count / 2;
+            moveTail(leaf, half, right, 0);
+            right.next = leaf.next;
+            leaf.next = right;
+            splitKey = right.keys[0];
+            splitId = right.ids[0];
+            return right;
+        }
+
+        Inner inner = (Inner) node;
+        int pos = childIndex(inner, key, id);
+        Node child = insert(inner.children[pos], key, id);
+        if (child == null) {
+            return null;
+        }
+        System.arraycopy(inner.children, pos + 1, inner.children, pos + 2, inner.count - pos);
+        inner.children[pos + 1] = child;
+        insertAt(inner, pos, splitKey, splitId);
+        if (inner.count <= MAX_ENTRIES) {
+            return null;
+        }
+        // 中间的分隔键上移到父节点，不保留在两侧
+        int mid = inner.count / 2;
+        Inner right = new Inner();
+        Comparable midKey = inner.keys[mid];
+        int midId = inner.ids[mid];
+        System.arraycopy(inner.children, mid + 1, right.children, 0, inner.count - mid);
+        for (int i = mid + 1; i <= inner.count; i++) {
+            inner.children[i] = null;
+        }
+        moveTail(inner, mid + 1, right, 0);
+        inner.count = mid;
+        inner.keys[mid] = null;
+        splitKey = midKey;
+        splitId = midId;
+        return right;
+    }
+
+    private static void insertAt(Node node, int pos, Comparable key, int id) {
+        System.arraycopy(node.keys, pos, node.keys, pos + 1, node.count - pos);
+        System.arraycopy(node.ids, pos, node.ids, pos + 1, node.count - pos);
+        node.keys[pos] = key;
+        node.ids[pos] = id;
+        node.count++;
+    }
+
+    // 将from中[start, count)的索引项移到to的开头，from只保留前start个
+    private static void moveTail(Node from, int start, Node to, int toPos) {
+        int n = from.count - start;
+        System.arraycopy(from.keys, start, to.keys, toPos, n);
+        System.arraycopy(from.ids, start, to.ids, toPos, n);
+        for (int i = start; i < from.count; i++) {
+            from.keys[i] = null;
+        }
+        to.count = toPos + n;
+        from.count = start;
+    }
+
+    // 第一个不小于(key, id)的索引项的位置
+    private static int lowerBound(Node node, Comparable key, int id) {
+        int low = 0, high = node.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(node.keys[mid], node.ids[mid], key, id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // (key, id)所在的子节点：不大于它的分隔键的数量
+    private static int childIndex(Node node, Comparable key, int id) {
+        int low = 0, high = node.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(node.keys[mid], node.ids[mid], key, id) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(Comparable key1, int id1, Comparable key2, int id2) {
+        int c = key1.compareTo(key2);
+        return c != 0 ? c : Integer.compare(id1, id2);
+    }
+}
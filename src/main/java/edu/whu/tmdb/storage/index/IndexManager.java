@@ -0,0 +1,322 @@
+package edu.whu.tmdb.storage.index;
+
+
+import edu.whu.tmdb.storage.memory.CatalogLog;
+import edu.whu.tmdb.storage.memory.MemManager;
+import edu.whu.tmdb.storage.memory.MergeIterator;
+import edu.whu.tmdb.storage.memory.SystemTable.IndexTableItem;
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleCodec;
+import edu.whu.tmdb.storage.utils.Constant;
+import edu.whu.tmdb.storage.utils.K;
+import edu.whu.tmdb.storage.utils.V;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 属性索引的管理
+// 1. 每个索引是内存中的一棵BPlusTree，快照文件为Constant.SYSTEM_TABLE_DIR下的"idx" + 索引id，与系统表快照一起在catalog compact时重写
+// 2. 两次compact之间索引项的增删记录在catalog日志中（CatalogLog.INDEX_DATA），启动时加载快照后重放
+// 3. 索引只用于缩小候选元组的范围：查询时候选元组还要检查对象表并重新执行where条件，
+//    因此索引中多出的（已删除或已修改的）索引项不影响结果，只有缺少索引项才会漏掉元组
+// 4. 只写入了WAL、catalog日志还没有提交的tuple修改：redo时由replayTuple记下重放的tuple，redo之后recover按其当前值补上索引项
+public class IndexManager {
+
+    // 索引id -> B+树
+    private final Map<Integer, BPlusTree> trees = new ConcurrentHashMap<>();
+
+    // 记录索引项增删的catalog日志，为null时不记录
+    public CatalogLog catalog;
+
+    // redo时重放的有索引的类的tuple key
+    private final Set<K> replayedKeys = ConcurrentHashMap.newKeySet();
+
+    private static final byte KEY_DOUBLE = 1;
+    private static final byte KEY_STRING = 2;
+
+
+    // 属性值对应的索引键，与where中的比较方式一致（见Formula.addToDataList与Where.compare）：
+    // 数值类型按解析后的double比较，String/char按字符串比较；无法解析或不支持的类型返回null，不建立索引项
+    public static Comparable<?> keyOf(String attrtype, Object value) {
+        String s = String.valueOf(value);
+        try {
+            switch (attrtype) {
+                case "String":
+                case "char":
+                    return s;
+                case "int":
+                    return (double) Integer.parseInt(s);
+                case "long":
+                    return (double) Long.parseLong(s);
+                case "short":
+                    return (double) Short.parseShort(s);
+                case "float":
+                    return Double.parseDouble(String.valueOf(Float.parseFloat(s)));
+                case "double":
+                    return Double.parseDouble(s);
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // 是否支持在该类型的属性上建立索引
+    public static boolean supports(String attrtype) {
+        return keyOf(attrtype, "0") != null;
+    }
+
+    // 索引的B+树，不存在时返回null
+    public BPlusTree getTree(int indexId) {
+        return trees.get(indexId);
+    }
+
+
+    // 从存储中扫描类的全部元组建立索引，写入快照后生效
+    public void create(IndexTableItem item, MemManager memManager) throws IOException {
+        BPlusTree tree = build(item, memManager);
+        save(item.indexid, tree);
+        trees.put(item.indexid, tree);
+    }
+
+    // 删除索引及其快照
+    public void drop(int indexId) {
+        trees.remove(indexId);
+        new File(snapshotPath(indexId)).delete();
+    }
+
+    // 元组插入后（或修改后的新值）加入该类所有索引
+    public void insert(Tuple tuple) {
+        if (MemManager.indexTable.indexTableList.isEmpty()) {
+            return;
+        }
+        for (IndexTableItem item : MemManager.indexTable.getIndexes(tuple.classId)) {
+            BPlusTree tree = trees.get(item.indexid);
+            Comparable<?> key = keyOf(item, tuple);
+            if (tree != null && key != null && tree.add(key, tuple.tupleId) && catalog != null) {
+                catalog.indexAdded(item.indexid, key, tuple.tupleId);
+            }
+        }
+    }
+
+    // 元组删除前（或修改前的旧值）从该类所有索引中移除
+    public void delete(Tuple tuple) {
+        if (MemManager.indexTable.indexTableList.isEmpty()) {
+            return;
+        }
+        for (IndexTableItem item : MemManager.indexTable.getIndexes(tuple.classId)) {
+            BPlusTree tree = trees.get(item.indexid);
+            Comparable<?> key = keyOf(item, tuple);
+            if (tree != null && key != null && tree.remove(key, tuple.tupleId) && catalog != null) {
+                catalog.indexRemoved(item.indexid, key, tuple.tupleId);
+            }
+        }
+    }
+
+    // redo时重放的tuple的k-v：记下有索引的类的tuple，可由多个线程并发调用
+    // 同一个tuple的多个版本都会被重放，因此只记录key，由recover按最终的值加入索引
+    public void replayTuple(K k) {
+        if (MemManager.indexTable.indexTableList.isEmpty() || k.key.length() != Constant.MAX_KEY_LENGTH || k.key.charAt(0) != 'c') {
+            return;
+        }
+        int classId;
+        try {
+            classId = Integer.parseInt(k.key.substring(1, 8), 16);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (!MemManager.indexTable.getIndexes(classId).isEmpty()) {
+            replayedKeys.add(k);
+        }
+    }
+
+    // 重放catalog日志中的索引项增删，不再记录日志
+    public void apply(boolean add, int indexId, Comparable<?> key, int tupleId) {
+        BPlusTree tree = trees.get(indexId);
+        if (tree == null) {
+            return;
+        }
+        if (add) {
+            tree.add(key, tupleId);
+        } else {
+            tree.remove(key, tupleId);
+        }
+    }
+
+
+    // 加载索引表中所有索引的快照，在重放catalog日志之前调用
+    public void load() throws IOException {
+        trees.clear();
+        for (IndexTableItem item : MemManager.indexTable.indexTableList) {
+            File f = new File(snapshotPath(item.indexid));
+            if (!f.exists()) {
+                continue;
+            }
+            BPlusTree tree = new BPlusTree();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Comparable<?> key = readKey(in);
+                    tree.add(key, in.readInt());
+                }
+            }
+            trees.put(item.indexid, tree);
+        }
+    }
+
+    // 在redo之后调用：将redo重放的tuple按当前值加入索引（新的索引项记录到catalog日志），
+    // 并从存储中重建快照缺失（例如快照文件被删除）的索引
+    public void recover(MemManager memManager) throws IOException {
+        for (K k : replayedKeys) {
+            int tupleId = MemManager.tupleIdOf(k);
+            int classId = Integer.parseInt(k.key.substring(1, 8), 16);
+            if (MemManager.objectTable.getClassIdByTupleId(tupleId) != classId) {
+                continue;
+            }
+            V v = memManager.search(k);
+            Tuple tuple = v == null ? null : TupleCodec.decode(v.valueBytes);
+            if (tuple == null || tuple.delete) {
+                continue;
+            }
+            tuple.classId = classId;
+            tuple.tupleId = tupleId;
+            insert(tuple);
+        }
+        replayedKeys.clear();
+
+        for (IndexTableItem item : MemManager.indexTable.indexTableList) {
+            if (!trees.containsKey(item.indexid)) {
+                create(item, memManager);
+                System.out.println("重建索引" + item.indexname);
+            }
+        }
+    }
+
+    // 重写所有索引的快照
+    public void saveAll() throws IOException {
+        for (IndexTableItem item : MemManager.indexTable.indexTableList) {
+            BPlusTree tree = trees.get(item.indexid);
+            if (tree != null) {
+                save(item.indexid, tree);
+            }
+        }
+    }
+
+    // 所有索引快照的总大小
+    public long snapshotSize() {
+        long total = 0;
+        for (IndexTableItem item : MemManager.indexTable.indexTableList) {
+            total += new File(snapshotPath(item.indexid)).length();
+        }
+        return total;
+    }
+
+
+    // catalog日志中索引项的编码：int 索引id + int tupleId + 索引键
+    public static byte[] encodeEntry(int indexId, Comparable<?> key, int tupleId) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(indexId);
+            out.writeInt(tupleId);
+            writeKey(out, key);
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // 索引键：byte 类型 + double或UTF字符串
+    static void writeKey(DataOutput out, Comparable<?> key) throws IOException {
+        if (key instanceof Double) {
+            out.writeByte(KEY_DOUBLE);
+            out.writeDouble((Double) key);
+        } else {
+            out.writeByte(KEY_STRING);
+            out.writeUTF((String) key);
+        }
+    }
+
+    public static Comparable<?> readKey(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type == KEY_DOUBLE) {
+            return in.readDouble();
+        }
+        if (type == KEY_STRING) {
+            return in.readUTF();
+        }
+        throw new IOException("unknown index key type: " + type);
+    }
+
+
+    private static Comparable<?> keyOf(IndexTableItem item, Tuple tuple) {
+        if (tuple.tuple == null || item.attrid >= tuple.tuple.length) {
+            return null;
+        }
+        return keyOf(item.attrtype, tuple.tuple[item.attrid]);
+    }
+
+    private static BPlusTree build(IndexTableItem item, MemManager memManager) {
+        BPlusTree tree = new BPlusTree();
+        try (MergeIterator iterator = memManager.rangeIterator(MemManager.classStartKey(item.classid), MemManager.classStartKey(item.classid + 1))) {
+            while (iterator.hasNext()) {
+                Map.Entry<K, V> entry = iterator.next();
+                int tupleId = MemManager.tupleIdOf(entry.getKey());
+                // delete只从对象表中移除表项，不在对象表中的tuple已被删除
+                if (MemManager.objectTable.getClassIdByTupleId(tupleId) != item.classid) {
+                    continue;
+                }
+                Tuple tuple = TupleCodec.decode(entry.getValue().valueBytes);
+                if (tuple == null || tuple.delete) {
+                    continue;
+                }
+                Comparable<?> key = keyOf(item, tuple);
+                if (key != null) {
+                    tree.add(key, tupleId);
+                }
+            }
+        }
+        return tree;
+    }
+
+    // 快照先写入临时文件并落盘，再原子替换
+    private static void save(int indexId, BPlusTree tree) throws IOException {
+        File tmp = new File(snapshotPath(indexId) + ".tmp");
+        tmp.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            DataOutputStream writeAccess = new DataOutputStream(new BufferedOutputStream(out));
+            // 持有树的锁，保证索引项数量与写出的索引项一致
+            synchronized (tree) {
+                writeAccess.writeInt(tree.size());
+                tree.forEach((key, id) -> {
+                    writeKey(writeAccess, key);
+                    writeAccess.writeInt(id);
+                });
+            }
+            writeAccess.flush();
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(snapshotPath(indexId)).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String snapshotPath(int indexId) {
+        return Constant.SYSTEM_TABLE_DIR + "idx" + indexId;
+    }
+}
@@ -7,7 +7,7 @@ import edu.whu.tmdb.storage.utils.V;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -130,26 +130,26 @@ public class BTree {
         // type       int, 0表示非叶子节点，1表示叶子节点
         // k-v        首先用一个int表示有多少个键值对，k长度在Constant文件中有限制，v为long
         // children   type=1时不存在。首先用一个int表示有多少个子节点，每个子节点用一个long记录偏移
-        public BTreeNode(RandomAccessFile raf, long offset){
+        public BTreeNode(FileChannel channel, long offset){
             entrys = new ArrayList<Entry>();
             children = new ArrayList<BTreeNode>();
 
             // 首先读4字节判断节点的type
-            int type = Constant.BYTES_TO_INT(Constant.readBytesFromFile(raf, offset, 4), 0, 4);
+            int type = Constant.BYTES_TO_INT(Constant.readBytesFromFile(channel, offset, 4), 0, 4);
             offset += 4;
 
             // 叶子节点
             if(type == 1){
                 leaf = true;
                 // 读4字节即一个int，得到有多少个entry
-                int entryCount = Constant.BYTES_TO_INT(Constant.readBytesFromFile(raf, offset, 4), 0, 4);
+                int entryCount = Constant.BYTES_TO_INT(Constant.readBytesFromFile(channel, offset, 4), 0, 4);
                 offset += 4;
                 // 每个Entry即每个k-v占用的字节数
                 int singleEntryLength = Constant.MAX_KEY_LENGTH + Long.BYTES;
                 // 总占用字节数
                 int totalLength = entryCount * singleEntryLength;
                 // 读取entryCount个Entry
-                byte[] buffer = Constant.readBytesFromFile(raf, offset, totalLength);
+                byte[] buffer = Constant.readBytesFromFile(channel, offset, totalLength);
                 offset += totalLength;
                 // 构造entryCount个Entry
                 for(int i=0; i<entryCount; i++){
@@ -175,19 +175,19 @@ public class BTree {
                 // 1. 计算子节点所在的偏移
                 long entryStartOffset = offset; // 记录Entry开始的offset
                 // 读4字节即一个int，得到有多少个entry
-                int entryCount = Constant.BYTES_TO_INT(Constant.readBytesFromFile(raf, entryStartOffset, 4), 0, 4);
+                int entryCount = Constant.BYTES_TO_INT(Constant.readBytesFromFile(channel, entryStartOffset, 4), 0, 4);
                 // 每个Entry即每个k-v占用的字节数
                 int singleEntryLength = Constant.MAX_KEY_LENGTH + Long.BYTES;
                 // Entry总占用字节数
                 int totalEntryLength = entryCount * singleEntryLength;
                 long childrenStartOffset = offset + 4 + totalEntryLength; // 记录children开始的offset
                 // 读4字节即一个int，得到有多少个child
-                int childrenCount = Constant.BYTES_TO_INT(Constant.readBytesFromFile(raf, childrenStartOffset, 4), 0, 4);
+                int childrenCount = Constant.BYTES_TO_INT(Constant.readBytesFromFile(channel, childrenStartOffset, 4), 0, 4);
                 // 每个child占用一个long 8字节，共占用
                 int totalChildrenLength = childrenCount * Long.BYTES;
 
                 // 2.读取childrenCount个child
-                byte[] buffer = Constant.readBytesFromFile(raf, childrenStartOffset + 4, totalChildrenLength);
+                byte[] buffer = Constant.readBytesFromFile(channel, childrenStartOffset + 4, totalChildrenLength);
                 // 递归构造childrenCount个child
                 for(int i=0; i<childrenCount; i++){
                     // 读取long为孩子节点的地址
@@ -195,11 +195,11 @@ public class BTree {
                     System.arraycopy(buffer, Long.BYTES * i, b, 0, Long.BYTES);
                     long address = Constant.BYTES_TO_LONG(b);
                     // 递归
-                    children.add(new BTreeNode(raf, address));
+                    children.add(new BTreeNode(channel, address));
                 }
 
                 // 读取entryCount个Entry
-                buffer = Constant.readBytesFromFile(raf, entryStartOffset + 4, totalEntryLength);
+                buffer = Constant.readBytesFromFile(channel, entryStartOffset + 4, totalEntryLength);
                 // 构造entryCount个Entry
                 for(int i=0; i<entryCount; i++){
                     byte[] b;
@@ -581,8 +581,8 @@ public class BTree {
     }
 
     // 构造函数，从文件fileName的offset偏移处读取root根节点，并解析构造B-Tree
-    public BTree(RandomAccessFile raf, long offset){
-        root = new BTreeNode(raf, offset);
+    public BTree(FileChannel channel, long offset){
+        root = new BTreeNode(channel, offset);
     }
 
     /**
@@ -0,0 +1,94 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.utils.CRC32C;
+import edu.whu.tmdb.storage.utils.Constant;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// v3格式SSTable中block的编码：block内容 + 1字节压缩类型 + 4字节CRC32C（校验前两部分）
+// 1. 压缩类型为BLOCK_DEFLATE时，block内容为 int 原始长度 + Deflate压缩后的数据
+// 2. 压缩后节省不到1/8时按原样保存，避免为不可压缩的数据付出解压开销
+// 3. 压缩方式由写入的level决定，见Constant.LEVEL_COMPRESSION
+class BlockCodec {
+
+    static final byte BLOCK_RAW = 0;
+    static final byte BLOCK_DEFLATE = 1;
+
+    // 压缩类型 + CRC32C
+    static final int TRAILER_LENGTH = 1 + Integer.BYTES;
+
+    // 编码block，compression为0表示不压缩，1~9为Deflate的压缩级别
+    static byte[] encode(byte[] block, int compression){
+        byte[] body = block;
+        byte type = BLOCK_RAW;
+        if(compression > 0){
+            byte[] compressed = deflate(block, compression);
+            if(compressed.length < block.length - block.length / 8){
+                body = compressed;
+                type = BLOCK_DEFLATE;
+            }
+        }
+        byte[] stored = new byte[body.length + TRAILER_LENGTH];
+        System.arraycopy(body, 0, stored, 0, body.length);
+        stored[body.length] = type;
+        int crc = CRC32C.compute(stored, 0, body.length + 1);
+        System.arraycopy(Constant.INT_TO_BYTES(crc), 0, stored, body.length + 1, Integer.BYTES);
+        return stored;
+    }
+
+    // 校验并解码block，校验失败时抛出SSTableCorruptionException，指明文件、block类型与偏移
+    static byte[] decode(byte[] stored, String fileName, String blockType, long offset) throws SSTableCorruptionException {
+        if(stored.length < TRAILER_LENGTH)
+            throw new SSTableCorruptionException(fileName, blockType, offset, "truncated block");
+        int bodyLength = stored.length - TRAILER_LENGTH;
+        int expected = Constant.BYTES_TO_INT(stored, bodyLength + 1, Integer.BYTES);
+        if(CRC32C.compute(stored, 0, bodyLength + 1) != expected)
+            throw new SSTableCorruptionException(fileName, blockType, offset, "checksum mismatch");
+
+        byte type = stored[bodyLength];
+        if(type == BLOCK_RAW){
+            byte[] block = new byte[bodyLength];
+            System.arraycopy(stored, 0, block, 0, bodyLength);
+            return block;
+        }
+        if(type == BLOCK_DEFLATE){
+            int rawLength = Constant.BYTES_TO_INT(stored, 0, Integer.BYTES);
+            byte[] block = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try{
+                inflater.setInput(stored, Integer.BYTES, bodyLength - Integer.BYTES);
+                int n = inflater.inflate(block);
+                if(n != rawLength || !inflater.finished())
+                    throw new SSTableCorruptionException(fileName, blockType, offset, "bad compressed length");
+            }catch (DataFormatException e){
+                throw new SSTableCorruptionException(fileName, blockType, offset, e.getMessage());
+            }finally {
+                inflater.end();
+            }
+            return block;
+        }
+        throw new SSTableCorruptionException(fileName, blockType, offset, "unknown compression type " + type);
+    }
+
+    private static byte[] deflate(byte[] block, int level){
+        Deflater deflater = new Deflater(level);
+        try{
+            deflater.setInput(block);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 2 + 16);
+            out.write(Constant.INT_TO_BYTES(block.length), 0, Integer.BYTES);
+            byte[] buffer = new byte[Math.max(block.length, 64)];
+            while(!deflater.finished()){
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }finally {
+            deflater.end();
+        }
+    }
+}
@@ -7,53 +7,123 @@ import edu.whu.tmdb.storage.utils.K;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-
+import java.nio.ByteBuffer;
+
+// SSTable的Bloom filter
+// 新写入的filter为分块（blocked）Bloom filter：
+// 1. 位数组按64字节（一个cache line，512位）分块，一个key的所有探测位都落在同一块中，一次查询只访问一个cache line
+// 2. 使用64位哈希（MurmurHash64A），高32位选块，低32位经乘法散列依次产生块内的探测位
+// 3. 每个key占用的位数可配置（Constant.BLOOM_FILTER_BITS_PER_KEY），探测次数按该位数取使期望误判率最小的值
+// 旧的filter（3个哈希函数对总位数取模，每个key 20位）仍可读取，compaction时被重写为分块filter
 public class BloomFilter {
 
+    // filter block的格式版本，记录在前4字节的最高字节中
+    // 旧格式的前4字节只记录itemCount（不超过1000万），最高字节总为0
+    public static final int FILTER_LEGACY = 0;
+    public static final int FILTER_BLOCKED = 1;
+
+    // 前4字节中itemCount所占的低24位
+    private static final int ITEM_COUNT_MASK = 0xFFFFFF;
+
+    // 每块的位数与long数
+    private static final int BLOCK_BITS = 512;
+    private static final int BLOCK_LONGS = BLOCK_BITS / Long.SIZE;
+
+    // 探测次数上限
+    private static final int MAX_PROBES = 24;
+
+    // 哈希种子
+    private static final long HASH_SEED = 0x54444253L;
+
+    // filter格式版本
+    private final int version;
+
     // 数据元素的个数
     private int itemCount;
 
-    // 所需bit位数，要求必须为8的整数倍
-    private int bitCount;
+    // 分块filter：每个key的位数、探测次数、块数与位数组（第i块为bits[8i, 8i + 8)）
+    private int bitsPerKey;
+    private int probes;
+    private int blockCount;
+    private long[] bits;
 
-    // 所需byte位数
+    // 旧格式：所需bit位数（要求必须为8的整数倍）、所需byte位数
+    private int bitCount;
     private int byteCount;
 
-    // 使用字节数组代替bit数组,转化关系：bit数组第n位 = byte数组第(n/8)个元素的第(n%8)位
+    // 旧格式：使用字节数组代替bit数组,转化关系：bit数组第n位 = byte数组第(n/8)个元素的第(n%8)位
     private byte[] byteArray;
 
+    // 序列化后的字节数（不含前4字节的itemCount）
     public int getByteCount() {
-        return byteCount;
+        if (version == FILTER_LEGACY)
+            return byteCount;
+        return 2 + Integer.BYTES + blockCount * BLOCK_LONGS * Long.BYTES;
     }
 
     public int getItemCount() {
         return itemCount;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public int getBitsPerKey() {
+        return bitsPerKey;
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+
 
-    // constructor 1 通过bit数组位数初始化
+    // constructor 1 按元素个数初始化分块filter，每个key的位数为Constant.BLOOM_FILTER_BITS_PER_KEY
     public BloomFilter(int itemCount) {
-        // 限制最多允许1亿条数据
-        if(itemCount > 10000000)
-            itemCount = 10000000;
-        this.itemCount = itemCount;
-        this.bitCount = 20 * itemCount;
-        this.byteCount = bitCount / 8 + 1;
-        this.byteArray = new byte[byteCount];
-        return;
-    }
-
-    // constructor 2 通过文件名读文件进行初始化
-    // 前4字节记录itemCount，剩余部分记录byteArray
+        this(itemCount, Constant.BLOOM_FILTER_BITS_PER_KEY);
+    }
+
+    // constructor 2 按元素个数与每个key的位数初始化分块filter
+    public BloomFilter(int itemCount, int bitsPerKey) {
+        this.version = FILTER_BLOCKED;
+        this.itemCount = Math.max(itemCount, 0);
+        this.bitsPerKey = Math.max(1, Math.min(bitsPerKey, 100));
+        this.probes = chooseProbes(this.bitsPerKey);
+        this.blockCount = (int) Math.max(1, ((long) this.itemCount * this.bitsPerKey + BLOCK_BITS - 1) / BLOCK_BITS);
+        this.bits = new long[blockCount * BLOCK_LONGS];
+    }
+
+    // constructor 3 通过文件名读文件进行初始化
     public BloomFilter(RandomAccessFile raf, long offset, int length){
-        byte[] buffer = Constant.readBytesFromFile(raf, offset, length);
-        // 前4字节记录itemCount
-        this.itemCount = Constant.BYTES_TO_INT(buffer, 0 , 4);
-        this.bitCount = 20 * itemCount;
-        this.byteCount = bitCount / 8 + 1;
-        // 再读byteArray
-        this.byteArray = new byte[byteCount];
-        System.arraycopy(buffer, 4, this.byteArray, 0, this.byteCount);
+        this(Constant.readBytesFromFile(raf, offset, length));
+    }
+
+    // constructor 4 通过serialize()得到的字节进行初始化，两种格式都可以解析
+    public BloomFilter(byte[] buffer){
+        ByteBuffer in = ByteBuffer.wrap(buffer);
+        int header = in.getInt();
+        this.version = header >>> 24;
+        this.itemCount = header & ITEM_COUNT_MASK;
+        if (version == FILTER_LEGACY) {
+            // 前4字节记录itemCount，剩余部分记录byteArray
+            this.bitCount = 20 * itemCount;
+            this.byteCount = bitCount / 8 + 1;
+            this.byteArray = new byte[byteCount];
+            in.get(this.byteArray);
+            return;
+        }
+        if (version != FILTER_BLOCKED)
+            throw new IllegalArgumentException("unsupported bloom filter version " + version);
+        this.bitsPerKey = in.get() & 0xff;
+        this.probes = in.get() & 0xff;
+        this.blockCount = in.getInt();
+        this.bits = new long[blockCount * BLOCK_LONGS];
+        in.asLongBuffer().get(this.bits);
+    }
+
+    // filter block前4字节中记录的元素个数
+    static int itemCountOf(int header) {
+        return header & ITEM_COUNT_MASK;
     }
 
 
@@ -62,9 +132,138 @@ public class BloomFilter {
      * @param key
      */
     public void add(K key) {
-        int first = hashcode_1(key) % bitCount;
-        int second = hashcode_2(key) % bitCount;
-        int third = hashcode_3(key) % bitCount;
+        add(key.serialize());
+    }
+
+
+    /**
+     * 写入数据，直接使用key序列化后的字节，避免compaction时为每条记录构造K
+     * @param bytes key序列化后的字节
+     */
+    public void add(byte[] bytes) {
+        if (version == FILTER_LEGACY) {
+            addLegacy(bytes);
+            return;
+        }
+        long hash = hash64(bytes);
+        int base = blockOf(hash) * BLOCK_LONGS;
+        int h = (int) hash;
+        for (int i = 0; i < probes; i++) {
+            // 取高9位作为块内的位置，高3位选long，低6位选long中的位（long的移位只取低6位）
+            int bit = h >>> 23;
+            bits[base + (bit >>> 6)] |= 1L << bit;
+            h *= 0x9E3779B9;
+        }
+    }
+
+
+    /**
+     * 判断数据是否存在
+     * @param key
+     * @return
+     */
+    public boolean check(K key) {
+        return check(key.serialize());
+    }
+
+
+    /**
+     * 判断数据是否存在
+     * @param bytes key序列化后的字节
+     * @return 不存在时一定返回false
+     */
+    public boolean check(byte[] bytes) {
+        if (version == FILTER_LEGACY)
+            return checkLegacy(bytes);
+        long hash = hash64(bytes);
+        int base = blockOf(hash) * BLOCK_LONGS;
+        int h = (int) hash;
+        for (int i = 0; i < probes; i++) {
+            int bit = h >>> 23;
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+            h *= 0x9E3779B9;
+        }
+        return true;
+    }
+
+
+    // 哈希值的高32位映射到[0, blockCount)，用乘法代替取模
+    private int blockOf(long hash) {
+        return (int) (((hash >>> 32) * blockCount) >>> 32);
+    }
+
+
+    // 每个key的位数为bitsPerKey时分块filter的期望误判率
+    // 每块中的key数服从均值为512 / bitsPerKey的泊松分布，块中有n个key时误判率为 (1 - (1 - 1/512)^(probes * n))^probes
+    public static double expectedFalsePositiveRate(int bitsPerKey, int probes) {
+        double lambda = (double) BLOCK_BITS / bitsPerKey;
+        double p = Math.exp(-lambda); // n = 0
+        double rate = 0;
+        int limit = (int) (lambda + 12 * Math.sqrt(lambda) + 12);
+        for (int n = 1; n <= limit; n++) {
+            p *= lambda / n;
+            rate += p * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) probes * n), probes);
+        }
+        return rate;
+    }
+
+    // 使期望误判率最小的探测次数
+    private static int chooseProbes(int bitsPerKey) {
+        int best = 1;
+        double bestRate = expectedFalsePositiveRate(bitsPerKey, 1);
+        for (int k = 2; k <= MAX_PROBES; k++) {
+            double rate = expectedFalsePositiveRate(bitsPerKey, k);
+            if (rate < bestRate) {
+                best = k;
+                bestRate = rate;
+            }
+        }
+        return best;
+    }
+
+
+    // MurmurHash64A
+    static long hash64(byte[] bytes) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        int length = bytes.length;
+        long h = HASH_SEED ^ (length * m);
+
+        int end = length & ~7;
+        for (int i = 0; i < end; i += 8) {
+            long k = (bytes[i] & 0xffL) | (bytes[i + 1] & 0xffL) << 8 | (bytes[i + 2] & 0xffL) << 16 | (bytes[i + 3] & 0xffL) << 24
+                    | (bytes[i + 4] & 0xffL) << 32 | (bytes[i + 5] & 0xffL) << 40 | (bytes[i + 6] & 0xffL) << 48 | (bytes[i + 7] & 0xffL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+
+        switch (length & 7) {
+            case 7: h ^= (bytes[end + 6] & 0xffL) << 48;
+            case 6: h ^= (bytes[end + 5] & 0xffL) << 40;
+            case 5: h ^= (bytes[end + 4] & 0xffL) << 32;
+            case 4: h ^= (bytes[end + 3] & 0xffL) << 24;
+            case 3: h ^= (bytes[end + 2] & 0xffL) << 16;
+            case 2: h ^= (bytes[end + 1] & 0xffL) << 8;
+            case 1: h ^= (bytes[end] & 0xffL);
+                h *= m;
+        }
+
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+
+
+    // 旧格式的写入
+    private void addLegacy(byte[] bytes) {
+        int first = hashcode_1(bytes) % bitCount;
+        int second = hashcode_2(bytes) % bitCount;
+        int third = hashcode_3(bytes) % bitCount;
 
         // 转化关系：bit数组第n位 = byte数组第(n/8)个元素的第(n%8)位
         int i = first >> 3; // n/8
@@ -82,15 +281,11 @@ public class BloomFilter {
     }
 
 
-    /**
-     * 判断数据是否存在
-     * @param key
-     * @return
-     */
-    public boolean check(K key) {
-        int first = hashcode_1(key) % bitCount;
-        int second = hashcode_2(key) % bitCount;
-        int third = hashcode_3(key) % bitCount;
+    // 旧格式的查询
+    private boolean checkLegacy(byte[] bytes) {
+        int first = hashcode_1(bytes) % bitCount;
+        int second = hashcode_2(bytes) % bitCount;
+        int third = hashcode_3(bytes) % bitCount;
 
         // 转化关系：bit数组第n位 = byte数组第(n/8)个元素的第(n%8)位
         int i = first >> 3; // n/8
@@ -120,13 +315,12 @@ public class BloomFilter {
 
     /**
      * hash 算法1
-     * @param key
+     * @param bytes
      * @return
      */
-    private int hashcode_1(K key) {
+    private int hashcode_1(byte[] bytes) {
         int hash = 0;
         int i;
-        byte[] bytes = key.serialize();
         for (i = 0; i < bytes.length; ++i) {
             hash = 33 * hash + bytes[i];
         }
@@ -136,13 +330,12 @@ public class BloomFilter {
 
     /**
      * hash 算法2  Long原生hash
-     * @param key
+     * @param bytes
      * @return
      */
-    private int hashcode_2(K key) {
+    private int hashcode_2(byte[] bytes) {
         final int p = 16777619;
         int hash = (int) 2166136261L;
-        byte[] bytes = key.serialize();
         for (int i = 0; i < bytes.length; i++) {
             hash = (hash ^ bytes[i]) * p;
         }
@@ -157,12 +350,11 @@ public class BloomFilter {
 
     /**
      *  hash 算法3
-     * @param key
+     * @param bytes
      * @return
      */
-    private int hashcode_3(K key) {
+    private int hashcode_3(byte[] bytes) {
         int hash, i;
-        byte[] bytes = key.serialize();
         for (hash = 0, i = 0; i < bytes.length; ++i) {
             hash += bytes[i];
             hash += (hash << 10);
@@ -175,13 +367,27 @@ public class BloomFilter {
     }
 
 
+    // 序列化BloomFilter
+    // 旧格式：先4B写itemCount，再写bytesArray
+    // 分块格式：4B（最高字节为格式版本，低24位为itemCount） + 1B 每个key的位数 + 1B 探测次数 + 4B 块数 + 位数组
+    public byte[] serialize(){
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES + getByteCount());
+        if (version == FILTER_LEGACY) {
+            out.putInt(this.itemCount);
+            out.put(this.byteArray);
+            return out.array();
+        }
+        out.putInt(FILTER_BLOCKED << 24 | Math.min(this.itemCount, ITEM_COUNT_MASK));
+        out.put((byte) this.bitsPerKey);
+        out.put((byte) this.probes);
+        out.putInt(this.blockCount);
+        out.asLongBuffer().put(this.bits);
+        return out.array();
+    }
+
     // 将BloomFilter记录到文件中
-    // 先4B写itemCount，再写bytesArray
     public void writeToFile(BufferedOutputStream outputStream){
-        byte[] buffer = new byte[4 + this.byteCount];
-        // 4字节int记录itemCount
-        System.arraycopy(Constant.INT_TO_BYTES(this.itemCount), 0, buffer, 0, Integer.BYTES);
-        System.arraycopy(this.byteArray, 0, buffer, Integer.BYTES, this.byteCount);
+        byte[] buffer = serialize();
         try{
             outputStream.write(buffer, 0, buffer.length);
         } catch (IOException e) {
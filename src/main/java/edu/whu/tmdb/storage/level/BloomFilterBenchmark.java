@@ -0,0 +1,65 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.memory.MemManager;
+
+// Bloom filter误判率与查询耗时测试
+// 用法：BloomFilterBenchmark [key数量=1000000] [每个key的位数列表=5,10,15,20]
+// 写入类0中tupleId为0 ~ key数量-1的key，用类1中相同数量的key（都不存在）统计误判率，与期望误判率比较
+// 容差：期望误判率的15%，再加上抽样误差的3倍标准差；最后一行为旧格式filter（每个key 20位、3个哈希函数）的误判率
+public class BloomFilterBenchmark {
+
+    public static void main(String[] args) {
+        int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String[] bitsList = (args.length > 1 ? args[1] : "5,10,15,20").split(",");
+
+        byte[][] keys = new byte[keyCount][];
+        byte[][] absent = new byte[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = MemManager.tupleKey(0, i).serialize();
+            absent[i] = MemManager.tupleKey(1, i).serialize();
+        }
+
+        boolean allPassed = true;
+        for (String s : bitsList) {
+            int bitsPerKey = Integer.parseInt(s.trim());
+            BloomFilter filter = new BloomFilter(keyCount, bitsPerKey);
+            double expected = BloomFilter.expectedFalsePositiveRate(bitsPerKey, filter.getProbes());
+            double[] result = measure(filter, keys, absent);
+            double sigma = Math.sqrt(expected * (1 - expected) / keyCount);
+            boolean passed = Math.abs(result[0] - expected) <= expected * 0.15 + 3 * sigma;
+            allPassed &= passed;
+            System.out.println(String.format("每个key %d位，%d次探测：误判率%.4f%%，期望%.4f%%，%s；filter %dKB，查询%.0f万次/s",
+                    bitsPerKey, filter.getProbes(), result[0] * 100, expected * 100, passed ? "在容差内" : "超出容差",
+                    filter.getByteCount() / 1024, result[1] / 10000));
+        }
+
+        // 旧格式的filter只能从字节构造：itemCount + 全0的位数组
+        byte[] legacy = new byte[Integer.BYTES + 20 * keyCount / 8 + 1];
+        java.nio.ByteBuffer.wrap(legacy).putInt(keyCount);
+        BloomFilter legacyFilter = new BloomFilter(legacy);
+        double[] result = measure(legacyFilter, keys, absent);
+        System.out.println(String.format("旧格式（每个key 20位，3个哈希函数）：误判率%.4f%%；filter %dKB，查询%.0f万次/s",
+                result[0] * 100, legacyFilter.getByteCount() / 1024, result[1] / 10000));
+
+        System.out.println(allPassed ? "全部在容差内" : "存在超出容差的配置");
+    }
+
+    // 写入keys后用absent统计误判率，返回{误判率, 每秒查询次数}
+    private static double[] measure(BloomFilter filter, byte[][] keys, byte[][] absent) {
+        for (byte[] key : keys)
+            filter.add(key);
+        for (byte[] key : keys) {
+            if (!filter.check(key))
+                throw new IllegalStateException("bloom filter returned a false negative");
+        }
+        long start = System.nanoTime();
+        long falsePositives = 0;
+        for (byte[] key : absent) {
+            if (filter.check(key))
+                falsePositives++;
+        }
+        long nanos = System.nanoTime() - start;
+        return new double[]{(double) falsePositives / absent.length, absent.length / (nanos / 1e9)};
+    }
+}
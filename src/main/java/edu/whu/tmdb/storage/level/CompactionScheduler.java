@@ -0,0 +1,128 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.utils.Constant;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// 后台compaction调度器
+// 1. 根据LevelManager.calScore()选出score > 1的level，提交到有界的后台线程池执行
+// 2. 一次compaction会占用level i与level i+1，互不相交的level对（如0->1与2->3）可以并行执行
+// 3. level-0的SSTable堆积过多时，阻塞前台写入，直到compaction将其降下来
+public class CompactionScheduler {
+
+    private final LevelManager levelManager;
+
+    // 有界的后台compaction线程池
+    private final ExecutorService executor;
+
+    // 正在参与compaction的level（作为输入层或输出层）
+    private final boolean[] busyLevels = new boolean[Constant.MAX_LEVEL + 1];
+
+    // 前台写入等待level-0降下来时使用的监视器
+    private final Object writeStallMonitor = new Object();
+
+    public CompactionScheduler(LevelManager levelManager){
+        this.levelManager = levelManager;
+        this.executor = new ThreadPoolExecutor(Constant.COMPACTION_THREAD_COUNT, Constant.COMPACTION_THREAD_COUNT,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "tmdb-compaction");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    // 检查各level的score，为所有可以执行的compaction提交后台任务
+    public synchronized void maybeScheduleCompaction(){
+        while(true){
+            int level = pickLevel();
+            if(level < 0)
+                return;
+            busyLevels[level] = true;
+            busyLevels[level + 1] = true;
+            executor.submit(() -> runCompaction(level));
+        }
+    }
+
+
+    // 在不与正在执行的compaction冲突的level中，选择score最大且大于1的level，没有则返回-1
+    private int pickLevel(){
+        List<Float> scores;
+        levelManager.rwLock.readLock().lock();
+        try{
+            scores = levelManager.calScore();
+        }finally {
+            levelManager.rwLock.readLock().unlock();
+        }
+
+        float maxScore = 1;
+        int maxScoreLevel = -1;
+        for(int i = 0; i < Constant.MAX_LEVEL; i++){
+            if(busyLevels[i] || busyLevels[i + 1])
+                continue;
+            if(scores.get(i) > maxScore){
+                maxScore = scores.get(i);
+                maxScoreLevel = i;
+            }
+        }
+        return maxScoreLevel;
+    }
+
+
+    private void runCompaction(int level){
+        try{
+            levelManager.manualCompaction(level);
+        }catch (IOException e){
+            e.printStackTrace();
+        }catch (RuntimeException e){
+            e.printStackTrace();
+        }finally {
+            synchronized (this){
+                busyLevels[level] = false;
+                busyLevels[level + 1] = false;
+            }
+            synchronized (writeStallMonitor){
+                writeStallMonitor.notifyAll();
+            }
+        }
+
+        // compaction可能使下一层的score超过1，继续检查（级联compaction）
+        maybeScheduleCompaction();
+    }
+
+
+    // 前台写入前调用，level-0的SSTable数量达到LEVEL0_STOP_WRITES_TRIGGER时阻塞，直到compaction完成
+    public void awaitWriteAllowed(){
+        if(levelManager.level_0.size() < Constant.LEVEL0_STOP_WRITES_TRIGGER)
+            return;
+
+        synchronized (writeStallMonitor){
+            while(level0FileCount() >= Constant.LEVEL0_STOP_WRITES_TRIGGER){
+                // 确保有compaction在处理level-0
+                maybeScheduleCompaction();
+                try{
+                    writeStallMonitor.wait(100);
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private int level0FileCount(){
+        levelManager.rwLock.readLock().lock();
+        try{
+            return levelManager.level_0.size();
+        }finally {
+            levelManager.rwLock.readLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.utils.Constant;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+// 读取v2格式的data block（由DataBlockBuilder构建）
+// 格式：
+// 1. 若干条记录：varint 共享前缀长度 + varint 非共享长度 + varint value长度 + key的非共享部分 + value
+// 2. 重启点数组：每个重启点记录的偏移（int），重启点记录的共享前缀长度为0，即保存了完整key
+// 3. 重启点数量（int）
+// 查找时先在重启点上二分查找，再从重启点开始顺序解码，不需要扫描整个block
+// 同一时刻只指向一条记录，不是线程安全的，每个读取者各自构造
+class DataBlock {
+
+    private final byte[] data;
+
+    // 重启点数组的开始偏移，也是记录部分的结束偏移
+    private final int restartOffset;
+    private final int restartCount;
+
+    // 当前记录的key（key[0, keyLength)）、value在data中的位置，以及下一条记录的偏移
+    private byte[] key = new byte[Constant.MAX_KEY_LENGTH];
+    private int keyLength = 0;
+    private int valueOffset = 0;
+    private int valueLength = 0;
+    private int nextOffset = 0;
+
+    // 当前是否指向一条有效记录
+    private boolean valid = false;
+
+    // 解码记录头的缓冲：共享前缀长度、非共享长度、value长度
+    private final int[] header = new int[3];
+
+    DataBlock(byte[] data){
+        this.data = data;
+        this.restartCount = Constant.BYTES_TO_INT(data, data.length - Integer.BYTES, Integer.BYTES);
+        this.restartOffset = data.length - (restartCount + 1) * Integer.BYTES;
+    }
+
+    // 指向第一条记录，返回是否有效
+    boolean seekToFirst(){
+        nextOffset = 0;
+        keyLength = 0;
+        return next();
+    }
+
+    // 指向第一条key不小于target的记录，返回是否存在
+    boolean seek(byte[] target){
+        // 在重启点上二分查找最后一个key小于target的重启点
+        int low = 0, high = restartCount - 1;
+        while(low < high){
+            int mid = (low + high + 1) >>> 1;
+            int p = readHeader(restartPoint(mid), header);
+            // 重启点的共享前缀长度为0，非共享部分即完整key
+            if(compare(data, p, header[1], target, 0, target.length) < 0)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        nextOffset = restartCount == 0 ? restartOffset : restartPoint(low);
+        keyLength = 0;
+        // 从该重启点开始顺序解码
+        while(next()){
+            if(compare(key, 0, keyLength, target, 0, target.length) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    // 移动到下一条记录，返回移动后是否有效
+    boolean next(){
+        if(nextOffset >= restartOffset){
+            valid = false;
+            return false;
+        }
+        int p = readHeader(nextOffset, header);
+        int shared = header[0], unshared = header[1];
+        if(key.length < shared + unshared)
+            key = Arrays.copyOf(key, Math.max(key.length * 2, shared + unshared));
+        System.arraycopy(data, p, key, shared, unshared);
+        keyLength = shared + unshared;
+        valueOffset = p + unshared;
+        valueLength = header[2];
+        nextOffset = valueOffset + valueLength;
+        valid = true;
+        return true;
+    }
+
+    boolean isValid(){
+        return valid;
+    }
+
+    // 当前记录的key与target是否相同
+    boolean keyEquals(byte[] target){
+        return compare(key, 0, keyLength, target, 0, target.length) == 0;
+    }
+
+    // 拷贝出当前记录的key
+    byte[] copyKey(){
+        return Arrays.copyOf(key, keyLength);
+    }
+
+    // 拷贝出当前记录的value
+    byte[] copyValue(){
+        return Arrays.copyOfRange(data, valueOffset, valueOffset + valueLength);
+    }
+
+    // 当前记录的key，只读，有效部分为[0, keyLength())
+    byte[] keyBuffer(){
+        return key;
+    }
+
+    int keyLength(){
+        return keyLength;
+    }
+
+    private int restartPoint(int i){
+        return Constant.BYTES_TO_INT(data, restartOffset + i * Integer.BYTES, Integer.BYTES);
+    }
+
+    // 依次解码三个varint到header中，返回之后的偏移
+    private int readHeader(int p, int[] header){
+        for(int i = 0; i < 3; i++){
+            int value = 0;
+            int shift = 0;
+            int b;
+            do{
+                b = data[p++] & 0xff;
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            }while((b & 0x80) != 0);
+            header[i] = value;
+        }
+        return p;
+    }
+
+    // 写入varint：每字节低7位为数据，最高位为1表示后面还有字节
+    static void writeVarint(ByteArrayOutputStream out, int value){
+        while((value & ~0x7f) != 0){
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // 按无符号字节比较两个key，前缀相同时短的在前
+    static int compare(byte[] a, int aStart, int aLength, byte[] b, int bStart, int bLength){
+        int n = Math.min(aLength, bLength);
+        for(int i = 0; i < n; i++){
+            int x = a[aStart + i] & 0xff;
+            int y = b[bStart + i] & 0xff;
+            if(x != y)
+                return x - y;
+        }
+        return aLength - bLength;
+    }
+}
@@ -0,0 +1,78 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.utils.Constant;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+// 按key升序构建一个v2格式的data block，格式见DataBlock
+// 每条记录只保存与上一条记录key的非共享部分，每Constant.DATA_BLOCK_RESTART_INTERVAL条记录设置一个重启点（保存完整key）
+class DataBlockBuilder {
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Constant.MAX_DATA_BLOCK_SIZE * 2);
+
+    // 各重启点在block中的偏移
+    private int[] restarts = new int[16];
+    private int restartCount = 0;
+
+    // 距上一个重启点的记录数
+    private int counter = 0;
+
+    // 上一条记录的key
+    private byte[] lastKey = new byte[0];
+
+    // 追加一条记录，key需大于之前追加的所有key
+    void add(byte[] key, byte[] value){
+        int shared = 0;
+        if(counter < Constant.DATA_BLOCK_RESTART_INTERVAL && restartCount > 0){
+            int limit = Math.min(lastKey.length, key.length);
+            while(shared < limit && lastKey[shared] == key[shared])
+                shared++;
+        }
+        else{
+            // 新的重启点，保存完整key
+            if(restartCount == restarts.length)
+                restarts = Arrays.copyOf(restarts, restarts.length * 2);
+            restarts[restartCount++] = buffer.size();
+            counter = 0;
+        }
+        DataBlock.writeVarint(buffer, shared);
+        DataBlock.writeVarint(buffer, key.length - shared);
+        DataBlock.writeVarint(buffer, value.length);
+        buffer.write(key, shared, key.length - shared);
+        buffer.write(value, 0, value.length);
+        lastKey = key;
+        counter++;
+    }
+
+    // 写出后block的大小（记录 + 重启点数组 + 重启点数量）
+    int estimatedSize(){
+        return buffer.size() + (restartCount + 1) * Integer.BYTES;
+    }
+
+    boolean isEmpty(){
+        return restartCount == 0;
+    }
+
+    // block中最大的key
+    byte[] lastKey(){
+        return lastKey;
+    }
+
+    // 追加重启点数组，返回完整的block
+    byte[] finish(){
+        for(int i = 0; i < restartCount; i++)
+            buffer.write(Constant.INT_TO_BYTES(restarts[i]), 0, Integer.BYTES);
+        buffer.write(Constant.INT_TO_BYTES(restartCount), 0, Integer.BYTES);
+        return buffer.toByteArray();
+    }
+
+    // 清空，开始构建下一个block
+    void reset(){
+        buffer.reset();
+        restartCount = 0;
+        counter = 0;
+        lastKey = new byte[0];
+    }
+}
@@ -0,0 +1,200 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.utils.Constant;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// 按key的顺序逐条扫描一个SSTable的所有data block，用于compaction的多路归并与范围查询
+// 直接在data block缓冲区上比较key，不为每条记录构造K
+// 使用独立的读通道，不与缓存中SSTable的读通道共享seek位置
+// v1、v2、v3格式的SSTable都可以扫描（格式见SSTable.formatVersion），v3的data block逐个校验CRC32C并解压
+class DataBlockCursor implements Comparable<DataBlockCursor> {
+
+    // SSTable文件名后缀
+    final int fileSuffix;
+
+    // 版本优先级，越小表示数据越新，相同key只保留优先级最小的输入中的版本
+    final int priority;
+
+    // 估计的元素个数（来自bloom filter记录的itemCount）
+    final int itemCount;
+
+    private final FileChannel channel;
+
+    private final int formatVersion;
+
+    // 校验失败时异常信息中的文件名
+    private final String fileName;
+
+    // v2、v3的index block，用于确定各data block的偏移和长度
+    private final IndexBlock indexBlock;
+
+    // data block的总数量
+    private final int dataBlockCount;
+
+    // 当前正在扫描的data block的下标
+    private int dataBlockIndex;
+
+    // 当前记录是否有效
+    private boolean valid = false;
+
+    // v1：当前正在扫描的data block，当前记录（length + key + value）在data block中的偏移，以及key + value的长度
+    private final byte[] block;
+    private int pointer = 0;
+    private int length = 0;
+
+    // v2、v3：当前正在扫描的data block
+    private DataBlock dataBlock;
+
+    DataBlockCursor(int fileSuffix, int priority) throws IOException {
+        this(fileSuffix, priority, 0, null);
+    }
+
+    // 从偏移为startOffset的data block开始扫描（范围查询时跳过startKey之前的data block）
+    // indexBlock为SSTable已加载的v2、v3 index block，为null时从文件中读取
+    DataBlockCursor(int fileSuffix, int priority, long startOffset, IndexBlock indexBlock) throws IOException {
+        this.fileSuffix = fileSuffix;
+        this.priority = priority;
+        this.fileName = "SSTable" + fileSuffix;
+        this.channel = FileChannel.open(new File(Constant.DATABASE_DIR + fileName).toPath(), StandardOpenOption.READ);
+        try{
+            long[] footer = SSTable.readFooter(channel);
+            this.formatVersion = (int) footer[6];
+
+            // bloom filter的前4字节记录itemCount（v3的bloom filter不压缩，同样如此；分块filter的最高字节为格式版本）
+            byte[] count = new byte[Integer.BYTES];
+            Constant.readFully(channel, footer[2], count);
+            this.itemCount = BloomFilter.itemCountOf(Constant.BYTES_TO_INT(count, 0, Integer.BYTES));
+
+            if(formatVersion >= SSTable.FORMAT_V2){
+                if(indexBlock == null){
+                    byte[] index = new byte[(int) footer[5]];
+                    Constant.readFully(channel, footer[4], index);
+                    if(formatVersion >= SSTable.FORMAT_V3)
+                        index = BlockCodec.decode(index, fileName, "index block", footer[4]);
+                    indexBlock = new IndexBlock(index);
+                }
+                this.indexBlock = indexBlock;
+                this.block = null;
+                this.dataBlockCount = indexBlock.size();
+                int i = indexBlock.indexOf(startOffset);
+                this.dataBlockIndex = i < 0 ? dataBlockCount : i;
+            }
+            else{
+                // v1的data block定长，zone map的开始偏移即data block部分的总长度
+                this.indexBlock = null;
+                this.block = new byte[Constant.MAX_DATA_BLOCK_SIZE];
+                this.dataBlockCount = (int) (footer[0] / Constant.MAX_DATA_BLOCK_SIZE);
+                this.dataBlockIndex = (int) (startOffset / Constant.MAX_DATA_BLOCK_SIZE);
+            }
+
+            // 装载第一个data block
+            loadBlock();
+        }catch (IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    // 装载下标为dataBlockIndex的data block并指向其第一条记录，跳过空的data block，返回是否有效
+    private boolean loadBlock() throws IOException {
+        for(; dataBlockIndex < dataBlockCount; dataBlockIndex++){
+            if(formatVersion >= SSTable.FORMAT_V2){
+                long offset = indexBlock.offset(dataBlockIndex);
+                byte[] data = new byte[indexBlock.length(dataBlockIndex)];
+                Constant.readFully(channel, offset, data);
+                if(formatVersion >= SSTable.FORMAT_V3)
+                    data = BlockCodec.decode(data, fileName, "data block", offset);
+                dataBlock = new DataBlock(data);
+                if(dataBlock.seekToFirst())
+                    return valid = true;
+            }
+            else{
+                Constant.readFully(channel, (long) dataBlockIndex * Constant.MAX_DATA_BLOCK_SIZE, block);
+                pointer = 0;
+                length = Constant.BYTES_TO_INT(block, 0, Integer.BYTES);
+                if(length != 0)
+                    return valid = true;
+            }
+        }
+        return valid = false;
+    }
+
+    // 当前是否指向一条有效记录
+    boolean isValid(){
+        return valid;
+    }
+
+    // 移动到下一条记录，返回移动后是否有效
+    boolean next() throws IOException {
+        if(!valid)
+            return false;
+        if(formatVersion >= SSTable.FORMAT_V2){
+            if(dataBlock.next())
+                return true;
+        }
+        else{
+            pointer += Integer.BYTES + length;
+            // 超出data block或者读到补位的0，说明该data block结束
+            if(pointer + Integer.BYTES <= Constant.MAX_DATA_BLOCK_SIZE
+                    && (length = Constant.BYTES_TO_INT(block, pointer, Integer.BYTES)) != 0)
+                return true;
+        }
+        // 读取下一个data block
+        dataBlockIndex++;
+        return loadBlock();
+    }
+
+    // 拷贝出当前记录的key
+    byte[] copyKey(){
+        return Arrays.copyOfRange(keyBuffer(), keyStart(), keyStart() + keyLength());
+    }
+
+    // 拷贝出当前记录的value
+    byte[] copyValue(){
+        if(formatVersion >= SSTable.FORMAT_V2)
+            return dataBlock.copyValue();
+        int valueStart = pointer + Integer.BYTES + Constant.MAX_KEY_LENGTH;
+        return Arrays.copyOfRange(block, valueStart, valueStart + length - Constant.MAX_KEY_LENGTH);
+    }
+
+    // 当前记录的key所在的缓冲区，以及key在其中的开始位置和长度
+    private byte[] keyBuffer(){
+        return formatVersion >= SSTable.FORMAT_V2 ? dataBlock.keyBuffer() : block;
+    }
+
+    private int keyStart(){
+        return formatVersion >= SSTable.FORMAT_V2 ? 0 : pointer + Integer.BYTES;
+    }
+
+    private int keyLength(){
+        return formatVersion >= SSTable.FORMAT_V2 ? dataBlock.keyLength() : Constant.MAX_KEY_LENGTH;
+    }
+
+    // 按无符号字节比较两个游标当前记录的key
+    int compareKey(DataBlockCursor o){
+        return DataBlock.compare(this.keyBuffer(), this.keyStart(), this.keyLength(), o.keyBuffer(), o.keyStart(), o.keyLength());
+    }
+
+    // 先按key升序，key相同时更新的版本排在前面
+    @Override
+    public int compareTo(DataBlockCursor o){
+        int c = compareKey(o);
+        if(c != 0)
+            return c;
+        return Integer.compare(this.priority, o.priority);
+    }
+
+    void close(){
+        try{
+            channel.close();
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+}
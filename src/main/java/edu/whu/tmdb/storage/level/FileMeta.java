@@ -0,0 +1,37 @@
+package edu.whu.tmdb.storage.level;
+
+
+// 一个SSTable的元数据：文件后缀、所在level、文件大小，以及最小key与最大key（K序列化后的字节）
+// 不可变，SSTable移动到其他level时由VersionEdit删除旧的元数据并加入新的
+public class FileMeta {
+
+    public final int fileSuffix;
+    public final int level;
+    public final long size;
+    public final byte[] smallest;
+    public final byte[] largest;
+
+    public FileMeta(int fileSuffix, int level, long size, byte[] smallest, byte[] largest){
+        this.fileSuffix = fileSuffix;
+        this.level = level;
+        this.size = size;
+        this.smallest = smallest;
+        this.largest = largest;
+    }
+
+    // 移动到level层后的元数据
+    public FileMeta moveTo(int level){
+        return new FileMeta(this.fileSuffix, level, this.size, this.smallest, this.largest);
+    }
+
+    // key范围[smallest, largest]是否与o的相交，按无符号字节比较，不分配对象
+    public boolean overlaps(FileMeta o){
+        return DataBlock.compare(this.largest, 0, this.largest.length, o.smallest, 0, o.smallest.length) >= 0
+                && DataBlock.compare(o.largest, 0, o.largest.length, this.smallest, 0, this.smallest.length) >= 0;
+    }
+
+    @Override
+    public String toString(){
+        return fileSuffix + ":" + level + "-" + size + "-" + new String(smallest).trim() + "-" + new String(largest).trim();
+    }
+}
@@ -0,0 +1,100 @@
+package edu.whu.tmdb.storage.level;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// v2格式SSTable的index block：按顺序记录每个data block的最大key、偏移和长度
+// 格式：int block数量 + 每个block（int key长度 + key + long 偏移 + int 长度）
+// data block不再补齐到固定大小，因此需要记录长度；key的长度不受Constant.MAX_KEY_LENGTH限制
+// 加载后常驻内存（随SSTable缓存在MetaCache中），定位data block时二分查找
+class IndexBlock {
+
+    private byte[][] keys = new byte[16][];
+    private long[] offsets = new long[16];
+    private int[] lengths = new int[16];
+    private int count = 0;
+
+    IndexBlock(){
+    }
+
+    // 从序列化的字节中解析
+    IndexBlock(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int n = in.readInt();
+        this.keys = new byte[Math.max(n, 1)][];
+        this.offsets = new long[Math.max(n, 1)];
+        this.lengths = new int[Math.max(n, 1)];
+        for(int i = 0; i < n; i++){
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            add(key, in.readLong(), in.readInt());
+        }
+    }
+
+    // 追加一个data block，需按key升序追加
+    void add(byte[] lastKey, long offset, int length){
+        if(count == keys.length){
+            keys = Arrays.copyOf(keys, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+        }
+        keys[count] = lastKey;
+        offsets[count] = offset;
+        lengths[count] = length;
+        count++;
+    }
+
+    // 可能包含key的data block的下标：第一个最大key不小于key的data block，key大于所有data block时返回-1
+    int find(byte[] key){
+        int low = 0, high = count;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(DataBlock.compare(keys[mid], 0, keys[mid].length, key, 0, key.length) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low < count ? low : -1;
+    }
+
+    // 偏移为offset的data block的下标，不存在时返回-1
+    int indexOf(long offset){
+        int i = Arrays.binarySearch(offsets, 0, count, offset);
+        return i >= 0 ? i : -1;
+    }
+
+    int size(){
+        return count;
+    }
+
+    long offset(int i){
+        return offsets[i];
+    }
+
+    int length(int i){
+        return lengths[i];
+    }
+
+    byte[] serialize(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeInt(count);
+            for(int i = 0; i < count; i++){
+                out.writeInt(keys[i].length);
+                out.write(keys[i]);
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+            }
+        }catch (IOException e){
+            // ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
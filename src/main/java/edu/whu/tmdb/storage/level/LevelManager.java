@@ -3,17 +3,14 @@ package edu.whu.tmdb.storage.level;
 
 
 import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONObject;
 import edu.whu.tmdb.storage.cache.CacheManager;
 import edu.whu.tmdb.storage.utils.Constant;
+import edu.whu.tmdb.storage.utils.K;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -24,16 +21,22 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 public class LevelManager {
 
-    // 记录层级信息，比如file0属于哪个level
-    // 格式为：
-    // "dataFileSuffix" : "level-size-minKey-maxKey"
-    // "maxDataFileSuffix" : "131"  // 自增的文件下标
-    public Map<String, String> levelInfo = new HashMap<String, String>();
+    // 各SSTable的元数据（所在level、大小、最小key与最大key），按文件后缀索引
+    // 修改只通过logAndApply进行：先将VersionEdit追加到manifest，再应用到内存中
+    public final Map<Integer, FileMeta> files = new HashMap<>();
+
+    // 已分配的最大文件后缀（自增的文件下标）
+    private int maxFileSuffix = 0;
+
+    // level结构的manifest
+    private final Manifest manifest = new Manifest(new File(Constant.DATABASE_DIR));
 
     // 记录各level包含哪些data文件(使用sortedset因为，suffix大的一定是最新版本的数据)
     public final TreeSet<Integer> level_0 = new TreeSet<Integer>();
@@ -48,100 +51,164 @@ public class LevelManager {
 
     public CacheManager cacheManager;
 
+    // 层级结构的读写锁
+    // 后台flush、compaction修改levels/levelInfo时持有写锁，查询SSTable时持有读锁
+    public final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    // 后台compaction调度器
+    public final CompactionScheduler compactionScheduler = new CompactionScheduler(this);
+
     // constructor
+    // 每次初始化时重放manifest；没有manifest但有旧版本的JSON元数据文件meta时，从中迁移
+    // 加载完成后滚动到新的manifest，即以一条快照记录开始，重放的记录不会无限累积
     public LevelManager(){
-        // 每次初始化时加载总索引表
         try{
             File dir = new File(Constant.DATABASE_DIR);
             if(!dir.exists()){
                 dir.mkdirs();
             }
+            List<VersionEdit> edits = this.manifest.recover();
             File metaFile = new File(Constant.DATABASE_DIR + "meta");
-            if(!metaFile.exists()){
-                // 如果初始化时没有历史数据，则给maxDataFileSuffix一个初始值0
-                this.levelInfo.put("maxDataFileSuffix","0");
-            } else{
-                FileInputStream input = new FileInputStream(metaFile);
-
-                //读取meta(获取长度)
-                byte[] x=new byte[4];
-                input.read(x,0,4);
-                int lengthToRead = Constant.BYTES_TO_INT(x, 0, 4);
-
-                // 读取正文
-                byte[] buff = new byte[lengthToRead];
-                input.read(buff, 0, lengthToRead);
-                this.levelInfo = (Map<String, String>) JSON.parse(new String(buff));
+            if(edits != null){
+                for(VersionEdit edit : edits)
+                    apply(edit);
+            } else if(metaFile.exists()){
+                apply(loadLegacyMeta(metaFile));
             }
-        }catch(FileNotFoundException e){
-            e.printStackTrace();
+            this.manifest.roll(snapshot());
+            if(metaFile.exists())
+                metaFile.delete();
         }catch(IOException e) {
             e.printStackTrace();
         }
+    }
 
-        // 使用总索引表去初始化各个level
-        for(Entry<String, String> entry : this.levelInfo.entrySet()){
-            if(entry.getValue().contains("-")){
-                int level = Integer.parseInt(entry.getValue().split("-")[0]);
-                int suffix = Integer.parseInt(entry.getKey());
-                levels[level].add(suffix);
+    // 用于test
+    public LevelManager(int mode){
+
+    }
+
+    // 读取旧版本的JSON元数据文件：int 长度 + JSON
+    // "dataFileSuffix" : "level-size-minKey-maxKey"
+    // "maxDataFileSuffix" : "131"
+    private VersionEdit loadLegacyMeta(File metaFile) throws IOException {
+        byte[] bytes = Files.readAllBytes(metaFile.toPath());
+        int lengthToRead = Constant.BYTES_TO_INT(bytes, 0, 4);
+        Map<String, String> levelInfo = (Map<String, String>) JSON.parse(new String(bytes, 4, lengthToRead));
+
+        VersionEdit edit = new VersionEdit();
+        for(Entry<String, String> entry : levelInfo.entrySet()){
+            if(entry.getKey().equals("maxDataFileSuffix")){
+                edit.maxFileSuffix = Integer.parseInt(entry.getValue());
+                continue;
             }
+            String[] info = entry.getValue().split("-");
+            edit.addFile(new FileMeta(Integer.parseInt(entry.getKey()), Integer.parseInt(info[0]), Long.parseLong(info[1]),
+                    new K(info[2]).serialize(), new K(info[3]).serialize()));
         }
+        return edit;
     }
 
-    // 用于test
-    public LevelManager(int mode){
+    // 将edit追加到manifest并应用到内存中，调用方需持有写锁
+    // 写manifest失败时抛出IOException，内存中的level结构不变
+    public void logAndApply(VersionEdit edit) throws IOException {
+        edit.maxFileSuffix = this.maxFileSuffix;
+        this.manifest.append(edit);
+        apply(edit);
+
+        // manifest过大时滚动，失败不影响已经持久化的edit
+        if(this.manifest.needsRoll(Constant.MANIFEST_ROLL_SIZE)){
+            try{
+                this.manifest.roll(snapshot());
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
+    }
 
+    // 将edit应用到内存中：先删除再加入
+    private void apply(VersionEdit edit){
+        for(int fileSuffix : edit.deletedFiles){
+            FileMeta file = this.files.remove(fileSuffix);
+            if(file != null)
+                this.levels[file.level].remove(fileSuffix);
+        }
+        for(FileMeta file : edit.newFiles){
+            FileMeta old = this.files.put(file.fileSuffix, file);
+            if(old != null)
+                this.levels[old.level].remove(file.fileSuffix);
+            this.levels[file.level].add(file.fileSuffix);
+            this.maxFileSuffix = Math.max(this.maxFileSuffix, file.fileSuffix);
+        }
+        this.maxFileSuffix = Math.max(this.maxFileSuffix, edit.maxFileSuffix);
     }
 
-    // 退出时将索引表持久化保存
+    // 当前全部SSTable与最大文件后缀
+    private VersionEdit snapshot(){
+        VersionEdit edit = new VersionEdit();
+        edit.maxFileSuffix = this.maxFileSuffix;
+        for(FileMeta file : this.files.values())
+            edit.addFile(file);
+        return edit;
+    }
+
+    // 退出时将索引表持久化保存：滚动manifest，新manifest只包含一条快照记录
+    // 每次修改都已追加到manifest中，这里只用于压缩manifest
     public void saveMetaToFile(){
+        rwLock.writeLock().lock();
         try{
-            File dir = new File(Constant.DATABASE_DIR);
-            if(!dir.exists()){
-                dir.mkdirs();
-            }
-            File metaFile = new File(Constant.DATABASE_DIR + "meta");
-            if(!metaFile.exists()){
-                metaFile.createNewFile();
-            }
-            BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(metaFile));
-            String s_in = JSONObject.toJSONString(this.levelInfo);
-            byte[] in = s_in.getBytes();
-            //System.out.println(in.length);
-            byte[] meta = Constant.INT_TO_BYTES(in.length);
-            output.write(meta,0,meta.length);
-            output.write(in,0,in.length);
-
-            output.flush();
-            output.close();
-        }catch (FileNotFoundException e) {
-            e.printStackTrace();
+            this.manifest.roll(snapshot());
         }catch (IOException e) {
             e.printStackTrace();
+        }finally {
+            rwLock.writeLock().unlock();
         }
     }
 
-    // 返回下一个新文件的后缀int
+    // 返回下一个新文件的后缀int，调用方需持有写锁
+    // 新后缀在下一次logAndApply时随edit持久化，在此之前崩溃时后缀会被复用（文件尚未记入manifest）
     public int addFileSuffix(){
-        int dataFileSuffix = Integer.parseInt(this.levelInfo.get("maxDataFileSuffix")) + 1;
-        this.levelInfo.put("maxDataFileSuffix", "" + dataFileSuffix);
-        return dataFileSuffix;
+        return ++this.maxFileSuffix;
     }
 
 
     // 手动调用的compaction，指定需要进行compaction的level
+    // 选择文件时持有写锁，合并过程不持有锁，结果在Compaction中持有写锁安装
     public void manualCompaction(int level) throws IOException {
         if(level < 0 || level >= Constant.MAX_LEVEL)
             return;
 
         //System.out.println("开始compaction");
 
+        Compaction compaction;
+        rwLock.writeLock().lock();
+        try{
+            if(this.levels[level].isEmpty())
+                return;
+            Set<Integer> filesToCompact = pickCompactionFiles(level);
+            compaction = new Compaction(this, filesToCompact, level + 1);
+        }finally {
+            rwLock.writeLock().unlock();
+        }
+
+        // 执行compaction
+        compaction.run();
+
+    }
+
+
+    // 选择level层compaction需要合并的文件，调用方需持有写锁
+    private Set<Integer> pickCompactionFiles(int level){
         Set<Integer> filesToCompact = new HashSet<>(); // 记录需要进行compaction的文件名后缀
 
-        // 若i=0，则将level-0所有SSTable进行compaction成新SSTable并加入level-1，并删除level-0中所有旧SSTable
+        // 若i=0，则将level-0所有SSTable与level-1中与之重叠的SSTable进行compaction成新SSTable并加入level-1，并删除旧SSTable
         if(level == 0){
             filesToCompact.addAll(this.level_0);
+            Set<Integer> files2 = new HashSet<>();
+            for(Integer fileSuffix : this.level_0){
+                files2.addAll(findOverlapSSTable(fileSuffix, 1));
+            }
+            filesToCompact.addAll(files2);
         }
         // https://github.com/facebook/rocksdb/wiki/Choose-Level-Compaction-Files
         // 设level-i中需要进行compaction的文件集合files=[ ]
@@ -177,10 +244,7 @@ public class LevelManager {
             filesToCompact.addAll(files2);
         }
 
-        // 执行compaction
-        Compaction compaction = new Compaction(this, filesToCompact, level + 1);
-        compaction.run();
-
+        return filesToCompact;
     }
 
 
@@ -189,10 +253,11 @@ public class LevelManager {
         Set<Integer> ret = new HashSet<>();
         for(Object o : this.levels[level]) {
             Integer suffix1 = (Integer) o;
+            FileMeta file1 = this.files.get(suffix1);
 
             boolean flag = true;
             for (Integer suffix2 : set) {
-                if (hasOverlap(suffix1, suffix2)){
+                if (file1.overlaps(this.files.get(suffix2))){
                     flag = false;
                     break;
                 }
@@ -204,48 +269,27 @@ public class LevelManager {
     }
 
     // 遍历level层中所有文件，找出与SSTable i有重叠的文件名后缀
+    // 重叠判断直接比较FileMeta中的key字节，不再为每次比较解析字符串
     private Set<Integer> findOverlapSSTable(int i, int level){
         Set<Integer> ret = new HashSet<>();
+        FileMeta file1 = this.files.get(i);
         for(Object j : this.levels[level]){
-            int fileSuffix2 =(Integer) j;
-            if(hasOverlap(i, fileSuffix2)){
+            Integer fileSuffix2 = (Integer) j;
+            if(file1.overlaps(this.files.get(fileSuffix2))){
                 ret.add(fileSuffix2);
             }
         }
         return  ret;
     }
 
-    // 判断文件后缀为i1和i2的两个SSTable是否有重叠
-    private boolean hasOverlap(int i1, int i2){
-        long min1 = Long.parseLong(this.levelInfo.get("" + i1).split("-")[2]);
-        long max1 = Long.parseLong(this.levelInfo.get("" + i1).split("-")[3]);
-        long min2 = Long.parseLong(this.levelInfo.get("" + i2).split("-")[2]);
-        long max2 = Long.parseLong(this.levelInfo.get("" + i2).split("-")[3]);
-        return Constant.hasOverlap(min1, max1, min2, max2);
-    }
-
 
-    // 自动调用的compaction，根据score选择最需要执行的一个就行
+    // 自动调用的compaction，交给后台调度器根据score选择需要执行的level，不阻塞调用线程
     public void autoCompaction() throws IOException {
-        List<Float> scores = calScore();
-        // 遍历一遍找最大score的level
-        float maxScore = -1;
-        int maxScoreLevel = -1;
-        for(int i = 0; i < Constant.MAX_LEVEL ; i++){
-            if(scores.get(i) > maxScore){
-                maxScore = scores.get(i);
-                maxScoreLevel = i;
-            }
-        }
-
-        if(maxScore > 1){
-            // 对该level执行compaction
-            manualCompaction(maxScoreLevel);
-        }
+        this.compactionScheduler.maybeScheduleCompaction();
     }
 
 
-    // 计算每个level当前的score = 该层总大小 / 该层大小上限
+    // 计算每个level当前的score = 该层总大小 / 该层大小上限，调用方需持有读锁或写锁
     public List<Float> calScore(){
         // 各层score
         List<Float> scores = new ArrayList<Float>(Constant.MAX_LEVEL + 1);
@@ -255,24 +299,17 @@ public class LevelManager {
         // level 0 层使用单独的计算策略，原因可参考设计文档
         int level0FileCount = 0;
         // 各层大小
-        List<Integer> sizes = new ArrayList<Integer>(Constant.MAX_LEVEL + 1);
-        for(int i=0; i<Constant.MAX_LEVEL + 1; i++)
-            sizes.add(0);
-
-        for(String v: this.levelInfo.values()){
-            if(v.contains("-")){
-                String[] t = v.split("-");
-                int level = Integer.parseInt(t[0]);
-                int size = Integer.parseInt(t[1]);
-                sizes.set(level, sizes.get(level) + size);
-                if(level == 0)
-                    level0FileCount++;
-            }
+        long[] sizes = new long[Constant.MAX_LEVEL + 1];
+
+        for(FileMeta file : this.files.values()){
+            sizes[file.level] += file.size;
+            if(file.level == 0)
+                level0FileCount++;
         }
 
         scores.set(0, ((float) level0FileCount) / Constant.MAX_LEVEL0_FILE_COUNT);
         for(int i=1; i<= Constant.MAX_LEVEL; i++){
-            scores.set(i, (float)(sizes.get(i)) / Constant.MAX_LEVEL_SIZE[i]);
+            scores.set(i, (float)(sizes[i]) / Constant.MAX_LEVEL_SIZE[i]);
         }
 
         return scores;
@@ -0,0 +1,197 @@
+package edu.whu.tmdb.storage.level;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// level结构的manifest：VersionEdit的追加日志
+// 1. CURRENT文件记录当前manifest的文件名（MANIFEST-编号）
+// 2. 每次修改level结构时只追加一条VersionEdit记录并force，不再重写整个元数据文件
+// 3. 滚动时新manifest以一条包含全部SSTable的快照记录开始，force后通过原子rename替换CURRENT，再删除旧manifest，
+//    任一步骤崩溃，CURRENT都指向一个完整的manifest
+// 记录格式（与catalog日志相同）：int payload长度 + int payload的CRC32 + payload（VersionEdit的编码）
+// 重放时遇到不完整或校验失败的记录即停止，之后的内容被截掉
+// 不是线程安全的，由LevelManager在写锁下调用
+class Manifest {
+
+    private static final String CURRENT = "CURRENT";
+    private static final String PREFIX = "MANIFEST-";
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    private final File dir;
+
+    // 当前manifest的编号，0表示还没有manifest
+    private int number = 0;
+
+    private FileChannel channel;
+
+    // 当前manifest中有效记录的末尾
+    private long size = 0;
+
+    // 当前manifest开头快照记录的大小
+    private long snapshotSize = 0;
+
+    Manifest(File dir){
+        this.dir = dir;
+    }
+
+    // 读取CURRENT指向的manifest中的全部VersionEdit，CURRENT不存在时返回null
+    List<VersionEdit> recover() throws IOException {
+        File current = new File(dir, CURRENT);
+        if(!current.exists())
+            return null;
+        String name = new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim();
+        this.number = Integer.parseInt(name.substring(PREFIX.length()));
+
+        List<VersionEdit> edits = new ArrayList<>();
+        long validEnd = 0;
+        long snapshotSize = 0;
+        File file = new File(dir, name);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            byte[] payload;
+            while((payload = readRecord(in)) != null){
+                edits.add(VersionEdit.decode(payload));
+                validEnd += RECORD_HEADER_SIZE + payload.length;
+                if(snapshotSize == 0)
+                    snapshotSize = validEnd;
+            }
+        }
+
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        if(this.channel.size() != validEnd)
+            this.channel.truncate(validEnd);
+        this.size = validEnd;
+        this.snapshotSize = snapshotSize;
+        return edits;
+    }
+
+    // 追加一条记录并force
+    void append(VersionEdit edit) throws IOException {
+        if(this.channel == null)
+            throw new IOException("manifest is not open");
+        this.size += write(this.channel, this.size, encodeRecord(edit.encode()));
+        this.channel.force(false);
+    }
+
+    // 滚动到新的manifest，snapshot为当前全部SSTable与最大文件后缀
+    void roll(VersionEdit snapshot) throws IOException {
+        int newNumber = this.number + 1;
+        String name = PREFIX + newNumber;
+        FileChannel newChannel = new RandomAccessFile(new File(dir, name), "rw").getChannel();
+        long newSize;
+        try{
+            // 滚动中途崩溃时可能留下同名的不完整文件
+            newChannel.truncate(0);
+            newSize = write(newChannel, 0, encodeRecord(snapshot.encode()));
+            newChannel.force(true);
+
+            // 先写临时文件，再原子替换CURRENT
+            File tmp = new File(dir, CURRENT + ".tmp");
+            try(FileOutputStream out = new FileOutputStream(tmp)){
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), new File(dir, CURRENT).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            syncDir();
+        }catch (IOException e){
+            newChannel.close();
+            throw e;
+        }
+
+        if(this.channel != null)
+            this.channel.close();
+        this.channel = newChannel;
+        this.number = newNumber;
+        this.size = newSize;
+        this.snapshotSize = newSize;
+
+        // 删除旧manifest，以及之前滚动中途崩溃留下的manifest
+        File[] files = dir.listFiles((d, n) -> n.startsWith(PREFIX) && !n.equals(name));
+        if(files != null){
+            for(File f : files)
+                f.delete();
+        }
+    }
+
+    // 是否需要滚动：超过limit，且追加的记录已经多于开头的快照，避免快照本身超过limit时每次追加都滚动
+    boolean needsRoll(long limit){
+        return this.size >= Math.max(limit, 2 * this.snapshotSize);
+    }
+
+    void close(){
+        try{
+            if(this.channel != null)
+                this.channel.close();
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+        this.channel = null;
+    }
+
+    private static long write(FileChannel channel, long position, byte[] record) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(record);
+        while(src.hasRemaining())
+            position += channel.write(src, position);
+        return record.length;
+    }
+
+    private static byte[] encodeRecord(byte[] payload){
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    // 读取一条记录的payload，文件结束、记录不完整或校验失败时返回null
+    private static byte[] readRecord(DataInput in) throws IOException {
+        int payloadSize;
+        int crc;
+        byte[] payload;
+        try{
+            payloadSize = in.readInt();
+            crc = in.readInt();
+            if(payloadSize < 0 || payloadSize > MAX_PAYLOAD_SIZE)
+                return null;
+            payload = new byte[payloadSize];
+            in.readFully(payload);
+        }catch (EOFException e){
+            return null;
+        }
+        CRC32 actual = new CRC32();
+        actual.update(payload, 0, payload.length);
+        if((int) actual.getValue() != crc)
+            return null;
+        return payload;
+    }
+
+    // force目录，使CURRENT的rename持久化；不支持打开目录的平台上忽略
+    private void syncDir(){
+        try(FileChannel d = FileChannel.open(dir.toPath(), StandardOpenOption.READ)){
+            d.force(true);
+        }catch (IOException e){
+            // ignore
+        }
+    }
+}
@@ -2,6 +2,7 @@ package edu.whu.tmdb.storage.level;
 
 //import org.json.JSONObject;
 
+import edu.whu.tmdb.storage.cache.BlockCache;
 import edu.whu.tmdb.storage.level.BTree;
 import edu.whu.tmdb.storage.utils.Constant;
 import edu.whu.tmdb.storage.utils.K;
@@ -9,13 +10,16 @@ import edu.whu.tmdb.storage.utils.V;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // 内存中的SSTable
 // 通过构造方法SSTable()将数据从磁盘读到内存
@@ -23,8 +27,8 @@ import java.util.TreeMap;
 public class SSTable {
 
     // k-v
-    // 使用SortedMap，自动按照key升序排序
-    public TreeMap<K, V> data = new TreeMap<>();
+    // 使用SortedMap，自动按照key升序排序（flush时直接使用不可变memTable，无需拷贝）
+    public SortedMap<K, V> data = new TreeMap<>();
 
     // SSTable的文件名
     public String fileName;
@@ -36,7 +40,7 @@ public class SSTable {
     // BloomFilter
     public BloomFilter bloomFilter;
 
-    // B树，记录每个data block的最大key的offset
+    // v1的index block：B树，记录每个data block的最大key的offset
     BTree bTree;
 
     // SSTable的写通道
@@ -44,12 +48,43 @@ public class SSTable {
     BufferedOutputStream outputStream;
 
     // SSTable的读通道
-    // 由于读SSTable时不需要从头开始，多为根据指定offset跳着读，因此使用RandomAccessFile更快
-    public RandomAccessFile raf;
+    // 读SSTable时多为根据指定offset跳着读，使用positional read（见Constant.readFully），不依赖共享的seek位置，
+    // 多个查询线程可以并发读同一个SSTable而不需要加锁
+    public FileChannel channel;
+
+    // 引用计数：MetaCache持有一次，每个正在读取该SSTable的查询各持有一次，归零时关闭读、写通道
+    // 被MetaCache淘汰或被compaction删除的SSTable，等正在进行的查询结束后才关闭，不依赖finalize()
+    private final AtomicInteger refCount = new AtomicInteger(1);
 
     // search时确定扫描上界
     public long zoneMapOffset;
 
+    // 读取data block时使用的共享block cache，由MetaCache在加入缓存时设置，为null时直接读文件
+    public BlockCache blockCache;
+
+    // 文件格式版本，记录在Footer中，见readFooter
+    // v1：key定长Constant.MAX_KEY_LENGTH字节，data block补齐到Constant.MAX_DATA_BLOCK_SIZE，index block为B树
+    // v2：data block前缀压缩、带重启点（见DataBlock），不补齐；index block记录各data block的偏移和长度（见IndexBlock）
+    // v3：在v2的基础上，每个block（data block、zone map、bloom filter、index block）末尾附加压缩类型与CRC32C（见BlockCodec），
+    //     data block与index block按所在level的压缩方式压缩，zone map与bloom filter不压缩
+    // 只写v3格式，v1、v2格式的SSTable仍可读取，compaction时被重写为v3
+    public static final int FORMAT_V1 = 1;
+    public static final int FORMAT_V2 = 2;
+    public static final int FORMAT_V3 = 3;
+    public int formatVersion = FORMAT_V3;
+
+    // v2及以上 Footer末尾的魔数
+    static final int FOOTER_MAGIC = 0x54444253;
+
+    // v2的index block
+    IndexBlock indexBlock;
+
+    // 流式写入时正在构建的data block、data block与index block的压缩方式、已写入的字节数与最后写入的key
+    private DataBlockBuilder blockBuilder;
+    private int compression;
+    private long writeOffset;
+    private byte[] lastWrittenKey;
+
     public K getMaxKey() {
         return maxKey;
     }
@@ -66,13 +101,13 @@ public class SSTable {
     public SSTable(String fileName, int mode){
         if(mode == 1){
             this.fileName = fileName;
-            this.bTree = new BTree(3);
             // 初始化写通道
             try{
                 File f = new File(Constant.DATABASE_DIR + this.fileName);
                 if(!f.exists())
                     f.createNewFile();
-                this.outputStream = new BufferedOutputStream(new FileOutputStream(f, true));
+                // 崩溃时正在写入的SSTable没有记入meta，重启后其后缀会被复用，因此覆盖而不是追加写入
+                this.outputStream = new BufferedOutputStream(new FileOutputStream(f));
             } catch (IOException e){
                 e.printStackTrace();
             }
@@ -81,94 +116,169 @@ public class SSTable {
             this.fileName = fileName;
             // 初始化读通道
             try{
-                File f = new File(Constant.DATABASE_DIR + this.fileName);
-                this.raf = new RandomAccessFile(f, "r");
-            } catch (FileNotFoundException e) {
+                openChannel();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }else if(mode == 3){
             this.fileName = fileName;
-            // 初始化读通道
+            // 初始化读通道，并读Footer、zone map、bloom filter与index block
             try{
-                File f = new File(Constant.DATABASE_DIR + this.fileName);
-                this.raf = new RandomAccessFile(f, "r");
-            } catch (FileNotFoundException e) {
+                openChannel();
+                readMeta();
+            }catch (IOException e){
                 e.printStackTrace();
             }
-            // 读Footer
-            long[] info = readFooter();
-            long zoneMapOffset = info[0];
-            long zoneMapLength = info[1];
-            this.zoneMapOffset = zoneMapOffset;
-            long bloomFilterOffset = info[2];
-            long bloomFilterLength = info[3];
-            long bTreeRootOffset = info[4];
-            long indexBlockLength = info[5];
-
-            // 读zone map
-            readZoneMap(zoneMapOffset, zoneMapLength);
-            // 初始化BloomFilter
-            readBloomFilter(bloomFilterOffset, bloomFilterLength);
-            // 初始化index block
-            readIndexBlock(bTreeRootOffset, indexBlockLength);
         }
     }
 
 
-    // 析构函数，关闭SSTable的读、写通道
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
-        if(outputStream != null){
-            outputStream.flush();
-            outputStream.close();
+    // 打开读通道，已打开时不做任何事；写入完成的SSTable同时关闭写通道
+    public void openChannel() throws IOException {
+        if(this.outputStream != null){
+            this.outputStream.close();
+            this.outputStream = null;
         }
-        if(raf != null){
-            raf.close();
+        if(this.channel == null)
+            this.channel = FileChannel.open(new File(Constant.DATABASE_DIR + this.fileName).toPath(), StandardOpenOption.READ);
+    }
+
+    // 增加一次引用，SSTable已关闭时返回false
+    public boolean retain(){
+        while(true){
+            int n = this.refCount.get();
+            if(n <= 0)
+                return false;
+            if(this.refCount.compareAndSet(n, n + 1))
+                return true;
         }
+    }
+
+    // 释放一次引用，最后一次释放时关闭读、写通道
+    public void release(){
+        if(this.refCount.decrementAndGet() == 0)
+            close();
+    }
 
+    // 关闭SSTable的读、写通道
+    public void close(){
+        try{
+            if(this.outputStream != null){
+                this.outputStream.close();
+                this.outputStream = null;
+            }
+            if(this.channel != null)
+                this.channel.close();
+        }catch (IOException e){
+            e.printStackTrace();
+        }
     }
 
     // 向此SSTable末尾追加写字节数组data
     void appendToFile(byte[] data){
+        appendToFile(data, 0, data.length);
+    }
+
+    // 向此SSTable末尾追加写字节数组data中从offset开始、长度为length的部分
+    void appendToFile(byte[] data, int offset, int length){
         try{
-            this.outputStream.write(data, 0, data.length);
+            this.outputStream.write(data, offset, length);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // 从此SSTable偏移为offset处读取长度为length的字节数组
-    private byte[] readFromFile(long offset, int length){
-        byte[] ret = new byte[length];
+    // 读取偏移为offset、长度为length的data block，先查block cache，未命中再读文件并放入缓存
+    // v3的data block校验并解压后再放入缓存，缓存命中时不再重复校验
+    byte[] readDataBlock(long offset, int length) throws IOException {
+        int fileSuffix = Integer.parseInt(this.fileName.substring("SSTable".length()));
+        if(this.blockCache != null){
+            byte[] cached = this.blockCache.get(fileSuffix, offset);
+            if(cached != null)
+                return cached;
+        }
+
+        byte[] dataBlock = new byte[length];
+        Constant.readFully(this.channel, offset, dataBlock);
+        if(this.formatVersion >= FORMAT_V3)
+            dataBlock = BlockCodec.decode(dataBlock, this.fileName, "data block", offset);
+
+        if(this.blockCache != null)
+            this.blockCache.put(fileSuffix, offset, dataBlock);
+        return dataBlock;
+    }
+
+    // 读Footer，返回7个long：zone map、bloom filter、index block的偏移和长度（v1为B树根结点偏移和index block长度），以及格式版本
+    public long[] readFooter(){
         try{
-            raf.seek(offset);
-            raf.read(ret);
-        } catch (IOException e) {
+            return readFooter(this.channel);
+        }catch (IOException e){
             e.printStackTrace();
+            return new long[]{0, 0, 0, 0, 0, 0, FORMAT_V1};
         }
-        return ret;
     }
 
-    // 读Footer，返回的数据解析为6个long，分别对应zone map、bloom filter、index block的偏移和长度
-    public long[] readFooter(){
-        long[] ret = new long[6];
-        File f = new File(Constant.DATABASE_DIR + this.fileName);
-        long offset = f.length() - 6 * Long.BYTES;  // 开始读的偏移
-        byte[] buffer = readFromFile(offset, 6 * Long.BYTES);
-        // 依次解析这6个long
-        for(int i=0; i<6; i++){
-            byte[] b = new byte[8];
-            System.arraycopy(buffer, 8 * i, b, 0, 8);
-            ret[i] = Constant.BYTES_TO_LONG(b);
+    // Footer的格式：
+    // v1：6个long
+    // v2、v3：同样的6个long + int 格式版本 + int 魔数
+    // v1文件的最后一个long是index block长度，高4字节总为0，不会被误认为版本号
+    static long[] readFooter(FileChannel channel) throws IOException {
+        long[] ret = new long[7];
+        long fileLength = channel.size();
+        byte[] tail = new byte[2 * Integer.BYTES];
+        Constant.readFully(channel, fileLength - tail.length, tail);
+        int version = Constant.BYTES_TO_INT(tail, 0, Integer.BYTES);
+        int magic = Constant.BYTES_TO_INT(tail, Integer.BYTES, Integer.BYTES);
+        long start;
+        if(magic == FOOTER_MAGIC && version >= FORMAT_V2){
+            if(version > FORMAT_V3)
+                throw new IOException("unsupported SSTable format version " + version);
+            ret[6] = version;
+            start = fileLength - 6 * Long.BYTES - 2 * Integer.BYTES;
         }
+        else{
+            ret[6] = FORMAT_V1;
+            start = fileLength - 6 * Long.BYTES;
+        }
+        byte[] footer = new byte[6 * Long.BYTES];
+        Constant.readFully(channel, start, footer);
+        for(int i=0; i<6; i++)
+            ret[i] = Constant.BYTES_TO_LONG(Arrays.copyOfRange(footer, i * Long.BYTES, (i + 1) * Long.BYTES));
         return ret;
     }
 
+    // 读Footer、bloom filter、index block与zone map
+    // zone map最后读取：任一block校验失败时maxKey仍为空，之后的查询会重新读取并再次报告损坏
+    private void readMeta() throws IOException {
+        long[] info = readFooter(this.channel);
+        this.formatVersion = (int) info[6];
+        this.zoneMapOffset = info[0];
+        readBloomFilter(info[2], info[3]);
+        readIndexBlock(info[4], info[5]);
+        readZoneMap(info[0], info[1]);
+    }
+
+    // 读元数据block，v3格式时校验block末尾的CRC32C并去掉压缩类型与校验和
+    private byte[] readMetaBlock(long offset, long length, String blockType) throws IOException {
+        byte[] buffer = new byte[(int) length];
+        Constant.readFully(this.channel, offset, buffer);
+        if(this.formatVersion >= FORMAT_V3)
+            return BlockCodec.decode(buffer, this.fileName, blockType, offset);
+        return buffer;
+    }
+
     // 读zone map
-    // zone map的格式：16字节先存minKey，16字节存maxKey
-    public void readZoneMap(long offset, long length){
-        byte[] buffer = readFromFile(offset, (int) length);
+    // v1的格式：16字节先存minKey，16字节存maxKey
+    // v2、v3的格式：int长度 + minKey，int长度 + maxKey
+    public void readZoneMap(long offset, long length) throws IOException {
+        byte[] buffer = readMetaBlock(offset, length, "zone map");
+        if(this.formatVersion >= FORMAT_V2){
+            int minLength = Constant.BYTES_TO_INT(buffer, 0, Integer.BYTES);
+            int maxLength = Constant.BYTES_TO_INT(buffer, Integer.BYTES + minLength, Integer.BYTES);
+            this.minKey = new K(Arrays.copyOfRange(buffer, Integer.BYTES, Integer.BYTES + minLength));
+            this.maxKey = new K(Arrays.copyOfRange(buffer, 2 * Integer.BYTES + minLength, 2 * Integer.BYTES + minLength + maxLength));
+            return;
+        }
         byte[] b1 = new byte[Constant.MAX_KEY_LENGTH];
         byte[] b2 = new byte[Constant.MAX_KEY_LENGTH];
         System.arraycopy(buffer, 0, b1, 0, Constant.MAX_KEY_LENGTH);
@@ -177,112 +287,120 @@ public class SSTable {
         this.maxKey = new K(b2);
     }
 
-    // 读BloomFilter, 前4字节记录Bloom Filter的itemCount
-    private void readBloomFilter(long offset, long length){
+    // 读BloomFilter, 前4字节记录Bloom Filter的格式版本与itemCount
+    private void readBloomFilter(long offset, long length) throws IOException {
         // 通过BloomFilter的构造函数初始化
-        this.bloomFilter = new BloomFilter(this.raf, offset, (int) length);
+        this.bloomFilter = new BloomFilter(readMetaBlock(offset, length, "bloom filter"));
     }
 
-    // 读index block，并将各BTNode重新建成树
-    public void readIndexBlock(long offset, long length){
-        this.bTree = new BTree(this.raf, offset);
+    // 读index block：v1将各BTNode重新建成树，v2、v3解析为IndexBlock
+    public void readIndexBlock(long offset, long length) throws IOException {
+        if(this.formatVersion >= FORMAT_V2){
+            this.indexBlock = new IndexBlock(readMetaBlock(offset, length, "index block"));
+            return;
+        }
+        this.bTree = new BTree(this.channel, offset);
     }
 
-    // 将FileDate对象中的数据写到新SSTable中
+    // 将data中的k-v写到新SSTable中（v3格式），按level0的压缩方式压缩
     // 返回SSTable总字节数
-    // 步骤：
-    // 1. 分data block写入
-    // 3. 写zone map
-    // 4. 写Bloom filter
-    // 5. 写index block
-    // 6. 写Footer
     public long writeSSTable(){
+        return writeSSTable(Constant.LEVEL_COMPRESSION[0]);
+    }
+
+    // 将data中的k-v写到新SSTable中，compression含义见Constant.LEVEL_COMPRESSION
+    public long writeSSTable(int compression){
+        beginWrite(this.data.size(), compression);
+        for(Entry<K, V> entry : this.data.entrySet()){
+            append(entry.getKey().serialize(), entry.getValue().serialize());
+        }
+        return finishWrite();
+    }
 
-        // 准备工作：初始化Bloom Filter，因为需要知道k-v的数量，因此放到此处初始化
-        int itemCount = this.data.size();
+    // 开始流式写入，itemCount为估计的k-v数量，用于初始化Bloom Filter，compression为data block与index block的压缩方式
+    // 步骤：
+    // 1. append()按key升序追加k-v，data block写满时编码（压缩 + CRC32C）后写出，并将其最大key、偏移和编码后的长度记入index block
+    // 2. finishWrite()写出最后一个data block，再依次写zone map、Bloom filter、index block、Footer
+    void beginWrite(int itemCount, int compression){
+        this.formatVersion = FORMAT_V3;
+        this.compression = compression;
         this.bloomFilter = new BloomFilter(itemCount);
-        this.bTree = new BTree(3);
+        this.indexBlock = new IndexBlock();
+        this.blockBuilder = new DataBlockBuilder();
+        this.writeOffset = 0;
+        this.lastWrittenKey = null;
+    }
 
-        // 1. 分data block写入
-        long dataBlockStartOffset = 0; // 此data block的开始偏移（记录B树结点时有用）
-        long totalOffset = 0; // 总偏移
-        K lastKey = new K(); // 记录上一个key
-        // 遍历所有k-v
-        for(Entry<K, V> entry : this.data.entrySet()){
-            K key = entry.getKey();
-            byte[] key_b = key.serialize();
-            V value = entry.getValue();
-            byte[] value_b = value.serialize();
-
-            // 更新Bloom Filter
-            this.bloomFilter.add(key);
-
-            // 此kv占用总字节数
-            long len = Integer.BYTES + key_b.length + value_b.length;
-
-            // 如果加上此kv则data block写满，则开启新data block，将旧data block的最大key和起始偏移记录到B树中
-            if(totalOffset - dataBlockStartOffset + len > Constant.MAX_DATA_BLOCK_SIZE){
-                this.bTree.insert(lastKey, dataBlockStartOffset);
-                // 此data block剩余部分使用0填满
-                int vacant = (int) (Constant.MAX_DATA_BLOCK_SIZE + dataBlockStartOffset - totalOffset);
-                byte[] buffer0 = new byte[vacant];
-                appendToFile(buffer0);
-                totalOffset += vacant;
-                dataBlockStartOffset = totalOffset;
-            }
+    // 追加一条k-v，key需大于之前追加的所有key
+    void append(byte[] key, byte[] value){
+        // 第一次写入的一定是minKey
+        if(this.lastWrittenKey == null)
+            this.minKey = new K(key);
+        this.lastWrittenKey = key;
 
-            // 写入 length + key + value;
-            appendToFile(Constant.INT_TO_BYTES(key_b.length + value_b.length));
-            appendToFile(key_b);
-            appendToFile(value_b);
-            totalOffset += len;
+        // 更新Bloom Filter
+        this.bloomFilter.add(key);
 
-            lastKey = key;
+        this.blockBuilder.add(key, value);
+        if(this.blockBuilder.estimatedSize() >= Constant.MAX_DATA_BLOCK_SIZE)
+            flushDataBlock();
+    }
 
-        }
-        //  遍历结束时，未满的data block信息也写入B-Tree
-        if(dataBlockStartOffset != totalOffset){
-            this.bTree.insert(this.data.lastKey(), dataBlockStartOffset);
-            // 此data block剩余部分使用0填满
-            int vacant = (int) (Constant.MAX_DATA_BLOCK_SIZE + dataBlockStartOffset - totalOffset);
-            byte[] buffer0 = new byte[vacant];
-            appendToFile(buffer0);
-            totalOffset += vacant;
-            dataBlockStartOffset = totalOffset;
-        }
+    // 写出正在构建的data block，并记入index block
+    private void flushDataBlock(){
+        byte[] block = BlockCodec.encode(this.blockBuilder.finish(), this.compression);
+        this.indexBlock.add(this.blockBuilder.lastKey(), this.writeOffset, block.length);
+        appendToFile(block);
+        this.writeOffset += block.length;
+        this.blockBuilder.reset();
+    }
 
-        // 3. 写zone map
-        long zoneMapStartOffset = totalOffset; // zone map的开始偏移
-        long zoneMapLength = Constant.MAX_KEY_LENGTH * 2; // zone map的长度
+    // 写出SSTable的其余部分并flush写通道，返回SSTable总字节数
+    long finishWrite(){
+        //  未满的data block也写出
+        if(!this.blockBuilder.isEmpty())
+            flushDataBlock();
+        this.blockBuilder = null;
+
+        // 1. 写zone map，最后写入的一定是maxKey
+        if(this.lastWrittenKey != null)
+            this.maxKey = new K(this.lastWrittenKey);
+        long zoneMapStartOffset = this.writeOffset; // zone map的开始偏移
         this.zoneMapOffset = zoneMapStartOffset;
-        this.minKey = this.data.firstKey();
-        this.maxKey = this.data.lastKey();
-        byte[] buffer = new byte[(int) zoneMapLength];
-        System.arraycopy(this.minKey.serialize(), 0, buffer, 0, Constant.MAX_KEY_LENGTH);
-        System.arraycopy(this.maxKey.serialize(), 0, buffer, Constant.MAX_KEY_LENGTH, Constant.MAX_KEY_LENGTH);
-        appendToFile(buffer);
-
-        // 4. 写Bloom filter
+        byte[] min = this.minKey.serialize();
+        byte[] max = this.maxKey.serialize();
+        byte[] zoneMap = new byte[2 * Integer.BYTES + min.length + max.length];
+        System.arraycopy(Constant.INT_TO_BYTES(min.length), 0, zoneMap, 0, Integer.BYTES);
+        System.arraycopy(min, 0, zoneMap, Integer.BYTES, min.length);
+        System.arraycopy(Constant.INT_TO_BYTES(max.length), 0, zoneMap, Integer.BYTES + min.length, Integer.BYTES);
+        System.arraycopy(max, 0, zoneMap, 2 * Integer.BYTES + min.length, max.length);
+        zoneMap = BlockCodec.encode(zoneMap, 0);
+        long zoneMapLength = zoneMap.length; // zone map的长度
+        appendToFile(zoneMap);
+
+        // 2. 写Bloom filter，不压缩（位数组近似随机，压缩无收益），前4字节的低24位仍为itemCount
         long bloomFilterStartOffset = zoneMapStartOffset + zoneMapLength;
-        long bloomFilterLength = 4 + this.bloomFilter.getByteCount(); // +4 的原因见BloomFilter写文件的格式
-        this.bloomFilter.writeToFile(this.outputStream);
+        byte[] filter = BlockCodec.encode(this.bloomFilter.serialize(), 0);
+        long bloomFilterLength = filter.length;
+        appendToFile(filter);
 
-        // 5. 写index block
+        // 3. 写index block
         long indexBlockStartOffset = bloomFilterStartOffset + bloomFilterLength;
-        long[] info = this.bTree.write(this.outputStream, indexBlockStartOffset);
-        long indexBlockLength = info[0];
-        long bTreeRootOffset = info[1];
+        byte[] index = BlockCodec.encode(this.indexBlock.serialize(), this.compression);
+        long indexBlockLength = index.length;
+        appendToFile(index);
 
-
-        // 6. 写Footer
+        // 4. 写Footer
         long footerStartOffset = indexBlockStartOffset + indexBlockLength;
-        long footerLength = Long.BYTES * 6;
+        long footerLength = Long.BYTES * 6 + Integer.BYTES * 2;
         appendToFile(Constant.LONG_TO_BYTES(zoneMapStartOffset));
         appendToFile(Constant.LONG_TO_BYTES(zoneMapLength));
         appendToFile(Constant.LONG_TO_BYTES(bloomFilterStartOffset));
         appendToFile(Constant.LONG_TO_BYTES(bloomFilterLength));
-        appendToFile(Constant.LONG_TO_BYTES(bTreeRootOffset));
+        appendToFile(Constant.LONG_TO_BYTES(indexBlockStartOffset));
         appendToFile(Constant.LONG_TO_BYTES(indexBlockLength));
+        appendToFile(Constant.INT_TO_BYTES(this.formatVersion));
+        appendToFile(Constant.INT_TO_BYTES(FOOTER_MAGIC));
 
         // flush
         try{
@@ -301,49 +419,39 @@ public class SSTable {
     public V search(K key) throws IOException {
 
         // 如果meta data不完整，则需要从文件中读取
-        if(this.maxKey.equals(new K())){
-            // 读Footer
-            long[] info = readFooter();
-            long zoneMapOffset = info[0];
-            long zoneMapLength = info[1];
-            this.zoneMapOffset = zoneMapOffset;
-            long bloomFilterOffset = info[2];
-            long bloomFilterLength = info[3];
-            long bTreeRootOffset = info[4];
-            long indexBlockLength = info[5];
-
-            // 读zone map
-            readZoneMap(zoneMapOffset, zoneMapLength);
-
-            // 初始化BloomFilter
-            readBloomFilter(bloomFilterOffset, bloomFilterLength);
-
-            // 初始化index block
-            readIndexBlock(bTreeRootOffset, indexBlockLength);
-        }
-
+        loadMetaIfAbsent();
 
         // 1. 检查zone map
         if(key.compareTo(this.minKey) < 0 || key.compareTo(this.maxKey) > 0)
             return null;
 
         // 2. 检查bloom filter
-        if(!this.bloomFilter.check(key))
+        byte[] targetKeyBuffer = key.serialize();
+        if(!this.bloomFilter.check(targetKeyBuffer))
             return new V();
 
         // 如果1 2 均通过，说明key极有可能存在该SSTable中
-        // 3. 定位到该key可能存在的data block
+        if(this.formatVersion >= FORMAT_V2){
+            // 3. 在index block中二分查找该key可能存在的data block
+            int i = this.indexBlock.find(targetKeyBuffer);
+            if(i < 0)
+                return new V();
+            // 4. 读该data block（优先从block cache中读取），在重启点上二分查找
+            DataBlock dataBlock = new DataBlock(readDataBlock(this.indexBlock.offset(i), this.indexBlock.length(i)));
+            if(dataBlock.seek(targetKeyBuffer) && dataBlock.keyEquals(targetKeyBuffer))
+                return new V(dataBlock.copyValue());
+            return new V();
+        }
+
+        // v1：3. 定位到该key可能存在的data block
         Long offset = this.bTree.leftSearch(key);
         if(offset == null)
             offset = 0l;
 
-        // 4. 读该data block
-        byte[] dataBlock = new byte[(int) Constant.MAX_DATA_BLOCK_SIZE];
-        this.raf.seek(offset);
-        this.raf.read(dataBlock);
+        // 4. 读该data block（优先从block cache中读取）
+        byte[] dataBlock = readDataBlock(offset, Constant.MAX_DATA_BLOCK_SIZE);
 
         // 5. 遍历data block
-        byte[] targetKeyBuffer = key.serialize();
         int currentOffset = 0; // 记录当前在data block中的位置
         int length; // 一条kv记录的长度
         while(currentOffset + Integer.BYTES < Constant.MAX_DATA_BLOCK_SIZE){
@@ -366,87 +474,71 @@ public class SSTable {
     }
 
 
-    // 在SSTable中进行rangeQuery
-    public Map<K, V> rangeQuery(K startKey, K endKey) throws IOException {
+    // 如果meta data不完整，则需要从文件中读取
+    private void loadMetaIfAbsent() throws IOException {
+        if(this.maxKey.equals(new K()))
+            readMeta();
+    }
 
-        // 如果meta data不完整，则需要从文件中读取
-        if(this.maxKey.equals(new K())){
-            // 读Footer
-            long[] info = readFooter();
-            long zoneMapOffset = info[0];
-            long zoneMapLength = info[1];
-            this.zoneMapOffset = zoneMapOffset;
-            long bTreeRootOffset = info[4];
-            long indexBlockLength = info[5];
-
-            // 读zone map
-            readZoneMap(zoneMapOffset, zoneMapLength);
-
-            // 初始化index block
-            readIndexBlock(bTreeRootOffset, indexBlockLength);
+    // 不小于key的记录可能所在的第一个data block的偏移，key大于所有记录时返回data block部分的末尾
+    private long blockOffsetOf(K key){
+        if(this.formatVersion >= FORMAT_V2){
+            int i = this.indexBlock.find(key.serialize());
+            return i < 0 ? this.zoneMapOffset : this.indexBlock.offset(i);
         }
+        Long offset = this.bTree.leftSearch(key);
+        return offset == null ? 0 : offset;
+    }
 
-        Map<K, V> result = new TreeMap<>();
+    // 返回[startKey, endKey)范围内k-v的流式迭代器，范围与此SSTable的zone map不相交时返回null
+    // 迭代器使用独立的读通道，需在持有levelManager读锁时打开（保证文件未被compaction删除），打开后不再依赖锁
+    public SSTableIterator iterator(K startKey, K endKey) throws IOException {
+        loadMetaIfAbsent();
 
         // 1. 检查zone map
         if(startKey.compareTo(this.maxKey) > 0 || endKey.compareTo(this.minKey) <= 0)
-            return result;
+            return null;
 
         // 2. 通过index block 定位到startkey所在的data block
-        Long startOffset = this.bTree.leftSearch(startKey);
-        if(startOffset == null)
-            startOffset = 0l;
-
-        // 3. 确定扫描的上界
-        Long endOffset = this.bTree.leftSearch(endKey);
-        if(endOffset == null)
-            endOffset = 0l;
-        endOffset += Constant.MAX_DATA_BLOCK_SIZE;
-
-
-        // 4. 开始扫描
-        this.raf.seek(startOffset); // 首先定位到开始偏移
-        byte[] dataBlock = new byte[Constant.MAX_DATA_BLOCK_SIZE];
-        int dataBlockCount = (int) ((endOffset - startOffset) / Constant.MAX_DATA_BLOCK_SIZE); // 需要读取的data block数量
-        byte[] keyBuffer = new byte[Constant.MAX_KEY_LENGTH];
-        byte[] valueBuffer;
-        for(int i=0; i<dataBlockCount; i++){
-            raf.read(dataBlock); // 以data block为单位进行读取
-
-            int currentOffset = 0; // 指示当前data block的扫描进度
-            while(currentOffset + Integer.BYTES < Constant.MAX_DATA_BLOCK_SIZE){
-                int length = Constant.BYTES_TO_INT(dataBlock, currentOffset, Integer.BYTES); // 读kv总长度
-                currentOffset += Integer.BYTES;
-                if(length == 0)
-                    // length = 0说明读取的内容是补0的data block的空余部分，进入下一个data block
-                    continue;
+        long startOffset = blockOffsetOf(startKey);
+
+        int fileSuffix = Integer.parseInt(this.fileName.substring("SSTable".length()));
+        return new SSTableIterator(fileSuffix, startOffset, startKey, endKey, this.indexBlock);
+    }
+
+    // 在SSTable中进行rangeQuery，返回[startKey, endKey]范围内的k-v
+    public Map<K, V> rangeQuery(K startKey, K endKey) throws IOException {
+
+        loadMetaIfAbsent();
 
+        Map<K, V> result = new TreeMap<>();
+
+        // 1. 检查zone map
+        if(startKey.compareTo(this.maxKey) > 0 || endKey.compareTo(this.minKey) <= 0)
+            return result;
 
-                // 加载key
-                System.arraycopy(dataBlock, currentOffset, keyBuffer, 0, Constant.MAX_KEY_LENGTH);
-                K k = new K(keyBuffer);
+        // 2. 通过index block 定位到startkey所在的data block，从该data block开始顺序扫描
+        int fileSuffix = Integer.parseInt(this.fileName.substring("SSTable".length()));
+        DataBlockCursor cursor = new DataBlockCursor(fileSuffix, 0, blockOffsetOf(startKey), this.indexBlock);
+        try{
+            for(; cursor.isValid(); cursor.next()){
+                K k = new K(cursor.copyKey());
 
                 // 如果小于startKey，扫描下一个键值对
-                if(k.compareTo(startKey) < 0){
-                    currentOffset += length;
+                if(k.compareTo(startKey) < 0)
                     continue;
-                }
 
                 // 如果大于endKey，结束
                 if(endKey.compareTo(k) < 0)
                     break;
 
                 // 否则，加入返回结果集
-                valueBuffer = new byte[length - Constant.MAX_KEY_LENGTH];
-                System.arraycopy(dataBlock, currentOffset + Constant.MAX_KEY_LENGTH, valueBuffer, 0, valueBuffer.length);
-                V v = new V(valueBuffer);
-                result.put(k, v);
-
-                currentOffset += length;
+                result.put(k, new V(cursor.copyValue()));
             }
+        }finally {
+            cursor.close();
         }
 
-
         return result;
     }
 
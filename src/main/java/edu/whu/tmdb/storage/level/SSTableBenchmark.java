@@ -0,0 +1,83 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.memory.MemManager;
+import edu.whu.tmdb.storage.memory.Tuple;
+import edu.whu.tmdb.storage.memory.TupleCodec;
+import edu.whu.tmdb.storage.utils.Constant;
+import edu.whu.tmdb.storage.utils.K;
+import edu.whu.tmdb.storage.utils.V;
+
+import java.io.File;
+import java.util.Random;
+import java.util.TreeMap;
+
+// 不同压缩方式下SSTable的写入、随机点查与全表扫描耗时测试
+// 用法：SSTableBenchmark [tuple数量=200000] [点查次数=100000] [压缩方式列表=0,1,6,9]
+// 压缩方式含义见Constant.LEVEL_COMPRESSION；需在空目录下运行，数据写在当前目录的data/level/下
+// 点查不经过block cache，每次都读文件、校验并解压data block
+public class SSTableBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tupleCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int lookupCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        String[] compressions = (args.length > 2 ? args[2] : "0,1,6,9").split(",");
+
+        new File(Constant.DATABASE_DIR).mkdirs();
+
+        // 生成数据：类0中tupleId为i的tuple，字段为 i、从少量取值中选取的名字、一段半重复的描述
+        Random random = new Random(42);
+        String[] names = {"alice", "bob", "carol", "dave", "eve", "frank", "grace", "heidi"};
+        TreeMap<K, V> data = new TreeMap<>();
+        long rawBytes = 0;
+        for (int i = 0; i < tupleCount; i++) {
+            Tuple t = new Tuple();
+            t.tupleId = i;
+            t.tuple = new Object[]{(long) i, names[random.nextInt(names.length)],
+                    "order-" + random.nextInt(1000) + "-status-" + (random.nextBoolean() ? "shipped" : "pending")};
+            K key = MemManager.tupleKey(t.classId, t.tupleId);
+            V value = new V(TupleCodec.encode(t));
+            data.put(key, value);
+            rawBytes += key.serialize().length + value.valueBytes.length;
+        }
+        System.out.println("数据：" + tupleCount + "个tuple，k-v共" + rawBytes / 1024 + "KB");
+
+        for (int n = 0; n < compressions.length; n++) {
+            int compression = Integer.parseInt(compressions[n].trim());
+            String fileName = "SSTable" + (n + 1);
+
+            // 1. 写入
+            long t1 = System.nanoTime();
+            SSTable writer = new SSTable(fileName, 1);
+            writer.data = data;
+            long fileLength = writer.writeSSTable(compression);
+            writer.close();
+            long t2 = System.nanoTime();
+
+            // 2. 随机点查
+            SSTable reader = new SSTable(fileName, 3);
+            Random r = new Random(7);
+            long found = 0;
+            for (int i = 0; i < lookupCount; i++) {
+                V v = reader.search(MemManager.tupleKey(0, r.nextInt(tupleCount)));
+                if (v != null && v.valueBytes.length > 0)
+                    found++;
+            }
+            long t3 = System.nanoTime();
+
+            // 3. 全表扫描
+            long scanned = reader.rangeQuery(reader.getMinKey(), reader.getMaxKey()).size();
+            long t4 = System.nanoTime();
+            reader.close();
+
+            System.out.println("压缩方式" + compression + "：文件" + fileLength / 1024 + "KB（" + fileLength * 100 / rawBytes + "%）"
+                    + "，写入" + mbPerSecond(rawBytes, t2 - t1) + "MB/s"
+                    + "，点查" + (long) (lookupCount / ((t3 - t2) / 1e9)) + "次/s（命中" + found + "）"
+                    + "，扫描" + mbPerSecond(rawBytes, t4 - t3) + "MB/s（" + scanned + "条）");
+        }
+    }
+
+    private static long mbPerSecond(long bytes, long nanos) {
+        return (long) (bytes / 1024.0 / 1024.0 / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,20 @@
+package edu.whu.tmdb.storage.level;
+
+
+import java.io.IOException;
+
+// SSTable中的block校验失败（CRC32C不匹配或无法解压），说明文件已损坏
+public class SSTableCorruptionException extends IOException {
+
+    // 损坏的SSTable文件名、block类型与block在文件中的偏移
+    public final String fileName;
+    public final String blockType;
+    public final long offset;
+
+    public SSTableCorruptionException(String fileName, String blockType, long offset, String reason) {
+        super(fileName + ": " + blockType + " at offset " + offset + " is corrupted (" + reason + ")");
+        this.fileName = fileName;
+        this.blockType = blockType;
+        this.offset = offset;
+    }
+}
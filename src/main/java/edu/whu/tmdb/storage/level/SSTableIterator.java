@@ -0,0 +1,90 @@
+package edu.whu.tmdb.storage.level;
+
+
+import edu.whu.tmdb.storage.utils.K;
+import edu.whu.tmdb.storage.utils.V;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// 按key的顺序流式扫描一个SSTable中[startKey, endKey)范围内的k-v，一次只在内存中保留一个data block
+// 使用独立的读通道，打开后即使SSTable被compaction删除也能读完（文件句柄仍然有效）
+// 扫描到endKey或文件末尾时自动关闭读通道，提前停止时需调用close()
+public class SSTableIterator implements Iterator<Map.Entry<K, V>>, Closeable {
+
+    private final DataBlockCursor cursor;
+
+    private final K endKey;
+
+    // 下一条要返回的k-v，为null表示扫描结束
+    private Map.Entry<K, V> next;
+
+    private boolean closed = false;
+
+    SSTableIterator(int fileSuffix, long startOffset, K startKey, K endKey, IndexBlock indexBlock) throws IOException {
+        this.cursor = new DataBlockCursor(fileSuffix, 0, startOffset, indexBlock);
+        this.endKey = endKey;
+
+        // 跳过startKey所在data block中小于startKey的记录
+        try{
+            while(cursor.isValid()){
+                if(new K(cursor.copyKey()).compareTo(startKey) >= 0)
+                    break;
+                cursor.next();
+            }
+        }catch (IOException e){
+            close();
+            throw e;
+        }
+        fetch();
+    }
+
+    // 读取游标当前指向的记录，超出范围则关闭
+    private void fetch(){
+        if(!cursor.isValid()){
+            close();
+            return;
+        }
+        K k = new K(cursor.copyKey());
+        if(k.compareTo(endKey) >= 0){
+            close();
+            return;
+        }
+        next = new AbstractMap.SimpleImmutableEntry<>(k, new V(cursor.copyValue()));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+        if(next == null)
+            throw new NoSuchElementException();
+        Map.Entry<K, V> ret = next;
+        next = null;
+        try{
+            cursor.next();
+        }catch (IOException e){
+            close();
+            throw new UncheckedIOException(e);
+        }
+        fetch();
+        return ret;
+    }
+
+    @Override
+    public void close() {
+        next = null;
+        if(!closed){
+            closed = true;
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package edu.whu.tmdb.storage.level;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// 对level结构的一次修改，作为一条记录追加到manifest中（见Manifest）
+// 应用时先删除再加入，因此移动SSTable到其他level可以表示为删除 + 以新level加入
+// 编码为若干个 byte 标签 + 内容：
+// TAG_MAX_FILE_SUFFIX  int 已分配的最大文件后缀
+// TAG_DELETED_FILE     int 文件后缀
+// TAG_NEW_FILE         int 文件后缀 + byte level + long 文件大小 + int 长度 + 最小key + int 长度 + 最大key
+public class VersionEdit {
+
+    private static final byte TAG_MAX_FILE_SUFFIX = 1;
+    private static final byte TAG_DELETED_FILE = 2;
+    private static final byte TAG_NEW_FILE = 3;
+
+    // 已分配的最大文件后缀，-1表示不记录
+    public int maxFileSuffix = -1;
+
+    public final List<Integer> deletedFiles = new ArrayList<>();
+    public final List<FileMeta> newFiles = new ArrayList<>();
+
+    public void deleteFile(int fileSuffix){
+        this.deletedFiles.add(fileSuffix);
+    }
+
+    public void addFile(FileMeta file){
+        this.newFiles.add(file);
+    }
+
+    public byte[] encode(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            if(maxFileSuffix >= 0){
+                out.writeByte(TAG_MAX_FILE_SUFFIX);
+                out.writeInt(maxFileSuffix);
+            }
+            for(int fileSuffix : deletedFiles){
+                out.writeByte(TAG_DELETED_FILE);
+                out.writeInt(fileSuffix);
+            }
+            for(FileMeta file : newFiles){
+                out.writeByte(TAG_NEW_FILE);
+                out.writeInt(file.fileSuffix);
+                out.writeByte(file.level);
+                out.writeLong(file.size);
+                out.writeInt(file.smallest.length);
+                out.write(file.smallest);
+                out.writeInt(file.largest.length);
+                out.write(file.largest);
+            }
+        }catch (IOException e){
+            // ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static VersionEdit decode(byte[] payload) throws IOException {
+        VersionEdit edit = new VersionEdit();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        while(true){
+            int tag = in.read();
+            if(tag < 0)
+                return edit;
+            switch (tag){
+                case TAG_MAX_FILE_SUFFIX:
+                    edit.maxFileSuffix = in.readInt();
+                    break;
+                case TAG_DELETED_FILE:
+                    edit.deletedFiles.add(in.readInt());
+                    break;
+                case TAG_NEW_FILE: {
+                    int fileSuffix = in.readInt();
+                    int level = in.readByte();
+                    long size = in.readLong();
+                    byte[] smallest = readBytes(in);
+                    byte[] largest = readBytes(in);
+                    edit.newFiles.add(new FileMeta(fileSuffix, level, size, smallest, largest));
+                    break;
+                }
+                default:
+                    throw new IOException("unknown manifest tag " + tag);
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > in.available())
+            throw new EOFException("bad key length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
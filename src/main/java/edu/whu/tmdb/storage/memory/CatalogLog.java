@@ -0,0 +1,435 @@
+package edu.whu.tmdb.storage.memory;
+
+
+import edu.whu.tmdb.storage.index.IndexManager;
+import edu.whu.tmdb.storage.memory.SystemTable.*;
+import edu.whu.tmdb.storage.utils.Constant;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// 系统表的增量持久化日志（catalog日志）
+// 1. 系统表的增删通过各表的add/remove/removeIf记录到pending中，commit时只把这些变更追加到日志文件并force
+// 2. 启动时先加载系统表快照（ct、ot等文件），再重放日志；日志超过快照大小时compact：重写快照并清空日志
+// 3. 重放按集合语义执行（ADD已存在的表项、REMOVE不存在的表项都不改变结果，maxid取较大值），
+//    因此compact在快照替换后、清空日志前崩溃，重放旧日志也得到相同的系统表
+// 日志记录格式（与WAL相同的长度 + CRC32 + payload）：
+// int      payload长度
+// int      payload的CRC32
+// payload  byte 系统表 + byte 操作 + 表项（ADD/REMOVE）或 int maxid（MAX_ID）
+// 属性索引的索引项也记录在该日志中（INDEX_DATA），同一语句的索引项在对象表表项之前写入
+public class CatalogLog {
+
+    // 系统表
+    public static final byte OBJECT_TABLE = 1;
+    public static final byte CLASS_TABLE = 2;
+    public static final byte DEPUTY_TABLE = 3;
+    public static final byte BIPOINTER_TABLE = 4;
+    public static final byte SWITCHING_TABLE = 5;
+    public static final byte INDEX_TABLE = 6;
+
+    // 属性索引的索引项，表项为IndexManager.encodeEntry的编码
+    public static final byte INDEX_DATA = 7;
+
+    // 操作
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_MAX_ID = 3;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    // 快照文件名，与MemManager的save/load方法一致
+    private static final String[] SNAPSHOT_FILES = {"ot", "ct", "dt", "bpt", "st", "it"};
+
+    private final MemManager memManager;
+
+    private final File file = new File(Constant.SYSTEM_TABLE_DIR + "catalog");
+
+    private FileChannel channel;
+
+    // 日志文件大小，重放后为有效记录的末尾，-1表示未重放
+    private long size = -1;
+
+    // 快照文件的总大小，日志超过它（且超过Constant.CATALOG_LOG_MIN_COMPACT_SIZE）时compact
+    private long snapshotSize = 0;
+
+    // 尚未写入日志的变更
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    // 已持久化的maxid与maxTupleId，变化时才记录
+    private int persistedMaxClassId;
+    private int persistedMaxTupleId;
+
+    public CatalogLog(MemManager memManager) {
+        this.memManager = memManager;
+    }
+
+
+    // 记录表项的添加
+    public synchronized void added(byte table, Object item) {
+        appendPending(table, OP_ADD, encodeItem(item));
+    }
+
+    // 记录表项的删除
+    public synchronized void removed(byte table, Object item) {
+        appendPending(table, OP_REMOVE, encodeItem(item));
+    }
+
+    // 记录索引项的添加
+    public synchronized void indexAdded(int indexId, Comparable<?> key, int tupleId) {
+        appendPending(INDEX_DATA, OP_ADD, IndexManager.encodeEntry(indexId, key, tupleId));
+    }
+
+    // 记录索引项的删除
+    public synchronized void indexRemoved(int indexId, Comparable<?> key, int tupleId) {
+        appendPending(INDEX_DATA, OP_REMOVE, IndexManager.encodeEntry(indexId, key, tupleId));
+    }
+
+    // 将pending中的变更与maxid的变化追加到日志并force，日志过大时compact
+    public synchronized void commit() throws IOException {
+        open();
+        if (MemManager.classTable.maxid != persistedMaxClassId) {
+            appendPending(CLASS_TABLE, OP_MAX_ID, Constant.INT_TO_BYTES(MemManager.classTable.maxid));
+            persistedMaxClassId = MemManager.classTable.maxid;
+        }
+        if (MemManager.objectTable.maxTupleId != persistedMaxTupleId) {
+            appendPending(OBJECT_TABLE, OP_MAX_ID, Constant.INT_TO_BYTES(MemManager.objectTable.maxTupleId));
+            persistedMaxTupleId = MemManager.objectTable.maxTupleId;
+        }
+        if (pending.size() == 0) {
+            return;
+        }
+
+        ByteBuffer src = ByteBuffer.wrap(pending.toByteArray());
+        pending.reset();
+        while (src.hasRemaining()) {
+            size += channel.write(src, size);
+        }
+        channel.force(false);
+
+        if (size >= Math.max(Constant.CATALOG_LOG_MIN_COMPACT_SIZE, snapshotSize)) {
+            compact();
+        }
+    }
+
+    // 重写全部系统表快照并清空日志
+    public synchronized void compact() throws IOException {
+        open();
+        pending.reset();
+        memManager.saveSwitchingTable();
+        memManager.saveDeputyTable();
+        memManager.saveClassTable();
+        memManager.saveBiPointerTable();
+        memManager.saveObjectTable();
+        memManager.saveIndexTable();
+        MemManager.indexManager.saveAll();
+        persistedMaxClassId = MemManager.classTable.maxid;
+        persistedMaxTupleId = MemManager.objectTable.maxTupleId;
+
+        channel.truncate(0);
+        channel.force(true);
+        size = 0;
+        snapshotSize = snapshotSize();
+    }
+
+    // 启动时在加载系统表快照之后调用，重放日志中的变更
+    // 遇到不完整或校验失败的记录即停止，之后的内容在打开日志时被截掉
+    // 索引表重放完成后加载各索引的快照，再按顺序重放索引项
+    public synchronized void replay() throws IOException {
+        snapshotSize = snapshotSize();
+        persistedMaxClassId = MemManager.classTable.maxid;
+        persistedMaxTupleId = MemManager.objectTable.maxTupleId;
+        if (!file.exists()) {
+            MemManager.indexManager.load();
+            return;
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        long validEnd = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                records.add(payload);
+                validEnd += RECORD_HEADER_SIZE + payload.length;
+            }
+        }
+        size = validEnd;
+
+        // 每张表按表项的编码去重，保持原有顺序
+        Map<Byte, LinkedHashMap<ByteBuffer, Object>> tables = new LinkedHashMap<>();
+        List<byte[]> indexRecords = new ArrayList<>();
+        for (byte[] payload : records) {
+            byte table = payload[0];
+            byte op = payload[1];
+            if (table == INDEX_DATA) {
+                indexRecords.add(payload);
+                continue;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 2, payload.length - 2));
+            if (op == OP_MAX_ID) {
+                int maxId = in.readInt();
+                if (table == CLASS_TABLE) {
+                    MemManager.classTable.maxid = Math.max(MemManager.classTable.maxid, maxId);
+                } else if (table == OBJECT_TABLE) {
+                    MemManager.objectTable.maxTupleId = Math.max(MemManager.objectTable.maxTupleId, maxId);
+                }
+                continue;
+            }
+            LinkedHashMap<ByteBuffer, Object> items = tables.get(table);
+            if (items == null) {
+                items = new LinkedHashMap<>();
+                for (Object item : listOf(table)) {
+                    items.put(ByteBuffer.wrap(encodeItem(item)), item);
+                }
+                tables.put(table, items);
+            }
+            ByteBuffer key = ByteBuffer.wrap(payload, 2, payload.length - 2).slice();
+            if (op == OP_ADD) {
+                if (!items.containsKey(key)) {
+                    items.put(key, decodeItem(table, in));
+                }
+            } else if (op == OP_REMOVE) {
+                items.remove(key);
+            }
+        }
+        for (Map.Entry<Byte, LinkedHashMap<ByteBuffer, Object>> entry : tables.entrySet()) {
+            List<Object> list = listOf(entry.getKey());
+            list.clear();
+            list.addAll(entry.getValue().values());
+        }
+        MemManager.objectTable.rebuildIndex();
+        MemManager.classTable.rebuildIndex();
+        MemManager.biPointerTable.rebuildIndex();
+
+        MemManager.indexManager.load();
+        for (byte[] payload : indexRecords) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 2, payload.length - 2));
+            int indexId = in.readInt();
+            int tupleId = in.readInt();
+            MemManager.indexManager.apply(payload[1] == OP_ADD, indexId, IndexManager.readKey(in), tupleId);
+        }
+        persistedMaxClassId = MemManager.classTable.maxid;
+        persistedMaxTupleId = MemManager.objectTable.maxTupleId;
+        if (!records.isEmpty()) {
+            System.out.println("catalog日志重放" + records.size() + "条记录");
+        }
+    }
+
+
+    // 打开日志文件，截掉重放时发现的不完整尾部
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        if (size < 0) {
+            size = channel.size();
+        } else if (channel.size() != size) {
+            channel.truncate(size);
+        }
+    }
+
+    private void appendPending(byte table, byte op, byte[] item) {
+        int payloadSize = 2 + item.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadSize);
+        buffer.putInt(payloadSize);
+        buffer.putInt(0);
+        buffer.put(table);
+        buffer.put(op);
+        buffer.put(item);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER_SIZE, payloadSize);
+        buffer.putInt(4, (int) crc.getValue());
+        pending.write(buffer.array(), 0, buffer.capacity());
+    }
+
+    // 读取一条记录的payload，文件结束、记录不完整或校验失败时返回null
+    private static byte[] readRecord(DataInput in) throws IOException {
+        int payloadSize;
+        int crc;
+        byte[] payload;
+        try {
+            payloadSize = in.readInt();
+            crc = in.readInt();
+            if (payloadSize < 2 || payloadSize > MAX_PAYLOAD_SIZE) {
+                return null;
+            }
+            payload = new byte[payloadSize];
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 actual = new CRC32();
+        actual.update(payload, 0, payload.length);
+        if ((int) actual.getValue() != crc) {
+            return null;
+        }
+        return payload;
+    }
+
+    private long snapshotSize() {
+        long total = MemManager.indexManager.snapshotSize();
+        for (String name : SNAPSHOT_FILES) {
+            total += new File(Constant.SYSTEM_TABLE_DIR + name).length();
+        }
+        return total;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> listOf(byte table) {
+        switch (table) {
+            case OBJECT_TABLE:
+                return (List<Object>) (List<?>) MemManager.objectTable.objectTableList;
+            case CLASS_TABLE:
+                return (List<Object>) (List<?>) MemManager.classTable.classTableList;
+            case DEPUTY_TABLE:
+                return (List<Object>) (List<?>) MemManager.deputyTable.deputyTableList;
+            case BIPOINTER_TABLE:
+                return (List<Object>) (List<?>) MemManager.biPointerTable.biPointerTableList;
+            case SWITCHING_TABLE:
+                return (List<Object>) (List<?>) MemManager.switchingTable.switchingTableList;
+            case INDEX_TABLE:
+                return (List<Object>) (List<?>) MemManager.indexTable.indexTableList;
+            default:
+                throw new IllegalArgumentException("unknown system table: " + table);
+        }
+    }
+
+
+    // 表项的编码，字段与快照文件相同
+    static byte[] encodeItem(Object o) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (o instanceof ObjectTableItem) {
+                ObjectTableItem item = (ObjectTableItem) o;
+                out.writeInt(item.classid);
+                out.writeInt(item.tupleid);
+                out.writeInt(item.sstSuffix);
+            } else if (o instanceof ClassTableItem) {
+                ClassTableItem item = (ClassTableItem) o;
+                out.writeInt(item.classid);
+                out.writeInt(item.attrnum);
+                out.writeInt(item.attrid);
+                writeString(out, item.classname);
+                writeString(out, item.attrname);
+                writeString(out, item.attrtype);
+                writeString(out, item.classtype);
+                writeString(out, item.alias);
+            } else if (o instanceof DeputyTableItem) {
+                DeputyTableItem item = (DeputyTableItem) o;
+                out.writeInt(item.originid);
+                out.writeInt(item.deputyid);
+                out.writeInt(item.deputyrule.length);
+                for (String rule : item.deputyrule) {
+                    writeString(out, rule);
+                }
+            } else if (o instanceof BiPointerTableItem) {
+                BiPointerTableItem item = (BiPointerTableItem) o;
+                out.writeInt(item.classid);
+                out.writeInt(item.objectid);
+                out.writeInt(item.deputyid);
+                out.writeInt(item.deputyobjectid);
+            } else if (o instanceof SwitchingTableItem) {
+                SwitchingTableItem item = (SwitchingTableItem) o;
+                out.writeInt(item.oriId);
+                out.writeInt(item.oriAttrid);
+                out.writeInt(item.deputyId);
+                out.writeInt(item.deputyAttrId);
+                writeString(out, item.rule);
+            } else if (o instanceof IndexTableItem) {
+                IndexTableItem item = (IndexTableItem) o;
+                out.writeInt(item.indexid);
+                out.writeInt(item.classid);
+                out.writeInt(item.attrid);
+                writeString(out, item.indexname);
+                writeString(out, item.attrname);
+                writeString(out, item.attrtype);
+            } else {
+                throw new IllegalArgumentException("not a system table item: " + o);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object decodeItem(byte table, DataInput in) throws IOException {
+        switch (table) {
+            case OBJECT_TABLE: {
+                ObjectTableItem item = new ObjectTableItem(in.readInt(), in.readInt());
+                item.sstSuffix = in.readInt();
+                return item;
+            }
+            case CLASS_TABLE: {
+                ClassTableItem item = new ClassTableItem();
+                item.classid = in.readInt();
+                item.attrnum = in.readInt();
+                item.attrid = in.readInt();
+                item.classname = in.readUTF();
+                item.attrname = in.readUTF();
+                item.attrtype = in.readUTF();
+                item.classtype = in.readUTF();
+                item.alias = in.readUTF();
+                return item;
+            }
+            case DEPUTY_TABLE: {
+                DeputyTableItem item = new DeputyTableItem();
+                item.originid = in.readInt();
+                item.deputyid = in.readInt();
+                item.deputyrule = new String[in.readInt()];
+                for (int i = 0; i < item.deputyrule.length; i++) {
+                    item.deputyrule[i] = in.readUTF();
+                }
+                return item;
+            }
+            case BIPOINTER_TABLE:
+                return new BiPointerTableItem(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            case SWITCHING_TABLE: {
+                SwitchingTableItem item = new SwitchingTableItem();
+                item.oriId = in.readInt();
+                item.oriAttrid = in.readInt();
+                item.deputyId = in.readInt();
+                item.deputyAttrId = in.readInt();
+                item.rule = in.readUTF();
+                return item;
+            }
+            case INDEX_TABLE: {
+                IndexTableItem item = new IndexTableItem();
+                item.indexid = in.readInt();
+                item.classid = in.readInt();
+                item.attrid = in.readInt();
+                item.indexname = in.readUTF();
+                item.attrname = in.readUTF();
+                item.attrtype = in.readUTF();
+                return item;
+            }
+            default:
+                throw new IllegalArgumentException("unknown system table: " + table);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeUTF(s == null ? "" : s);
+    }
+}
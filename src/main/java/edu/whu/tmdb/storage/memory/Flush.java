@@ -1,69 +1,113 @@
 package edu.whu.tmdb.storage.memory;
 
 
+import edu.whu.tmdb.storage.level.FileMeta;
 import edu.whu.tmdb.storage.level.SSTable;
+import edu.whu.tmdb.storage.level.VersionEdit;
+import edu.whu.tmdb.storage.utils.Constant;
 import edu.whu.tmdb.storage.utils.K;
 import edu.whu.tmdb.storage.utils.V;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 // 多线程开启flush
-public class Flush{
+// 由MemManager的后台flush线程执行，将一个不可变memTable写成level-0的SSTable
+public class Flush implements Runnable{
 
-    // 数据
-    private TreeMap<K, V> memTable;
+    // 数据（不可变memTable，flush期间仍对查询可见）
+    private ConcurrentSkipListMap<K, V> memTable;
 
     // 文件名后缀
-    private int dataFileSuffix;
+    private int dataFileSuffix = -1;
 
     private MemManager memManager;
 
+    // 切换memTable时的日志偏移，之前的日志对应的数据都在此memTable或更早的memTable中
+    private long logOffset;
 
-    public Flush(int dataFileSuffix, MemManager memManager){
-        this.dataFileSuffix = dataFileSuffix;
-        this.memManager = memManager;
 
-        // 开启新的memTable
-        this.memTable = memManager.memTable;
-        memManager.memTable = new TreeMap<>();
+    public Flush(ConcurrentSkipListMap<K, V> immutableMemTable, MemManager memManager, long logOffset){
+        this.memTable = immutableMemTable;
+        this.memManager = memManager;
+        this.logOffset = logOffset;
+    }
 
-        // 内存清空
-        memManager.clearMem();
+    public int getDataFileSuffix() {
+        return dataFileSuffix;
     }
 
+    @Override
     public void run() {
 
         long t1 = System.currentTimeMillis();
 
+        // 获取最新dataFileSuffix并+1
+        // flush线程是单线程的，因此后缀的大小顺序与memTable的新旧顺序一致
+        memManager.levelManager.rwLock.writeLock().lock();
+        try{
+            this.dataFileSuffix = memManager.levelManager.addFileSuffix();
+        }finally {
+            memManager.levelManager.rwLock.writeLock().unlock();
+        }
+
         // 生成SSTable对象，将内存中的对象以k-v的形式转移到FileData中
+        // 写SSTable文件时不持有锁，查询仍可以从不可变memTable中读到这些数据
         SSTable sst= new SSTable("SSTable" + dataFileSuffix, 1);
         sst.data = this.memTable;
 
         // 写SSTable
         long SSTableTotalSize = sst.writeSSTable();
+        sst.data = new TreeMap<>(); // 注意清理缓存中sst的数据块，只缓存meta block，否则占用太多内存
+
+        // 将该SSTable添加到level-0中，并追加到manifest
+        // 写manifest失败时重试：不可变memTable保留，数据仍可查询；flush线程是单线程的，成功前后续flush不会执行
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(new FileMeta(dataFileSuffix, 0, SSTableTotalSize, sst.getMinKey().serialize(), sst.getMaxKey().serialize()));
+        boolean oldest;
+        while(true){
+            memManager.levelManager.rwLock.writeLock().lock();
+            try{
+                memManager.levelManager.logAndApply(edit);
+
+                // 将该SSTable添加到缓存中（同时关闭写通道、打开读通道）
+                this.memManager.cacheManager.metaCache.add(sst);
+
+                // SSTable已对查询可见，此时才能移除不可变memTable
+                oldest = memManager.removeImmutableMemTable(this.memTable);
+                break;
+            }catch (IOException e){
+                e.printStackTrace();
+            }finally {
+                memManager.levelManager.rwLock.writeLock().unlock();
+            }
+
+            try{
+                Thread.sleep(Constant.FLUSH_RETRY_INTERVAL_MS);
+            }catch (InterruptedException e){
+                // 关闭时中断：不设置检查点，重启后由日志恢复
+                Thread.currentThread().interrupt();
+                sst.close();
+                return;
+            }
+        }
 
-        // 将该SSTable添加到对应level中
-        memManager.levelManager.level_0.add(dataFileSuffix);
-
-        // 将该SSTable添加到缓存中
-        this.memManager.cacheManager.metaCache.add(sst);
-        sst.data.clear(); // 注意清理缓存中sst的数据块，只缓存meta block，否则占用太多内存
-
-        // 将该SSTable添加到levelManager中
-        // levelInfo 的结构  dataFileSuffix : level-length-minKey-maxKey
-        memManager.levelManager.levelInfo.put("" + dataFileSuffix, "0" + "-" + SSTableTotalSize + "-" + sst.getMinKey() + "-" + sst.getMaxKey());
+        // 此memTable之前的数据都已写入SSTable，manifest记录已force，即可设置日志检查点，删除不再需要的日志段
+        // 还有更旧的memTable未flush时不设置，检查点不能越过未flush的数据
+        if(oldest)
+            memManager.logManager.setCheckpoint(logOffset);
 
         long t2 = System.currentTimeMillis();
 
-        // 判断是否触发级联compaction
+        // 判断是否触发级联compaction，compaction在后台线程池中执行，不阻塞flush线程
         try{
             memManager.levelManager.autoCompaction();
         }catch (Exception e){
             e.printStackTrace();
         }
 
-
     }
 }
@@ -1,11 +1,12 @@
 package edu.whu.tmdb.storage.memory;
 
-import com.alibaba.fastjson2.JSONObject;
 
 import edu.whu.tmdb.Log.LogManager;
+import edu.whu.tmdb.storage.index.IndexManager;
 import edu.whu.tmdb.storage.cache.CacheManager;
 import edu.whu.tmdb.storage.level.LevelManager;
 import edu.whu.tmdb.storage.level.SSTable;
+import edu.whu.tmdb.storage.level.SSTableIterator;
 import edu.whu.tmdb.storage.memory.Flush;
 import edu.whu.tmdb.storage.memory.SystemTable.*;
 import edu.whu.tmdb.storage.utils.Constant;
@@ -15,17 +16,53 @@ import edu.whu.tmdb.util.FileOperation;
 import org.apache.lucene.util.RamUsageEstimator;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 public class MemManager {
-    // 数据表
-    public TreeMap<K, V> memTable = new TreeMap<>();
+    // 数据表（活跃memTable），使用跳表支持无锁的并发读写
+    public volatile ConcurrentSkipListMap<K, V> memTable = new ConcurrentSkipListMap<>();
+
+    // 已写满、等待后台flush的不可变memTable，从旧到新排列，flush完成前对查询仍然可见
+    public final ConcurrentLinkedDeque<ConcurrentSkipListMap<K, V>> immutableMemTables = new ConcurrentLinkedDeque<>();
 
     // 当前数据表占用内存大小
-    private int currentMemSize = 0;
+    private final AtomicLong currentMemSize = new AtomicLong(0);
+
+    // 写入memTable时持有读锁（允许并发写入），切换memTable时持有写锁，保证切换后不会再有数据写入旧memTable
+    private final ReadWriteLock memTableLock = new ReentrantReadWriteLock();
+
+    // 按key分段的写入锁：同一个key的写日志、写memTable与写缓存在同一把锁内完成，
+    // 保证memTable中的最终值与日志中该key最后一条记录一致，redo后恢复出相同的值
+    private final Object[] writeLocks = new Object[Constant.WRITE_LOCK_STRIPES];
+    {
+        for(int i = 0; i < writeLocks.length; i++)
+            writeLocks[i] = new Object();
+    }
+
+    // 后台flush线程，单线程保证SSTable按memTable的新旧顺序进入level-0
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "tmdb-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 存在该文件表示tuple使用新格式的key（见tupleKey）
+    private static final String TUPLE_KEY_FORMAT_FILE = "tuple_key_v2";
 
     // 系统表
     public static ObjectTable objectTable = new ObjectTable();
@@ -33,6 +70,13 @@ public class MemManager {
     public static DeputyTable deputyTable = new DeputyTable();
     public static BiPointerTable biPointerTable = new BiPointerTable();
     public static SwitchingTable switchingTable = new SwitchingTable();
+    public static IndexTable indexTable = new IndexTable();
+
+    // 属性索引
+    public static IndexManager indexManager = new IndexManager();
+
+    // 系统表的增量持久化日志
+    public CatalogLog catalogLog = new CatalogLog(this);
 
     // 日志管理
     public LogManager logManager = new LogManager(this);
@@ -55,6 +99,21 @@ public class MemManager {
                 if (instance == null) { // 第二次检查
                     instance = new MemManager();
                     levelManager.cacheManager = cacheManager;
+                    // 重启时将检查点之后的日志重新写入memTable并flush
+                    try{
+                        instance.logManager.redo();
+                    }catch (IOException e){
+                        e.printStackTrace();
+                    }
+                    // 旧版本数据库的tuple key迁移为新格式
+                    instance.migrateTupleKeys();
+                    // 按redo重放的tuple补上索引项并写入catalog日志，快照缺失的索引重建
+                    try{
+                        indexManager.recover(instance);
+                        instance.catalogLog.commit();
+                    }catch (IOException e){
+                        e.printStackTrace();
+                    }
                 }
             }
         }
@@ -69,9 +128,19 @@ public class MemManager {
             throw new RuntimeException("Use getInstance() method to get the single instance of this class.");
         }
 
+        objectTable.catalog = catalogLog;
+        classTable.catalog = catalogLog;
+        deputyTable.catalog = catalogLog;
+        biPointerTable.catalog = catalogLog;
+        switchingTable.catalog = catalogLog;
+        indexTable.catalog = catalogLog;
+        indexManager.catalog = catalogLog;
+
         File f = new File(Constant.SYSTEM_TABLE_DIR);
         if(!f.exists()){
+            // 新建的数据库直接使用新格式的tuple key
             f.mkdirs();
+            FileOperation.createNewFile(new File(Constant.SYSTEM_TABLE_DIR + TUPLE_KEY_FORMAT_FILE));
             return;
         }
 
@@ -81,6 +150,8 @@ public class MemManager {
             loadClassTable();
             loadBiPointerTable();
             loadObjectTable();
+            loadIndexTable();
+            catalogLog.replay();
         }catch (Exception e){
             e.printStackTrace();
         }
@@ -99,81 +170,224 @@ public class MemManager {
         }
     }
 
-    // 持久化保存所有数据
+    // 持久化保存所有数据：重写系统表快照，并flush所有memTable
     public void saveAll(){
         try{
-            saveSwitchingTable();
-            saveDeputyTable();
-            saveClassTable();
-            saveBiPointerTable();
-            saveObjectTable();
+            catalogLog.compact();
         }catch (Exception e){
             e.printStackTrace();
         }
 
-        if(this.memTable.size() != 0)
-            saveMemTableToFile();
+        // 持久化时需要等待所有memTable（包括之前已切换的不可变memTable）flush完成
+        saveMemTableToFile();
         this.levelManager.saveMetaToFile();
     }
 
+    // 每条修改语句执行完成后调用：日志落盘后，只把系统表变更的表项追加到catalog日志
+    // 数据的持久性由日志保证，不再重写系统表，也不flush memTable
+    public void commit(){
+        try{
+            logManager.flush();
+            catalogLog.commit();
+        }catch (Exception e){
+            e.printStackTrace();
+        }
+    }
+
 
     // 往MemManager中添加对象
     public void add(Object o){
         if(o instanceof ObjectTableItem){
-            objectTable.objectTableList.add((ObjectTableItem) o);
+            objectTable.add((ObjectTableItem) o);
         }else if(o instanceof BiPointerTableItem){
-            biPointerTable.biPointerTableList.add((BiPointerTableItem) o);
+            biPointerTable.add((BiPointerTableItem) o);
         }else if(o instanceof ClassTableItem){
-            classTable.classTableList.add((ClassTableItem) o);
+            classTable.add((ClassTableItem) o);
         }else if(o instanceof DeputyTableItem){
-            deputyTable.deputyTableList.add((DeputyTableItem) o);
+            deputyTable.add((DeputyTableItem) o);
         }else if(o instanceof SwitchingTableItem){
-            switchingTable.switchingTableList.add((SwitchingTableItem) o);
+            switchingTable.add((SwitchingTableItem) o);
+        }else if(o instanceof IndexTableItem){
+            indexTable.add((IndexTableItem) o);
         }else if(o instanceof Tuple){
-            //先写日志
-            K k = new K("t" + ((Tuple) o).tupleId);
-            V v = new V(JSONObject.toJSONString((Tuple) o));
-            logManager.WriteLog(k.key, (byte) 0, v.valueString);
-            this.memTable.put(k, v);
-            this.currentMemSize += k.key.length() + v.valueString.length();
-
-            // 加入缓存
-            cacheManager.dataCache.put(k, v);
-
-            // 如果内存数据大小超过限制则开始compaction
-            if(this.currentMemSize > Constant.MAX_MEM_SIZE){
+            K k = tupleKey(((Tuple) o).classId, ((Tuple) o).tupleId);
+            V v = new V(TupleCodec.encode((Tuple) o));
+            put(k, v, true);
+        }
+    }
+
+
+    // tuple的key："c" + 7位十六进制classId + 8位十六进制tupleId，共Constant.MAX_KEY_LENGTH个字符
+    // 同一个类的tuple占据连续的key范围[classStartKey(classId), classStartKey(classId + 1))，并按tupleId升序排列
+    public static K tupleKey(int classId, int tupleId){
+        char[] key = new char[Constant.MAX_KEY_LENGTH];
+        key[0] = 'c';
+        writeHex(key, 1, 7, classId);
+        writeHex(key, 8, 8, tupleId);
+        return new K(new String(key));
+    }
+
+    // 类的key范围的起始key
+    public static K classStartKey(int classId){
+        return tupleKey(classId, 0);
+    }
+
+    // 从tuple的key中解析tupleId
+    public static int tupleIdOf(K key){
+        return (int) Long.parseLong(key.key.substring(8, 16), 16);
+    }
+
+    private static void writeHex(char[] key, int offset, int width, int value){
+        for(int i = offset + width - 1; i >= offset; i--){
+            key[i] = Character.forDigit(value & 0xF, 16);
+            value >>>= 4;
+        }
+    }
+
+    // 旧版本的tuple key为 "t" + tupleId，打开数据库时按对象表中的classId迁移为新格式的key
+    // 迁移写入日志，完成后创建TUPLE_KEY_FORMAT_FILE；中途崩溃时重新迁移，结果相同
+    // 每个旧key在新key写入日志后写入删除标记，compaction时旧数据被覆盖，不会占用两份空间
+    private void migrateTupleKeys(){
+        File marker = new File(Constant.SYSTEM_TABLE_DIR + TUPLE_KEY_FORMAT_FILE);
+        if(marker.exists())
+            return;
+
+        long count = 0;
+        try(MergeIterator iterator = rangeIterator(new K("t"), new K("u"))){
+            while(iterator.hasNext()){
+                Map.Entry<K, V> entry = iterator.next();
+                int tupleId;
                 try{
-                    saveMemTableToFile();
-                }catch (Exception e){
-                    e.printStackTrace();
+                    tupleId = Integer.parseInt(entry.getKey().key.substring(1).trim());
+                }catch (NumberFormatException e){
+                    continue;
+                }
+                // 不在对象表中的tuple已被删除，只写删除标记
+                int classId = objectTable.getClassIdByTupleId(tupleId);
+                if(classId >= 0){
+                    put(tupleKey(classId, tupleId), entry.getValue(), true);
+                    count++;
                 }
+                Tuple tombstone = new Tuple();
+                tombstone.tupleId = tupleId;
+                tombstone.classId = Math.max(classId, 0);
+                tombstone.delete = true;
+                put(entry.getKey(), new V(TupleCodec.encode(tombstone)), true);
             }
         }
+        logManager.flush();
+        FileOperation.createNewFile(marker);
+        if(count > 0)
+            System.out.println("tuple key迁移：" + count + "个tuple");
     }
 
 
-    // 清空内存中的数据
-    void clearMem(){
-        this.currentMemSize = 0;
-        this.memTable.clear();
+    // redo时将日志中的k-v直接写入memTable，不再编码tuple，也不再写日志，可由多个线程并发调用
+    public void replay(K k, V v){
+        put(k, v, false);
+        indexManager.replayTuple(k);
     }
 
 
-    // 将内存中的数据持久化保存
-    public int saveMemTableToFile(){
+    // 写入一个k-v，writeLog为false时不写日志
+    private void put(K k, V v, boolean writeLog){
+        // level-0堆积过多时暂停写入，等待后台compaction
+        levelManager.compactionScheduler.awaitWriteAllowed();
+
+        long memSize;
+        memTableLock.readLock().lock();
+        try{
+            int h = k.hashCode();
+            synchronized (writeLocks[(h ^ (h >>> 16)) & (writeLocks.length - 1)]){
+                //先写日志，与写入memTable在同一把读锁内，保证切换memTable时记录的日志偏移之前的数据都在旧memTable中
+                if(writeLog)
+                    logManager.WriteLog(k.key, (byte) 0, v.valueBytes);
+                this.memTable.put(k, v);
+
+                // 加入缓存
+                cacheManager.dataCache.put(k, v);
+            }
+            memSize = this.currentMemSize.addAndGet(k.key.length() + v.length());
+        }finally {
+            memTableLock.readLock().unlock();
+        }
 
-        if (this.memTable.size() == 0) {
-            return -1;
+        // 如果内存数据大小超过限制，则切换为不可变memTable并交给后台线程flush，写入线程不再等待
+        if(memSize > Constant.MAX_MEM_SIZE){
+            waitForImmutableMemTableSlot();
+            switchMemTable(false);
         }
+    }
 
-        // 获取最新dataFileSuffix并+1
-        int dataFileSuffix = levelManager.addFileSuffix();
 
-        // 开启flush
-        Flush flush = new Flush(dataFileSuffix, this);
-        flush.run();
+    // 将活跃memTable切换为不可变memTable，并提交后台flush
+    // force为false时，只有memTable仍超过大小限制才切换（避免多个写入线程重复切换）
+    // 返回对应的flush任务，memTable为空时返回null
+    private Flush switchMemTable(boolean force){
+        memTableLock.writeLock().lock();
+        try{
+            if(this.memTable.isEmpty())
+                return null;
+            if(!force && this.currentMemSize.get() <= Constant.MAX_MEM_SIZE)
+                return null;
+
+            ConcurrentSkipListMap<K, V> immutableMemTable = this.memTable;
+            this.immutableMemTables.addLast(immutableMemTable);
+            this.memTable = new ConcurrentSkipListMap<>();
+            this.currentMemSize.set(0);
+
+            Flush flush = new Flush(immutableMemTable, this, logManager.getCurrentOffset());
+            flushExecutor.submit(flush);
+            return flush;
+        }finally {
+            memTableLock.writeLock().unlock();
+        }
+    }
+
 
-        return dataFileSuffix;
+    // 不可变memTable堆积过多（后台flush跟不上写入速度）时，阻塞写入直到有flush完成
+    private void waitForImmutableMemTableSlot(){
+        synchronized (this.immutableMemTables){
+            while(this.immutableMemTables.size() >= Constant.MAX_IMMUTABLE_MEMTABLE_COUNT){
+                try{
+                    this.immutableMemTables.wait();
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+
+    // flush完成、对应SSTable已加入level-0后，由Flush调用以移除不可变memTable
+    // 返回移除的是否为最旧的不可变memTable，否则还有更旧的数据未flush，日志检查点不能前移
+    boolean removeImmutableMemTable(ConcurrentSkipListMap<K, V> immutableMemTable){
+        synchronized (this.immutableMemTables){
+            boolean oldest = this.immutableMemTables.peekFirst() == immutableMemTable;
+            this.immutableMemTables.remove(immutableMemTable);
+            this.immutableMemTables.notifyAll();
+            return oldest;
+        }
+    }
+
+
+    // 将内存中的数据持久化保存，阻塞直到所有memTable都flush完成
+    // 返回最后一个flush生成的SSTable后缀，没有数据需要flush时返回-1
+    public int saveMemTableToFile(){
+
+        Flush flush = switchMemTable(true);
+
+        // flush线程是单线程的，提交一个空任务并等待，即可保证之前提交的flush全部完成
+        try{
+            flushExecutor.submit(() -> {}).get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }catch (ExecutionException e){
+            e.printStackTrace();
+        }
+
+        return flush == null ? -1 : flush.getDataFileSuffix();
     }
 
 
@@ -190,7 +404,17 @@ public class MemManager {
         if(memResult != null)
             return memResult;
 
+        // 查等待flush的不可变memTable，从新到旧
+        Iterator<ConcurrentSkipListMap<K, V>> iterator = this.immutableMemTables.descendingIterator();
+        while(iterator.hasNext()){
+            memResult = iterator.next().get(key);
+            if(memResult != null)
+                return memResult;
+        }
+
         // 从level-0 依次往底层查找直到找到
+        // 持有读锁，防止查询期间后台compaction删除正在读取的SSTable
+        levelManager.rwLock.readLock().lock();
         try{
             for(int i = 0; i<=Constant.MAX_LEVEL; i++){
                 ArrayList<Integer> arrayList = new ArrayList<>(levelManager.levels[i]);
@@ -202,8 +426,13 @@ public class MemManager {
                     // 从缓存中获取SSTable，获取不到再去读磁盘
                     SSTable sst = this.cacheManager.metaCache.get(suffix);
 
-                    // 查询一个SSTable
-                    V diskResult = sst.search(key);
+                    // 查询一个SSTable，查询结束后释放引用
+                    V diskResult;
+                    try{
+                        diskResult = sst.search(key);
+                    }finally {
+                        sst.release();
+                    }
 
                     // search的结果为null表示key不在zone map的范围内，则跳过该SSTable，查询该层的下一个
                     if(diskResult == null)
@@ -227,6 +456,8 @@ public class MemManager {
             }
         }catch (Exception e){
             e.printStackTrace();
+        }finally {
+            levelManager.rwLock.readLock().unlock();
         }
 
         // 如果所有SSTable中都没有，则返回null
@@ -234,68 +465,88 @@ public class MemManager {
     }
 
 
-    // 范围查询，两个参数分别表示 开始key 和 结束key
-    public Map<K, V> rangeQuery(K startKey, K endKey){
-        Map<K, V> result = new TreeMap<>();
+    // 范围查询，返回[startKey, endKey)内所有未删除的k-v，按key升序惰性产生
+    // 归并活跃memTable、不可变memTable和各层SSTable，新版本覆盖旧版本，最新版本为删除标记的key被跳过
+    // dataCache中只是最近读写的k-v的副本，其中的版本不会比memTable与SSTable中更新，因此不需要参与归并
+    // 迭代结束时自动关闭，提前停止时需调用close()释放SSTable的读通道
+    public MergeIterator rangeIterator(K startKey, K endKey){
+        List<Iterator<Map.Entry<K, V>>> inputs = new ArrayList<>();
 
         // 输入参数有问题，返回空
         if(startKey == null || endKey == null || startKey.compareTo(endKey) >= 0)
-            return result;
+            return new MergeIterator(inputs);
 
-//        // 1. 查缓存
-//        Map<K, V> m1 = this.cacheManager.dataCache.cachedData.subMap(startKey, endKey);
-//        result.putAll(m1);
+        // 持有读锁，使收集到的memTable与SSTable是一致的：
+        // flush在写锁下把SSTable加入level-0并移除对应的不可变memTable，compaction在写锁下替换SSTable
+        // 先取活跃memTable再取不可变memTable，期间发生切换时同一memTable最多被归并两次，不会遗漏
+        levelManager.rwLock.readLock().lock();
+        try{
+            // 1. 活跃memTable
+            inputs.add(this.memTable.subMap(startKey, endKey).entrySet().iterator());
 
-//        // 2. 查内存表
-//        Map<K, V> m2 = this.memTable.subMap(startKey, endKey);
-//        for(Map.Entry<K, V> entry : m2.entrySet()){
-//            // 内存表中数据的优先程度不如缓存，缓存中一定是最新的，因此有重叠的部分保留缓存中的抛弃内存中的
-//            if(!result.containsKey(entry.getKey()))
-//                result.put(entry.getKey(), entry.getValue());
-//        }
+            // 2. 不可变memTable，从新到旧
+            Iterator<ConcurrentSkipListMap<K, V>> iterator = this.immutableMemTables.descendingIterator();
+            while(iterator.hasNext()){
+                inputs.add(iterator.next().subMap(startKey, endKey).entrySet().iterator());
+            }
 
-        // 3. 查SSTable
-        // 从level-0 依次往底层查找直到找到
-        try{
+            // 3. SSTable，从level-0 依次往底层，level-0中从新到旧
             for(int i = 0; i<=Constant.MAX_LEVEL; i++){
                 ArrayList<Integer> arrayList = new ArrayList<>(levelManager.levels[i]);
                 for(int j=arrayList.size()-1; j>=0; j--){
-                    Integer suffix = arrayList.get(j);
-                    // i ：level
-                    // j : fileSuffix
-                    SSTable sst = this.cacheManager.metaCache.get(suffix);
-
-                    // 查询一个SSTable
-                    Map<K, V> m3 = sst.rangeQuery(startKey, endKey);
-
-                    // 由于遍历SSTable时是按照新到旧的顺序，因此此处采用如下的淘汰策略
-                    for(Map.Entry<K, V> entry : m3.entrySet()){
-                        if(!result.containsKey(entry.getKey()))
-                            result.put(entry.getKey(), entry.getValue());
+                    // 迭代器使用独立的读通道，打开后即可释放SSTable的引用
+                    SSTable sst = this.cacheManager.metaCache.get(arrayList.get(j));
+                    SSTableIterator sstIterator;
+                    try{
+                        sstIterator = sst.iterator(startKey, endKey);
+                    }finally {
+                        sst.release();
                     }
+                    if(sstIterator != null)
+                        inputs.add(sstIterator);
                 }
             }
-        }catch (Exception e){
-            e.printStackTrace();
+        }catch (IOException e){
+            for(Iterator<Map.Entry<K, V>> input : inputs){
+                if(input instanceof SSTableIterator)
+                    ((SSTableIterator) input).close();
+            }
+            throw new UncheckedIOException(e);
+        }finally {
+            levelManager.rwLock.readLock().unlock();
         }
 
-//        // 更新缓存
-//        for(Map.Entry<K, V> entry : result.entrySet()){
-//            this.cacheManager.dataCache.put(entry.getKey(), entry.getValue());
-//        }
+        return new MergeIterator(inputs);
+    }
+
 
+    // 范围查询，两个参数分别表示 开始key 和 结束key，返回[startKey, endKey)内所有未删除的k-v
+    // 结果全部放在内存中，范围较大时应使用rangeIterator
+    public Map<K, V> rangeQuery(K startKey, K endKey){
+        Map<K, V> result = new TreeMap<>();
+        try(MergeIterator iterator = rangeIterator(startKey, endKey)){
+            while(iterator.hasNext()){
+                Map.Entry<K, V> entry = iterator.next();
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
         return result;
     }
 
 
+    // 系统表快照先写入临时文件并落盘，再原子替换，写到一半时崩溃不会留下不完整的快照
+    private static void replaceSnapshot(File tmp, String name) throws IOException {
+        Files.move(tmp.toPath(), new File(Constant.SYSTEM_TABLE_DIR + name).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     // BiPointerTableItem 有四个int属性
     // classid  objectid deputyid  deputyobjectid
     public void saveBiPointerTable() throws IOException {
-        File f = new File(Constant.SYSTEM_TABLE_DIR + "bpt");
-        if (!f.exists()) {
-            f.createNewFile();
-        }
-        BufferedOutputStream writeAccess = new BufferedOutputStream(new FileOutputStream(f));
+        File f = new File(Constant.SYSTEM_TABLE_DIR + "bpt.tmp");
+        FileOperation.createNewFile(f);
+        FileOutputStream out = new FileOutputStream(f);
+        BufferedOutputStream writeAccess = new BufferedOutputStream(out);
         for(BiPointerTableItem item : this.biPointerTable.biPointerTableList){
             // 存classid
             writeAccess.write(Constant.INT_TO_BYTES(item.classid));
@@ -307,7 +558,9 @@ public class MemManager {
             writeAccess.write(Constant.INT_TO_BYTES(item.deputyobjectid));
         }
         writeAccess.flush();
+        out.getFD().sync();
         writeAccess.close();
+        replaceSnapshot(f, "bpt");
     }
 
     public void loadBiPointerTable() throws IOException {
@@ -324,6 +577,7 @@ public class MemManager {
             this.biPointerTable.biPointerTableList.add(item);
             cur += Integer.BYTES * 4;
         }
+        this.biPointerTable.rebuildIndex();
     }
 
 
@@ -338,11 +592,10 @@ public class MemManager {
     // String   classtype
     // String   alias
     public void saveClassTable() throws IOException {
-        File f = new File(Constant.SYSTEM_TABLE_DIR + "ct");
-        if (!f.exists()) {
-            f.createNewFile();
-        }
-        BufferedOutputStream writeAccess = new BufferedOutputStream(new FileOutputStream(f));
+        File f = new File(Constant.SYSTEM_TABLE_DIR + "ct.tmp");
+        FileOperation.createNewFile(f);
+        FileOutputStream out = new FileOutputStream(f);
+        BufferedOutputStream writeAccess = new BufferedOutputStream(out);
 
         // 存maxClassId
         writeAccess.write(Constant.INT_TO_BYTES(this.classTable.maxid));
@@ -377,7 +630,9 @@ public class MemManager {
             writeAccess.write(item.alias.getBytes());
         }
         writeAccess.flush();
+        out.getFD().sync();
         writeAccess.close();
+        replaceSnapshot(f, "ct");
     }
 
     public void loadClassTable() throws IOException {
@@ -437,6 +692,7 @@ public class MemManager {
 
             this.classTable.classTableList.add(item);
         }
+        this.classTable.rebuildIndex();
     }
 
     // DeputyTableItem 有以下属性
@@ -444,11 +700,10 @@ public class MemManager {
     // int deputyid
     // String[] deputyrule
     public void saveDeputyTable() throws IOException {
-        File f = new File(Constant.SYSTEM_TABLE_DIR + "dt");
-        if(!f.exists()) {
-            f.createNewFile();
-        }
-        BufferedOutputStream writeAccess = new BufferedOutputStream(new FileOutputStream(f));
+        File f = new File(Constant.SYSTEM_TABLE_DIR + "dt.tmp");
+        FileOperation.createNewFile(f);
+        FileOutputStream out = new FileOutputStream(f);
+        BufferedOutputStream writeAccess = new BufferedOutputStream(out);
         for(DeputyTableItem item : this.deputyTable.deputyTableList){
             // 存originid
             writeAccess.write(Constant.INT_TO_BYTES(item.originid));
@@ -462,7 +717,9 @@ public class MemManager {
             }
         }
         writeAccess.flush();
+        out.getFD().sync();
         writeAccess.close();
+        replaceSnapshot(f, "dt");
     }
 
     public void loadDeputyTable() throws IOException {
@@ -506,9 +763,10 @@ public class MemManager {
     // int deputyAttrId
     // String rule = ""
     public void saveSwitchingTable() throws IOException {
-        File f = new File(Constant.SYSTEM_TABLE_DIR + "st");
+        File f = new File(Constant.SYSTEM_TABLE_DIR + "st.tmp");
         FileOperation.createNewFile(f);
-        BufferedOutputStream writeAccess = new BufferedOutputStream(new FileOutputStream(f));
+        FileOutputStream out = new FileOutputStream(f);
+        BufferedOutputStream writeAccess = new BufferedOutputStream(out);
         for(SwitchingTableItem item: this.switchingTable.switchingTableList){
             // 存oriclassid
             writeAccess.write(Constant.INT_TO_BYTES(item.oriId));
@@ -527,7 +785,9 @@ public class MemManager {
             writeAccess.write(item.rule.getBytes());
         }
         writeAccess.flush();
+        out.getFD().sync();
         writeAccess.close();
+        replaceSnapshot(f, "st");
     }
 
     public void loadSwitchingTable() throws IOException {
@@ -575,23 +835,27 @@ public class MemManager {
     // int tupleid
     // int sstSuffix
     public void saveObjectTable() throws IOException {
-        File f = new File(Constant.SYSTEM_TABLE_DIR + "ot");
+        File f = new File(Constant.SYSTEM_TABLE_DIR + "ot.tmp");
         FileOperation.createNewFile(f);
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        FileOutputStream out = new FileOutputStream(f);
+        DataOutputStream writeAccess = new DataOutputStream(new BufferedOutputStream(out));
 
         // 用int记录maxTupleId
-        raf.writeInt(this.objectTable.maxTupleId);
+        writeAccess.writeInt(this.objectTable.maxTupleId);
 
         // 依次存每个ObjectTableItem
         for(ObjectTableItem item : this.objectTable.objectTableList){
             // 存classid
-            raf.writeInt(item.classid);
+            writeAccess.writeInt(item.classid);
             // 存tupleid
-            raf.writeInt(item.tupleid);
+            writeAccess.writeInt(item.tupleid);
             // 存sstSuffix
-            raf.writeInt(item.sstSuffix);
+            writeAccess.writeInt(item.sstSuffix);
         }
-        raf.close();
+        writeAccess.flush();
+        out.getFD().sync();
+        writeAccess.close();
+        replaceSnapshot(f, "ot");
     }
 
     public void loadObjectTable() throws IOException {
@@ -621,6 +885,61 @@ public class MemManager {
 
             objectTable.objectTableList.add(item);
         }
+        objectTable.rebuildIndex();
+    }
+
+    // IndexTableItem有以下属性
+    // int      indexid
+    // int      classid
+    // int      attrid
+    // String   indexname
+    // String   attrname
+    // String   attrtype
+    // String前用一个int存其字节长度
+    public void saveIndexTable() throws IOException {
+        File f = new File(Constant.SYSTEM_TABLE_DIR + "it.tmp");
+        FileOperation.createNewFile(f);
+        FileOutputStream out = new FileOutputStream(f);
+        BufferedOutputStream writeAccess = new BufferedOutputStream(out);
+        for(IndexTableItem item : indexTable.indexTableList){
+            writeAccess.write(Constant.INT_TO_BYTES(item.indexid));
+            writeAccess.write(Constant.INT_TO_BYTES(item.classid));
+            writeAccess.write(Constant.INT_TO_BYTES(item.attrid));
+            for(String str : new String[]{item.indexname, item.attrname, item.attrtype}){
+                byte[] bytes = str.getBytes();
+                writeAccess.write(Constant.INT_TO_BYTES(bytes.length));
+                writeAccess.write(bytes);
+            }
+        }
+        writeAccess.flush();
+        out.getFD().sync();
+        writeAccess.close();
+        replaceSnapshot(f, "it");
+    }
+
+    public void loadIndexTable() throws IOException {
+        File f = new File(Constant.SYSTEM_TABLE_DIR + "it");
+        if(!f.exists()){
+            return;
+        }
+        try(RandomAccessFile raf = new RandomAccessFile(f, "r")){
+            while(raf.getFilePointer() < raf.length()){
+                IndexTableItem item = new IndexTableItem();
+                item.indexid = raf.readInt();
+                item.classid = raf.readInt();
+                item.attrid = raf.readInt();
+                String[] strs = new String[3];
+                for(int i = 0; i < strs.length; i++){
+                    byte[] buffer = new byte[raf.readInt()];
+                    raf.readFully(buffer);
+                    strs[i] = new String(buffer);
+                }
+                item.indexname = strs[0];
+                item.attrname = strs[1];
+                item.attrtype = strs[2];
+                indexTable.indexTableList.add(item);
+            }
+        }
     }
 
 }
@@ -0,0 +1,105 @@
+package edu.whu.tmdb.storage.memory;
+
+
+import edu.whu.tmdb.storage.utils.K;
+import edu.whu.tmdb.storage.utils.V;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+// 多路归并迭代器，按key升序合并多个各自有序的k-v迭代器
+// 1. 输入按从新到旧的顺序给出，相同key只返回最新的版本，旧版本被跳过
+// 2. 最新版本是删除标记的key不返回
+// 3. 逐条惰性产生结果，内存占用只与输入的个数有关，调用方可以随时停止
+// 所有输入耗尽时自动关闭，提前停止时需调用close()关闭输入（如SSTable的读通道）
+public class MergeIterator implements Iterator<Map.Entry<K, V>>, Closeable {
+
+    // 一路输入及其当前k-v
+    private static class Source {
+        final Iterator<Map.Entry<K, V>> iterator;
+
+        // 越小表示数据越新
+        final int priority;
+
+        Map.Entry<K, V> current;
+
+        Source(Iterator<Map.Entry<K, V>> iterator, int priority){
+            this.iterator = iterator;
+            this.priority = priority;
+        }
+    }
+
+    private final List<? extends Iterator<Map.Entry<K, V>>> inputs;
+
+    // 先按key升序，key相同时更新的版本排在前面
+    private final PriorityQueue<Source> heap = new PriorityQueue<>((a, b) -> {
+        int c = a.current.getKey().compareTo(b.current.getKey());
+        return c != 0 ? c : Integer.compare(a.priority, b.priority);
+    });
+
+    // 下一条要返回的k-v，为null时需要继续归并
+    private Map.Entry<K, V> next;
+
+    public MergeIterator(List<? extends Iterator<Map.Entry<K, V>>> inputs){
+        this.inputs = inputs;
+        for(int i = 0; i < inputs.size(); i++){
+            advance(new Source(inputs.get(i), i));
+        }
+    }
+
+    // 输入前进一条，仍有数据则放回堆中
+    private void advance(Source source){
+        if(source.iterator.hasNext()){
+            source.current = source.iterator.next();
+            heap.add(source);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(next == null && !heap.isEmpty()){
+            Source top = heap.poll();
+            Map.Entry<K, V> entry = top.current;
+
+            // 丢弃其他输入中相同key的旧版本
+            while(!heap.isEmpty() && heap.peek().current.getKey().equals(entry.getKey())){
+                advance(heap.poll());
+            }
+            advance(top);
+
+            if(!TupleCodec.isDeleted(entry.getValue().valueBytes))
+                next = entry;
+        }
+        if(next == null)
+            close();
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        Map.Entry<K, V> ret = next;
+        next = null;
+        return ret;
+    }
+
+    @Override
+    public void close() {
+        heap.clear();
+        for(Iterator<Map.Entry<K, V>> input : inputs){
+            if(input instanceof Closeable){
+                try{
+                    ((Closeable) input).close();
+                }catch (IOException e){
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
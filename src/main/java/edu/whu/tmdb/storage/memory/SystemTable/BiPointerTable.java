@@ -1,9 +1,84 @@
 package edu.whu.tmdb.storage.memory.SystemTable;
 
+import edu.whu.tmdb.storage.memory.CatalogLog;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class BiPointerTable implements Serializable {
     public List<BiPointerTableItem> biPointerTableList = new ArrayList<>();
+
+    // 源类id -> (代理类id -> 表项数量)，代理类按第一次出现的顺序排列
+    // 表项的增删都需通过add/remove/removeIf以保持同步，直接修改biPointerTableList后需调用rebuildIndex
+    private final Map<Integer, LinkedHashMap<Integer, Integer>> deputyIndex = new HashMap<>();
+
+    // 记录表项增删的catalog日志，为null时不记录
+    public transient CatalogLog catalog;
+
+    // 添加表项并记录到catalog日志
+    public void add(BiPointerTableItem item){
+        biPointerTableList.add(item);
+        indexAdd(item);
+        if(catalog != null)
+            catalog.added(CatalogLog.BIPOINTER_TABLE, item);
+    }
+
+    // 删除与item相等的第一个表项并记录到catalog日志
+    public boolean remove(BiPointerTableItem item){
+        int index = biPointerTableList.indexOf(item);
+        if(index < 0)
+            return false;
+        BiPointerTableItem removed = biPointerTableList.remove(index);
+        indexRemove(removed);
+        if(catalog != null)
+            catalog.removed(CatalogLog.BIPOINTER_TABLE, removed);
+        return true;
+    }
+
+    // 删除满足条件的表项并记录到catalog日志
+    public void removeIf(Predicate<BiPointerTableItem> filter){
+        Iterator<BiPointerTableItem> iter = biPointerTableList.iterator();
+        while(iter.hasNext()){
+            BiPointerTableItem item = iter.next();
+            if(filter.test(item)){
+                iter.remove();
+                indexRemove(item);
+                if(catalog != null)
+                    catalog.removed(CatalogLog.BIPOINTER_TABLE, item);
+            }
+        }
+    }
+
+    // 按biPointerTableList重建索引，用于从文件加载之后
+    public void rebuildIndex(){
+        deputyIndex.clear();
+        for(BiPointerTableItem item : this.biPointerTableList){
+            indexAdd(item);
+        }
+    }
+
+    // 源类对应的所有代理类id，没有时返回空列表
+    public List<Integer> getDeputyIds(int classid){
+        Map<Integer, Integer> deputies = deputyIndex.get(classid);
+        return deputies == null ? new ArrayList<>() : new ArrayList<>(deputies.keySet());
+    }
+
+    private void indexAdd(BiPointerTableItem item){
+        deputyIndex.computeIfAbsent(item.classid, k -> new LinkedHashMap<>()).merge(item.deputyid, 1, Integer::sum);
+    }
+
+    private void indexRemove(BiPointerTableItem item){
+        Map<Integer, Integer> deputies = deputyIndex.get(item.classid);
+        if(deputies == null)
+            return;
+        deputies.computeIfPresent(item.deputyid, (k, count) -> count == 1 ? null : count - 1);
+        if(deputies.isEmpty())
+            deputyIndex.remove(item.classid);
+    }
 }
@@ -1,16 +1,143 @@
 package edu.whu.tmdb.storage.memory.SystemTable;
 
+import edu.whu.tmdb.storage.memory.CatalogLog;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class ClassTable implements Serializable {
     public List<ClassTableItem> classTableList = new ArrayList<>();
     public int maxid = 0;
 
+    // 表项的增删都需通过add/remove/removeIf以保持索引同步，直接修改classTableList后需调用rebuildIndex
+    // 类名 -> 类id，同名时保留classTableList中最先出现的类
+    private final Map<String, Integer> classIdIndex = new HashMap<>();
+    // 类id -> 该类的表项，按classTableList中的顺序
+    private final Map<Integer, List<ClassTableItem>> classItemIndex = new HashMap<>();
+    // 类id -> (属性名 -> 属性id)，同名属性保留最先出现的
+    private final Map<Integer, Map<String, Integer>> attrIdIndex = new HashMap<>();
+
+    // 记录表项增删的catalog日志，为null时不记录
+    public transient CatalogLog catalog;
+
+    // 添加表项并记录到catalog日志
+    public void add(ClassTableItem item){
+        classTableList.add(item);
+        indexAdd(item);
+        if(catalog != null)
+            catalog.added(CatalogLog.CLASS_TABLE, item);
+    }
+
+    // 删除与item相等的第一个表项并记录到catalog日志
+    public boolean remove(ClassTableItem item){
+        int index = classTableList.indexOf(item);
+        if(index < 0)
+            return false;
+        ClassTableItem removed = classTableList.remove(index);
+        indexRemove(removed);
+        if(catalog != null)
+            catalog.removed(CatalogLog.CLASS_TABLE, removed);
+        return true;
+    }
+
+    // 删除满足条件的表项并记录到catalog日志
+    public void removeIf(Predicate<ClassTableItem> filter){
+        Iterator<ClassTableItem> iter = classTableList.iterator();
+        while(iter.hasNext()){
+            ClassTableItem item = iter.next();
+            if(filter.test(item)){
+                iter.remove();
+                indexRemove(item);
+                if(catalog != null)
+                    catalog.removed(CatalogLog.CLASS_TABLE, item);
+            }
+        }
+    }
+
     public void clear(){
         classTableList.clear();
+        classIdIndex.clear();
+        classItemIndex.clear();
+        attrIdIndex.clear();
         maxid = 0;
     }
+
+    // 按classTableList重建索引，用于从文件加载之后
+    public void rebuildIndex(){
+        classIdIndex.clear();
+        classItemIndex.clear();
+        attrIdIndex.clear();
+        for(ClassTableItem item : this.classTableList){
+            indexAdd(item);
+        }
+    }
+
+    // 类名对应的类id，不存在时返回-1
+    public int getClassId(String classname){
+        Integer classid = classIdIndex.get(classname);
+        return classid == null ? -1 : classid;
+    }
+
+    // 类的所有表项（只读），不存在时返回空列表
+    public List<ClassTableItem> getClassItems(int classid){
+        List<ClassTableItem> items = classItemIndex.get(classid);
+        return items == null ? Collections.<ClassTableItem>emptyList() : Collections.unmodifiableList(items);
+    }
+
+    // 类中属性名对应的属性id，不存在时返回-1
+    public int getAttrId(int classid, String attrname){
+        Map<String, Integer> attrs = attrIdIndex.get(classid);
+        Integer attrid = attrs == null ? null : attrs.get(attrname);
+        return attrid == null ? -1 : attrid;
+    }
+
+    private void indexAdd(ClassTableItem item){
+        classIdIndex.putIfAbsent(item.classname, item.classid);
+        classItemIndex.computeIfAbsent(item.classid, k -> new ArrayList<>()).add(item);
+        attrIdIndex.computeIfAbsent(item.classid, k -> new HashMap<>()).putIfAbsent(item.attrname, item.attrid);
+    }
+
+    private void indexRemove(ClassTableItem item){
+        List<ClassTableItem> items = classItemIndex.get(item.classid);
+        if(items == null)
+            return;
+        // 索引中与classTableList中是同一个对象，按引用删除
+        Iterator<ClassTableItem> iter = items.iterator();
+        while(iter.hasNext()){
+            if(iter.next() == item){
+                iter.remove();
+                break;
+            }
+        }
+        if(items.isEmpty()){
+            classItemIndex.remove(item.classid);
+            attrIdIndex.remove(item.classid);
+            if(classIdIndex.remove(item.classname, item.classid)){
+                // 同名的其他类（如果有）接替
+                for(ClassTableItem other : this.classTableList){
+                    if(other.classname.equals(item.classname)){
+                        classIdIndex.put(other.classname, other.classid);
+                        break;
+                    }
+                }
+            }
+            return;
+        }
+        Map<String, Integer> attrs = attrIdIndex.get(item.classid);
+        if(attrs.remove(item.attrname, item.attrid)){
+            for(ClassTableItem other : items){
+                if(other.attrname.equals(item.attrname)){
+                    attrs.put(other.attrname, other.attrid);
+                    break;
+                }
+            }
+        }
+    }
 }
 
@@ -1,12 +1,50 @@
 package edu.whu.tmdb.storage.memory.SystemTable;
 
+import edu.whu.tmdb.storage.memory.CatalogLog;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class DeputyTable implements Serializable {
     public List<DeputyTableItem> deputyTableList = new ArrayList<>();
 
+    // 记录表项增删的catalog日志，为null时不记录
+    public transient CatalogLog catalog;
+
+    // 添加表项并记录到catalog日志
+    public void add(DeputyTableItem item){
+        deputyTableList.add(item);
+        if(catalog != null)
+            catalog.added(CatalogLog.DEPUTY_TABLE, item);
+    }
+
+    // 删除与item相等的第一个表项并记录到catalog日志
+    public boolean remove(DeputyTableItem item){
+        int index = deputyTableList.indexOf(item);
+        if(index < 0)
+            return false;
+        DeputyTableItem removed = deputyTableList.remove(index);
+        if(catalog != null)
+            catalog.removed(CatalogLog.DEPUTY_TABLE, removed);
+        return true;
+    }
+
+    // 删除满足条件的表项并记录到catalog日志
+    public void removeIf(Predicate<DeputyTableItem> filter){
+        Iterator<DeputyTableItem> iter = deputyTableList.iterator();
+        while(iter.hasNext()){
+            DeputyTableItem item = iter.next();
+            if(filter.test(item)){
+                iter.remove();
+                if(catalog != null)
+                    catalog.removed(CatalogLog.DEPUTY_TABLE, item);
+            }
+        }
+    }
+
     public void clear(){
         deputyTableList.clear();
     }
@@ -0,0 +1,69 @@
+package edu.whu.tmdb.storage.memory.SystemTable;
+
+import edu.whu.tmdb.storage.memory.CatalogLog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+// 属性索引表，每个表项是一个类属性上的有序索引，索引的数据由IndexManager维护
+public class IndexTable implements Serializable {
+    public List<IndexTableItem> indexTableList = new ArrayList<>();
+
+    // 记录表项增删的catalog日志，为null时不记录
+    public transient CatalogLog catalog;
+
+    // 添加表项并记录到catalog日志
+    public void add(IndexTableItem item){
+        indexTableList.add(item);
+        if(catalog != null)
+            catalog.added(CatalogLog.INDEX_TABLE, item);
+    }
+
+    // 删除满足条件的表项并记录到catalog日志
+    public void removeIf(Predicate<IndexTableItem> filter){
+        Iterator<IndexTableItem> iter = indexTableList.iterator();
+        while(iter.hasNext()){
+            IndexTableItem item = iter.next();
+            if(filter.test(item)){
+                iter.remove();
+                if(catalog != null)
+                    catalog.removed(CatalogLog.INDEX_TABLE, item);
+            }
+        }
+    }
+
+    // 类上的所有索引
+    public List<IndexTableItem> getIndexes(int classid){
+        List<IndexTableItem> result = new ArrayList<>();
+        for(IndexTableItem item : indexTableList){
+            if(item.classid == classid)
+                result.add(item);
+        }
+        return result;
+    }
+
+    // 按索引名查找，不存在时返回null
+    public IndexTableItem getIndex(String indexname){
+        for(IndexTableItem item : indexTableList){
+            if(item.indexname.equals(indexname))
+                return item;
+        }
+        return null;
+    }
+
+    // 新索引的id，比现有索引的id都大
+    public int nextIndexId(){
+        int max = 0;
+        for(IndexTableItem item : indexTableList){
+            max = Math.max(max, item.indexid);
+        }
+        return max + 1;
+    }
+
+    public void clear(){
+        indexTableList.clear();
+    }
+}
@@ -0,0 +1,45 @@
+package edu.whu.tmdb.storage.memory.SystemTable;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class IndexTableItem implements Serializable {
+    public int indexid = 0;         // 索引id
+    public String indexname = "";   // 索引名
+    public int classid = 0;         // 建立索引的类id
+    public int attrid = 0;          // 属性id（属性在类中的位置）
+    public String attrname = "";    // 属性名
+    public String attrtype = "";    // 属性类型，决定索引键的比较方式
+
+
+    public IndexTableItem() {}
+
+    public IndexTableItem(int indexid, String indexname, int classid, int attrid, String attrname, String attrtype) {
+        this.indexid = indexid;
+        this.indexname = indexname;
+        this.classid = classid;
+        this.attrid = attrid;
+        this.attrname = attrname;
+        this.attrtype = attrtype;
+    }
+
+    @Override
+    public boolean equals(Object object){
+        if (this == object) { return true; }
+        if (!(object instanceof IndexTableItem)) {
+            return false;
+        }
+        IndexTableItem oi = (IndexTableItem) object;
+        return this.indexid == oi.indexid
+                && this.classid == oi.classid
+                && this.attrid == oi.attrid
+                && Objects.equals(this.indexname, oi.indexname)
+                && Objects.equals(this.attrname, oi.attrname)
+                && Objects.equals(this.attrtype, oi.attrtype);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(indexid, indexname, classid, attrid, attrname, attrtype);
+    }
+}
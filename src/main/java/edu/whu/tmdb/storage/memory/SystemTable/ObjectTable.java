@@ -1,23 +1,77 @@
 package edu.whu.tmdb.storage.memory.SystemTable;
 
+import edu.whu.tmdb.storage.memory.CatalogLog;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class ObjectTable implements Serializable {
     public List<ObjectTableItem> objectTableList = new ArrayList<>();
     public int maxTupleId = 0;
+
+    // tupleId -> classId，表项的增删都需通过add/remove/removeIf以保持同步，直接修改objectTableList后需调用rebuildIndex
+    private final Map<Integer, Integer> classIdIndex = new HashMap<>();
+
+    // 记录表项增删的catalog日志，为null时不记录
+    public transient CatalogLog catalog;
+
+    // 添加表项并记录到catalog日志
+    public void add(ObjectTableItem item){
+        objectTableList.add(item);
+        classIdIndex.put(item.tupleid, item.classid);
+        if(catalog != null)
+            catalog.added(CatalogLog.OBJECT_TABLE, item);
+    }
+
+    // 删除与item相等的第一个表项并记录到catalog日志
+    public boolean remove(ObjectTableItem item){
+        int index = objectTableList.indexOf(item);
+        if(index < 0)
+            return false;
+        ObjectTableItem removed = objectTableList.remove(index);
+        classIdIndex.remove(removed.tupleid, removed.classid);
+        if(catalog != null)
+            catalog.removed(CatalogLog.OBJECT_TABLE, removed);
+        return true;
+    }
+
+    // 删除满足条件的表项并记录到catalog日志
+    public void removeIf(Predicate<ObjectTableItem> filter){
+        Iterator<ObjectTableItem> iter = objectTableList.iterator();
+        while(iter.hasNext()){
+            ObjectTableItem item = iter.next();
+            if(filter.test(item)){
+                iter.remove();
+                classIdIndex.remove(item.tupleid, item.classid);
+                if(catalog != null)
+                    catalog.removed(CatalogLog.OBJECT_TABLE, item);
+            }
+        }
+    }
+
     public void clear(){
         objectTableList.clear();
+        classIdIndex.clear();
         maxTupleId = 0;
     }
 
-    public int getClassIdByTupleId(int tupleId){
+    // 按objectTableList重建索引，用于从文件加载之后
+    public void rebuildIndex(){
+        classIdIndex.clear();
         for(ObjectTableItem item : this.objectTableList){
-            if(item.tupleid == tupleId)
-                return item.classid;
+            classIdIndex.putIfAbsent(item.tupleid, item.classid);
         }
-        return -1;
+    }
+
+    // 不存在时返回-1
+    public int getClassIdByTupleId(int tupleId){
+        Integer classId = classIdIndex.get(tupleId);
+        return classId == null ? -1 : classId;
     }
 }
 
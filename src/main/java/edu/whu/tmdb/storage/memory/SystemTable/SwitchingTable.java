@@ -1,10 +1,48 @@
 package edu.whu.tmdb.storage.memory.SystemTable;
 
+import edu.whu.tmdb.storage.memory.CatalogLog;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class SwitchingTable implements Serializable {
     public List<SwitchingTableItem> switchingTableList = new ArrayList<>();
 
+    // 记录表项增删的catalog日志，为null时不记录
+    public transient CatalogLog catalog;
+
+    // 添加表项并记录到catalog日志
+    public void add(SwitchingTableItem item){
+        switchingTableList.add(item);
+        if(catalog != null)
+            catalog.added(CatalogLog.SWITCHING_TABLE, item);
+    }
+
+    // 删除与item相等的第一个表项并记录到catalog日志
+    public boolean remove(SwitchingTableItem item){
+        int index = switchingTableList.indexOf(item);
+        if(index < 0)
+            return false;
+        SwitchingTableItem removed = switchingTableList.remove(index);
+        if(catalog != null)
+            catalog.removed(CatalogLog.SWITCHING_TABLE, removed);
+        return true;
+    }
+
+    // 删除满足条件的表项并记录到catalog日志
+    public void removeIf(Predicate<SwitchingTableItem> filter){
+        Iterator<SwitchingTableItem> iter = switchingTableList.iterator();
+        while(iter.hasNext()){
+            SwitchingTableItem item = iter.next();
+            if(filter.test(item)){
+                iter.remove();
+                if(catalog != null)
+                    catalog.removed(CatalogLog.SWITCHING_TABLE, item);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,315 @@
+package edu.whu.tmdb.storage.memory;
+
+
+import com.alibaba.fastjson2.JSON;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Tuple的二进制行格式编解码，memTable、SSTable、日志和缓存中存储的都是此格式
+// 格式（version 1）：
+// byte     格式版本FORMAT_BINARY_V1
+// byte     标志位，bit0为删除位
+// varint   tupleId、classId、tupleSize（zigzag编码）
+// varint   字段数量+1（0表示tuple为null）
+// byte[]   null bitmap，共(字段数量+7)/8字节，第i位为1表示第i个字段为null
+// 每个非null字段：1字节类型 + 数据
+//          TYPE_INT      zigzag varint
+//          TYPE_LONG     zigzag varlong
+//          TYPE_DOUBLE   8字节
+//          TYPE_FLOAT    4字节
+//          TYPE_BOOLEAN  1字节
+//          TYPE_STRING   varint长度 + UTF-8字节（其他类型的字段按toString()存为字符串）
+// byte     tupleIds的存储方式：TUPLE_IDS_NULL、TUPLE_IDS_FILLED（全部等于tupleId，即setTuple生成的形式）、TUPLE_IDS_EXPLICIT
+//          TUPLE_IDS_EXPLICIT时再存 varint长度 + 每个元素的zigzag varint
+// 旧版本以fastjson的JSON字符串存储，以'{'开头，decode时按JSON解析
+public final class TupleCodec {
+
+    // 二进制格式版本号，不能与JSON的首字符'{'冲突
+    public static final byte FORMAT_BINARY_V1 = 1;
+
+    private static final byte FLAG_DELETE = 1;
+
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_DOUBLE = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING = 6;
+
+    private static final byte TUPLE_IDS_NULL = 0;
+    private static final byte TUPLE_IDS_FILLED = 1;
+    private static final byte TUPLE_IDS_EXPLICIT = 2;
+
+    private TupleCodec() {}
+
+
+    // 将tuple编码为二进制行格式
+    public static byte[] encode(Tuple t) {
+        Writer w = new Writer(32 + (t.tuple == null ? 0 : t.tuple.length * 8));
+        w.writeByte(FORMAT_BINARY_V1);
+        w.writeByte(t.delete ? FLAG_DELETE : 0);
+        w.writeVarInt(t.tupleId);
+        w.writeVarInt(t.classId);
+        w.writeVarInt(t.tupleSize);
+
+        // 字段
+        if (t.tuple == null) {
+            w.writeVarInt(0);
+        } else {
+            int n = t.tuple.length;
+            w.writeVarInt(n + 1);
+            byte[] nullBitmap = new byte[(n + 7) / 8];
+            for (int i = 0; i < n; i++) {
+                if (t.tuple[i] == null) {
+                    nullBitmap[i >> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            w.writeBytes(nullBitmap, 0, nullBitmap.length);
+            for (Object o : t.tuple) {
+                if (o != null) {
+                    writeField(w, o);
+                }
+            }
+        }
+
+        // tupleIds
+        if (t.tupleIds == null) {
+            w.writeByte(TUPLE_IDS_NULL);
+        } else if (isFilledWith(t.tupleIds, t.tupleId)) {
+            w.writeByte(TUPLE_IDS_FILLED);
+            w.writeVarInt(t.tupleIds.length);
+        } else {
+            w.writeByte(TUPLE_IDS_EXPLICIT);
+            w.writeVarInt(t.tupleIds.length);
+            for (int id : t.tupleIds) {
+                w.writeVarInt(id);
+            }
+        }
+        return w.toByteArray();
+    }
+
+
+    // 将二进制行格式（或旧版本的JSON字符串）解码为tuple
+    public static Tuple decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != FORMAT_BINARY_V1) {
+            // 旧数据：fastjson编码的JSON字符串
+            return JSON.parseObject(new String(bytes), Tuple.class);
+        }
+
+        Reader r = new Reader(bytes, 1);
+        Tuple t = new Tuple();
+        t.delete = (r.readByte() & FLAG_DELETE) != 0;
+        t.tupleId = r.readVarInt();
+        t.classId = r.readVarInt();
+        t.tupleSize = r.readVarInt();
+
+        // 字段
+        int n = r.readVarInt() - 1;
+        if (n >= 0) {
+            int bitmapStart = r.pos;
+            r.pos += (n + 7) / 8;
+            t.tuple = new Object[n];
+            for (int i = 0; i < n; i++) {
+                boolean isNull = (bytes[bitmapStart + (i >> 3)] & (1 << (i & 7))) != 0;
+                if (!isNull) {
+                    t.tuple[i] = readField(r);
+                }
+            }
+        }
+
+        // tupleIds
+        byte tupleIdsMode = r.readByte();
+        if (tupleIdsMode == TUPLE_IDS_FILLED) {
+            t.tupleIds = new int[r.readVarInt()];
+            Arrays.fill(t.tupleIds, t.tupleId);
+        } else if (tupleIdsMode == TUPLE_IDS_EXPLICIT) {
+            t.tupleIds = new int[r.readVarInt()];
+            for (int i = 0; i < t.tupleIds.length; i++) {
+                t.tupleIds[i] = r.readVarInt();
+            }
+        }
+        return t;
+    }
+
+
+    // 是否为删除标记，二进制格式直接读取标志位，不解码整行
+    public static boolean isDeleted(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return false;
+        }
+        if (bytes[0] != FORMAT_BINARY_V1) {
+            Tuple t = decode(bytes);
+            return t != null && t.delete;
+        }
+        return (bytes[1] & FLAG_DELETE) != 0;
+    }
+
+
+    private static void writeField(Writer w, Object o) {
+        if (o instanceof Integer) {
+            w.writeByte(TYPE_INT);
+            w.writeVarInt((Integer) o);
+        } else if (o instanceof Long) {
+            w.writeByte(TYPE_LONG);
+            w.writeVarLong((Long) o);
+        } else if (o instanceof Double) {
+            w.writeByte(TYPE_DOUBLE);
+            w.writeFixedLong(Double.doubleToLongBits((Double) o));
+        } else if (o instanceof Float) {
+            w.writeByte(TYPE_FLOAT);
+            w.writeFixedInt(Float.floatToIntBits((Float) o));
+        } else if (o instanceof Boolean) {
+            w.writeByte(TYPE_BOOLEAN);
+            w.writeByte((Boolean) o ? (byte) 1 : (byte) 0);
+        } else {
+            byte[] str = o.toString().getBytes(StandardCharsets.UTF_8);
+            w.writeByte(TYPE_STRING);
+            w.writeVarInt(str.length);
+            w.writeBytes(str, 0, str.length);
+        }
+    }
+
+    private static Object readField(Reader r) {
+        byte type = r.readByte();
+        switch (type) {
+            case TYPE_INT:
+                return r.readVarInt();
+            case TYPE_LONG:
+                return r.readVarLong();
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(r.readFixedLong());
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat(r.readFixedInt());
+            case TYPE_BOOLEAN:
+                return r.readByte() != 0;
+            case TYPE_STRING:
+                int len = r.readVarInt();
+                String s = new String(r.bytes, r.pos, len, StandardCharsets.UTF_8);
+                r.pos += len;
+                return s;
+            default:
+                throw new IllegalArgumentException("unknown tuple field type: " + type);
+        }
+    }
+
+    private static boolean isFilledWith(int[] array, int value) {
+        for (int i : array) {
+            if (i != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // 可扩容的字节缓冲区，写入varint/定长整数
+    private static final class Writer {
+        private byte[] buf;
+        private int pos = 0;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        void writeByte(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void writeBytes(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
+
+        void writeVarInt(int v) {
+            writeVarLong(v);
+        }
+
+        // zigzag + varint，小的负数也只占用少量字节
+        void writeVarLong(long v) {
+            long z = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((z & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((z & 0x7F) | 0x80);
+                z >>>= 7;
+            }
+            buf[pos++] = (byte) z;
+        }
+
+        void writeFixedInt(int v) {
+            ensure(4);
+            for (int i = 3; i >= 0; i--) {
+                buf[pos++] = (byte) (v >>> (8 * i));
+            }
+        }
+
+        void writeFixedLong(long v) {
+            ensure(8);
+            for (int i = 7; i >= 0; i--) {
+                buf[pos++] = (byte) (v >>> (8 * i));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int pos;
+
+        Reader(byte[] bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+        byte readByte() {
+            return bytes[pos++];
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long z = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                z |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (z >>> 1) ^ -(z & 1);
+        }
+
+        int readFixedInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (bytes[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (bytes[pos++] & 0xFF);
+            }
+            return v;
+        }
+    }
+}
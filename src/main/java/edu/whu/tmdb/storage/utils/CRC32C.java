@@ -0,0 +1,72 @@
+package edu.whu.tmdb.storage.utils;
+
+import java.util.zip.Checksum;
+
+// CRC32C（Castagnoli多项式），用于校验SSTable的各个block
+// java.util.zip.CRC32C需要Java 9，这里按slicing-by-8查表实现，每次处理8个字节
+public class CRC32C implements Checksum {
+
+    // 反转后的Castagnoli多项式
+    private static final int POLY = 0x82F63B78;
+
+    // TABLE[k][b]：字节b之后再跟k个0字节时的CRC
+    private static final int[][] TABLE = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            TABLE[0][n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            int c = TABLE[0][n];
+            for (int k = 1; k < 8; k++) {
+                c = TABLE[0][c & 0xff] ^ (c >>> 8);
+                TABLE[k][n] = c;
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    // 计算b[off, off + len)的CRC32C
+    public static int compute(byte[] b, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        while (len >= 8) {
+            c ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            c = TABLE[7][c & 0xff] ^ TABLE[6][(c >>> 8) & 0xff] ^ TABLE[5][(c >>> 16) & 0xff] ^ TABLE[4][c >>> 24]
+                    ^ TABLE[3][b[off + 4] & 0xff] ^ TABLE[2][b[off + 5] & 0xff]
+                    ^ TABLE[1][b[off + 6] & 0xff] ^ TABLE[0][b[off + 7] & 0xff];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            c = (c >>> 8) ^ TABLE[0][(c ^ b[off++]) & 0xff];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+}
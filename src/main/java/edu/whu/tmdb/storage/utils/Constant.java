@@ -1,37 +1,82 @@
 package edu.whu.tmdb.storage.utils;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 // 定义一些常量和静态方法
 public class Constant {
 
-    // key 作为String允许占用的最大长度16B
+    // key 作为String的标准长度16B，不足的补0；v1格式的SSTable中key定长为该长度，v2格式允许更长的key
     public static final int MAX_KEY_LENGTH = 16;
 
     // memTable最大大小为4MB=4*1024*1024B，超过就会触发compact到外存
     public static final long MAX_MEM_SIZE = 4L * 1024 * 1024;
 
+    // 等待后台flush的不可变memTable最大数量，超过后写入会阻塞直到flush完成
+    public static final int MAX_IMMUTABLE_MEMTABLE_COUNT = 2;
+
+    // 按key分段的写入锁数量（2的幂），同一个key的写入按日志顺序写入memTable
+    public static final int WRITE_LOCK_STRIPES = 256;
+
+    // flush写manifest失败时的重试间隔（毫秒），成功前后续flush不会执行
+    public static final long FLUSH_RETRY_INTERVAL_MS = 1000;
+
     // LSM-Tree文件目录
     public static final String DATABASE_DIR = "data/level/";
 
     // 系统表文件目录
     public static final String SYSTEM_TABLE_DIR = "data/sys/";
 
+    // catalog日志超过该大小且超过系统表快照的总大小时，重写快照并清空日志
+    public static final long CATALOG_LOG_MIN_COMPACT_SIZE = 1L * 1024 * 1024;
+
     // 最大level数
     public static final int MAX_LEVEL = 6;
 
     // level0 允许的最大SSTable数量
     public static final int MAX_LEVEL0_FILE_COUNT = 4;
 
-    // data block大小限制 4KB
+    // level0 的SSTable数量达到此值时，停止前台写入，直到compaction将其降下来
+    public static final int LEVEL0_STOP_WRITES_TRIGGER = 12;
+
+    // 后台compaction线程数
+    public static final int COMPACTION_THREAD_COUNT = 2;
+
+    // data block大小限制 4KB（v2格式的data block写满该大小后结束，不再补齐）
     public static final int MAX_DATA_BLOCK_SIZE = 4 * 1024;
 
+    // data block中重启点的间隔（条数），重启点的记录保存完整key，其余记录只保存与上一条key的非共享部分
+    public static final int DATA_BLOCK_RESTART_INTERVAL = 16;
+
+    // 各level写入SSTable时data block与index block的压缩方式：0为不压缩，1~9为Deflate的压缩级别
+    // level0与level1的SSTable很快会被compaction重写，不压缩以减少写入开销；越深的level数据越冷，压缩率越高
+    public static final int[] LEVEL_COMPRESSION = {0, 0, 1, 1, 6, 6, 9};
+
+    // data cache最多缓存的k-v数量与字节数（不大于0表示不按该项限制），以及分片数（需为2的幂）
+    public static final int DATA_CACHE_MAX_COUNT = 100000;
+    public static final long DATA_CACHE_MAX_BYTES = 0;
+    public static final int DATA_CACHE_SHARD_COUNT = 16;
+
+    // block cache的总容量 32MB，以及分片数（需为2的幂）
+    public static final long BLOCK_CACHE_CAPACITY = 32L * 1024 * 1024;
+    public static final int BLOCK_CACHE_SHARD_COUNT = 16;
+
+    // Bloom filter中每个key占用的位数，10位时期望误判率约1%，每增加约5位误判率降低一个数量级
+    public static final int BLOOM_FILTER_BITS_PER_KEY = 10;
+
+    // table cache（MetaCache）最多同时打开的SSTable数量，超出时按LRU关闭最久未使用的SSTable
+    public static final int TABLE_CACHE_CAPACITY = 1000;
+
+    // level结构的manifest超过该大小时滚动到新的manifest（只包含一条快照记录）
+    public static final long MANIFEST_ROLL_SIZE = 1L * 1024 * 1024;
+
     // 允许各level的总大小 8MB 10MB 100MB 1000MB
     public static final long MAX_LEVEL0_SIZE = 8L * 1024 * 1024;
     public static final long MAX_LEVEL1_SIZE = 10L * 1024 * 1024;
@@ -139,6 +184,29 @@ public class Constant {
     }
 
 
+    // 从channel的offset偏移处读取长度为length的字节流（positional read，不改变channel的当前位置）
+    public static byte[] readBytesFromFile(FileChannel channel, long offset, int length) {
+        byte[] ret = new byte[length];
+        try {
+            readFully(channel, offset, ret);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return ret;
+    }
+
+    // 从channel的offset偏移处读满buffer，文件不够长时抛出EOFException
+    // 不使用也不修改channel的当前位置，多个线程可以并发读同一个channel
+    public static void readFully(FileChannel channel, long offset, byte[] buffer) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        while (bb.hasRemaining()) {
+            int n = channel.read(bb, offset + bb.position());
+            if (n < 0)
+                throw new EOFException("read past end of file at offset " + (offset + bb.position()));
+        }
+    }
+
+
     // 比较array1从array1Start开始，长度为length的数组，是否等于，array2从array2Start开始，长度为length的数组
     public static boolean compareArray(byte[] array1, int array1Start, byte[] array2, int array2Start, int length) {
         if (array1Start < 0 || array2Start < 0 || (array1Start + length) > array1.length || (array2Start + length) > array2.length) {
@@ -1,24 +1,32 @@
 package edu.whu.tmdb.storage.utils;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+// value以字节数组保存，tuple使用TupleCodec的二进制行格式编码
+// 空数组的new V()表示没有找到对应key
 public class V implements Serializable {
 
-    public String valueString = "";
+    public byte[] valueBytes = new byte[0];
 
     public V(){
     }
 
     public V(String str){
-        this.valueString = str;
+        this.valueBytes = str.getBytes(StandardCharsets.UTF_8);
     }
 
     public V(byte[] bytes){
-        this.valueString = new String(bytes);
+        this.valueBytes = bytes;
     }
 
     public byte[] serialize(){
-        return this.valueString.getBytes();
+        return this.valueBytes;
+    }
+
+    public int length(){
+        return this.valueBytes.length;
     }
 
     @Override
@@ -33,13 +41,13 @@ public class V implements Serializable {
             return false;
         }
 
-        // 自定义相等性比较规则: 比较string
-        return this.valueString.equals(((V)obj).valueString);
+        // 自定义相等性比较规则: 比较字节内容
+        return Arrays.equals(this.valueBytes, ((V)obj).valueBytes);
     }
 
     @Override
     public int hashCode(){
-        return this.valueString.hashCode();
+        return Arrays.hashCode(this.valueBytes);
     }
 
 